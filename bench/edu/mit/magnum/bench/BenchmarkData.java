@@ -0,0 +1,189 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.netprop.DenseMatrix;
+
+
+/**
+ * Random input data for the benchmarks: networks of given size and density, gene scores and
+ * gene coordinates for the same gene ids ("G0", "G1", ...), and kernels
+ */
+public class BenchmarkData {
+
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Magnum instance with default settings for benchmarks (custom gene ids, nothing exported) */
+	static public Magnum newMagnum(File dir) {
+		
+		Magnum mag = new Magnum();
+		mag.set.resetToDefaults();
+		mag.set.outputDirectory_ = dir;
+		mag.set.exportNodeProperties_ = false;
+		mag.set.exportPairwiseNodeProperties_ = false;
+		mag.set.superHubThreshold_ = 0;
+		mag.set.idTypeFunctionalData_ = "custom";
+		mag.set.idTypeGeneScores_ = "custom";
+		mag.set.excludeGenomeWideSignificantGenes_ = false;
+		mag.set.excludeXYChromosomes_ = false;
+		mag.set.excludedGenesDistance_ = -1;
+		mag.set.setRandomSeed(42);
+		return mag;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Create a temporary directory for the input files (deleted on exit) */
+	static public File createTempDir() {
+		
+		try {
+			File dir = File.createTempFile("magnum_bench", "");
+			dir.delete();
+			dir.mkdirs();
+			dir.deleteOnExit();
+			return dir;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The gene id of node i */
+	static public String geneId(int i) {
+		return "G" + i;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write a random network (uniformly drawn edges without self-loops and multi-edges, weights in (0,1] if weighted) */
+	static public File writeNetwork(File dir, int numNodes, double avgDegree, boolean weighted, long seed) throws IOException {
+		
+		Random rand = new Random(seed);
+		long numEdges = Math.min(Math.round(numNodes*avgDegree/2), (long) numNodes*(numNodes-1)/2);
+		HashSet<Long> edges = new HashSet<Long>();
+		
+		File file = deleteOnExit(new File(dir, "network_" + numNodes + "_" + avgDegree + (weighted ? "_weighted" : "") + ".txt"));
+		BufferedWriter writer = openWriter(file);
+		while (edges.size() < numEdges) {
+			int i = rand.nextInt(numNodes);
+			int j = rand.nextInt(numNodes);
+			if (i == j || !edges.add((long) Math.min(i, j) * numNodes + Math.max(i, j)))
+				continue;
+			writer.write(geneId(i) + "\t" + geneId(j));
+			if (weighted)
+				writer.write("\t" + (1 - rand.nextDouble()));
+			writer.write("\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write gene scores (uniform p-values) for genes 0..numGenes-1 */
+	static public File writeGeneScores(File dir, int numGenes, long seed) throws IOException {
+		
+		Random rand = new Random(seed);
+		File file = deleteOnExit(new File(dir, "genescores_" + numGenes + ".txt"));
+		BufferedWriter writer = openWriter(file);
+		writer.write("gene_id\tpvalue\n");
+		for (int i=0; i<numGenes; i++)
+			writer.write(geneId(i) + "\t" + rand.nextDouble() + "\n");
+		writer.close();
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write gene coordinates (BED) for genes 0..numGenes-1, 1kb genes at random positions on chr1-22 */
+	static public File writeGeneCoords(File dir, int numGenes, long seed) throws IOException {
+		
+		Random rand = new Random(seed);
+		File file = deleteOnExit(new File(dir, "genecoords_" + numGenes + ".bed"));
+		BufferedWriter writer = openWriter(file);
+		for (int i=0; i<numGenes; i++) {
+			int start = rand.nextInt(200000000);
+			writer.write("chr" + (1 + rand.nextInt(22)) + "\t" + start + "\t" + (start + 1000) + "\t" + geneId(i) + "\t0\t+\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Random symmetric matrix with elements in [0,1) */
+	static public DenseMatrix randomKernel(int n, long seed) {
+		
+		Random rand = new Random(seed);
+		DenseMatrix K = new DenseMatrix(n, n);
+		double[] elements = K.elements();
+		for (int i=0; i<n; i++) {
+			for (int j=0; j<=i; j++) {
+				double x = rand.nextDouble();
+				elements[i*n + j] = x;
+				elements[j*n + i] = x;
+			}
+		}
+		return K;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Open a writer for the given file */
+	private static BufferedWriter openWriter(File file) throws IOException {
+		
+		return new BufferedWriter(new FileWriter(file), 1 << 16);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Mark the file for deletion on exit */
+	private static File deleteOnExit(File file) {
+		
+		file.deleteOnExit();
+		return file;
+	}
+	
+}
@@ -0,0 +1,175 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+
+/**
+ * Measures peak heap usage and allocated bytes (of all threads) between start() and stop(). Allocated
+ * bytes are the heap growth plus the bytes freed by each garbage collection (from GC notifications).
+ */
+public class HeapMonitor {
+
+	/** The heap memory pools */
+	private ArrayList<MemoryPoolMXBean> heapPools_ = null;
+	/** The names of the heap memory pools */
+	private HashSet<String> heapPoolNames_ = null;
+	/** The garbage collectors that send notifications */
+	private ArrayList<NotificationEmitter> emitters_ = null;
+	/** Listener for GC notifications */
+	private NotificationListener listener_ = null;
+	
+	/** Bytes freed by garbage collections since start() */
+	private AtomicLong freedBytes_ = new AtomicLong();
+	/** Heap usage at start() */
+	private long startUsed_ = 0;
+	
+	/** Peak heap usage between start() and stop() */
+	private long peakHeap_ = -1;
+	/** Allocated bytes between start() and stop() */
+	private long allocatedBytes_ = -1;
+
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor */
+	public HeapMonitor() {
+		
+		heapPools_ = new ArrayList<MemoryPoolMXBean>();
+		heapPoolNames_ = new HashSet<String>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				heapPools_.add(pool);
+				heapPoolNames_.add(pool.getName());
+			}
+		}
+		
+		emitters_ = new ArrayList<NotificationEmitter>();
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			if (gc instanceof NotificationEmitter)
+				emitters_.add((NotificationEmitter) gc);
+		
+		listener_ = new NotificationListener() {
+			public void handleNotification(Notification notification, Object handback) {
+				if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+					return;
+				GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+				long before = heapUsed(info.getGcInfo().getMemoryUsageBeforeGc());
+				long after = heapUsed(info.getGcInfo().getMemoryUsageAfterGc());
+				freedBytes_.addAndGet(before - after);
+			}
+		};
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Start measuring */
+	public void start() {
+		
+		for (MemoryPoolMXBean pool : heapPools_)
+			pool.resetPeakUsage();
+		freedBytes_.set(0);
+		for (NotificationEmitter emitter : emitters_)
+			emitter.addNotificationListener(listener_, null, null);
+		startUsed_ = heapUsed();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Stop measuring */
+	public void stop() {
+		
+		long endUsed = heapUsed();
+		for (NotificationEmitter emitter : emitters_) {
+			try {
+				emitter.removeNotificationListener(listener_);
+			} catch (ListenerNotFoundException e) {
+				// Not registered
+			}
+		}
+		
+		allocatedBytes_ = endUsed - startUsed_ + freedBytes_.get();
+		peakHeap_ = 0;
+		for (MemoryPoolMXBean pool : heapPools_)
+			peakHeap_ += pool.getPeakUsage().getUsed();
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Current heap usage */
+	private long heapUsed() {
+		
+		long used = 0;
+		for (MemoryPoolMXBean pool : heapPools_)
+			used += pool.getUsage().getUsed();
+		return used;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Heap usage of the given pools */
+	private long heapUsed(Map<String, MemoryUsage> usage) {
+		
+		long used = 0;
+		for (Map.Entry<String, MemoryUsage> entry : usage.entrySet())
+			if (heapPoolNames_.contains(entry.getKey()))
+				used += entry.getValue().getUsed();
+		return used;
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	/** Peak heap usage in bytes (sum of the peaks of the heap pools) */
+	public long getPeakHeap() { return peakHeap_; }
+	/** Allocated bytes (approximate, GC notifications are asynchronous) */
+	public long getAllocatedBytes() { return allocatedBytes_; }
+	
+}
@@ -0,0 +1,291 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+import edu.mit.magnum.Magnum;
+
+
+/**
+ * End-to-end benchmark: runs modes 1 (network properties), 2 (network union) and 3 (enrichment) through
+ * Magnum.run() on synthetic inputs of increasing size and reports time, peak heap and allocation rate
+ * per run. The scaling exponent log(t2/t1)/log(n2/n1) relative to the previous size flags superlinear
+ * behavior. The same metrics are reported per phase from the PhaseRecorder of each run (totals over the
+ * phases with the same name, nested phases are included in the enclosing ones, allocation is counted
+ * for the thread that started the phase only).
+ * 
+ * Usage: ScalingBenchmark [-sizes 1000,2000,4000] [-modes 1,2,3] [-edgesPerNode 10] [-permutations 1000] [-hierarchical]
+ */
+public class ScalingBenchmark {
+
+	/** Network sizes */
+	private int[] sizes_ = { 1000, 2000, 4000 };
+	/** Modes that are run */
+	private int[] modes_ = { 1, 2, 3 };
+	/** Average number of edges per node (scale-free networks) */
+	private int edgesPerNode_ = 10;
+	/** Number of permutations for enrichment analysis */
+	private int numPermutations_ = 1000;
+	/** Use hierarchical instead of scale-free networks (sizes are rounded to powers of 5) */
+	private boolean hierarchical_ = false;
+	
+	/** Results: mode, numNodes, numEdges, time (ms), peak heap (bytes), allocated bytes */
+	private ArrayList<long[]> results_ = new ArrayList<long[]>();
+	/** Phase results: mode, numNodes, numEdges and the phase totals of the run (see PhaseRecorder.getTotals()) */
+	private ArrayList<long[]> phaseResults_ = new ArrayList<long[]>();
+	/** The phase names of phaseResults_ */
+	private ArrayList<String> phaseNames_ = new ArrayList<String>();
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Main */
+	public static void main(String[] args) throws IOException {
+		
+		ScalingBenchmark benchmark = new ScalingBenchmark();
+		benchmark.parse(args);
+		benchmark.run();
+		benchmark.printReport();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Generate the inputs and run the modes for each size */
+	public void run() throws IOException {
+		
+		for (int size : sizes_) {
+			File dir = File.createTempFile("magnum_scaling", "");
+			dir.delete();
+			dir.mkdirs();
+			
+			try {
+				WorkloadGenerator generator = new WorkloadGenerator(dir, size);
+				WorkloadGenerator.Graph graph;
+				if (hierarchical_)
+					graph = generator.hierarchicalNetwork(Math.max(0, (int) Math.round(Math.log(size)/Math.log(5)) - 1));
+				else
+					graph = generator.scaleFreeNetwork(size, edgesPerNode_*size);
+
+				for (int mode : modes_) {
+					Magnum mag = new Magnum();
+					mag.set.mode_ = mode;
+					mag.set.isWeighted_ = true;
+					mag.set.outputDirectory_ = new File(dir, "output_mode" + mode);
+					
+					if (mode == 1)
+						initializeNetworkAnalysis(mag, generator, graph);
+					else if (mode == 2)
+						initializeNetworkUnion(mag, generator, graph);
+					else if (mode == 3)
+						initializeEnrichment(mag, generator, graph);
+					else
+						throw new IllegalArgumentException("Invalid mode: " + mode);
+					
+					System.gc();
+					HeapMonitor monitor = new HeapMonitor();
+					monitor.start();
+					long t0 = System.nanoTime();
+					mag.run();
+					long t1 = System.nanoTime();
+					monitor.stop();
+					
+					results_.add(new long[] { mode, graph.numNodes_, graph.numEdges_, (t1 - t0) / 1000000, monitor.getPeakHeap(), monitor.getAllocatedBytes() });
+					
+					// count, wall time, thread cpu, process cpu, allocated bytes, peak heap
+					LinkedHashMap<String, long[]> totals = mag.phases.getTotals();
+					for (String name : totals.keySet()) {
+						long[] total = totals.get(name);
+						phaseResults_.add(new long[] { mode, graph.numNodes_, graph.numEdges_, total[0], total[1], total[4], total[5] });
+						phaseNames_.add(name);
+					}
+				}
+			} finally {
+				delete(dir);
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Print the results (by mode and size) */
+	public void printReport() {
+		
+		System.out.println();
+		System.out.println("mode\tnodes\tedges\ttime_s\tscaling_exp\tpeak_heap_mb\tallocated_mb\talloc_rate_mb_s");
+		for (int mode : modes_) {
+			long[] previous = null;
+			for (long[] r : results_) {
+				if (r[0] != mode)
+					continue;
+				String exponent = "NA";
+				if (previous != null && previous[3] > 0 && r[1] != previous[1])
+					exponent = format(Math.log(r[3] / (double) previous[3]) / Math.log(r[1] / (double) previous[1]));
+				double seconds = r[3] / 1000.0;
+				double allocatedMB = r[5] / (1024.0*1024);
+				System.out.println(r[0] + "\t" + r[1] + "\t" + r[2] + "\t" + format(seconds) + "\t" + exponent
+						+ "\t" + format(r[4] / (1024.0*1024)) + "\t" + format(allocatedMB) + "\t" + (seconds > 0 ? format(allocatedMB / seconds) : "NA"));
+				previous = r;
+			}
+		}
+		
+		System.out.println();
+		System.out.println("mode\tnodes\tedges\tphase\tcount\ttime_s\tpeak_heap_mb\tallocated_mb\talloc_rate_mb_s");
+		for (int mode : modes_) {
+			for (int i=0; i<phaseResults_.size(); i++) {
+				long[] r = phaseResults_.get(i);
+				if (r[0] != mode)
+					continue;
+				double seconds = r[4] / 1e9;
+				String allocatedMB = "NA";
+				String rate = "NA";
+				// Allocation is not supported by all JVMs
+				if (r[5] >= 0) {
+					allocatedMB = format(r[5] / (1024.0*1024));
+					if (seconds > 0)
+						rate = format(r[5] / (1024.0*1024) / seconds);
+				}
+				System.out.println(r[0] + "\t" + r[1] + "\t" + r[2] + "\t" + phaseNames_.get(i) + "\t" + r[3] + "\t" + format(seconds)
+						+ "\t" + format(r[6] / (1024.0*1024)) + "\t" + allocatedMB + "\t" + rate);
+			}
+		}
+	}
+	
+
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Parse the command-line arguments */
+	private void parse(String[] args) {
+		
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-sizes"))
+				sizes_ = parseIntList(args[++i]);
+			else if (args[i].equals("-modes"))
+				modes_ = parseIntList(args[++i]);
+			else if (args[i].equals("-edgesPerNode"))
+				edgesPerNode_ = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-permutations"))
+				numPermutations_ = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-hierarchical"))
+				hierarchical_ = true;
+			else
+				throw new IllegalArgumentException("Invalid argument: " + args[i]);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Mode 1: degree, clustering coefficient, shortest paths and 4-step kernel */
+	private void initializeNetworkAnalysis(Magnum mag, WorkloadGenerator generator, WorkloadGenerator.Graph graph) throws IOException {
+		
+		mag.set.networkFile_ = generator.writeNetwork(graph, "network", true, false, 1);
+		mag.set.computeDegree_ = true;
+		mag.set.computeClusteringCoefficient_ = true;
+		mag.set.computeShortestPathLengths_ = true;
+		mag.set.computePstepKernel_ = true;
+		mag.set.pstepKernelP_ = new ArrayList<Integer>();
+		mag.set.pstepKernelP_.add(4);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Mode 2: union of three directed networks, each with half of the edges */
+	private void initializeNetworkUnion(Magnum mag, WorkloadGenerator generator, WorkloadGenerator.Graph graph) throws IOException {
+		
+		File networkDir = new File(generator.getDir(), "networks");
+		networkDir.mkdirs();
+		for (int i=1; i<=3; i++)
+			generator.writeNetwork(graph, "networks/network" + i, true, true, 0.5);
+		
+		mag.set.networkDir_ = networkDir;
+		mag.set.computeUnion_ = true;
+		mag.set.isDirected_ = true;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Mode 3: enrichment for a 4-step kernel, gene scores with a planted module, excluded gene pairs */
+	private void initializeEnrichment(Magnum mag, WorkloadGenerator generator, WorkloadGenerator.Graph graph) throws IOException {
+		
+		int numGenes = graph.numNodes_ + graph.numNodes_/10;
+		mag.set.networkFile_ = generator.writeNetwork(graph, "network", true, false, 1);
+		mag.set.geneScoreFile_ = generator.writeGeneScores(graph, graph.numNodes_/10, Math.max(10, graph.numNodes_/100), 4);
+		mag.set.geneCoordFile_ = generator.writeGeneCoords(numGenes);
+		mag.set.excludedGenePairsFile_ = generator.writeExcludedGenePairs(1000000);
+		mag.set.idTypeFunctionalData_ = "custom";
+		mag.set.idTypeGeneScores_ = "custom";
+		mag.set.numPermutations_ = numPermutations_;
+		mag.set.pstepKernelP_ = new ArrayList<Integer>();
+		mag.set.pstepKernelP_.add(4);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Parse a comma-separated list of integers */
+	private static int[] parseIntList(String str) {
+		
+		String[] tokens = str.split(",");
+		int[] values = new int[tokens.length];
+		for (int i=0; i<tokens.length; i++)
+			values[i] = Integer.parseInt(tokens[i].trim());
+		return values;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Format with two decimals */
+	private static String format(double x) {
+		
+		return String.format(Locale.US, "%.2f", x);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Delete the given file or directory */
+	private static void delete(File file) {
+		
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File f : files)
+				delete(f);
+		file.delete();
+	}
+	
+}
@@ -0,0 +1,341 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+
+
+/**
+ * Generates realistic synthetic inputs for end-to-end benchmarks: scale-free (Barabasi-Albert) or
+ * hierarchical (Ravasz-Barabasi) networks, gene scores with a planted connected module of low 
+ * p-values, gene coordinates (BED) and excluded gene pairs (genes that are close on the genome).
+ * Gene ids are given by BenchmarkData.geneId().
+ */
+public class WorkloadGenerator {
+
+	/** An undirected graph given as edge list */
+	static public class Graph {
+		/** The number of nodes */
+		public int numNodes_ = 0;
+		/** The number of edges */
+		public int numEdges_ = 0;
+		/** First node of each edge */
+		public int[] from_ = null;
+		/** Second node of each edge */
+		public int[] to_ = null;
+		
+		/** Constructor */
+		Graph(int numNodes, int maxNumEdges) {
+			numNodes_ = numNodes;
+			from_ = new int[maxNumEdges];
+			to_ = new int[maxNumEdges];
+		}
+		/** Add an edge */
+		void addEdge(int i, int j) {
+			if (numEdges_ == from_.length) {
+				from_ = grow(from_);
+				to_ = grow(to_);
+			}
+			from_[numEdges_] = i;
+			to_[numEdges_] = j;
+			numEdges_++;
+		}
+		/** Array of twice the size with the same elements */
+		private static int[] grow(int[] array) {
+			int[] grown = new int[2*array.length + 1];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+		/** Adjacency lists */
+		int[][] getNeighbors() {
+			int[] degree = new int[numNodes_];
+			for (int e=0; e<numEdges_; e++) {
+				degree[from_[e]]++;
+				degree[to_[e]]++;
+			}
+			int[][] neighbors = new int[numNodes_][];
+			for (int i=0; i<numNodes_; i++)
+				neighbors[i] = new int[degree[i]];
+			Arrays.fill(degree, 0);
+			for (int e=0; e<numEdges_; e++) {
+				neighbors[from_[e]][degree[from_[e]]++] = to_[e];
+				neighbors[to_[e]][degree[to_[e]]++] = from_[e];
+			}
+			return neighbors;
+		}
+	}
+	
+	/** The directory where files are written */
+	private File dir_ = null;
+	/** The random number generator */
+	private Random rand_ = null;
+	
+	/** Chromosome of each gene (set by writeGeneCoords()) */
+	private int[] geneChr_ = null;
+	/** Start position of each gene (set by writeGeneCoords()) */
+	private int[] geneStart_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor */
+	public WorkloadGenerator(File dir, long seed) {
+		
+		dir_ = dir;
+		rand_ = new Random(seed);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Scale-free network by preferential attachment (Barabasi-Albert). Starts from a clique of m+1
+	 * nodes, each new node is attached to m = numEdges/numNodes distinct existing nodes.
+	 */
+	public Graph scaleFreeNetwork(int numNodes, int numEdges) {
+		
+		int m = Math.max(1, Math.round(numEdges / (float) numNodes));
+		if (numNodes <= m)
+			throw new IllegalArgumentException("Number of nodes must be greater than the number of edges per node (" + m + ")");
+		Graph graph = new Graph(numNodes, m*numNodes);
+		
+		// Each node appears once per incident edge, sampling from it is proportional to the degree
+		int[] endpoints = new int[2*m*numNodes + m*(m+1)];
+		int numEndpoints = 0;
+		for (int i=0; i<=m; i++) {
+			for (int j=0; j<i; j++) {
+				graph.addEdge(i, j);
+				endpoints[numEndpoints++] = i;
+				endpoints[numEndpoints++] = j;
+			}
+		}
+		
+		HashSet<Integer> targets = new HashSet<Integer>();
+		for (int i=m+1; i<numNodes; i++) {
+			targets.clear();
+			while (targets.size() < m)
+				targets.add(endpoints[rand_.nextInt(numEndpoints)]);
+			for (int j : targets) {
+				graph.addEdge(i, j);
+				endpoints[numEndpoints++] = i;
+				endpoints[numEndpoints++] = j;
+			}
+		}
+		return graph;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Hierarchical scale-free network (Ravasz & Barabasi, 2003) with 5^(numLevels+1) nodes. Level 0 is a 
+	 * clique of 5 nodes, each level adds four copies of the previous level and connects their 
+	 * peripheral nodes to the central node 0.
+	 */
+	public Graph hierarchicalNetwork(int numLevels) {
+		
+		int numNodes = 5;
+		for (int l=0; l<numLevels; l++)
+			numNodes *= 5;
+		Graph graph = new Graph(numNodes, 4*numNodes);
+
+		// Level 0
+		for (int i=0; i<5; i++)
+			for (int j=0; j<i; j++)
+				graph.addEdge(i, j);
+		int[] peripheral = { 1, 2, 3, 4 };
+		
+		int size = 5;
+		for (int l=1; l<=numLevels; l++) {
+			int numEdges = graph.numEdges_;
+			int[] newPeripheral = new int[4*peripheral.length];
+			for (int c=1; c<=4; c++) {
+				int offset = c*size;
+				for (int e=0; e<numEdges; e++)
+					graph.addEdge(graph.from_[e] + offset, graph.to_[e] + offset);
+				for (int k=0; k<peripheral.length; k++) {
+					int node = peripheral[k] + offset;
+					newPeripheral[(c-1)*peripheral.length + k] = node;
+					graph.addEdge(node, 0);
+				}
+			}
+			peripheral = newPeripheral;
+			size *= 5;
+		}
+		return graph;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Write the network (fraction of the edges drawn at random). If weighted, weights are drawn 
+	 * uniformly in (0,1]. If directed, the edge direction is random.
+	 */
+	public File writeNetwork(Graph graph, String name, boolean weighted, boolean directed, double edgeFraction) throws IOException {
+		
+		File file = new File(dir_, name + ".txt");
+		BufferedWriter writer = openWriter(file);
+		for (int e=0; e<graph.numEdges_; e++) {
+			if (edgeFraction < 1 && rand_.nextDouble() >= edgeFraction)
+				continue;
+			boolean flip = directed && rand_.nextBoolean();
+			writer.write(BenchmarkData.geneId(flip ? graph.to_[e] : graph.from_[e]) + "\t" + BenchmarkData.geneId(flip ? graph.from_[e] : graph.to_[e]));
+			if (weighted)
+				writer.write("\t" + (1 - rand_.nextDouble()));
+			writer.write("\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Write gene scores for the nodes of the graph and numExtraGenes genes that are not in the graph.
+	 * The genes of a connected module of moduleSize nodes (breadth-first search from a random node) 
+	 * have p-values u^(1+signal) with u uniform in [0,1), the other genes uniform p-values.
+	 */
+	public File writeGeneScores(Graph graph, int numExtraGenes, int moduleSize, double signal) throws IOException {
+		
+		boolean[] inModule = new boolean[graph.numNodes_];
+		int[][] neighbors = graph.getNeighbors();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		int numInModule = 0;
+		while (numInModule < Math.min(moduleSize, graph.numNodes_)) {
+			if (queue.isEmpty()) {
+				// Start (again, if the component was too small) from a random node
+				int seed = rand_.nextInt(graph.numNodes_);
+				if (inModule[seed])
+					continue;
+				inModule[seed] = true;
+				numInModule++;
+				queue.add(seed);
+			}
+			int node = queue.removeFirst();
+			for (int j : neighbors[node]) {
+				if (!inModule[j] && numInModule < moduleSize) {
+					inModule[j] = true;
+					numInModule++;
+					queue.add(j);
+				}
+			}
+		}
+		
+		File file = new File(dir_, "genescores.txt");
+		BufferedWriter writer = openWriter(file);
+		writer.write("gene_id\tpvalue\n");
+		for (int i=0; i<graph.numNodes_ + numExtraGenes; i++) {
+			double u = rand_.nextDouble();
+			double pval = (i < graph.numNodes_ && inModule[i]) ? Math.pow(u, 1 + signal) : u;
+			writer.write(BenchmarkData.geneId(i) + "\t" + pval + "\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write gene coordinates (BED) for genes 0..numGenes-1, 10-100kb genes at random positions on chr1-22 */
+	public File writeGeneCoords(int numGenes) throws IOException {
+		
+		geneChr_ = new int[numGenes];
+		geneStart_ = new int[numGenes];
+		
+		File file = new File(dir_, "genecoords.bed");
+		BufferedWriter writer = openWriter(file);
+		for (int i=0; i<numGenes; i++) {
+			geneChr_[i] = 1 + rand_.nextInt(22);
+			geneStart_[i] = rand_.nextInt(200000000);
+			int end = geneStart_[i] + 10000 + rand_.nextInt(90000);
+			writer.write("chr" + geneChr_[i] + "\t" + geneStart_[i] + "\t" + end + "\t" + BenchmarkData.geneId(i) + "\t0\t" + (rand_.nextBoolean() ? "+" : "-") + "\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write the pairs of consecutive genes less than maxDistance apart on the same chromosome (after writeGeneCoords()) */
+	public File writeExcludedGenePairs(int maxDistance) throws IOException {
+		
+		if (geneStart_ == null)
+			throw new IllegalStateException("Gene coordinates must be written first");
+		
+		// Genes ordered by position
+		Integer[] order = new Integer[geneStart_.length];
+		for (int i=0; i<order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				if (geneChr_[i] != geneChr_[j])
+					return geneChr_[i] < geneChr_[j] ? -1 : 1;
+				return geneStart_[i] < geneStart_[j] ? -1 : (geneStart_[i] == geneStart_[j] ? 0 : 1);
+			}
+		});
+		
+		File file = new File(dir_, "excluded_gene_pairs.txt");
+		BufferedWriter writer = openWriter(file);
+		writer.write("gene1_id\tgene2_id\n");
+		for (int k=1; k<order.length; k++) {
+			int i = order[k-1];
+			int j = order[k];
+			if (geneChr_[i] == geneChr_[j] && geneStart_[j] - geneStart_[i] < maxDistance)
+				writer.write(BenchmarkData.geneId(i) + "\t" + BenchmarkData.geneId(j) + "\n");
+		}
+		writer.close();
+		return file;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Open a writer for the given file */
+	private static BufferedWriter openWriter(File file) throws IOException {
+		
+		return new BufferedWriter(new FileWriter(file), 1 << 16);
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public File getDir() { return dir_; }
+	
+}
@@ -0,0 +1,122 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.enrich;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.bench.BenchmarkData;
+import edu.mit.magnum.net.Network;
+import edu.mit.magnum.netprop.DenseMatrix;
+
+
+/**
+ * Benchmarks for the computation of enrichment curves (random kernel, gene scores for all genes)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class EnrichmentBenchmark {
+
+	/** Number of genes (nodes of the network, rows / columns of the kernel) */
+	@Param({ "1000", "5000" })
+	public int numGenes;
+	/** Number of bins for within-degree permutation */
+	@Param({ "10" })
+	public int numBins;
+	
+	/** The label permuter */
+	private LabelPermuter permuter_ = null;
+	/** The enrichment */
+	private EnrichmentPairwise enrichment_ = null;
+
+	
+	// ============================================================================
+	// SETUP
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		
+		File dir = BenchmarkData.createTempDir();
+		Magnum mag = BenchmarkData.newMagnum(dir);
+		mag.set.numBins_ = numBins;
+		mag.set.geneCoordFile_ = BenchmarkData.writeGeneCoords(dir, numGenes, 1);
+		
+		Network network = new Network(mag, BenchmarkData.writeNetwork(dir, numGenes, 10, false, 1), false, true);
+		DenseMatrix kernel = BenchmarkData.randomKernel(network.getNumNodes(), 1);
+		
+		GeneScoreList geneScores = new GeneScoreList(mag, BenchmarkData.writeGeneScores(dir, numGenes, 1), null);
+		FunctionalData functData = new FunctionalData(mag, network, kernel, null, geneScores.getGenes());
+		geneScores.intersect(functData.getGenes().keySet());
+		
+		permuter_ = new LabelPermuter(mag, functData, geneScores.getGenes(), numBins);
+		enrichment_ = new EnrichmentPairwise(mag, functData, geneScores, permuter_);
+	}
+
+	
+	// ============================================================================
+	// BENCHMARKS
+
+	/** Walk down the ranked gene list calling updateRunningSum() (one enrichment curve without the points) */
+	@Benchmark
+	public double updateRunningSum() {
+		
+		enrichment_.reset();
+		for (enrichment_.currentK_=0; enrichment_.currentK_<enrichment_.numGenes_; enrichment_.currentK_++)
+			enrichment_.updateRunningSum();
+		return enrichment_.runningSum_;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Permute the labels within bins */
+	@Benchmark
+	public LabelPermuter shuffle() {
+		
+		permuter_.shuffle();
+		return permuter_;
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.enrich;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.bench.BenchmarkData;
+
+
+/**
+ * Benchmarks for the empirical p-values (random permuted curves)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class PvalueBenchmark {
+
+	/** Number of permuted curves */
+	@Param({ "1000", "10000" })
+	public int numPermutations;
+	/** Number of points per curve */
+	@Param({ "100" })
+	public int numPoints;
+	
+	/** The magnum instance */
+	private Magnum mag_ = null;
+	/** The permuted curves */
+	private ArrayList<Curve> curves_ = null;
+	/** The positions of the points (k) */
+	private ArrayList<Integer> k_ = null;
+	/** The percentiles of the first point */
+	private Percentile percentile_ = null;
+	/** Observed values for which p-values are computed */
+	private double[] x_ = null;
+
+	
+	// ============================================================================
+	// SETUP
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		
+		mag_ = BenchmarkData.newMagnum(BenchmarkData.createTempDir());
+		Random rand = new Random(1);
+		
+		curves_ = new ArrayList<Curve>(numPermutations);
+		for (int i=0; i<numPermutations; i++) {
+			Curve curve = new Curve(numPoints);
+			for (int p=0; p<numPoints; p++)
+				curve.addPoint(rand.nextGaussian());
+			curves_.add(curve);
+		}
+		k_ = new ArrayList<Integer>(numPoints);
+		for (int p=0; p<numPoints; p++)
+			k_.add(10*p);
+		
+		percentile_ = new Percentile();
+		for (Curve curve : curves_)
+			percentile_.addPoint(curve.getPoint(0));
+		x_ = new double[64];
+		for (int i=0; i<x_.length; i++)
+			x_[i] = rand.nextGaussian();
+	}
+
+	
+	// ============================================================================
+	// BENCHMARKS
+
+	/** P-values of 64 observed values for one point */
+	@Benchmark
+	public void pValue(Blackhole blackhole) {
+		
+		for (int i=0; i<x_.length; i++)
+			blackhole.consume(percentile_.pValue(x_[i]));
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Construction of the percentiles for all points */
+	@Benchmark
+	public EmpiricalPvals empiricalPvals() {
+		
+		return new EmpiricalPvals(mag_, curves_, k_);
+	}
+
+}
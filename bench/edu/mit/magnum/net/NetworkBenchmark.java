@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.bench.BenchmarkData;
+
+
+/**
+ * Benchmark for loading networks (parsing the file and building the graph with loadGraph())
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class NetworkBenchmark {
+
+	/** Number of nodes */
+	@Param({ "10000", "50000" })
+	public int numNodes;
+	/** Average node degree */
+	@Param({ "10", "50" })
+	public double avgDegree;
+	/** Weighted edges */
+	@Param({ "false", "true" })
+	public boolean weighted;
+	
+	/** The magnum instance */
+	private Magnum mag_ = null;
+	/** The network file */
+	private File file_ = null;
+
+	
+	// ============================================================================
+	// SETUP
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		
+		File dir = BenchmarkData.createTempDir();
+		mag_ = BenchmarkData.newMagnum(dir);
+		file_ = BenchmarkData.writeNetwork(dir, numNodes, avgDegree, weighted, 1);
+	}
+
+	
+	// ============================================================================
+	// BENCHMARKS
+
+	/** Load the network */
+	@Benchmark
+	public Network load() {
+		
+		return new Network(mag_, file_, false, true, weighted, 0);
+	}
+
+}
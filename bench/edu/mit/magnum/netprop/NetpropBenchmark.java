@@ -0,0 +1,157 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.bench.BenchmarkData;
+import edu.mit.magnum.net.Network;
+
+
+/**
+ * Benchmarks for the network properties (random networks of given size and density)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class NetpropBenchmark {
+
+	/** Number of nodes */
+	@Param({ "1000", "4000" })
+	public int numNodes;
+	/** Average node degree */
+	@Param({ "5", "20" })
+	public double avgDegree;
+	/** Number of steps of the p-step kernel */
+	@Param({ "2" })
+	public int numSteps;
+	
+	/** The magnum instance */
+	private Magnum mag_ = null;
+	/** The undirected network */
+	private Network network_ = null;
+	/** The same network loaded as directed network */
+	private Network directedNetwork_ = null;
+
+	
+	// ============================================================================
+	// SETUP
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		
+		File dir = BenchmarkData.createTempDir();
+		mag_ = BenchmarkData.newMagnum(dir);
+		File file = BenchmarkData.writeNetwork(dir, numNodes, avgDegree, false, 1);
+		network_ = new Network(mag_, file, false, true);
+		directedNetwork_ = new Network(mag_, file, true, true);
+	}
+
+	
+	// ============================================================================
+	// BENCHMARKS
+
+	/** P-step kernel: normalized Laplacian and numSteps sparse x dense multiplications */
+	@Benchmark
+	public DoubleMatrix2D pstepKernel() {
+		
+		ArrayList<Integer> p = new ArrayList<Integer>();
+		p.add(numSteps);
+		PstepKernel kernel = new PstepKernel(mag_, network_, 2, p, true, false);
+		kernel.computeK();
+		return kernel.getK();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** All pairs shortest paths */
+	@Benchmark
+	public DoubleMatrix2D shortestPaths() {
+		
+		ShortestPaths shortestPaths = new ShortestPaths(mag_, network_, false);
+		shortestPaths.computeK();
+		return shortestPaths.getK();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Pairwise Tanimoto coefficients of the targets (computeTanimoto() for all pairs) */
+	@Benchmark
+	public DoubleMatrix2D tanimoto() {
+		
+		TanimotoCoefficient tanimoto = new TanimotoCoefficient(mag_, directedNetwork_, true, false);
+		tanimoto.computeK();
+		return tanimoto.getK();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Clustering coefficients */
+	@Benchmark
+	public Double[] clusteringCoefficient() {
+		
+		BasicProperties properties = new BasicProperties(mag_, network_);
+		properties.computeClusteringCoefficient();
+		return properties.getClusteringCoeff();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Betweenness centrality */
+	@Benchmark
+	public Double[] betweenness() {
+		
+		BasicProperties properties = new BasicProperties(mag_, network_);
+		properties.computeBetweenness();
+		return properties.getBetweenness();
+	}
+
+}
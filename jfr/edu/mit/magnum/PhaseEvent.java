@@ -0,0 +1,97 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * JFR event for a phase recorded by PhaseRecorder. This class is in the optional jfr source root
+ * (requires Java 11+), PhaseRecorder loads it by reflection if it is on the classpath.
+ * Record with e.g.: java -XX:StartFlightRecording=filename=magnum.jfr ...
+ */
+@Name("edu.mit.magnum.Phase")
+@Label("Magnum Phase")
+@Category("Magnum")
+@Description("A named phase of a Magnum run")
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+	/** Name of the phase */
+	@Label("Phase")
+	public String phase;
+	/** Nesting depth */
+	@Label("Depth")
+	public int depth;
+	/** CPU time of the thread that ran the phase */
+	@Label("Thread CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	public long threadCpuTime;
+	/** Bytes allocated by the thread that ran the phase */
+	@Label("Allocated")
+	@DataAmount(DataAmount.BYTES)
+	public long allocated;
+	/** Peak heap usage of the process during the phase */
+	@Label("Peak Heap")
+	@DataAmount(DataAmount.BYTES)
+	public long peakHeap;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Create and begin an event (returned as Object so that callers don't depend on JFR) */
+	static public Object create() {
+		
+		PhaseEvent event = new PhaseEvent();
+		event.begin();
+		return event;
+	}
+
+	
+	/** Set the fields and commit the event */
+	static public void commit(Object obj, String phase, int depth, long threadCpuTime, long allocated, long peakHeap) {
+		
+		PhaseEvent event = (PhaseEvent) obj;
+		event.end();
+		if (event.shouldCommit()) {
+			event.phase = phase;
+			event.depth = depth;
+			event.threadCpuTime = threadCpuTime;
+			event.allocated = allocated;
+			event.peakHeap = peakHeap;
+			event.commit();
+		}
+	}
+	
+}
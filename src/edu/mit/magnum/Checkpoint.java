@@ -0,0 +1,298 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * Checkpoint of a long computation (kernel steps, permutations) in a binary file, so that a job that
+ * is interrupted can continue where it stopped. The file is identified by a key that includes all
+ * settings affecting the computation, a checkpoint with a different key is ignored. Checkpoints are
+ * written to a temporary file that is renamed when complete, so a checkpoint is never partially
+ * written. Optionally, they are written by a background thread while the computation continues
+ * (a daemon thread, call close() in a finally block so that it is also stopped on exceptions).
+ */
+public class Checkpoint {
+
+	/** Writes the state of the computation (in the background thread if enabled, so it must not change afterwards) */
+	public interface State {
+		public void write(DataOutputStream out) throws IOException;
+	}
+	
+	/** Identifies checkpoint files (and their format version) */
+	final static private String MAGIC = "MAGNUM-CHECKPOINT-1";
+	
+	/** The magnum instance */
+	private Magnum mag;
+	/** The checkpoint file */
+	private File file_;
+	/** The key (settings of the computation) */
+	private String key_;
+	/** Minimum time between checkpoints (ms), see isDue() */
+	private long interval_;
+	/** Time of the last checkpoint (ms) */
+	private long lastSave_;
+	/** Background writer, null if checkpoints are written by the calling thread */
+	private ExecutorService writer_ = null;
+	/** Checkpoint being written in the background */
+	private Future<?> pending_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Checkpoint for the computation with the given name and key, null if checkpoints are disabled (no checkpointDir) */
+	static public Checkpoint create(Magnum mag, String name, String key) {
+		
+		if (mag.set.checkpointDir_ == null)
+			return null;
+		return new Checkpoint(mag, new File(mag.set.checkpointDir_, name + "_" + Integer.toHexString(key.hashCode()) + ".ckpt"), key);
+	}
+	
+	
+	/** Constructor */
+	public Checkpoint(Magnum mag, File file, String key) {
+		
+		this.mag = mag;
+		file_ = file;
+		key_ = key;
+		interval_ = (long) (1000 * mag.set.checkpointInterval_);
+		lastSave_ = System.currentTimeMillis();
+		if (mag.set.checkpointInBackground_) {
+			// Daemon thread, so that the JVM can exit even if close() is not called
+			writer_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Checkpoint writer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Open the checkpoint, the stream is positioned at the state (null if there is no checkpoint with this key) */
+	public DataInputStream load() {
+		
+		if (!file_.exists())
+			return null;
+		
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file_), 1 << 16));
+			if (!in.readUTF().equals(MAGIC) || !in.readUTF().equals(key_)) {
+				mag.log.warning("Ignoring checkpoint " + file_.getName() + " (different settings)");
+				in.close();
+				return null;
+			}
+			mag.log.println("Resuming from checkpoint: " + file_.getPath());
+			return in;
+			
+		} catch (IOException e) {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e2) {
+				// Nothing to do, an exception is thrown anyway
+			}
+			throw new RuntimeException("Failed to read checkpoint: " + file_.getPath(), e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** True if the checkpoint interval has passed since the last checkpoint */
+	public boolean isDue() {
+		return System.currentTimeMillis() - lastSave_ >= interval_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save a checkpoint, waits until the previous checkpoint has been written if they are written in the background */
+	public void save(final State state) {
+		
+		lastSave_ = System.currentTimeMillis();
+		if (writer_ == null) {
+			write(state);
+			return;
+		}
+		waitForPending();
+		pending_ = writer_.submit(new Runnable() {
+			public void run() {
+				write(state);
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Delete the checkpoint once the computation is done (and stop the background writer) */
+	public void delete() {
+		
+		close();
+		file_.delete();
+		getTempFile().delete();
+	}
+	
+	
+	/** Wait until the last checkpoint has been written and stop the background writer */
+	public void close() {
+		
+		if (writer_ == null)
+			return;
+		try {
+			waitForPending();
+		} finally {
+			writer_.shutdown();
+			writer_ = null;
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write values[offset..offset+length-1] in binary (big-endian, like DataOutputStream) */
+	static public void writeDoubles(DataOutputStream out, double[] values, int offset, int length) throws IOException {
+		
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		byte[] bytes = buffer.array();
+		int end = offset + length;
+		while (offset < end) {
+			int n = Math.min(end - offset, bytes.length / 8);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(values, offset, n);
+			out.write(bytes, 0, 8*n);
+			offset += n;
+		}
+	}
+	
+	
+	/** Read values written by writeDoubles() into values[offset..offset+length-1] */
+	static public void readDoubles(DataInputStream in, double[] values, int offset, int length) throws IOException {
+		
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		byte[] bytes = buffer.array();
+		int end = offset + length;
+		while (offset < end) {
+			int n = Math.min(end - offset, bytes.length / 8);
+			in.readFully(bytes, 0, 8*n);
+			buffer.clear();
+			buffer.asDoubleBuffer().get(values, offset, n);
+			offset += n;
+		}
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Write the checkpoint to the temporary file, sync it to disk and rename it */
+	private void write(State state) {
+		
+		File tmp = getTempFile();
+		FileOutputStream fos = null;
+		try {
+			file_.getAbsoluteFile().getParentFile().mkdirs();
+			fos = new FileOutputStream(tmp);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+			out.writeUTF(MAGIC);
+			out.writeUTF(key_);
+			state.write(out);
+			out.flush();
+			fos.getFD().sync();
+			out.close();
+			fos = null;
+			
+			// Atomic on POSIX file systems, elsewhere the target may have to be deleted first
+			if (!tmp.renameTo(file_) && !(file_.delete() && tmp.renameTo(file_)))
+				throw new IOException("Failed to rename " + tmp.getName() + " to " + file_.getName());
+			
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write checkpoint: " + file_.getPath(), e);
+		} finally {
+			try {
+				if (fos != null)
+					fos.close();
+			} catch (IOException e) {
+				// Nothing to do, an exception has already been thrown
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Wait for the checkpoint being written in the background, rethrow its exception */
+	private void waitForPending() {
+		
+		if (pending_ == null)
+			return;
+		try {
+			pending_.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pending_ = null;
+		}
+	}
+
+	
+	/** The temporary file used while writing */
+	private File getTempFile() {
+		return new File(file_.getPath() + ".tmp");
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public File getFile() { return file_; }
+	
+}
@@ -27,6 +27,7 @@ package edu.mit.magnum;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import ch.unil.gpsutils.FileExport;
 import ch.unil.gpsutils.Logger;
@@ -36,6 +37,7 @@ import edu.mit.magnum.netops.*;
 import edu.mit.magnum.netprop.NetpropMain;
 import edu.mit.magnum.enrich.*;
 import edu.mit.magnum.experiments.Experiments;
+import edu.mit.magnum.gene.GeneIdMapping;
 
 /**
  * Main class 
@@ -57,9 +59,15 @@ public class Magnum {
 	public MagnumOptionParser set;
 	/** The utilities */
 	public Utils utils;
+	/** Records time and memory of the phases of a run */
+	public PhaseRecorder phases;
 	
 	/** Connectivity enrichment analysis */
 	private EnrichMain enrichMain;
+	/** Mapping of gene ids (loaded when first used) */
+	private GeneIdMapping geneIdMapping;
+	/** Read-only resources shared with other Magnum instances (null if not run by a MagnumService) */
+	private SharedResources sharedResources;
 	
 
 	/** Main function */
@@ -67,6 +75,8 @@ public class Magnum {
 
 		try {
 			Magnum magnum = new Magnum(args, null);
+			if (magnum.set.getHelpRequested())
+				System.exit(0);
 			magnum.run();
 			
 		} catch (Exception e) {
@@ -99,6 +109,7 @@ public class Magnum {
 		else
 			log = new Logger(); // must be first
 		utils = new Utils(log);
+		phases = new PhaseRecorder(this);
 		set = new MagnumOptionParser(this); // sets defaults
 		
 		// Parse command-line arguments and initialize settings
@@ -118,20 +129,28 @@ public class Magnum {
 		// Create output directory
 		set.outputDirectory_.mkdirs();
 
-		if (set.mode_ == 1)
-			runNetworkAnalysis();
-		else if (set.mode_ == 2)
-			runNetworkOperations();
-		else if (set.mode_ == 3)
-			runEnrichmentAnalysis();
-		else if (set.mode_ == 4)
-			runLinkModuleAnalysis();
-		else if (set.mode_ == 5)
-			new Experiments(this).run();
-		else {
-			set.displayHelp();
-			throw new IllegalArgumentException("--mode <int> must be between 1 and 3, found mode=" + set.mode_);
+		PhaseRecorder.Phase phase = phases.start("run");
+		try {
+			if (set.mode_ == 1)
+				runNetworkAnalysis();
+			else if (set.mode_ == 2)
+				runNetworkOperations();
+			else if (set.mode_ == 3)
+				runEnrichmentAnalysis();
+			else if (set.mode_ == 4)
+				runLinkModuleAnalysis();
+			else if (set.mode_ == 5)
+				new Experiments(this).run();
+			else {
+				set.displayHelp();
+				throw new IllegalArgumentException("--mode <int> must be between 1 and 3, found mode=" + set.mode_);
+			}
+		} finally {
+			phase.end();
 		}
+		
+		if (set.writeRunReport_)
+			phases.writeReport();
 
 		log.println("Success!\n"
 				  + "--------\n");
@@ -143,7 +162,7 @@ public class Magnum {
 	public void runNetworkAnalysis() {
 
 		// Load the network
-		if (set.computePstepKernel_) {
+		if (set.computePstepKernel_ || set.computeHeatKernel_) {
 			set.isDirected_ = false;
 			set.removeSelfLoops_ = true;
 		}
@@ -285,6 +304,32 @@ public class Magnum {
 //		return colt;
 //	}
 
+	
+	// ----------------------------------------------------------------------------
+
+	/** Get the gene id mapping, it is loaded from geneIdMappingFile when this method is first called */
+	public synchronized GeneIdMapping getGeneIdMapping() {
+		
+		if (geneIdMapping == null) {
+			if (set.geneIdMappingFile_ == null)
+				throw new IllegalArgumentException("Gene id mapping required, specify geneIdMappingFile");
+			
+			final String file = set.geneIdMappingFile_;
+			final boolean useCache = set.cacheAnnotation_;
+			if (sharedResources == null) {
+				geneIdMapping = new GeneIdMapping(log, file, useCache);
+			} else {
+				geneIdMapping = sharedResources.get("geneIdMapping:" + SharedResources.fileKey(new File(file)), 
+						new Callable<GeneIdMapping>() {
+							public GeneIdMapping call() {
+								return new GeneIdMapping(log, file, useCache);
+							}
+						});
+			}
+		}
+		return geneIdMapping;
+	}
+
 		
 	// ============================================================================
 	// PRIVATE METHODS
@@ -308,5 +353,8 @@ public class Magnum {
 	// GETTERS AND SETTERS
 	
 	public EnrichMain getEnrichMain() { return enrichMain; }
+	
+	public SharedResources getSharedResources() { return sharedResources; }
+	public void setSharedResources(SharedResources sharedResources) { this.sharedResources = sharedResources; }
 
 }
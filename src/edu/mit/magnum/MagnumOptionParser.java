@@ -41,6 +41,8 @@ public class MagnumOptionParser extends MagnumSettings {
 	OptionParser parser_ = null;
 	/** The options */
 	OptionSet options = null;
+	/** True if help was displayed, no analysis should be run (the caller decides whether to exit) */
+	private boolean helpRequested_ = false;
 	
 
 	// ============================================================================
@@ -56,7 +58,7 @@ public class MagnumOptionParser extends MagnumSettings {
 
 	// ----------------------------------------------------------------------------
 
-	/** Load settings file and parse command-line arguments (defined by defineArgs()) */
+	/** Load settings file and parse command-line arguments (defined by defineArgs()), only displays help if it's requested */
 	public void parse(String[] args) {
 
 		// (1) Parse the options
@@ -71,7 +73,8 @@ public class MagnumOptionParser extends MagnumSettings {
 		// Display help
 		if (options.has("help") || options.has("h") || options.has("?")) {
 			displayHelp();
-			System.exit(0);
+			helpRequested_ = true;
+			return;
 		}
 
 		// (2-3) Set and load the settings file
@@ -87,6 +90,12 @@ public class MagnumOptionParser extends MagnumSettings {
 			setRandomSeed((Integer) options.valueOf("seed"));
 		if (options.has("outdir"))
 			outputDirectory_ = getFileOption("outdir"); 
+		if (options.has("threads"))
+			numThreads_ = (Integer) options.valueOf("threads");
+		if (options.has("runreport"))
+			writeRunReport_ = true;
+		if (options.has("checkpoint"))
+			checkpointDir_ = getFileOption("checkpoint");
 		if (options.has("netdir"))
 			networkDir_ = getFileOption("netdir");				
 		if (options.has("net"))
@@ -105,6 +114,26 @@ public class MagnumOptionParser extends MagnumSettings {
 			computePstepKernel_ = true;
 		if (options.has("nsteps"))
 			pstepKernelP_ = new ArrayList<Integer>(Arrays.asList((Integer) options.valueOf("nsteps")));
+		if (options.has("tiledir"))
+			pstepKernelTileDir_ = getFileOption("tiledir");
+		if (options.has("shardstart"))
+			pstepKernelShardStart_ = (Integer) options.valueOf("shardstart");
+		if (options.has("shardend"))
+			pstepKernelShardEnd_ = (Integer) options.valueOf("shardend");
+		if (options.has("merge"))
+			pstepKernelMergeShards_ = true;
+		if (options.has("heat"))
+			computeHeatKernel_ = true;
+		if (options.has("beta"))
+			heatKernelBeta_ = (Double) options.valueOf("beta");
+		if (options.has("ppr"))
+			computePersonalizedPageRank_ = true;
+		if (options.has("seedgenes"))
+			refNodesFile_ = getFileOption("seedgenes");
+		if (options.has("restart"))
+			pprRestartProb_ = (Double) options.valueOf("restart");
+		if (options.has("pushtol"))
+			pprTolerance_ = (Double) options.valueOf("pushtol");
 		if (options.has("degree"))
 			computeDegree_ = true;
 		if (options.has("betweenness"))
@@ -113,6 +142,8 @@ public class MagnumOptionParser extends MagnumSettings {
 			computeClusteringCoefficient_ = true;
 		if (options.has("shortestpath"))
 			computeShortestPathLengths_ = true;
+		if (options.has("pivots"))
+			closenessNumPivots_ = (Integer) options.valueOf("pivots");
 
 		// MODE 2
 		if (options.has("union"))
@@ -147,6 +178,16 @@ public class MagnumOptionParser extends MagnumSettings {
 			geneScoreIndexStart_ = (Integer) options.valueOf("gsstart");
 		if (options.has("gsend"))
 			geneScoreIndexEnd_ = (Integer) options.valueOf("gsend");
+		if (options.has("sharepermut"))
+			sharePermutations_ = true;
+		if (options.has("cachecentrality"))
+			cacheCentrality_ = true;
+		if (options.has("vectorized"))
+			vectorizedPerGeneEnrichment_ = true;
+		if (options.has("cacheannotation"))
+			cacheAnnotation_ = true;
+		if (options.has("kernelcache"))
+			kernelCacheDir_ = getFileOption("kernelcache");
 		
 		// TBD, write a method that checks consistency / if everything has been
 		// defined that we need
@@ -184,6 +225,10 @@ public class MagnumOptionParser extends MagnumSettings {
 		mag.log.println("                      3 = Connectivity enrichment analysis");
 		mag.log.println("   --seed <int>    Random number generator seed (default: 42; current time: -1)");
 		mag.log.println("   --outdir <dir>  Output directory (default: working directory)");
+		mag.log.println("   --threads <int> Number of threads (default: number of available processors)");
+		mag.log.println("   --runreport     Write phase timings and memory to magnum_run_report.json");
+		mag.log.println("   --checkpoint <dir> Save checkpoints of kernel and permutation runs in <dir>,");
+		mag.log.println("                   resume from them when restarted with the same settings");
 		mag.log.println("   --netdir <dir>  Directory of input networks (default: working directory)");
 		mag.log.println("   --net <file>    Input network filename");
 		mag.log.println("   --directed      Input network is directed (default: undirected)");
@@ -197,10 +242,27 @@ public class MagnumOptionParser extends MagnumSettings {
 		mag.log.println("   --pstep         P-step random walk kernel (Smola & Kondor, 2003; allows for");
 		mag.log.println("                   weighted networks)");
 		mag.log.println("   --nsteps <int>  Number of steps for p-step random walk kernel (default: 4)");
+		mag.log.println("   --tiledir <dir> Compute the p-step kernel out-of-core, storing row tiles in <dir>");
+		mag.log.println("                   (for networks where the kernel doesn't fit in memory)");
+		mag.log.println("   --shardstart <int> --shardend <int>");
+		mag.log.println("                   Compute only rows/columns start..end-1 of the out-of-core kernel,");
+		mag.log.println("                   saved as a shard in the tile directory");
+		mag.log.println("   --merge         Merge the shards in the tile directory into the kernel file");
+		mag.log.println("   --heat          Heat (diffusion) kernel exp(-beta*L), computed column by column");
+		mag.log.println("                   by Krylov approximation (used instead of the p-step kernel");
+		mag.log.println("                   for enrichment analysis)");
+		mag.log.println("   --beta <value>  Diffusion time beta of the heat kernel (default: 1)");
+		mag.log.println("   --ppr           Approximate personalized PageRank (random walk with restart)");
+		mag.log.println("                   from each seed gene by local push (one column per seed)");
+		mag.log.println("   --seedgenes <file> Seed genes (reference nodes, one per line; default: all)");
+		mag.log.println("   --restart <value> Restart probability of the random walk (default: 0.15)");
+		mag.log.println("   --pushtol <value> Residual tolerance of the push (default: 1e-4)");
 		mag.log.println("   --degree        Node degree (directed networks, also indegree and outdegree)");
 		mag.log.println("   --betweenness   Node betweenness centrality (allows for directed networks)");
 		mag.log.println("   --clustcoeff    Node clustering coefficient (allows for directed networks)");
 		mag.log.println("   --shortestpath  Shortest path lengths and closeness centrality");
+		mag.log.println("   --pivots <int>  Estimate closeness from BFS of <int> random pivot nodes,");
+		mag.log.println("                   without the distance matrix (default: 0, exact)");
 		mag.log.println();
 		
 		mag.log.println("5. NETWORK OPERATIONS");
@@ -269,6 +331,12 @@ public class MagnumOptionParser extends MagnumSettings {
 		parser_.accepts("seed").withRequiredArg().ofType(Integer.class);
 		// outputDirectory_
 		parser_.accepts("outdir").withRequiredArg();
+		// numThreads_
+		parser_.accepts("threads").withRequiredArg().ofType(Integer.class);
+		// writeRunReport_
+		parser_.accepts("runreport");
+		// checkpointDir_
+		parser_.accepts("checkpoint").withRequiredArg();
 		
 		// networkDir_
 		parser_.accepts("netdir").withRequiredArg();
@@ -286,11 +354,33 @@ public class MagnumOptionParser extends MagnumSettings {
 		// kernels
 		parser_.accepts("pstep");
 		parser_.accepts("nsteps").withRequiredArg().ofType(Integer.class);
+		// pstepKernelTileDir_
+		parser_.accepts("tiledir").withRequiredArg();
+		// pstepKernelShardStart_
+		parser_.accepts("shardstart").withRequiredArg().ofType(Integer.class);
+		// pstepKernelShardEnd_
+		parser_.accepts("shardend").withRequiredArg().ofType(Integer.class);
+		// pstepKernelMergeShards_
+		parser_.accepts("merge");
+		// computeHeatKernel_
+		parser_.accepts("heat");
+		// heatKernelBeta_
+		parser_.accepts("beta").withRequiredArg().ofType(Double.class);
+		// computePersonalizedPageRank_
+		parser_.accepts("ppr");
+		// refNodesFile_
+		parser_.accepts("seedgenes").withRequiredArg();
+		// pprRestartProb_
+		parser_.accepts("restart").withRequiredArg().ofType(Double.class);
+		// pprTolerance_
+		parser_.accepts("pushtol").withRequiredArg().ofType(Double.class);
 		// network properties
 		parser_.accepts("degree");
 		parser_.accepts("betweenness");
 		parser_.accepts("clustcoeff");
 		parser_.accepts("shortestpath");
+		// closenessNumPivots_
+		parser_.accepts("pivots").withRequiredArg().ofType(Integer.class);
 		
 		// network operations
 		parser_.accepts("union");
@@ -315,6 +405,16 @@ public class MagnumOptionParser extends MagnumSettings {
 		parser_.accepts("gsstart").withRequiredArg().ofType(Integer.class);
 		// geneScoreIndexEnd_
 		parser_.accepts("gsend").withRequiredArg().ofType(Integer.class);
+		// sharePermutations_
+		parser_.accepts("sharepermut");
+		// cacheCentrality_
+		parser_.accepts("cachecentrality");
+		// vectorizedPerGeneEnrichment_
+		parser_.accepts("vectorized");
+		// cacheAnnotation_
+		parser_.accepts("cacheannotation");
+		// kernelCacheDir_
+		parser_.accepts("kernelcache").withRequiredArg();
 
 		// Example
 		// parser_.accepts("cut").withRequiredArg().ofType(Integer.class).defaultsTo(-1);
@@ -333,4 +433,10 @@ public class MagnumOptionParser extends MagnumSettings {
 		return new File(filename);
 	}
 
+
+	// ============================================================================
+	// SETTERS AND GETTERS
+
+	public boolean getHelpRequested() { return helpRequested_; }
+
 }
@@ -0,0 +1,140 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.unil.gpsutils.Logger;
+
+
+/**
+ * Runs many analyses (enrichment, network properties, ...) concurrently in the same JVM. Each request 
+ * runs on its own Magnum instance with its own settings, so requests don't see each other's settings. 
+ * Read-only resources that are expensive to load (gene id mappings, annotations, kernels computed
+ * within enrichment analysis) are shared between requests (see SharedResources).
+ */
+public class MagnumService {
+
+	/** The executor running the requests */
+	private ExecutorService executor_ = null;
+	/** The resources shared by all requests */
+	private SharedResources resources_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, run at most numConcurrentRequests at the same time (0: number of processors) */
+	public MagnumService(int numConcurrentRequests) {
+		
+		this(numConcurrentRequests, SharedResources.DEFAULT_MAX_RESOURCES);
+	}
+
+	
+	/** Constructor, also sets the maximum number of shared resources (e.g., kernels) that are kept in memory */
+	public MagnumService(int numConcurrentRequests, int maxSharedResources) {
+		
+		if (numConcurrentRequests < 0)
+			throw new IllegalArgumentException("numConcurrentRequests must be >= 0");
+		if (numConcurrentRequests == 0)
+			numConcurrentRequests = Runtime.getRuntime().availableProcessors();
+		
+		executor_ = Executors.newFixedThreadPool(numConcurrentRequests);
+		resources_ = new SharedResources(maxSharedResources);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Submit a request given as command-line arguments, returns the Magnum instance once it's done
+	 * (--help only displays the help on the log of the request, nothing is run)
+	 */
+	public Future<Magnum> submit(String[] args, Logger log) {
+		
+		final String[] argsCopy = args.clone();
+		final Logger requestLog = log;
+		return executor_.submit(new Callable<Magnum>() {
+			public Magnum call() {
+				Magnum mag = new Magnum(argsCopy, requestLog);
+				return run(mag);
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Submit a request given as settings (same format as the settings file), returns the Magnum instance once it's done */
+	public Future<Magnum> submit(Properties settings, Logger log) {
+		
+		// Copy now so that later changes by the caller don't affect the request
+		final Properties settingsCopy = (Properties) settings.clone();
+		final Logger requestLog = log;
+		return executor_.submit(new Callable<Magnum>() {
+			public Magnum call() {
+				Magnum mag = new Magnum(requestLog);
+				mag.set.loadSettings(settingsCopy);
+				mag.log.setVerbose(mag.set.verbose_);
+				return run(mag);
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Stop accepting requests, requests that were already submitted are completed */
+	public void shutdown() {
+		
+		executor_.shutdown();
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Run the request */
+	private Magnum run(Magnum mag) {
+		
+		if (mag.set.getHelpRequested())
+			return mag;
+		mag.setSharedResources(resources_);
+		mag.run();
+		return mag;
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public SharedResources getSharedResources() { return resources_; }
+	
+}
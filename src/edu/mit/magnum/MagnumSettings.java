@@ -78,6 +78,16 @@ public class MagnumSettings extends Settings {
 	public boolean compressFiles_;
 	/** Verbose console output */
 	public boolean verbose_;
+	/** Number of threads used for parallel computations (0: number of available processors) */
+	public int numThreads_;
+	/** Write a JSON report with wall time, CPU time, allocation and peak heap of each phase to the output directory */
+	public boolean writeRunReport_;
+	/** Directory for checkpoints of long kernel and permutation runs, which are resumed when restarted (null: no checkpoints) */
+	public File checkpointDir_;
+	/** Minimum time between two checkpoints in seconds */
+	public double checkpointInterval_;
+	/** Write checkpoints in a background thread while the computation continues */
+	public boolean checkpointInBackground_;
 
 	// ----------------------------------------------------------------------------
 	// NETWORK PROPERTIES
@@ -123,6 +133,8 @@ public class MagnumSettings extends Settings {
 	public boolean computeClusteringCoefficient_;
 	/** For each node, distance to all other nodes (or all reference nodes) and closeness centrality */
 	public boolean computeShortestPathLengths_;
+	/** Estimate closeness from BFS of this number of randomly sampled pivot nodes instead of all shortest paths (0: exact) */
+	public int closenessNumPivots_;
 
 	// KERNELS
 	/** P-step random walk kernel (Smola & Kondor, 2003) */
@@ -133,6 +145,30 @@ public class MagnumSettings extends Settings {
 	public ArrayList<Integer> pstepKernelP_;
 	/** Normalize the kernel matrix (divide by the max) */
 	public boolean pstepKernelNormalize_;
+	/** Compute the p-step kernel out-of-core, saving row tiles in this directory (null: compute in memory) */
+	public File pstepKernelTileDir_;
+	/** Number of rows per tile for out-of-core kernels (0: automatic, tiles of 128MB) */
+	public int pstepKernelTileRows_;
+	/** First row/column of the out-of-core kernel shard to be computed */
+	public int pstepKernelShardStart_;
+	/** Last row/column (exclusive) of the out-of-core kernel shard to be computed (0: all nodes, not sharded) */
+	public int pstepKernelShardEnd_;
+	/** Merge the out-of-core kernel shards saved in pstepKernelTileDir_ instead of computing the kernel */
+	public boolean pstepKernelMergeShards_;
+	/** Heat (diffusion) kernel exp(-beta*L) (Kondor & Lafferty, 2002), computed by Krylov approximation */
+	public boolean computeHeatKernel_;
+	/** Diffusion time beta of the heat kernel (beta > 0) */
+	public double heatKernelBeta_;
+	/** Dimension of the Krylov subspace used to approximate each column of the heat kernel */
+	public int heatKernelKrylovDim_;
+	/** Normalize the heat kernel matrix (divide by the max) */
+	public boolean heatKernelNormalize_;
+	/** Approximate personalized PageRank from the reference nodes (seeds) by local push (Andersen, Chung & Lang, 2006) */
+	public boolean computePersonalizedPageRank_;
+	/** Restart probability of the random walk (0 < restart < 1) */
+	public double pprRestartProb_;
+	/** Residual tolerance of the push (smaller is more accurate, the cost is at most 1/(restart*tolerance) pushes per seed) */
+	public double pprTolerance_;
 	
 	// TANIMOTO COEFFICIENT
 	/** Tanimoto coefficient between target genes */
@@ -170,6 +206,8 @@ public class MagnumSettings extends Settings {
 
 	/** Mapping file to convert Entrez IDs, ENSEMBL IDs and gene symbols */
 	public String geneIdMappingFile_;
+	/** Save the gencode annotation and the gene id mapping to binary files next to them (<file>.cache) and load them from there in subsequent runs */
+	public boolean cacheAnnotation_;
 		
 	// ----------------------------------------------------------------------------
 	// ENRICHMENT CURVES
@@ -207,6 +245,10 @@ public class MagnumSettings extends Settings {
 	public File networkKernelDir;
 	/** Save network kernels for use in subsequent runs (takes a lot of disk space!) */
 	public boolean exportKernels;
+	/** Content-addressed kernel cache, used instead of networkKernelDir if specified (kernels are reused only if the network file and all kernel settings are the same) */
+	public File kernelCacheDir_;
+	/** Max size of the kernel cache in GB, least recently used kernels are deleted (0: unlimited) */
+	public double kernelCacheSizeGB_;
 
 	// PARAMETERS
 	/** Number of random permutations to compute confidence intervals */
@@ -238,6 +280,12 @@ public class MagnumSettings extends Settings {
 	/** Index of gene scores for which enrichment is to be computed, e.g., (0,9) for the first ten gene scores */ 
 	public int geneScoreIndexStart_;
 	public int geneScoreIndexEnd_;
+	/** Compute centrality bins once and evaluate each permutation for all gene scores (geneScoreIndexStart..End) */
+	public boolean sharePermutations_;
+	/** Save the centralities used for binning next to the functional data file and reuse them in subsequent runs */
+	public boolean cacheCentrality_;
+	/** Per gene functional data: compute the curves of all properties in a single pass per permutation */
+	public boolean vectorizedPerGeneEnrichment_;
 
 	
 	// OUTPUT FILES
@@ -269,6 +317,11 @@ public class MagnumSettings extends Settings {
 		outputFilename_ = "";
 		compressFiles_ = true;
 		verbose_ = false;
+		numThreads_ = 0;
+		writeRunReport_ = false;
+		checkpointDir_ = null;
+		checkpointInterval_ = 600;
+		checkpointInBackground_ = false;
 
 		networkDir_ = null;
 		networkFile_ = null;
@@ -290,12 +343,25 @@ public class MagnumSettings extends Settings {
 		computeBetweenness_ = false;
 		computeClusteringCoefficient_ = false;
 		computeShortestPathLengths_ = false;
+		closenessNumPivots_ = 0;
 
 		computePstepKernel_ = false;
 		pstepKernelAlpha_ = 2;
 		pstepKernelP_ = new ArrayList<Integer>();
 		pstepKernelP_.add(4);
 		pstepKernelNormalize_ = true;
+		pstepKernelTileDir_ = null;
+		pstepKernelTileRows_ = 0;
+		pstepKernelShardStart_ = 0;
+		pstepKernelShardEnd_ = 0;
+		pstepKernelMergeShards_ = false;
+		computeHeatKernel_ = false;
+		heatKernelBeta_ = 1;
+		heatKernelKrylovDim_ = 30;
+		heatKernelNormalize_ = true;
+		computePersonalizedPageRank_ = false;
+		pprRestartProb_ = 0.15;
+		pprTolerance_ = 1e-4;
 		
 		computeTargetTanimoto_ = false;
 		computeTfTanimoto_ = false;
@@ -314,6 +380,7 @@ public class MagnumSettings extends Settings {
 		ucscAnnotationFile_ = null;
 		loadOnlyProteinCodingGenes_ = true;
 		geneIdMappingFile_ = null;
+		cacheAnnotation_ = false;
 		
 		geneCoordFile_ = null;
 
@@ -334,6 +401,8 @@ public class MagnumSettings extends Settings {
 		usePrecomputedKernels = true;
 		networkKernelDir = null;
 		exportKernels = false;
+		kernelCacheDir_ = null;
+		kernelCacheSizeGB_ = 0;
 
 		numPermutations_ = 10000;
 		numBins_ = 100;
@@ -353,6 +422,9 @@ public class MagnumSettings extends Settings {
 		AUCStart_ = 10;
 		geneScoreIndexStart_ = 0;
 		geneScoreIndexEnd_ = 0;
+		sharePermutations_ = false;
+		cacheCentrality_ = false;
+		vectorizedPerGeneEnrichment_ = false;
 		
 		numPermutationsExport_ = 0;		
 	}
@@ -394,6 +466,22 @@ public class MagnumSettings extends Settings {
 	}
 	
 	
+	// ----------------------------------------------------------------------------
+	
+	/** Load settings from the given properties (same format as the settings file, the properties are copied) */
+	public void loadSettings(Properties settings) {
+		
+		try {
+			prop = (Properties) settings.clone();
+			setParameterValues();
+			
+		} catch (Exception e) {
+			mag.log.warning(e.getMessage());
+			throw new RuntimeException("Failed to load settings (a parameter may be missing or malformed)");
+		}		
+	}
+	
+	
 	// ----------------------------------------------------------------------------
 
 	/** Create new instances for the random number generators, initialize with randomSeed_ */
@@ -436,6 +524,16 @@ public class MagnumSettings extends Settings {
 		if (prop.containsKey("verbose"))
 			verbose_ = getSettingBoolean("verbose");
 		mag.log.setVerbose(verbose_);
+		if (prop.containsKey("numThreads"))
+			numThreads_ = getSettingInt("numThreads");
+		if (prop.containsKey("writeRunReport"))
+			writeRunReport_ = getSettingBoolean("writeRunReport");
+		if (prop.containsKey("checkpointDir"))
+			checkpointDir_ = getFileSetting("checkpointDir");
+		if (prop.containsKey("checkpointInterval"))
+			checkpointInterval_ = getSettingDouble("checkpointInterval");
+		if (prop.containsKey("checkpointInBackground"))
+			checkpointInBackground_ = getSettingBoolean("checkpointInBackground");
 
 		// INPUT NETWORK
 		if (prop.containsKey("networkDir"))
@@ -490,6 +588,8 @@ public class MagnumSettings extends Settings {
 		// SHORTEST PATHS
 		if (prop.containsKey("computeShortestPathLengths"))
 			computeShortestPathLengths_ = getSettingBoolean("computeShortestPathLengths");
+		if (prop.containsKey("closenessNumPivots"))
+			closenessNumPivots_ = getSettingInt("closenessNumPivots");
 
 		// KERNELS
 		if (prop.containsKey("computePstepKernel"))
@@ -500,6 +600,30 @@ public class MagnumSettings extends Settings {
 			pstepKernelP_ = getSettingIntArray("pstepKernelP", true, mag.log);
 		if (prop.containsKey("pstepKernelNormalize"))
 			pstepKernelNormalize_ = getSettingBoolean("pstepKernelNormalize");
+		if (prop.containsKey("pstepKernelTileDir"))
+			pstepKernelTileDir_ = getFileSetting("pstepKernelTileDir");
+		if (prop.containsKey("pstepKernelTileRows"))
+			pstepKernelTileRows_ = getSettingInt("pstepKernelTileRows");
+		if (prop.containsKey("pstepKernelShardStart"))
+			pstepKernelShardStart_ = getSettingInt("pstepKernelShardStart");
+		if (prop.containsKey("pstepKernelShardEnd"))
+			pstepKernelShardEnd_ = getSettingInt("pstepKernelShardEnd");
+		if (prop.containsKey("pstepKernelMergeShards"))
+			pstepKernelMergeShards_ = getSettingBoolean("pstepKernelMergeShards");
+		if (prop.containsKey("computeHeatKernel"))
+			computeHeatKernel_ = getSettingBoolean("computeHeatKernel");
+		if (prop.containsKey("heatKernelBeta"))
+			heatKernelBeta_ = getSettingDouble("heatKernelBeta");
+		if (prop.containsKey("heatKernelKrylovDim"))
+			heatKernelKrylovDim_ = getSettingInt("heatKernelKrylovDim");
+		if (prop.containsKey("heatKernelNormalize"))
+			heatKernelNormalize_ = getSettingBoolean("heatKernelNormalize");
+		if (prop.containsKey("computePersonalizedPageRank"))
+			computePersonalizedPageRank_ = getSettingBoolean("computePersonalizedPageRank");
+		if (prop.containsKey("pprRestartProb"))
+			pprRestartProb_ = getSettingDouble("pprRestartProb");
+		if (prop.containsKey("pprTolerance"))
+			pprTolerance_ = getSettingDouble("pprTolerance");
 
 		// TANIMOTO
 		if (prop.containsKey("computeTargetTanimoto"))
@@ -526,6 +650,8 @@ public class MagnumSettings extends Settings {
 			loadOnlyProteinCodingGenes_ = getSettingBoolean("loadOnlyProteinCodingGenes");
 		if (prop.containsKey("geneIdMappingFile"))
 			geneIdMappingFile_ = getSetting("geneIdMappingFile");
+		if (prop.containsKey("cacheAnnotation"))
+			cacheAnnotation_ = getSettingBoolean("cacheAnnotation");
 
 		// ----------------------------------------------------------------------------
 		// ENRICHMENT ANALYSIS
@@ -566,6 +692,10 @@ public class MagnumSettings extends Settings {
 			networkKernelDir = getFileSetting("networkKernelDir");
 		if (prop.containsKey("exportKernels"))
 			exportKernels = getSettingBoolean("exportKernels");
+		if (prop.containsKey("kernelCacheDir"))
+			kernelCacheDir_ = getFileSetting("kernelCacheDir");
+		if (prop.containsKey("kernelCacheSizeGB"))
+			kernelCacheSizeGB_ = getSettingDouble("kernelCacheSizeGB");
 		
 		// ENRICHMENT
 		if (prop.containsKey("numPermutations"))
@@ -603,6 +733,12 @@ public class MagnumSettings extends Settings {
 			geneScoreIndexStart_ = getSettingInt("geneScoreIndexStart");
 		if (prop.containsKey("geneScoreIndexEnd"))
 			geneScoreIndexEnd_ = getSettingInt("geneScoreIndexEnd");
+		if (prop.containsKey("sharePermutations"))
+			sharePermutations_ = getSettingBoolean("sharePermutations");
+		if (prop.containsKey("cacheCentrality"))
+			cacheCentrality_ = getSettingBoolean("cacheCentrality");
+		if (prop.containsKey("vectorizedPerGeneEnrichment"))
+			vectorizedPerGeneEnrichment_ = getSettingBoolean("vectorizedPerGeneEnrichment");
 	}
 	
 	
@@ -610,6 +746,9 @@ public class MagnumSettings extends Settings {
 	// GETTERS AND SETTERS
 	
 	public int getRandomSeed() { return randomSeed_; }
+	
+	/** The number of threads to be used (numThreads_, or the number of available processors if it's 0) */
+	public int getNumThreads() { return (numThreads_ > 0) ? numThreads_ : Runtime.getRuntime().availableProcessors(); }
 
 	
 }
@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Runs loops over independent indexes in contiguous blocks on a fixed number of threads
+ */
+public class Parallel {
+
+	/** A block of the loop, computes indexes start (inclusive) to end (exclusive) */
+	public interface Block {
+		public void run(int start, int end);
+	}
+
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Run block for indexes 0..n-1, split in (at most) numThreads contiguous blocks */
+	static public void forBlocks(int numThreads, int n, final Block block) {
+		
+		if (n <= 0)
+			return;
+		if (numThreads > n)
+			numThreads = n;
+		// Don't bother starting threads
+		if (numThreads <= 1) {
+			block.run(0, n);
+			return;
+		}
+		
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+		try {
+			for (int t=0; t<numThreads; t++) {
+				final int start = (int) ((long) n * t / numThreads);
+				final int end = (int) ((long) n * (t+1) / numThreads);
+				futures.add(pool.submit(new Runnable() {
+					public void run() {
+						block.run(start, end);
+					}
+				}));
+			}
+			// Wait for all blocks, rethrow the first exception
+			for (Future<?> future : futures)
+				future.get();
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,521 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import ch.unil.gpsutils.FileExport;
+
+
+/**
+ * Records wall time, CPU time, allocated bytes and peak heap for named phases of a run.
+ * Phases can be nested (the depth is recorded), they are emitted as JFR events when
+ * JFR is available and can be saved as a JSON run report.
+ * 
+ * The peak heap is the maximum heap usage of the process sampled by this recorder while the phase
+ * is open (at the start and end of phases and every SAMPLE_INTERVAL_MS). The JVM-wide peak usage
+ * of the memory pools is not reset, so that recorders of concurrent runs don't interfere.
+ * 
+ * JFR events are defined by edu.mit.magnum.PhaseEvent in the optional jfr source root (Java 11+),
+ * which is loaded by reflection if it is on the classpath.
+ * 
+ * Usage: PhaseRecorder.Phase phase = mag.phases.start("laplacian"); try { ... } finally { phase.end(); }
+ */
+public class PhaseRecorder {
+
+	/** Name of the run report written to the output directory */
+	final static public String REPORT_FILENAME = "magnum_run_report.json";
+	/** Interval at which the heap usage is sampled while phases are open (ms) */
+	final static private long SAMPLE_INTERVAL_MS = 20;
+	/** PhaseEvent.create() and PhaseEvent.commit(), null if the JFR event class is not available */
+	final static private Method[] JFR_METHODS = loadJfrMethods();
+	/** True if JFR events are emitted (the JVM provides JFR and PhaseEvent is on the classpath) */
+	final static private boolean JFR_AVAILABLE = (JFR_METHODS != null);
+	
+	/** The magnum instance */
+	private Magnum mag;
+	/** Thread MX bean (CPU time and allocated bytes of the calling thread) */
+	private ThreadMXBean threadBean_;
+	/** Process MX bean (process CPU time), null if not supported */
+	private com.sun.management.OperatingSystemMXBean osBean_;
+	/** The heap memory pools */
+	private ArrayList<MemoryPoolMXBean> heapPools_;
+	/** Samples the heap usage while phases are open (daemon thread, null if no phase is open) */
+	private Timer sampler_ = null;
+	
+	/** Wall time when the recorder was created (ns) */
+	private long t0_;
+	/** Start time of the recorder (ms since epoch) */
+	private long startTimeMillis_;
+	/** All phases in the order they were started */
+	private ArrayList<Phase> phases_;
+	/** Phases that have been started but not ended */
+	private ArrayList<Phase> openPhases_;
+	/** Current nesting depth for each thread */
+	private ThreadLocal<int[]> depth_;
+	
+	
+	// ============================================================================
+	// PHASE
+
+	/** A named phase, start() records the initial counters, end() the final ones */
+	public class Phase {
+		
+		/** Name of the phase */
+		private String name_;
+		/** Nesting depth (0 for top-level phases) */
+		private int depth_;
+		/** The thread that started the phase */
+		private Thread thread_;
+		/** JFR event, null if JFR is not available */
+		private Object event_;
+		/** Start time relative to the recorder (ns) */
+		private long start_;
+		/** Wall time (ns) */
+		private long wallTime_ = -1;
+		/** Thread CPU time (ns), -1 if not supported */
+		private long threadCpuTime_ = -1;
+		/** Process CPU time (ns), -1 if not supported */
+		private long processCpuTime_ = -1;
+		/** Bytes allocated by the calling thread, -1 if not supported */
+		private long allocatedBytes_ = -1;
+		/** Peak heap usage of the process during the phase (bytes) */
+		private long peakHeap_ = 0;
+		
+		/** Counters at the start */
+		private long threadCpuStart_;
+		private long processCpuStart_;
+		private long allocatedStart_;
+		
+		/** Constructor, see PhaseRecorder.start() */
+		private Phase(String name, int depth) {
+			name_ = name;
+			depth_ = depth;
+			thread_ = Thread.currentThread();
+			if (JFR_AVAILABLE)
+				event_ = createEvent();
+			
+			threadCpuStart_ = threadCpuTime();
+			processCpuStart_ = processCpuTime();
+			allocatedStart_ = allocatedBytes();
+			start_ = System.nanoTime() - t0_;
+		}
+		
+		/** End the phase and record the counters (call in a finally block, so that the phase is also ended on exceptions) */
+		public void end() {
+			
+			if (wallTime_ >= 0)
+				throw new IllegalStateException("Phase '" + name_ + "' already ended");
+			if (thread_ != Thread.currentThread())
+				throw new IllegalStateException("Phase '" + name_ + "' must be ended by the thread that started it");
+			
+			wallTime_ = System.nanoTime() - t0_ - start_;
+			threadCpuTime_ = delta(threadCpuStart_, threadCpuTime());
+			processCpuTime_ = delta(processCpuStart_, processCpuTime());
+			allocatedBytes_ = delta(allocatedStart_, allocatedBytes());
+			endPhase(this);
+			
+			if (event_ != null)
+				commitEvent(event_, name_, depth_, threadCpuTime_, allocatedBytes_, peakHeap_);
+		}
+		
+		/** Counter difference, -1 if not supported */
+		private long delta(long start, long end) {
+			return (start < 0 || end < 0) ? -1 : end - start;
+		}
+		
+		public String getName() { return name_; }
+		public int getDepth() { return depth_; }
+		public boolean hasEnded() { return wallTime_ >= 0; }
+		public long getWallTime() { return wallTime_; }
+		public double getWallTimeMillis() { return wallTime_ / 1e6; }
+		public long getThreadCpuTime() { return threadCpuTime_; }
+		public long getProcessCpuTime() { return processCpuTime_; }
+		public long getAllocatedBytes() { return allocatedBytes_; }
+		public long getPeakHeap() { return peakHeap_; }
+	}
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor */
+	public PhaseRecorder(Magnum mag) {
+		
+		this.mag = mag;
+		threadBean_ = ManagementFactory.getThreadMXBean();
+		try {
+			if (threadBean_.isThreadCpuTimeSupported() && !threadBean_.isThreadCpuTimeEnabled())
+				threadBean_.setThreadCpuTimeEnabled(true);
+		} catch (UnsupportedOperationException e) {
+			// Keep going without CPU times
+		}
+		if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean)
+			osBean_ = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+		
+		heapPools_ = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				heapPools_.add(pool);
+		
+		reset();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Clear all recorded phases */
+	synchronized public void reset() {
+		
+		stopSampler();
+		t0_ = System.nanoTime();
+		startTimeMillis_ = System.currentTimeMillis();
+		phases_ = new ArrayList<Phase>();
+		openPhases_ = new ArrayList<Phase>();
+		depth_ = new ThreadLocal<int[]>() {
+			protected int[] initialValue() {
+				return new int[1];
+			}
+		};
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Start a new phase, must be ended with Phase.end() by the same thread */
+	synchronized public Phase start(String name) {
+		
+		int[] depth = depth_.get();
+		Phase phase = new Phase(name, depth[0]++);
+		phases_.add(phase);
+		openPhases_.add(phase);
+		updateOpenPeaks(heapUsage());
+		
+		// Sample the heap while phases are open
+		if (sampler_ == null) {
+			sampler_ = new Timer("PhaseRecorder heap sampler", true);
+			sampler_.schedule(new TimerTask() {
+				public void run() {
+					sampleHeap();
+				}
+			}, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS);
+		}
+		return phase;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Total wall time of all phases with the given name (ms) */
+	synchronized public double getTotalWallTimeMillis(String name) {
+		
+		long total = 0;
+		for (Phase phase : phases_)
+			if (phase.hasEnded() && phase.name_.equals(name))
+				total += phase.wallTime_;
+		return total / 1e6;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Totals of the ended phases for each phase name (e.g., sum over kernel steps or networks) in the order
+	 * they were started: count, wall time (ns), thread CPU time (ns), process CPU time (ns), allocated bytes,
+	 * peak heap (bytes, max over the phases). Counters that are not supported are -1.
+	 */
+	synchronized public LinkedHashMap<String, long[]> getTotals() {
+		
+		LinkedHashMap<String, long[]> totals = new LinkedHashMap<String, long[]>();
+		for (Phase phase : getEndedPhases()) {
+			long[] total = totals.get(phase.name_);
+			if (total == null) {
+				total = new long[6];
+				totals.put(phase.name_, total);
+			}
+			total[0]++;
+			total[1] += phase.wallTime_;
+			total[2] = sum(total[2], phase.threadCpuTime_);
+			total[3] = sum(total[3], phase.processCpuTime_);
+			total[4] = sum(total[4], phase.allocatedBytes_);
+			total[5] = Math.max(total[5], phase.peakHeap_);
+		}
+		return totals;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write the run report to the output directory (see REPORT_FILENAME) */
+	public void writeReport() {
+		writeReport(new File(mag.set.outputDirectory_, REPORT_FILENAME));
+	}
+	
+	
+	/** Write the phases and the totals for each phase name as a JSON run report */
+	synchronized public void writeReport(File file) {
+		
+		mag.log.println("Writing run report: " + file.getName());
+		FileExport writer = new FileExport(mag.log, file);
+		writer.println("{");
+		writer.println("  \"version\": " + quote(Magnum.version) + ",");
+		writer.println("  \"mode\": " + mag.set.mode_ + ",");
+		writer.println("  \"startTimeMillis\": " + startTimeMillis_ + ",");
+		writer.println("  \"wallTimeMs\": " + millis(System.nanoTime() - t0_) + ",");
+		writer.println("  \"numThreads\": " + mag.set.getNumThreads() + ",");
+		writer.println("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",");
+		writer.println("  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + ",");
+		writer.println("  \"jfr\": " + JFR_AVAILABLE + ",");
+
+		// All phases in the order they were started
+		writer.println("  \"phases\": [");
+		List<Phase> ended = getEndedPhases();
+		for (int i=0; i<ended.size(); i++) {
+			Phase phase = ended.get(i);
+			writer.print("    {\"name\": " + quote(phase.name_)
+					+ ", \"depth\": " + phase.depth_
+					+ ", \"startMs\": " + millis(phase.start_)
+					+ ", \"wallMs\": " + millis(phase.wallTime_)
+					+ ", \"threadCpuMs\": " + millis(phase.threadCpuTime_)
+					+ ", \"processCpuMs\": " + millis(phase.processCpuTime_)
+					+ ", \"allocatedBytes\": " + phase.allocatedBytes_
+					+ ", \"peakHeapBytes\": " + phase.peakHeap_ + "}");
+			writer.println(i < ended.size()-1 ? "," : "");
+		}
+		writer.println("  ],");
+		
+		// Totals for each phase name
+		LinkedHashMap<String, long[]> totals = getTotals();
+		writer.println("  \"totals\": [");
+		int i = 0;
+		for (String name : totals.keySet()) {
+			long[] total = totals.get(name);
+			writer.print("    {\"name\": " + quote(name)
+					+ ", \"count\": " + total[0]
+					+ ", \"wallMs\": " + millis(total[1])
+					+ ", \"threadCpuMs\": " + millis(total[2])
+					+ ", \"processCpuMs\": " + millis(total[3])
+					+ ", \"allocatedBytes\": " + total[4]
+					+ ", \"peakHeapBytes\": " + total[5] + "}");
+			writer.println(++i < totals.size() ? "," : "");
+		}
+		writer.println("  ]");
+		writer.println("}");
+		writer.close();
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Record the peak heap of the ended phase and remove it from the open phases */
+	synchronized private void endPhase(Phase phase) {
+		
+		// The enclosing phases are still open, so they get the peak of the nested phase
+		updateOpenPeaks(heapUsage());
+		openPhases_.remove(phase);
+		depth_.get()[0]--;
+		if (openPhases_.isEmpty())
+			stopSampler();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Update the peak heap of the open phases with the current heap usage (called by the sampler) */
+	synchronized private void sampleHeap() {
+		
+		updateOpenPeaks(heapUsage());
+	}
+
+	
+	/** Stop sampling the heap */
+	private void stopSampler() {
+		
+		if (sampler_ != null) {
+			sampler_.cancel();
+			sampler_ = null;
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Update the peak heap of all open phases */
+	private void updateOpenPeaks(long peak) {
+		
+		for (Phase open : openPhases_)
+			if (peak > open.peakHeap_)
+				open.peakHeap_ = peak;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Current usage of the heap pools (bytes) */
+	private long heapUsage() {
+		
+		long used = 0;
+		for (MemoryPoolMXBean pool : heapPools_) {
+			MemoryUsage usage = pool.getUsage();
+			if (usage != null)
+				used += usage.getUsed();
+		}
+		return used;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** CPU time of the current thread (ns), -1 if not supported */
+	private long threadCpuTime() {
+		
+		try {
+			return threadBean_.isCurrentThreadCpuTimeSupported() ? threadBean_.getCurrentThreadCpuTime() : -1;
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+	
+	
+	/** CPU time of the process (ns), -1 if not supported */
+	private long processCpuTime() {
+		return osBean_ == null ? -1 : osBean_.getProcessCpuTime();
+	}
+	
+	
+	/** Bytes allocated by the current thread, -1 if not supported */
+	private long allocatedBytes() {
+		
+		if (!(threadBean_ instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		try {
+			return ((com.sun.management.ThreadMXBean) threadBean_).getThreadAllocatedBytes(Thread.currentThread().getId());
+		} catch (UnsupportedOperationException e) {
+			return -1;
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The phases that have ended, in the order they were started */
+	private List<Phase> getEndedPhases() {
+		
+		ArrayList<Phase> ended = new ArrayList<Phase>();
+		for (Phase phase : phases_)
+			if (phase.hasEnded())
+				ended.add(phase);
+		return ended;
+	}
+	
+	
+	/** Sum of two counters, -1 if one is not supported */
+	static private long sum(long a, long b) {
+		return (a < 0 || b < 0) ? -1 : a + b;
+	}
+
+	
+	/** Convert ns to ms (-1 stays -1) */
+	static private String millis(long nanos) {
+		return nanos < 0 ? "-1" : Double.toString(Math.round(nanos / 1e3) / 1e3);
+	}
+
+	
+	/** Quote and escape a JSON string */
+	static private String quote(String str) {
+		
+		StringBuilder quoted = new StringBuilder(str.length() + 2);
+		quoted.append('"');
+		for (int i=0; i<str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		quoted.append('"');
+		return quoted.toString();
+	}
+
+	
+	/** PhaseEvent.create() and PhaseEvent.commit(), null if PhaseEvent is not on the classpath or JFR is not available */
+	static private Method[] loadJfrMethods() {
+		
+		try {
+			Class.forName("jdk.jfr.Event");
+			Class<?> eventClass = Class.forName("edu.mit.magnum.PhaseEvent");
+			return new Method[] {
+					eventClass.getMethod("create"),
+					eventClass.getMethod("commit", Object.class, String.class, int.class, long.class, long.class, long.class) };
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	
+	/** Create and begin a JFR event, null if it fails */
+	static private Object createEvent() {
+		
+		try {
+			return JFR_METHODS[0].invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	
+	/** Set the fields of the JFR event and commit it */
+	static private void commitEvent(Object event, String phase, int depth, long threadCpuTime, long allocated, long peakHeap) {
+		
+		try {
+			JFR_METHODS[1].invoke(null, event, phase, depth, threadCpuTime, allocated, peakHeap);
+		} catch (Exception e) {
+			// The event is lost, the phase is still recorded
+		}
+	}
+	
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	/** All phases (including phases that have not ended yet), in the order they were started */
+	synchronized public List<Phase> getPhases() { return new ArrayList<Phase>(phases_); }
+	
+}
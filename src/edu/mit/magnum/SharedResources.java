@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Read-only resources (gene id mappings, annotations, kernels) shared by the Magnum instances of a 
+ * MagnumService. Each resource is loaded once, by the first instance that requests it; concurrent 
+ * requests for the same key wait for that load. Shared resources must not be modified.
+ * 
+ * At most maxResources resources are kept, the least recently used one is evicted when a new one is
+ * added (e.g., kernels of networks that have been modified). Instances that are still using an evicted
+ * resource keep their reference, it is freed once they are done.
+ */
+public class SharedResources {
+
+	/** The default maximum number of resources */
+	public static final int DEFAULT_MAX_RESOURCES = 4;
+	
+	/** The maximum number of resources */
+	private int maxResources_ = DEFAULT_MAX_RESOURCES;
+	/** The resources (or their pending loads) in access order, synchronized on itself */
+	private LinkedHashMap<String, FutureTask<?>> resources_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, keeps at most DEFAULT_MAX_RESOURCES resources */
+	public SharedResources() {
+		
+		this(DEFAULT_MAX_RESOURCES);
+	}
+
+	
+	/** Constructor, keeps at most maxResources resources */
+	public SharedResources(int maxResources) {
+		
+		if (maxResources < 1)
+			throw new IllegalArgumentException("maxResources must be >= 1");
+		maxResources_ = maxResources;
+		
+		// Access order, evict the least recently used resource
+		resources_ = new LinkedHashMap<String, FutureTask<?>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, FutureTask<?>> eldest) {
+				return size() > maxResources_;
+			}
+		};
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Get the resource with the given key, it is loaded with loader if it is not present */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key, Callable<T> loader) {
+		
+		FutureTask<?> task = null;
+		FutureTask<T> newTask = null;
+		synchronized (resources_) {
+			task = resources_.get(key);
+			if (task == null) {
+				newTask = new FutureTask<T>(loader);
+				task = newTask;
+				resources_.put(key, newTask);
+			}
+		}
+		// This thread loads the resource (outside the lock, other keys can be loaded concurrently)
+		if (newTask != null)
+			newTask.run();
+		
+		try {
+			return (T) task.get();
+			
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			// Don't keep failed loads, the next request tries again
+			synchronized (resources_) {
+				if (resources_.get(key) == task)
+					resources_.remove(key);
+			}
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Remove all resources */
+	public void clear() {
+		
+		synchronized (resources_) {
+			resources_.clear();
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** A key for the given file, which changes when the file is modified */
+	static public String fileKey(File file) {
+		
+		if (file == null)
+			return "null";
+		return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public int getNumResources() { synchronized (resources_) { return resources_.size(); } }
+	public int getMaxResources() { return maxResources_; }
+	
+}
@@ -0,0 +1,269 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.enrich;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import ch.unil.gpsutils.FileExport;
+import ch.unil.gpsutils.FileParser;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+import edu.mit.magnum.gene.Gene;
+
+
+/**
+ * Centralities (average kernel similarity) of the genes of pairwise functional data. The centrality of
+ * a gene depends on the set of genes it is compared to and on the excluded gene pairs, but not on the
+ * ranking. Centralities are thus computed once per gene set and, optionally, saved next to the
+ * functional data file so that subsequent runs can skip the O(N^2) pass.
+ */
+public class CentralityCache {
+
+	/** The magnum instance */
+	private Magnum mag;
+
+	/** The functional / network data */
+	private FunctionalData functData_ = null;
+	/** Centralities indexed by funct data index, for each gene set (key) that has been seen */
+	private HashMap<String, double[]> centralities_ = null;
+
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public CentralityCache(Magnum mag, FunctionalData functData) {
+		
+		this.mag = mag;
+		functData_ = functData;
+		centralities_ = new HashMap<String, double[]>();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Get the centralities of the given genes, indexed by their (current) funct data index. The centrality
+	 * is the sum of the similarities to the other genes, computed as the mean over non-excluded pairs
+	 * times the number of genes - 1.
+	 */
+	public double[] getCentralities(ArrayList<Gene> genes) {
+		
+		// The funct data indexes of the genes, sorted (a gene can appear multiple times)
+		int[] indexes = new int[genes.size()];
+		for (int i=0; i<indexes.length; i++)
+			indexes[i] = genes.get(i).getFunctDataIndex();
+		Arrays.sort(indexes);
+		
+		String key = getKey(indexes);
+		double[] c = centralities_.get(key);
+		
+		// Try to load them from the file
+		File file = getFile();
+		if (c == null && file != null && file.exists())
+			c = load(file, key, indexes);
+
+		// Compute them and save to file
+		if (c == null) {
+			c = compute(indexes);
+			if (file != null)
+				save(file, key, indexes, c);
+		}
+		
+		centralities_.put(key, c);
+		return c;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Compute the centralities of the given genes (row sums split in blocks over the available threads) */
+	private double[] compute(final int[] indexes) {
+
+		final double[] elements = functData_.getElements();
+		final ExclusionMask excludedPairs = functData_.getExcludedPairs();
+		final int N = functData_.getNumGenes();
+		final double[] c = new double[N];
+		final int n = indexes.length;
+		
+		Parallel.forBlocks(mag.set.getNumThreads(), n, new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int k=start; k<end; k++) {
+					int i = indexes[k];
+					// Duplicates have the same row, no need to recompute
+					if (k > 0 && indexes[k-1] == i)
+						continue;
+					
+					int offset = i*N;
+					double sum = 0;
+					for (int l=0; l<n; l++)
+						sum += elements[offset + indexes[l]];
+					
+					// Exclude self (only once, duplicates of the same gene are compared)
+					sum -= elements[offset + i];
+					int count = n - 1;
+					
+					// Remove excluded pairs
+					int[] excluded = excludedPairs.getPartners(i);
+					for (int p=0; p<excluded.length; p++) {
+						int num = countOccurrences(indexes, excluded[p]);
+						if (excluded[p] == i)
+							num--;
+						if (num > 0) {
+							sum -= num * elements[offset + excluded[p]];
+							count -= num;
+						}
+					}
+					c[i] = (count == 0) ? 0 : (sum/count) * (n - 1);
+				}
+			}
+		});
+		return c;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The number of times value occurs in the sorted array */
+	static private int countOccurrences(int[] sorted, int value) {
+		
+		int k = Arrays.binarySearch(sorted, value);
+		if (k < 0)
+			return 0;
+		
+		int first = k;
+		while (first > 0 && sorted[first-1] == value)
+			first--;
+		int last = k;
+		while (last < sorted.length-1 && sorted[last+1] == value)
+			last++;
+		return last - first + 1;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** The key identifies the data (file, scaling, excluded pairs) and the set of genes */
+	private String getKey(int[] indexes) {
+
+		// FNV-1a hash of the sorted indexes
+		long geneHash = 0xcbf29ce484222325L;
+		for (int i=0; i<indexes.length; i++) {
+			geneHash ^= indexes[i];
+			geneHash *= 0x100000001b3L;
+		}
+		
+		String key = indexes.length + "_" + Long.toHexString(geneHash) + "_" + Long.toHexString(functData_.getExclusionHash());
+		key += "_" + functData_.getNumGenes() + "_" + (mag.set.scaleKernel_ ? 1 : 0);
+		
+		// The file is identified by its size and modification date
+		File dataFile = functData_.getDataFile();
+		if (dataFile != null)
+			key += "_" + dataFile.length() + "_" + dataFile.lastModified();
+		
+		return key;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** The file where centralities are saved, null if they are not cached on disk */
+	private File getFile() {
+		
+		File dataFile = functData_.getDataFile();
+		if (!mag.set.cacheCentrality_ || dataFile == null)
+			return null;
+		else
+			return new File(dataFile.getPath() + ".centrality");
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Load centralities from the file, returns null if the file was computed for a different key */
+	private double[] load(File file, String key, int[] indexes) {
+
+		FileParser parser = new FileParser(mag.log, file);
+		String[] header = parser.readLine();
+		if (header == null || header.length != 2 || !header[0].equals("key") || !header[1].equals(key)) {
+			parser.close();
+			return null;
+		}
+		
+		double[] c = new double[functData_.getNumGenes()];
+		boolean[] loaded = new boolean[c.length];
+		HashMap<String, Integer> genes = functData_.getGenes();
+		
+		while (true) {
+			String[] nextLine = parser.readLine();
+			if (nextLine == null)
+				break;
+			
+			Integer index = genes.get(nextLine[0]);
+			if (index == null) {
+				parser.close();
+				return null;
+			}
+			c[index] = Double.parseDouble(nextLine[1]);
+			loaded[index] = true;
+		}
+		parser.close();
+
+		// Check that all genes are there
+		for (int i=0; i<indexes.length; i++)
+			if (!loaded[indexes[i]])
+				return null;
+		
+		mag.log.println("- Loaded centralities from file: " + file.getPath());
+		return c;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save centralities to the file (a warning is printed if it can't be written) */
+	private void save(File file, String key, int[] indexes, double[] c) {
+
+		ArrayList<String> ids = functData_.getColNames();
+		try {
+			FileExport writer = new FileExport(mag.log, file);
+			writer.println("key\t" + key);
+			for (int k=0; k<indexes.length; k++) {
+				int i = indexes[k];
+				if (k == 0 || indexes[k-1] != i)
+					writer.println(ids.get(i) + "\t" + c[i]);
+			}
+			writer.close();
+		} catch (RuntimeException e) {
+			mag.log.warning("Failed to save centralities: " + e.getMessage());
+		}
+	}
+
+}
@@ -27,10 +27,11 @@ package edu.mit.magnum.enrich;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import cern.colt.matrix.DoubleMatrix2D;
+import ch.unil.gpsutils.ProgressMonitor;
 import edu.mit.magnum.*;
-import edu.mit.magnum.gene.GeneIdMapping;
 import edu.mit.magnum.net.Network;
 import edu.mit.magnum.netprop.*;
 
@@ -53,6 +54,8 @@ public class EnrichMain {
 
 	/** The enrichment analyzer */
 	private Enrichment enrichment_ = null;
+	/** The enrichment analyzers of the last run, in the order their results were saved */
+	private ArrayList<Enrichment> enrichments_ = new ArrayList<Enrichment>();
 	
 	/** The network */
 	private Network network;
@@ -67,13 +70,19 @@ public class EnrichMain {
 		this.mag = mag;
 		// Initialize gene mapping
 		if (!mag.set.idTypeFunctionalData_.equalsIgnoreCase(mag.set.idTypeGeneScores_))
-			GeneIdMapping.getInstance(mag.log).load(mag.set.geneIdMappingFile_);
+			mag.getGeneIdMapping();
 		
 		// Load the gene scores, excluding genes from the excludedGenesFile
-		geneScores_ = new GeneScoreList(mag, mag.set.geneScoreFile_, mag.set.excludedGenesFile_);
+		PhaseRecorder.Phase phase = mag.phases.start("gene-score load");
+		try {
+			geneScores_ = new GeneScoreList(mag, mag.set.geneScoreFile_, mag.set.excludedGenesFile_);
+		} finally {
+			phase.end();
+		}
 		
 		// Initialize functional data (kernel) -- compute it or load from file
 		File functionalDataFile = mag.set.functionalDataFile_;
+		KernelCache kernelCache = null;
 		if (functionalDataFile == null) {
 			// Change output dir to kernel dir (used to check if kernels are present or to export them)
 			File outDirBkp = mag.set.outputDirectory_;
@@ -82,16 +91,36 @@ public class EnrichMain {
 			else
 				mag.set.outputDirectory_ = new File(outDirBkp, "network_kernels");
 			
-			// The default file
-			File defaultFile = PstepKernel.getKFile(mag);
+			// The kernel in the content-addressed cache, or the default file
+			File precomputedFile = null;
+			String kernelKey = null;
+			if (mag.set.kernelCacheDir_ != null) {
+				kernelCache = new KernelCache(mag, mag.set.kernelCacheDir_, mag.set.kernelCacheSizeGB_);
+				kernelKey = kernelCache.getKey(getNetworkFile());
+				if (mag.set.usePrecomputedKernels)
+					precomputedFile = kernelCache.get(kernelKey);
+			} else {
+				precomputedFile = mag.set.computeHeatKernel_ ? HeatKernel.getKFile(mag) : PstepKernel.getKFile(mag);
+			}
 			// If it exists, load it
-			if (defaultFile.exists() && mag.set.usePrecomputedKernels) {
-				functionalDataFile = defaultFile;
+			if (precomputedFile != null && precomputedFile.exists() && mag.set.usePrecomputedKernels) {
+				functionalDataFile = precomputedFile;
+				// Default kernel files are matched by name only (the cache also checks the network file content)
+				if (kernelCache == null && precomputedFile.lastModified() < getNetworkFile().lastModified())
+					mag.log.warning("The precomputed kernel " + precomputedFile.getPath() + " is older than the network file, "
+							+ "delete it if the network has changed (or use kernelCacheDir)");
 			
 			// Else, compute kernel
 			} else {
-				DoubleMatrix2D kernel = computeSimilarityNetwork();
-				functData_ = new FunctionalData(mag, network, kernel, mag.set.excludedGenePairsFile_, geneScores_.getGenes());
+				DoubleMatrix2D kernel = getSimilarityNetwork();
+				if (kernelCache != null)
+					kernelCache.put(kernelKey, network, kernel);
+				phase = mag.phases.start("functional-data load");
+				try {
+					functData_ = new FunctionalData(mag, network, kernel, mag.set.excludedGenePairsFile_, geneScores_.getGenes());
+				} finally {
+					phase.end();
+				}
 				network = null; // Not needed anymore
 				name_ = extractName(mag.set.geneScoreFile_, mag.set.networkFile_);
 			}
@@ -101,8 +130,14 @@ public class EnrichMain {
 		if (functionalDataFile != null) {
 			if (!functionalDataFile.exists())
 				throw new RuntimeException("File not found: " + functionalDataFile.getPath());
-			functData_ = new FunctionalData(mag, functionalDataFile, mag.set.excludedGenePairsFile_, mag.set.functionalDataCols_, geneScores_.getGenes());
-			name_ = extractName(mag.set.geneScoreFile_, functionalDataFile);
+			phase = mag.phases.start("functional-data load");
+			try {
+				functData_ = new FunctionalData(mag, functionalDataFile, mag.set.excludedGenePairsFile_, mag.set.functionalDataCols_, geneScores_.getGenes());
+			} finally {
+				phase.end();
+			}
+			// Cached kernels are named by their key, use the network name
+			name_ = extractName(mag.set.geneScoreFile_, (kernelCache != null) ? mag.set.networkFile_ : functionalDataFile);
 		}
 
 		// The genes that were not loaded because they have no scores
@@ -155,6 +190,7 @@ public class EnrichMain {
 	public void run() {
 		
 		int numScoresPerGene = geneScores_.getNumScoresPerGene();
+		enrichments_.clear();
 		
 		// Compute enrichment for each gene score
 		if (mag.set.geneScoreIndexEnd_ >= numScoresPerGene)
@@ -162,6 +198,15 @@ public class EnrichMain {
 		if (mag.set.geneScoreIndexEnd_ < mag.set.geneScoreIndexStart_)
 			throw new IllegalArgumentException("Settings.geneScoreIndexEnd_ < Settings.geneScoreIndexStart_");
 		
+		// Centrality bins and permutations don't depend on the ranking, share them across gene scores
+		if (mag.set.sharePermutations_ && mag.set.geneScoreIndexEnd_ > mag.set.geneScoreIndexStart_) {
+			if (functData_.getIsPairwiseData())
+				runPairwiseDataSharedPermutations();
+			else
+				runPerGeneDataSharedPermutations();
+			return;
+		}
+		
 		for (int i=mag.set.geneScoreIndexStart_; i<=mag.set.geneScoreIndexEnd_; i++) {
 			// Rank genes according to i'th score
 			geneScores_.sortGeneList(i);
@@ -178,15 +223,42 @@ public class EnrichMain {
 	// ============================================================================
 	// PRIVATE METHODS
 		
+	/** 
+	 * Compute kernel / tanimoto similarity network (when no precomputed similarity matrix is given), or get it 
+	 * from the shared resources if another Magnum instance of the service has already computed it 
+	 */
+	private DoubleMatrix2D getSimilarityNetwork() {
+		
+		SharedResources resources = mag.getSharedResources();
+		if (resources == null)
+			return computeSimilarityNetwork();
+		
+		// All settings that affect the network and the kernel
+		String key = "kernel:" + SharedResources.fileKey(getNetworkFile()) 
+				+ ":" + mag.set.networkFileDelim_ + ":" + mag.set.isWeighted_ + ":" + mag.set.threshold_ + ":" + mag.set.superHubThreshold_
+				+ ":" + mag.set.pstepKernelAlpha_ + ":" + mag.set.pstepKernelP_ + ":" + mag.set.pstepKernelNormalize_;
+		if (mag.set.computeHeatKernel_)
+			key += ":heat:" + mag.set.heatKernelBeta_ + ":" + mag.set.heatKernelKrylovDim_ + ":" + mag.set.heatKernelNormalize_;
+		
+		// The network is needed for the gene ids of the kernel
+		Object[] networkAndKernel = resources.get(key, new Callable<Object[]>() {
+			public Object[] call() {
+				DoubleMatrix2D kernel = computeSimilarityNetwork();
+				return new Object[] {network, kernel};
+			}
+		});
+		network = (Network) networkAndKernel[0];
+		return (DoubleMatrix2D) networkAndKernel[1];
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
 	/** Compute kernel / tanimoto similarity network (when no precomputed similarity matrix is given) */
 	private DoubleMatrix2D computeSimilarityNetwork() {
 		
 		// Load the input network
-		File networkFile; 
-		if (mag.set.networkDir_ != null)
-			networkFile = new File(mag.set.networkDir_, mag.set.networkFile_.getPath());
-		else
-			networkFile = mag.set.networkFile_;
+		File networkFile = getNetworkFile();
 		
 		mag.set.exportPairwiseNodeProperties_ = mag.set.exportKernels;
 		mag.set.exportNodeProperties_ = false;
@@ -197,24 +269,42 @@ public class EnrichMain {
 			mag.set.outputDirectory_.mkdirs();
 
 		// Doesn't make sense to save more than one step
-		if (mag.set.pstepKernelP_.size() != 1)
+		if (!mag.set.computeHeatKernel_ && mag.set.pstepKernelP_.size() != 1)
 			throw new RuntimeException("Specify only one pstepKernelP when computing kernels on the fly within enrichment analysis");
 			
 		// Load network: p-step kernel only defined for undirected networks without self-loops
 		mag.log.println();
 		network = new Network(mag, networkFile, false, true, mag.set.isWeighted_, mag.set.threshold_);
 
-		mag.log.println("COMPUTING RANDOM-WALK KERNEL");
-		mag.log.println("----------------------------\n");
-		
 		// Compute and return K
-		PairwiseProperties netprop = new PstepKernel(mag, network, mag.set.pstepKernelAlpha_, mag.set.pstepKernelP_, mag.set.pstepKernelNormalize_, false);
+		PairwiseProperties netprop;
+		if (mag.set.computeHeatKernel_) {
+			mag.log.println("COMPUTING HEAT KERNEL");
+			mag.log.println("---------------------\n");
+			netprop = new HeatKernel(mag, network, mag.set.heatKernelBeta_, mag.set.heatKernelKrylovDim_, mag.set.heatKernelNormalize_, false);
+		} else {
+			mag.log.println("COMPUTING RANDOM-WALK KERNEL");
+			mag.log.println("----------------------------\n");
+			netprop = new PstepKernel(mag, network, mag.set.pstepKernelAlpha_, mag.set.pstepKernelP_, mag.set.pstepKernelNormalize_, false);
+		}
 		netprop.run();
 		DoubleMatrix2D kernel = netprop.getK();
 		return kernel;		
 	}
 
 
+	// ----------------------------------------------------------------------------
+
+	/** The network file (in networkDir if specified) */
+	private File getNetworkFile() {
+		
+		if (mag.set.networkDir_ != null)
+			return new File(mag.set.networkDir_, mag.set.networkFile_.getPath());
+		else
+			return mag.set.networkFile_;
+	}
+
+
 	// ----------------------------------------------------------------------------
 
 	/** Run enrichment analysis for per gene functional data */
@@ -222,6 +312,18 @@ public class EnrichMain {
 
 		// For each property, run enrichment analysis and save results
 		ArrayList<String> colNames = functData_.getColNames();
+		
+		// All properties in a single pass per permutation
+		if (mag.set.vectorizedPerGeneEnrichment_) {
+			EnrichmentIndividualVectorized vectorized = new EnrichmentIndividualVectorized(mag, functData_, geneScores_);
+			vectorized.run();
+			for (int i=0; i<colNames.size(); i++) {
+				enrichment_ = vectorized.getEnrichment(i);
+				savePerGeneResults(colNames.get(i), geneScoreIndex);
+			}
+			return;
+		}
+		
 		for (int i=0; i<colNames.size(); i++) {
 			// Reinitialize correct funct data indexes (they have been shuffled at prev iteration)
 			permuter_ = new LabelPermuter(mag, functData_, geneScores_.getGenes(), mag.set.numBins_, i);
@@ -231,12 +333,7 @@ public class EnrichMain {
 			enrichment_.run();
 
 			// Save results
-			String col = colNames.get(i).replace("_weighted", "");
-			String filename = new File(mag.set.outputDirectory_, name_ + "_" + col + "_bin" + mag.set.numBins_).getPath();
-			if (geneScoreIndex > 0)
-				filename += "." + geneScoreIndex;
-			enrichment_.save(filename);
-			mag.log.println();
+			savePerGeneResults(colNames.get(i), geneScoreIndex);
 		}
 	}
 	
@@ -252,6 +349,125 @@ public class EnrichMain {
 		enrichment_ = new EnrichmentPairwise(mag, functData_, geneScores_, permuter_);
 		enrichment_.run();
 		
+		// Save results and print pvals
+		savePairwiseResults(geneScoreIndex);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Run enrichment analysis for per gene functional data, sharing permutations across gene scores */
+	private void runPerGeneDataSharedPermutations() {
+
+		// For each property, bin once and evaluate the permutations for all gene scores
+		ArrayList<String> colNames = functData_.getColNames();
+		for (int i=0; i<colNames.size(); i++) {
+			permuter_ = new LabelPermuter(mag, functData_, geneScores_.getGenes(), mag.set.numBins_, i);
+			ArrayList<Enrichment> enrichments = runSharedPermutations(i);
+
+			// Save results
+			for (int k=0; k<enrichments.size(); k++) {
+				enrichment_ = enrichments.get(k);
+				savePerGeneResults(colNames.get(i), mag.set.geneScoreIndexStart_ + k);
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Run enrichment analysis for pairwise functional data, sharing centrality bins and permutations across gene scores */
+	private void runPairwiseDataSharedPermutations() {
+		
+		// Centrality is computed only once for all gene scores
+		permuter_ = new LabelPermuter(mag, functData_, geneScores_.getGenes(), mag.set.numBins_);
+		ArrayList<Enrichment> enrichments = runSharedPermutations(-1);
+		
+		// Save results and print pvals
+		for (int k=0; k<enrichments.size(); k++) {
+			enrichment_ = enrichments.get(k);
+			savePairwiseResults(mag.set.geneScoreIndexStart_ + k);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Compute enrichment for gene scores geneScoreIndexStart..End using permuter_. The permuted labels don't
+	 * depend on the ranking, so every permutation is evaluated for all gene scores in the same pass.
+	 * Set functDataCol to -1 for pairwise data.
+	 */
+	private ArrayList<Enrichment> runSharedPermutations(int functDataCol) {
+		
+		// Observed curves (genes have their true funct data indexes at this point)
+		ArrayList<Enrichment> enrichments = new ArrayList<Enrichment>();
+		for (int i=mag.set.geneScoreIndexStart_; i<=mag.set.geneScoreIndexEnd_; i++) {
+			// Rank genes according to i'th score, the enrichment keeps a copy of the ranking
+			geneScores_.sortGeneList(i);
+			
+			Enrichment enrichment;
+			if (functData_.getIsPairwiseData())
+				enrichment = new EnrichmentPairwise(mag, functData_, geneScores_, permuter_);
+			else
+				enrichment = new EnrichmentIndividual(mag, functData_, geneScores_, permuter_, functDataCol);
+			enrichment.computeObservedCurve();
+			enrichments.add(enrichment);
+		}
+		
+		// Random permutations, each one is used for all gene scores
+		mag.log.println("Computing " + mag.set.numPermutations_ + " permutations shared by " + enrichments.size() + " gene scores:");
+		ProgressMonitor progress = new ProgressMonitor(mag.log, mag.set.numPermutations_);
+		PhaseRecorder.Phase phase = mag.phases.start("permutations");
+		try {
+			PermutationCheckpoint checkpoint = new PermutationCheckpoint(mag, "enrichment", 
+					enrichments.toArray(new Enrichment[enrichments.size()]), new LabelPermuter[] {permuter_});
+			try {
+				for (int p=checkpoint.resume(); p<mag.set.numPermutations_; p++) {
+					progress.iteration(p);
+					permuter_.shuffle();
+					for (Enrichment enrichment : enrichments)
+						enrichment.computePermutCurve();
+					checkpoint.update(p+1);
+				}
+				checkpoint.done();
+			} finally {
+				checkpoint.close();
+			}
+		} finally {
+			phase.end();
+		}
+		progress.done();
+		permuter_.resetLabels();
+		
+		// Empirical p-values
+		for (Enrichment enrichment : enrichments)
+			enrichment.computeSignificance();
+		
+		return enrichments;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save the results of enrichment_ for the given per gene property */
+	private void savePerGeneResults(String colName, int geneScoreIndex) {
+		
+		String col = colName.replace("_weighted", "");
+		String filename = new File(mag.set.outputDirectory_, name_ + "_" + col + "_bin" + mag.set.numBins_).getPath();
+		if (geneScoreIndex > 0)
+			filename += "." + geneScoreIndex;
+		enrichment_.save(filename);
+		enrichments_.add(enrichment_);
+		mag.log.println();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save the results of enrichment_ for pairwise data and print pvals */
+	private void savePairwiseResults(int geneScoreIndex) {
+		
 		// Results
 		mag.log.println("RESULTS\n" + 
 				        "-------\n");
@@ -261,6 +477,7 @@ public class EnrichMain {
 		if (geneScoreIndex > 0)
 			filename += "." + geneScoreIndex;
 		enrichment_.save(filename);
+		enrichments_.add(enrichment_);
 		mag.log.println();
 
 		// Print pvals
@@ -287,6 +504,7 @@ public class EnrichMain {
 	// SETTERS AND GETTERS
 	
 	public Enrichment getEnrichment() { return enrichment_; }
+	public ArrayList<Enrichment> getEnrichments() { return enrichments_; }
 	public GeneScoreList getGeneScores() { return geneScores_; }
 	public double getEnrichmentScore() { return enrichment_.getEnrichmentScore(); }
 	
@@ -31,6 +31,7 @@ import cern.colt.matrix.DoubleMatrix2D;
 import ch.unil.gpsutils.FileExport;
 import ch.unil.gpsutils.ProgressMonitor;
 import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
 import edu.mit.magnum.gene.Gene;
 
 
@@ -49,6 +50,10 @@ abstract public class Enrichment {
 	protected boolean isPairwiseData_ = false;
 	/** The gene scores */
 	protected GeneScoreList geneScores_ = null;
+	/** The ranked genes (order of geneScores_ at construction, the genes themselves are shared with the permuter) */
+	protected ArrayList<Gene> rankedGenes_ = null;
+	/** The number of genes with score below genome-wide significance threshold (for the ranking of rankedGenes_) */
+	protected int numGenomeWideSignificant_ = -1;
 	/** The number of genes */
 	protected int numGenes_ = -1;
 	/** Maps genes to rows of the genePropertyMatrix_, provides functionality for label permutation */
@@ -116,6 +121,9 @@ abstract public class Enrichment {
 		functData_ = functData.getData();
 		isPairwiseData_ = functData.getIsPairwiseData();
 		geneScores_ = geneScores;
+		// Keep the current ranking, the gene score list may be re-sorted for other scores while this instance is used
+		rankedGenes_ = new ArrayList<Gene>(geneScores.getGenes());
+		numGenomeWideSignificant_ = geneScores.getNumGenomeWideSignificant();
 		numGenes_ = geneScores.getNumGenes();
 		// Not if mapping to entrez (see Handler() constructor, we print a warning)
 		//assert geneScores.getNumGenes() == functData.getNumGenes();
@@ -147,41 +155,96 @@ abstract public class Enrichment {
 	/** Run enrichment analysis */
 	public void run() {
 
+		// Compute enrichment curve for original / unpermuted case
+		computeObservedCurve();
+		// Do random permutations
+		computePermutCurves();
+		// Compute empirical p-values, AUCs and p-values
+		computeSignificance();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute the enrichment curve for the original / unpermuted list (genes must have their true funct data indexes) */
+	public void computeObservedCurve() {
+
 		// Compute expected
 		//expected_ = computeSum();
 		
 		// Compute enrichment curve for original / unpermuted case (also computes curveExpected_)
 		mag.log.println("Computing enrichment curve for unpermuted list:");
-		long t0 = System.currentTimeMillis();
+		PhaseRecorder.Phase phase = mag.phases.start("observed curve");
+		try {
 		
-		computeCurve(true);
-		curveObs_ = curCurve_;
-		curveObsSlidingWindow_ = curCurveSlidingWindow_;
+			computeCurve(true);
+			curveObs_ = curCurve_;
+			curveObsSlidingWindow_ = curCurveSlidingWindow_;
 		
-		long t1 = System.currentTimeMillis();
-		mag.log.printlnVerbose("Estimated runtime for " + numPermutations_ + " random permutations: < " + mag.utils.chronometer(numPermutations_*(t1-t0)));
-				
-		// Do random permutations
-		computePermutCurves();
+		} finally {
+			phase.end();
+		}
+		mag.log.printlnVerbose("Estimated runtime for " + numPermutations_ + " random permutations: < " + mag.utils.chronometer((long) (numPermutations_*phase.getWallTimeMillis())));
+		
+		curvesPermut_ = new ArrayList<Curve>(numPermutations_);
+		curvesPermutSlidingWindow_ = new ArrayList<Curve>(numPermutations_);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute the enrichment curve for the current (permuted) labels and add it to the permuted curves */
+	public void computePermutCurve() {
 		
-		// Compute empirical p-values based on random permutations
-		empiricalPvals_ = new EmpiricalPvals(mag, curvesPermut_, k_);
-		empiricalPvals_.computeCurvesSignificance();
-		empiricalPvals_.computePvalCurve(curveObs_, false); //true);
-		curveMedian_ = empiricalPvals_.getCurveMedian();
+		computeCurve(false);
+		curvesPermut_.add(curCurve_);
+		if (mag.set.slidingWindowSize_ > 0)
+			curvesPermutSlidingWindow_.add(curCurveSlidingWindow_);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
 
-		// Compute empirical p-values based on random permutations
-		if (mag.set.slidingWindowSize_ > 0) {
-			empiricalPvalsSlidingWindow_ = new EmpiricalPvals(mag, curvesPermutSlidingWindow_, k_);
-			empiricalPvalsSlidingWindow_.computeCurvesSignificance();
-			empiricalPvalsSlidingWindow_.computePvalCurve(curveObsSlidingWindow_, false);
-			curveMedianSlidingWindow_ = empiricalPvalsSlidingWindow_.getCurveMedian();
-		}
+	/** Add a curve that was computed elsewhere for permuted labels (must have a point for each k_, no sliding window) */
+	public void addPermutCurve(Curve curve) {
 		
-		// Compute AUC for expected and permut curves
-		computeAUC();		
-		// Compute p-values
-		computePvals();
+		if (curve.getNumPoints() != k_.size())
+			throw new RuntimeException("Enrichment curve of permuted list has " + curve.getNumPoints() + " points, expected " + k_.size());
+		curvesPermut_.add(curve);
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute empirical p-values, AUCs and p-values once all permuted curves have been computed */
+	public void computeSignificance() {
+		
+		if (curvesPermut_.size() != numPermutations_)
+			throw new RuntimeException("Expected " + numPermutations_ + " permuted curves, found " + curvesPermut_.size());
+		PhaseRecorder.Phase phase = mag.phases.start("p-values");
+		try {
+				
+			// Compute empirical p-values based on random permutations
+			empiricalPvals_ = new EmpiricalPvals(mag, curvesPermut_, k_);
+			empiricalPvals_.computeCurvesSignificance();
+			empiricalPvals_.computePvalCurve(curveObs_, false); //true);
+			curveMedian_ = empiricalPvals_.getCurveMedian();
+
+			// Compute empirical p-values based on random permutations
+			if (mag.set.slidingWindowSize_ > 0) {
+				empiricalPvalsSlidingWindow_ = new EmpiricalPvals(mag, curvesPermutSlidingWindow_, k_);
+				empiricalPvalsSlidingWindow_.computeCurvesSignificance();
+				empiricalPvalsSlidingWindow_.computePvalCurve(curveObsSlidingWindow_, false);
+				curveMedianSlidingWindow_ = empiricalPvalsSlidingWindow_.getCurveMedian();
+			}
+		
+			// Compute AUC for expected and permut curves
+			computeAUC();		
+			// Compute p-values
+			computePvals();
+		} finally {
+			phase.end();
+		}
 	}
 	
 	
@@ -203,8 +266,27 @@ abstract public class Enrichment {
 	/** Save enrichment curves for observed and permuted lists */
 	public void save(String filename) {
 		
-		saveCurves(filename + ".curves.txt");
-		saveAUCs(filename + ".AUC.txt");
+		PhaseRecorder.Phase phase = mag.phases.start("output");
+		try {
+			saveCurves(filename + ".curves.txt");
+			saveAUCs(filename + ".AUC.txt");
+		} finally {
+			phase.end();
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Settings and observed curve that determine the permuted curves, a checkpoint is only resumed if they are the same */
+	String getCheckpointKey() {
+		
+		long hash = 17;
+		for (int k=0; k<curveObs_.getNumPoints(); k++)
+			hash = 31*hash + Double.doubleToLongBits(curveObs_.getValue(k));
+		
+		return getClass().getSimpleName() + " permutations=" + numPermutations_ + " genes=" + numGenes_ 
+				+ " points=" + k_.size() + " slidingWindow=" + mag.set.slidingWindowSize_ + " observed=" + Long.toHexString(hash);
 	}
 
 	
@@ -267,7 +349,7 @@ abstract public class Enrichment {
 				}					
 				
 				if (isObs) {
-					Gene curGene = geneScores_.getGene(currentK_);
+					Gene curGene = rankedGenes_.get(currentK_);
 					curveObsGeneScores_.addPoint(curGene.getScore(0));
 					progress.iteration(kIndex);
 				}
@@ -290,21 +372,26 @@ abstract public class Enrichment {
 	/** Compute enrichment for permuted lists */
 	private void computePermutCurves() {
 		
-		curvesPermut_ = new ArrayList<Curve>(numPermutations_);
-		curvesPermutSlidingWindow_ = new ArrayList<Curve>(numPermutations_);
-		
 		//Ngsea.println("Computing enrichment for " + numPermutations_ + " random permutations");
 		ProgressMonitor progress = new ProgressMonitor(mag.log, numPermutations_);
-
-		for (int i=0; i<numPermutations_; i++) {
-			// Print progress
-			progress.iteration(i);
-			// Shuffle and compute curve
-			permuter_.shuffle();
-			computeCurve(false);
-			curvesPermut_.add(curCurve_);
-			if (mag.set.slidingWindowSize_ > 0)
-				curvesPermutSlidingWindow_.add(curCurveSlidingWindow_);
+		PhaseRecorder.Phase phase = mag.phases.start("permutations");
+		try {
+			PermutationCheckpoint checkpoint = new PermutationCheckpoint(mag, "enrichment", new Enrichment[] {this}, new LabelPermuter[] {permuter_});
+			try {
+				for (int i=checkpoint.resume(); i<numPermutations_; i++) {
+					// Print progress
+					progress.iteration(i);
+					// Shuffle and compute curve
+					permuter_.shuffle();
+					computePermutCurve();
+					checkpoint.update(i+1);
+				}
+				checkpoint.done();
+			} finally {
+				checkpoint.close();
+			}
+		} finally {
+			phase.end();
 		}
 		progress.done();
 	}
@@ -341,7 +428,7 @@ abstract public class Enrichment {
 	/** Initialize the points to be computed / plotted */
 	private void initializeK() {
 
-		int numGenes = (int) Math.round(mag.set.curveCutoff_ * geneScores_.getNumGenes());
+		int numGenes = (int) Math.round(mag.set.curveCutoff_ * numGenes_);
 		
 		// vary resolution
 		if (mag.set.varCurveResolution_ > 0) {
@@ -454,7 +541,7 @@ abstract public class Enrichment {
 			auc[i] = 0;
 		
 		final double ln_2 = Math.log(2);
-		int numGenomeWideSignificant = geneScores_.getNumGenomeWideSignificant();
+		int numGenomeWideSignificant = numGenomeWideSignificant_;
 		
 		double[] sumx = new double[5];
 		for (int i=0; i<5; i++)
@@ -607,6 +694,8 @@ abstract public class Enrichment {
 	// GETTERS AND SETTERS
 	
 	public Curve getCurveObs() { return curveObs_; }
+	public ArrayList<Integer> getK() { return k_; }
+	public ArrayList<Curve> getCurvesPermut() { return curvesPermut_; }
 	public ArrayList<double[]> getAUCs() { return AUCs_; }
 	public double getEnrichmentScore() { return pvals_[7]; }
 }
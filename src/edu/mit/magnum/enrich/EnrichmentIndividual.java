@@ -53,7 +53,7 @@ public class EnrichmentIndividual extends Enrichment {
 	/** Update the running sum with the given gene 46s */
 	protected void updateRunningSum() {
 
-		int curGeneIndex = geneScores_.getGene(currentK_).getFunctDataIndex();
+		int curGeneIndex = rankedGenes_.get(currentK_).getFunctDataIndex();
 		runningSum_ += functData_.get(curGeneIndex, genePropertyIndex_);; 
 		runningCount_++;
 	}
@@ -0,0 +1,197 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.enrich;
+
+import java.util.ArrayList;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import ch.unil.gpsutils.ProgressMonitor;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
+import edu.mit.magnum.gene.Gene;
+
+
+/**
+ * Enrichment for all columns of per gene functional data at once. The running sums of all columns
+ * are updated in a single pass down the ranked list from a row-major copy of the data. Genes are
+ * binned by the property being tested, so the same permutation is used for all columns only if
+ * there is a single bin, otherwise each column is permuted within its own bins.
+ */
+public class EnrichmentIndividualVectorized {
+
+	/** The magnum instance */
+	private Magnum mag;
+
+	/** The per gene data, row-major (genes x properties) */
+	private double[] values_ = null;
+	/** The number of properties (columns) */
+	private int numCols_ = -1;
+	/** Genes ranked by score */
+	private ArrayList<Gene> rankedGenes_ = null;
+	/** The points of the curves (same for all columns) */
+	private int[] k_ = null;
+
+	/** Use the same permutation for all columns (only if there's a single bin) */
+	private boolean sharePermutations_ = false;
+	/** The label permuters (one for all columns if permutations are shared, else one per column) */
+	private LabelPermuter[] permuters_ = null;
+	/** The enrichment for each column (holds the curves, computes p-values and saves results) */
+	private EnrichmentIndividual[] enrichments_ = null;
+
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public EnrichmentIndividualVectorized(Magnum mag, FunctionalData functData, GeneScoreList geneScores) {
+
+		this.mag = mag;
+		
+		if (functData.getIsPairwiseData())
+			throw new IllegalArgumentException("Vectorized enrichment is only implemented for per gene functional data");
+		if (mag.set.slidingWindowSize_ > 0)
+			throw new RuntimeException("Sliding window not yet implemented for per gene functional data");
+
+		// Row-major copy of the data
+		DoubleMatrix2D data = functData.getData();
+		numCols_ = data.columns();
+		values_ = new double[data.rows() * numCols_];
+		for (int i=0; i<data.rows(); i++)
+			for (int j=0; j<numCols_; j++)
+				values_[i*numCols_ + j] = data.getQuick(i, j);
+		
+		rankedGenes_ = new ArrayList<Gene>(geneScores.getGenes());
+		
+		// Genes are binned by the property itself, the same bins apply to all columns only if there's one bin
+		sharePermutations_ = (mag.set.numBins_ == 1);
+		permuters_ = new LabelPermuter[sharePermutations_ ? 1 : numCols_];
+		for (int j=0; j<permuters_.length; j++)
+			permuters_[j] = new LabelPermuter(mag, functData, geneScores.getGenes(), mag.set.numBins_, j);
+		
+		enrichments_ = new EnrichmentIndividual[numCols_];
+		for (int j=0; j<numCols_; j++)
+			enrichments_[j] = new EnrichmentIndividual(mag, functData, geneScores, getPermuter(j), j);
+		
+		ArrayList<Integer> k = enrichments_[0].getK();
+		k_ = new int[k.size()];
+		for (int i=0; i<k_.length; i++)
+			k_[i] = k.get(i);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Run enrichment analysis for all columns */
+	public void run() {
+		
+		// Observed curves (genes have their true funct data indexes at this point)
+		for (int j=0; j<numCols_; j++)
+			enrichments_[j].computeObservedCurve();
+		
+		// Random permutations
+		mag.log.println("Computing " + mag.set.numPermutations_ + " permutations for " + numCols_ + " properties" + 
+				(sharePermutations_ ? " (shared)" : "") + ":");
+		ProgressMonitor progress = new ProgressMonitor(mag.log, mag.set.numPermutations_);
+		PhaseRecorder.Phase phase = mag.phases.start("permutations");
+		try {
+			PermutationCheckpoint checkpoint = new PermutationCheckpoint(mag, "enrichment", enrichments_, permuters_);
+			try {
+				for (int p=checkpoint.resume(); p<mag.set.numPermutations_; p++) {
+					progress.iteration(p);
+					if (sharePermutations_) {
+						permuters_[0].shuffle();
+						computePermutCurves(0, numCols_);
+					} else {
+						for (int j=0; j<numCols_; j++) {
+							permuters_[j].shuffle();
+							computePermutCurves(j, j+1);
+						}
+					}
+					checkpoint.update(p+1);
+				}
+				checkpoint.done();
+			} finally {
+				checkpoint.close();
+			}
+		} finally {
+			phase.end();
+		}
+		progress.done();
+		for (LabelPermuter permuter : permuters_)
+			permuter.resetLabels();
+		
+		// Empirical p-values
+		for (int j=0; j<numCols_; j++)
+			enrichments_[j].computeSignificance();
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Compute the curves of columns colStart..colEnd-1 for the current (permuted) labels */
+	private void computePermutCurves(int colStart, int colEnd) {
+		
+		int numCols = colEnd - colStart;
+		double[] sums = new double[numCols];
+		Curve[] curves = new Curve[numCols];
+		for (int j=0; j<numCols; j++)
+			curves[j] = new Curve(k_.length);
+
+		// Walk down the gene list, updating the sums of all columns
+		int kIndex = 0;
+		for (int k=0; kIndex<k_.length; k++) {
+			int offset = rankedGenes_.get(k).getFunctDataIndex() * numCols_ + colStart;
+			for (int j=0; j<numCols; j++)
+				sums[j] += values_[offset + j];
+			
+			if (k == k_[kIndex]) {
+				for (int j=0; j<numCols; j++)
+					curves[j].addPoint(sums[j] / (k+1));
+				kIndex++;
+			}
+		}
+		
+		for (int j=0; j<numCols; j++)
+			enrichments_[colStart + j].addPermutCurve(curves[j]);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The permuter used for the given column */
+	private LabelPermuter getPermuter(int col) {
+		return sharePermutations_ ? permuters_[0] : permuters_[col];
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public int getNumCols() { return numCols_; }
+	public EnrichmentIndividual getEnrichment(int col) { return enrichments_[col]; }
+	
+}
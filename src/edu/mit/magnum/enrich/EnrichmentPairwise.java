@@ -25,6 +25,8 @@ THE SOFTWARE.
  */
 package edu.mit.magnum.enrich;
 
+import java.util.Arrays;
+
 import edu.mit.magnum.Magnum;
 import edu.mit.magnum.gene.Gene;
 
@@ -34,6 +36,18 @@ import edu.mit.magnum.gene.Gene;
  */
 public class EnrichmentPairwise extends Enrichment {
 
+	/** The data matrix, row-major */
+	private double[] elements_ = null;
+	/** The number of rows / columns of the data matrix */
+	private int N_ = -1;
+	/** Gene pairs excluded from enrichment analysis */
+	private ExclusionMask excludedPairs_ = null;
+	
+	/** The funct data indexes of the ranked genes up to currentK_ (labels of the current curve) */
+	private int[] labels_ = null;
+	/** The number of times each funct data index occurs in the ranked list before currentK_ */
+	private int[] numPrevious_ = null;
+
 	
 	// ============================================================================
 	// PUBLIC METHODS
@@ -44,13 +58,28 @@ public class EnrichmentPairwise extends Enrichment {
 		super(mag, functData, geneScores, permuter);
 		
 		// Check that functional data indexes of genes are within bounds of functional data
-		// so that we can use getQuick() later on
-		int N = functData_.rows();
-		if (N != functData_.columns())
+		// so that we can access the elements directly later on
+		N_ = functData_.rows();
+		if (N_ != functData_.columns())
 			throw new RuntimeException("Expected square matrix");
-		for (Gene gene : geneScores_.getGenes())
-			if (gene.getFunctDataIndex() >= N)
+		for (Gene gene : rankedGenes_)
+			if (gene.getFunctDataIndex() >= N_)
 				throw new RuntimeException("Functional data index out of bounds");
+		
+		elements_ = functData.getElements();
+		excludedPairs_ = functData.getExcludedPairs();
+		labels_ = new int[numGenes_];
+		numPrevious_ = new int[N_];
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Reset tagged genes and variables used for curve computation */
+	public void reset() {
+		
+		super.reset();
+		Arrays.fill(numPrevious_, 0);
 	}
 
 
@@ -60,18 +89,29 @@ public class EnrichmentPairwise extends Enrichment {
 	/** Update the running sum with the given gene */
 	protected void updateRunningSum() {
 
-		int curGeneIndex = geneScores_.getGene(currentK_).getFunctDataIndex();
+		int curGeneIndex = rankedGenes_.get(currentK_).getFunctDataIndex();
+		labels_[currentK_] = curGeneIndex;
+		int offset = curGeneIndex*N_;
 		
 		// For all previous genes
-		for (int i=0; i<currentK_; i++) {
-			int prevGeneIndex = geneScores_.getGene(i).getFunctDataIndex();
-			double w = functData_.getQuick(curGeneIndex, prevGeneIndex);
-			
-			if (!Double.isNaN(w)) {
-				runningSum_ += w;
-				runningCount_++;
+		double sum = 0;
+		for (int i=0; i<currentK_; i++)
+			sum += elements_[offset + labels_[i]];
+		int count = currentK_;
+		
+		// Remove the excluded pairs (usually none or a few, no need to check every pair above)
+		int[] excluded = excludedPairs_.getPartners(curGeneIndex);
+		for (int p=0; p<excluded.length; p++) {
+			int num = numPrevious_[excluded[p]];
+			if (num > 0) {
+				sum -= num * elements_[offset + excluded[p]];
+				count -= num;
 			}
 		}
+		
+		runningSum_ += sum;
+		runningCount_ += count;
+		numPrevious_[curGeneIndex]++;
 	}
 	
 	
@@ -104,15 +144,16 @@ public class EnrichmentPairwise extends Enrichment {
 		int count = 0;
 		
 		for (int i=windowStart; i<N; i++) {
-			int gene_i = geneScores_.getGene(i).getFunctDataIndex();
+			int gene_i = labels_[i];
+			int offset = gene_i*N_;
+			boolean hasExcluded = excludedPairs_.getPartners(gene_i).length > 0;
 			
 			//for (int j=i+1; j<N; j++) {  // <-- connectivity within sliding window
 			for (int j=0; j<i; j++) {    // <-- connectivity with all previous genes
-				int gene_j = geneScores_.getGene(j).getFunctDataIndex();
+				int gene_j = labels_[j];
 				
-				double w = functData_.getQuick(gene_i, gene_j);
-				if (!Double.isNaN(w)) {
-					sum += w;
+				if (!hasExcluded || !excludedPairs_.isExcluded(gene_i, gene_j)) {
+					sum += elements_[offset + gene_j];
 					count++;
 				}
 			}
@@ -0,0 +1,140 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.enrich;
+
+import java.util.Arrays;
+
+
+/**
+ * Gene pairs that are excluded from enrichment analysis (e.g., neighboring genes or genes in LD),
+ * stored as a sorted list of excluded partners for each gene. The data matrix itself is not
+ * modified, so it can be shared. Call compact() after adding pairs and before querying.
+ */
+public class ExclusionMask {
+
+	/** Returned for genes without excluded partners */
+	static private final int[] NONE = new int[0];
+	
+	/** The excluded partners of each gene (sorted and unique after compact()) */
+	private int[][] partners_ = null;
+	/** The number of partners in partners_[i] */
+	private int[] numPartners_ = null;
+	/** True if partners_ are sorted, unique and trimmed */
+	private boolean compact_ = true;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor */
+	public ExclusionMask(int numGenes) {
+		
+		partners_ = new int[numGenes][];
+		numPartners_ = new int[numGenes];
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Exclude the pair (i,j) and (j,i) */
+	public void add(int i, int j) {
+		
+		addPartner(i, j);
+		if (i != j)
+			addPartner(j, i);
+		compact_ = false;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Sort the partners of each gene and remove duplicates */
+	public void compact() {
+		
+		if (compact_)
+			return;
+		
+		for (int i=0; i<partners_.length; i++) {
+			if (numPartners_[i] == 0)
+				continue;
+			
+			int[] p = partners_[i];
+			Arrays.sort(p, 0, numPartners_[i]);
+			int n = 1;
+			for (int k=1; k<numPartners_[i]; k++)
+				if (p[k] != p[n-1])
+					p[n++] = p[k];
+			
+			int[] trimmed = new int[n];
+			System.arraycopy(p, 0, trimmed, 0, n);
+			partners_[i] = trimmed;
+			numPartners_[i] = n;
+		}
+		compact_ = true;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Returns true if the given pair is excluded */
+	public boolean isExcluded(int i, int j) {
+		
+		assert compact_;
+		return numPartners_[i] > 0 && Arrays.binarySearch(partners_[i], j) >= 0;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Add j to the partners of i */
+	private void addPartner(int i, int j) {
+		
+		int[] p = partners_[i];
+		if (p == null) {
+			p = new int[4];
+			partners_[i] = p;
+		} else if (numPartners_[i] == p.length) {
+			p = new int[2*p.length];
+			System.arraycopy(partners_[i], 0, p, 0, numPartners_[i]);
+			partners_[i] = p;
+		}
+		p[numPartners_[i]++] = j;
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	/** The sorted excluded partners of gene i (don't modify) */
+	public int[] getPartners(int i) {
+		assert compact_;
+		return (numPartners_[i] == 0) ? NONE : partners_[i];
+	}
+	
+	public int getNumGenes() { return partners_.length; }
+	
+}
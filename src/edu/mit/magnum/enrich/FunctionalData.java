@@ -27,16 +27,18 @@ package edu.mit.magnum.enrich;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 
 import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import ch.unil.gpsutils.FileParser;
 import edu.mit.magnum.*;
 import edu.mit.magnum.gene.*;
 import edu.mit.magnum.net.Network;
+import edu.mit.magnum.netprop.DenseMatrix;
+import edu.mit.magnum.netprop.MatrixReader;
 
 
 /**
@@ -47,7 +49,7 @@ public class FunctionalData {
 	/** The magnum instance */
 	private Magnum mag;
 
-	/** The original data matrix TODO delete and clean memory */
+	/** The original data matrix (only if it was computed, data loaded from a file is filtered while parsing) */
 	private DoubleMatrix2D unfilteredData;
 	/** The rows of the original data matrix */
 	private ArrayList<String> unfilteredDataRows;
@@ -55,7 +57,7 @@ public class FunctionalData {
 	private ArrayList<String> unfilteredDataCols;
 	
 	/** The data matrix (genes in rows) */
-	private DoubleMatrix2D data_ = null;
+	private DenseMatrix data_ = null;
 	/** The number of genes (rows) */
 	private int numGenes_ = -1;
 	/** Genes (rows of the data matrix) */
@@ -69,10 +71,23 @@ public class FunctionalData {
 	//private int unfilteredDataNumGenes_ = -1;
 	/** The indexes of the columns that were loaded in data_ */
 	private ArrayList<Integer> functDataColIndexes_ = null;
+	/** The indexes of the rows that were loaded in data_ */
+	private ArrayList<Integer> functDataRowIndexes_ = null;
 
 	/** Genes that were not loaded from the functional data because they are not in geneScores */
 	private ArrayList<String> genesMissingScores_ = null;
 
+	/** The file the data was loaded from (null if it was computed) */
+	private File dataFile_ = null;
+	/** The reader of the functional data file (null once the data is loaded) */
+	private MatrixReader dataReader_ = null;
+	/** Gene pairs that are excluded from enrichment analysis (the data matrix is not modified) */
+	private ExclusionMask excludedPairs_ = null;
+	/** Order-independent hash of the gene pairs that were excluded */
+	private long exclusionHash_ = 0;
+	/** Centralities for pairwise data (initialized on first use) */
+	private CentralityCache centralityCache_ = null;
+
 	
 	// ============================================================================
 	// PUBLIC METHODS
@@ -90,6 +105,15 @@ public class FunctionalData {
 			unfilteredDataRows.add(network.getNode(i).getId());
 		unfilteredDataCols = unfilteredDataRows;
 		
+		// Nodes x reference nodes (e.g., personalized PageRank from seed genes) is per gene data, one column per reference node
+		if (kernel.columns() != network.getNumNodes()) {
+			if (kernel.columns() != network.getNumRefNodes())
+				throw new IllegalArgumentException("The matrix has " + kernel.columns() + " columns, expected the number of nodes or reference nodes");
+			unfilteredDataCols = new ArrayList<String>(network.getNumRefNodes());
+			for (int j=0; j<network.getNumRefNodes(); j++)
+				unfilteredDataCols.add(network.getRefNode(j).getId());
+		}
+		
 		initialize(excludedGenePairsFile, geneScores);
 	}
 	
@@ -98,9 +122,10 @@ public class FunctionalData {
 			ArrayList<Integer> functionalDataCols, ArrayList<Gene> geneScores) {
 
 		this.mag = mag;
-		// Load the kernel from the file
+		dataFile_ = functionalDataFile;
+		// Load the row/col names, the data is parsed after filtering genes in initializeData()
 		functDataColIndexes_ = functionalDataCols;
-		loadUnfilteredData(functionalDataFile);			
+		loadUnfilteredDataHeader(functionalDataFile, geneScores);			
 		initialize(excludedGenePairsFile, geneScores);
 	}
 
@@ -123,14 +148,20 @@ public class FunctionalData {
 		// Normalize by row/col sums to adjust for hubs
 		if (mag.set.scaleKernel_)
 			scaleKernel();
-		// Load the gene pairs that should be excluded from enrichment analysis, set corresponding data entries to NaN
+		// Load the gene pairs that should be excluded from enrichment analysis
+		excludedPairs_ = new ExclusionMask(numGenes_);
+		excludeMissingValues();
 		loadExcludedGenePairs(excludedGenePairsFile);
+		excludedPairs_.compact();
 		
 		// Remove references to unfiltered data so that they can be deleted by garbage collector
 		// (make sure to remove references elsewhere as well, e.g. pstep kernel instance)
 		unfilteredData = null;
 		unfilteredDataCols = null;
 		unfilteredDataRows = null;
+		if (dataReader_ != null)
+			dataReader_.close();
+		dataReader_ = null;
 	}
 
 //	/** Load genes and their properties */
@@ -164,7 +195,7 @@ public class FunctionalData {
 		// A hashmap with the overlapping genes and their index, in the order in
 		// which they occur in the funct data file
 		genes_ = new LinkedHashMap<String, Integer>();
-		ArrayList<Integer> colIndexes = new ArrayList<Integer>();
+		ArrayList<Integer> rowIndexes = new ArrayList<Integer>();
 		colNames_ = new ArrayList<String>();
 		genesMissingScores_ = new ArrayList<String>();
 		int count = 0;
@@ -179,7 +210,7 @@ public class FunctionalData {
 					throw new RuntimeException("Gene '" + id + "' is listed twice");
 
 				genes_.put(id, count++);
-				colIndexes.add(i);
+				rowIndexes.add(i);
 				colNames_.add(id);
 				
 			} else {
@@ -188,17 +219,47 @@ public class FunctionalData {
 		}
 
 		numGenes_ = genes_.size();
-		assert colIndexes.size() == numGenes_;
+		assert rowIndexes.size() == numGenes_;
+		functDataRowIndexes_ = rowIndexes;
 
 		// Check if it's a gene x gene matrix (kernel)
-		if (unfilteredData.columns() == unfilteredData.rows()) {
+		if (unfilteredDataCols.size() == unfilteredDataRows.size()) {
 			isPairwiseData_ = true;
-			functDataColIndexes_ = colIndexes;
+			functDataColIndexes_ = rowIndexes;
 		} else {
 			isPairwiseData_ = false;
+			initializeGeneProperties();
 		}
 	}
 
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Set the columns to be loaded for per gene data (functDataColIndexes_ is given as 1-based
+	 * column numbers, null to load all columns) and their names
+	 */
+	private void initializeGeneProperties() {
+
+		ArrayList<Integer> colIndexes = new ArrayList<Integer>();
+		colNames_ = new ArrayList<String>();
+		
+		if (functDataColIndexes_ == null) {
+			for (int j=0; j<unfilteredDataCols.size(); j++)
+				colIndexes.add(j);
+		} else {
+			for (int col : functDataColIndexes_) {
+				if (col < 1 || col > unfilteredDataCols.size())
+					throw new IllegalArgumentException("Invalid functional data column: " + col + " (file has " + unfilteredDataCols.size() + " property columns)");
+				colIndexes.add(col - 1);
+			}
+		}
+		for (int j : colIndexes)
+			colNames_.add(unfilteredDataCols.get(j));
+		
+		functDataColIndexes_ = colIndexes;
+	}
+
 //	/**
 //	 * Initialize genes_ with the set of overlapping genes between the
 //	 * functional data and the gene scores
@@ -255,8 +316,8 @@ public class FunctionalData {
 	// ----------------------------------------------------------------------------
 
 	/**
-	 * Load the gene pairs that should be excluded from enrichment analysis, set
-	 * corresponding data entries to NaN
+	 * Load the gene pairs that should be excluded from enrichment analysis, add
+	 * them to excludedPairs_
 	 */
 	private void loadExcludedGenePairs(File excludedGenePairsFile) {
 
@@ -264,8 +325,8 @@ public class FunctionalData {
 				|| excludedGenePairsFile.length() == 0)
 			return;
 
-		GeneIdMapping idMapping = GeneIdMapping.getInstance(mag.log);
 		boolean translateToEntrez = mag.set.idTypeFunctionalData_.equalsIgnoreCase("entrez");
+		GeneIdMapping idMapping = translateToEntrez ? mag.getGeneIdMapping() : null;
 
 		// Open the file
 		FileParser parser = new FileParser(mag.log, excludedGenePairsFile);
@@ -299,8 +360,8 @@ public class FunctionalData {
 			String id1 = nextLine[colGene1];
 			String id2 = nextLine[colGene2];
 			if (mag.set.idTypeFunctionalData_.equals("ensembl")) {
-				id1 = idMapping.removeEnsemblVersion(id1);
-				id2 = idMapping.removeEnsemblVersion(id2);
+				id1 = GeneIdMapping.removeEnsemblVersion(id1);
+				id2 = GeneIdMapping.removeEnsemblVersion(id2);
 			}
 
 			// All mapped ids (synonyms)
@@ -332,9 +393,8 @@ public class FunctionalData {
 							(index2 == 3979 && index1 == 9831))
 						mag.log.println();
 
-					// Set entry to NaN
-					data_.set(index1, index2, Double.NaN);
-					data_.set(index2, index1, Double.NaN);
+					// Exclude pair
+					excludePair(index1, index2);
 					numExcluded++;
 					
 				}
@@ -348,65 +408,166 @@ public class FunctionalData {
 	// ----------------------------------------------------------------------------
 
 	/** 
-	 * Exclude neighboring genes based on distance, set corresponding data entries to NaN.
+	 * Exclude neighboring genes based on distance, add them to excludedPairs_.
 	 * Note, genes have previously been expanded based on window size and neighborhood distance. 
 	 */
-	public void excludeNeighbors(ArrayList<Gene> genesScoreList) {
+	public void excludeNeighbors(final ArrayList<Gene> genesScoreList) {
 		
-		for (int i=0; i<genesScoreList.size(); i++) {
-			Gene g_i = genesScoreList.get(i);
-			int index1 = genes_.get(g_i.id_);
-			
-			for (int j=i+1; j<genesScoreList.size(); j++) {
+		if (!isPairwiseData_)
+			return;
+		
+		// Only overlapping pairs are visited (sweep line over genes sorted by chromosome and start)
+		Genome.findOverlaps(genesScoreList, new Genome.OverlapHandler() {
+			public void overlap(int i, int j) {
+				Gene g_i = genesScoreList.get(i);
 				Gene g_j = genesScoreList.get(j);
 				assert !g_i.equals(g_j);
 				
-				if (g_i.overlaps(g_j)) {
-					int index2 = genes_.get(g_j.id_);
+				// Exclude pair
+				excludePair(genes_.get(g_i.id_), genes_.get(g_j.id_));
+			}
+		});
+		excludedPairs_.compact();
+	}
+
+		
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Exclude the pairs with missing values (NaN, e.g. rows that sum to zero in scaleKernel()) and set them
+	 * to 0, so that the running sums can add all pairs without checking for NaN and subtract the excluded ones
+	 */
+	private void excludeMissingValues() {
+		
+		if (!isPairwiseData_)
+			return;
+		
+		final int n = numGenes_;
+		final double[] elements = data_.elements();
+		// The columns j with NaN of each row i (sorted, null if none)
+		final int[][] missing = new int[n][];
+		
+		Parallel.forBlocks(mag.set.getNumThreads(), n, new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int i=start; i<end; i++) {
+					int offset = i*n;
+					int count = 0;
+					for (int j=0; j<n; j++)
+						if (Double.isNaN(elements[offset + j]))
+							count++;
+					if (count == 0)
+						continue;
 					
-					// Set entry to NaN
-					data_.set(index1, index2, Double.NaN);
-					data_.set(index2, index1, Double.NaN);
+					missing[i] = new int[count];
+					count = 0;
+					for (int j=0; j<n; j++)
+						if (Double.isNaN(elements[offset + j]))
+							missing[i][count++] = j;
+				}
+			}
+		});
+		
+		// The data is not necessarily symmetric, a pair is excluded if (i,j) or (j,i) is NaN (counted once
+		// if both are NaN)
+		int numMissing = 0;
+		for (int i=0; i<n; i++) {
+			if (missing[i] == null)
+				continue;
+			for (int j : missing[i]) {
+				elements[i*n + j] = 0;
+				if (j >= i || missing[j] == null || Arrays.binarySearch(missing[j], i) < 0) {
+					excludePair(Math.min(i, j), Math.max(i, j));
+					numMissing++;
 				}
 			}
 		}
+		if (numMissing > 0)
+			mag.log.warning(numMissing + " gene pairs with missing values (NaN) excluded");
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Add the given gene pair to excludedPairs_ and to the exclusion hash */
+	private void excludePair(int index1, int index2) {
+		
+		excludedPairs_.add(index1, index2);
+		
+		// Sum of the pair hashes, doesn't depend on the order in which pairs are excluded
+		long pair = ((long) Math.min(index1, index2) << 32) | Math.max(index1, index2);
+		pair *= 0x9E3779B97F4A7C15L;
+		exclusionHash_ += pair ^ (pair >>> 29);
 	}
 
 		
 	// ----------------------------------------------------------------------------
 
-	/**
-	 * 
-	 */
+	/** Initialize data_ with the rows and columns of the overlapping genes / selected properties */
 	private void initializeData() {
 
 		// Read header -- this initializes colNames_, which are relevant for data that is not pairwise
 		//parseGenePropertiesHeader(parser.readLine());
 
-		// Initialize matrix
-		if (isPairwiseData_) {
-			data_ = new DenseDoubleMatrix2D(numGenes_, numGenes_);
-		} else {
-			throw new RuntimeException("Initialization of not pairwise FunctionalData not implemented without loading from file");
-			//data_ = new DenseDoubleMatrix2D(numGenes_, colNames_.size());
-		}
+		int numCols = functDataColIndexes_.size();
+		data_ = new DenseMatrix(numGenes_, numCols);
 
 		assert genes_.size() == numGenes_;
-		assert functDataColIndexes_.size() == numGenes_;
-		assert colNames_.size() == numGenes_;
-		assert data_.rows() == numGenes_;
-		assert data_.columns() == numGenes_;
+		assert functDataRowIndexes_.size() == numGenes_;
+		assert colNames_.size() == numCols;
+		assert !isPairwiseData_ || numCols == numGenes_;
 		
-		for (int i=0; i<numGenes_; i++) {
-			String id = colNames_.get(i);
-			int kernelIndex = functDataColIndexes_.get(i);
-			assert genes_.get(id) == i;
-			
-			// Copy the row to the filtered kernel
-			for (int j=0; j<numGenes_; j++)
-				// TODO make it quick
-				data_.set(i, j, unfilteredData.get(kernelIndex, functDataColIndexes_.get(j)));
-		}
+		if (unfilteredData != null)
+			copyFilteredData();
+		else
+			parseFilteredData();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Copy the selected rows / columns of the unfiltered data matrix to data_ (rows in parallel) */
+	private void copyFilteredData() {
+
+		final int numCols = functDataColIndexes_.size();
+		final int[] rowIndexes = toArray(functDataRowIndexes_);
+		final int[] colIndexes = toArray(functDataColIndexes_);
+		final double[] elements = data_.elements();
+		
+		// Primitive array of the source if available
+		final double[] source = (unfilteredData instanceof DenseMatrix) ? ((DenseMatrix) unfilteredData).elements() : null;
+		final int sourceCols = unfilteredData.columns();
+
+		Parallel.forBlocks(mag.set.getNumThreads(), numGenes_, new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int i=start; i<end; i++) {
+					int offset = i*numCols;
+					if (source != null) {
+						int sourceOffset = rowIndexes[i]*sourceCols;
+						for (int j=0; j<numCols; j++)
+							elements[offset + j] = source[sourceOffset + colIndexes[j]];
+					} else {
+						for (int j=0; j<numCols; j++)
+							elements[offset + j] = unfilteredData.getQuick(rowIndexes[i], colIndexes[j]);
+					}
+				}
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Parse only the selected rows / columns of the data file into data_ (the unfiltered data is never loaded) */
+	private void parseFilteredData() {
+
+		// The row of data_ for each row of the file (-1: not loaded)
+		int[] rowMap = new int[unfilteredDataRows.size()];
+		for (int r=0; r<rowMap.length; r++)
+			rowMap[r] = -1;
+		for (int i=0; i<numGenes_; i++)
+			rowMap[functDataRowIndexes_.get(i)] = i;
+
+		dataReader_.parse(rowMap, toArray(functDataColIndexes_), data_.elements());
 	}
 
 //	/**
@@ -454,46 +615,21 @@ public class FunctionalData {
 	
 	// ----------------------------------------------------------------------------
 
-	/** Parse the header of a gene property file, return number of columns */
-	private void loadUnfilteredData(File functionalDataFile) {
-		
-		// Count the lines
-		FileParser reader = new FileParser(mag.log, functionalDataFile);
-		int lines = -1;
-		while (reader.skipLine());
-		lines = reader.getLineCounter();
-		reader.close();
-		
-		assert lines > 0;
-		numGenes_ =  lines - 2; // header, the file counter counts the last null as well
-
-		// Open the file
-		FileParser parser = new FileParser(mag.log, functionalDataFile);
-		// Read header (sets unfilteredDataCols)
-		parseGenePropertiesHeader(parser.readLine());
-
-		// Initialize matrix
-		int numCols = unfilteredDataCols.size();
-		unfilteredData = new DenseDoubleMatrix2D(numGenes_, numCols);
-		unfilteredDataRows = new ArrayList<String>();
+	/** 
+	 * Load the header and the gene ids (first column) of a gene property file (the file is decompressed only once,
+	 * only the text of the rows of genes with scores is kept until it is parsed)
+	 */
+	private void loadUnfilteredDataHeader(File functionalDataFile, ArrayList<Gene> geneScores) {
 		
-		int i = 0;
-		while (true) {
-			// Read next line
-			String[] nextLine = parser.readLine();
-			if (nextLine == null)
-				break;
-
-			// Add the gene id
-			unfilteredDataRows.add(nextLine[0]);
-			// Parse properties
-			for (int j=1; j<unfilteredDataCols.size(); j++)
-				// TODO make quick
-				unfilteredData.set(i, j-1, Double.parseDouble(nextLine[j]));
-			i++;
-		}
-		parser.close();
+		HashSet<String> genesWithScores = new HashSet<String>();
+		for (Gene g : geneScores)
+			genesWithScores.add(g.id_);
+		dataReader_ = new MatrixReader(mag, functionalDataFile, genesWithScores);
+		unfilteredDataRows = dataReader_.getRowIds();
+		numGenes_ = unfilteredDataRows.size();
 
+		// Parse header (sets unfilteredDataCols)
+		parseGenePropertiesHeader(dataReader_.getHeader());
 	}
 
 	
@@ -542,20 +678,68 @@ public class FunctionalData {
 		// Note, I also did this using Blas following a stackoverflow comment
 		// (multiply matrix by a vector of ones), but it was much slower
 		// rowsums are equal to colsums because kernel is sysmmetric
-		double[] rowsums = new double[numGenes_];
-		for (int i = 0; i < numGenes_; i++) {
-			double sum = 0;
-			for (int j = 0; j < numGenes_; j++)
-				sum += data_.get(i, j);
-			rowsums[i] = sum;
+		final int n = numGenes_;
+		final double[] elements = data_.elements();
+		final double[] rowsums = new double[n];
+		Parallel.forBlocks(mag.set.getNumThreads(), n, new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int i=start; i<end; i++) {
+					double sum = 0;
+					int offset = i*n;
+					for (int j=0; j<n; j++)
+						sum += elements[offset + j];
+					rowsums[i] = sum;
+				}
+			}
+		});
+
+		// K'(i,j) = K(i,j) * s[i] * s[j] with s = 1/sqrt(rowsums), this is only the same if rowsums
+		// are non-negative (e.g., sqrt(rowsums[i]*rowsums[j]) is defined if both are negative)
+		boolean negativeRowsums = false;
+		final double[] s = new double[n];
+		for (int i=0; i<n; i++) {
+			s[i] = 1 / Math.sqrt(rowsums[i]);
+			if (rowsums[i] < 0)
+				negativeRowsums = true;
 		}
+		
+		if (negativeRowsums) {
+			mag.log.warning("Kernel has rows with negative sums");
+			Parallel.forBlocks(mag.set.getNumThreads(), n, new Parallel.Block() {
+				public void run(int start, int end) {
+					for (int i=start; i<end; i++)
+						for (int j=0; j<n; j++)
+							elements[i*n + j] /= Math.sqrt(rowsums[i] * rowsums[j]);
+				}
+			});
+		} else {
+			// Simple loop over primitive arrays that can be vectorized by the JIT
+			Parallel.forBlocks(mag.set.getNumThreads(), n, new Parallel.Block() {
+				public void run(int start, int end) {
+					for (int i=start; i<end; i++) {
+						double s_i = s[i];
+						int offset = i*n;
+						for (int j=0; j<n; j++)
+							elements[offset + j] *= s_i * s[j];
+					}
+				}
+			});
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
 
-		for (int i = 0; i < numGenes_; i++)
-			for (int j = 0; j < numGenes_; j++)
-				data_.set(i, j,
-						data_.get(i, j) / Math.sqrt(rowsums[i] * rowsums[j]));
+	/** Convert to primitive array */
+	private int[] toArray(ArrayList<Integer> list) {
+		
+		int[] array = new int[list.size()];
+		for (int i=0; i<array.length; i++)
+			array[i] = list.get(i);
+		return array;
 	}
 
+	
 	// ============================================================================
 	// GETTERS AND SETTERS
 
@@ -586,4 +770,26 @@ public class FunctionalData {
 	public ArrayList<String> getGenesMissingScores() {
 		return genesMissingScores_;
 	}
+
+	public File getDataFile() {
+		return dataFile_;
+	}
+
+	public double[] getElements() {
+		return data_.elements();
+	}
+
+	public ExclusionMask getExcludedPairs() {
+		return excludedPairs_;
+	}
+
+	public long getExclusionHash() {
+		return exclusionHash_;
+	}
+
+	public CentralityCache getCentralityCache() {
+		if (centralityCache_ == null)
+			centralityCache_ = new CentralityCache(mag, this);
+		return centralityCache_;
+	}
 }
@@ -141,7 +141,6 @@ public class GeneScoreList {
 		
 		excludedGenes_ = new HashSet<String>();
 		excludingHlaGenes_ = false;
-		GeneIdMapping idMapping = GeneIdMapping.getInstance(mag.log);
 		
 		FileParser parser;
 		if (excludedGenesFile == null) {
@@ -176,7 +175,7 @@ public class GeneScoreList {
 			
 			// Gene id
 			String id = nextLine[0];
-			id = idMapping.removeEnsemblVersion(id);
+			id = GeneIdMapping.removeEnsemblVersion(id);
 			excludedGenes_.add(id);
 		}
 		parser.close();
@@ -192,8 +191,8 @@ public class GeneScoreList {
 	 */
 	private void loadGeneScores(File geneScoreFile) {
 		
-		GeneIdMapping idMapping = GeneIdMapping.getInstance(mag.log);
 		boolean translateToEntrez = mag.set.idTypeFunctionalData_.equalsIgnoreCase("entrez");
+		GeneIdMapping idMapping = translateToEntrez ? mag.getGeneIdMapping() : null;
 
 		// Load gene positions so that gene pairs on same chromosome can be excluded
 		GeneAnnotation geneAnnot;
@@ -246,7 +245,7 @@ public class GeneScoreList {
 			// Gene id
 			String geneId = nextLine[geneIdCol];
 			if (mag.set.idTypeGeneScores_.equals("ensembl"))
-				geneId = idMapping.removeEnsemblVersion(geneId);
+				geneId = GeneIdMapping.removeEnsemblVersion(geneId);
 			
 			// Check if it should be excluded
 			if (excludedGenes_.contains(geneId)) {
@@ -30,6 +30,7 @@ import java.util.Collections;
 import java.util.Comparator;
 
 import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
 import edu.mit.magnum.gene.Gene;
 
 
@@ -75,9 +76,14 @@ public class LabelPermuter {
 		numBins_ = numBins;
 		
 		// Has to be done in this order
-		initializeFunctDataIndexes();
-		initializeCentrality(functDataCol);
-		initializeBins();
+		PhaseRecorder.Phase phase = mag.phases.start("centrality");
+		try {
+			initializeFunctDataIndexes();
+			initializeCentrality(functDataCol);
+			initializeBins();
+		} finally {
+			phase.end();
+		}
 	}
 
 	
@@ -105,6 +111,47 @@ public class LabelPermuter {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+
+	/** Restore the original (unpermuted) funct data indexes of the genes */
+	public void resetLabels() {
+		
+		initializeFunctDataIndexes();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Copy of the current (shuffled) order of the indexes in each bin, the next shuffle starts from this order */
+	public int[][] getBinOrder() {
+		
+		int[][] order = new int[numBins_][];
+		for (int i=0; i<numBins_; i++) {
+			ArrayList<Integer> indexBin = binnedIndexes_.get(i);
+			order[i] = new int[indexBin.size()];
+			for (int j=0; j<order[i].length; j++)
+				order[i][j] = indexBin.get(j);
+		}
+		return order;
+	}
+
+	
+	/** Restore an order saved with getBinOrder() (used to resume permutations from a checkpoint) */
+	public void setBinOrder(int[][] order) {
+		
+		if (order.length != numBins_)
+			throw new IllegalArgumentException("Expected " + numBins_ + " bins, found " + order.length);
+		
+		for (int i=0; i<numBins_; i++) {
+			ArrayList<Integer> indexBin = binnedIndexes_.get(i);
+			if (order[i].length != indexBin.size())
+				throw new IllegalArgumentException("Expected " + indexBin.size() + " genes in bin " + i + ", found " + order[i].length);
+			for (int j=0; j<order[i].length; j++)
+				indexBin.set(j, order[i][j]);
+		}
+	}
+
+	
 	// ============================================================================
 	// PRIVATE METHODS
 		
@@ -132,26 +179,13 @@ public class LabelPermuter {
 		centralityVolume_ = 0;
 
 		if (functData_.getIsPairwiseData()) {
-			// Avg. of row i
-			for (Gene gene_i : genes_) {
-				double sum = 0;
-				int count = 0;
-				for (Gene gene_j : genes_) {
-					double w = functData_.get(gene_i.getFunctDataIndex(), gene_j.getFunctDataIndex());
-					// Exclude self and NaNs (gene pairs to be excluded)
-					if (gene_i != gene_j && !Double.isNaN(w)) {
-						sum += w;
-						count++;
-					}
-				}
-				// We define the centrality as the sum, not the mean. However, since some elements may have been
-				// excluded, we have to compute the mean first and then multiply by the number of genes (-1 to exclude self)
-				// Note, centrality is defined in this way because that's what we need in the formulat to compute modularity later on.
-				double c = (sum/count) * (genes_.size() - 1);
-				if (count == 0)
-					c = 0;
-				gene_i.setCentrality(c);
-			}		
+			// We define the centrality as the sum, not the mean. However, since some elements may have been
+			// excluded, we have to compute the mean first and then multiply by the number of genes (-1 to exclude self)
+			// Note, centrality is defined in this way because that's what we need in the formulat to compute modularity later on.
+			// The centralities only depend on the gene set, they are computed once and cached
+			double[] c = functData_.getCentralityCache().getCentralities(genes_);
+			for (Gene gene : genes_)
+				gene.setCentrality(c[gene.getFunctDataIndex()]);
 			
 		} else {
 			for (Gene gene : genes_)
@@ -205,5 +239,6 @@ public class LabelPermuter {
 	// GETTERS AND SETTERS
 
 	public double getCentralityVolume() { return centralityVolume_; }
+	public int getNumBins() { return numBins_; }
 	
 }
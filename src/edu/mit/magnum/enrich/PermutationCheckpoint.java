@@ -0,0 +1,230 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.enrich;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import java.util.Random;
+
+import edu.mit.magnum.Checkpoint;
+import edu.mit.magnum.Magnum;
+
+
+/**
+ * Checkpoint of the random permutations of one or more enrichments. Saves the number of permutations
+ * done, the state of the random number generator, the order of the bins of the label permuters (each
+ * shuffle starts from the previous order) and the permuted curves, so that a resumed run gives exactly
+ * the same results as an uninterrupted run. AUCs and p-values are computed from the curves at the end.
+ */
+class PermutationCheckpoint {
+
+	/** The magnum instance */
+	private Magnum mag;
+	/** The checkpoint (null if checkpoints are disabled) */
+	private Checkpoint checkpoint_ = null;
+	/** The enrichments whose permuted curves are saved */
+	private Enrichment[] enrichments_ = null;
+	/** The label permuters */
+	private LabelPermuter[] permuters_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor (observed curves must have been computed) */
+	public PermutationCheckpoint(Magnum mag, String name, Enrichment[] enrichments, LabelPermuter[] permuters) {
+		
+		this.mag = mag;
+		enrichments_ = enrichments;
+		permuters_ = permuters;
+
+		String key = "Permutations bins=" + permuters[0].getNumBins() + " permuters=" + permuters.length;
+		for (Enrichment enrichment : enrichments)
+			key += "\n" + enrichment.getCheckpointKey();
+		checkpoint_ = Checkpoint.create(mag, name + "_permutations", key);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Restore the saved state and return the number of permutations done (0 if there is no checkpoint) */
+	public int resume() {
+		
+		if (checkpoint_ == null)
+			return 0;
+		DataInputStream in = checkpoint_.load();
+		if (in == null)
+			return 0;
+		
+		try {
+			int numDone = in.readInt();
+			
+			// Random number generator
+			byte[] rng = new byte[in.readInt()];
+			in.readFully(rng);
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rng));
+			mag.set.jdkRng_ = (Random) ois.readObject();
+			
+			// Bins
+			for (LabelPermuter permuter : permuters_) {
+				int[][] order = new int[in.readInt()][];
+				for (int i=0; i<order.length; i++) {
+					order[i] = new int[in.readInt()];
+					for (int j=0; j<order[i].length; j++)
+						order[i][j] = in.readInt();
+				}
+				permuter.setBinOrder(order);
+			}
+			
+			// Curves
+			for (Enrichment enrichment : enrichments_) {
+				readCurves(in, enrichment.curvesPermut_, numDone);
+				if (mag.set.slidingWindowSize_ > 0)
+					readCurves(in, enrichment.curvesPermutSlidingWindow_, numDone);
+			}
+			in.close();
+			
+			mag.log.println("Resuming permutations after " + numDone + " of " + mag.set.numPermutations_);
+			return numDone;
+			
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read checkpoint: " + checkpoint_.getFile().getPath(), e);
+		} catch (ClassNotFoundException e) {
+			throw new RuntimeException("Failed to read checkpoint: " + checkpoint_.getFile().getPath(), e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save a checkpoint after numDone permutations if the checkpoint interval has passed */
+	public void update(final int numDone) {
+		
+		if (checkpoint_ == null || !checkpoint_.isDue() || numDone == mag.set.numPermutations_)
+			return;
+		
+		// Copy the state now, the curves themselves are not modified so they can be written in the background
+		final byte[] rng = serializeRng();
+		final int[][][] orders = new int[permuters_.length][][];
+		for (int p=0; p<permuters_.length; p++)
+			orders[p] = permuters_[p].getBinOrder();
+		
+		final int numLists = (mag.set.slidingWindowSize_ > 0) ? 2 : 1;
+		final Curve[][] curves = new Curve[enrichments_.length * numLists][];
+		for (int e=0; e<enrichments_.length; e++) {
+			curves[e*numLists] = enrichments_[e].curvesPermut_.toArray(new Curve[numDone]);
+			if (numLists == 2)
+				curves[e*numLists + 1] = enrichments_[e].curvesPermutSlidingWindow_.toArray(new Curve[numDone]);
+		}
+		
+		checkpoint_.save(new Checkpoint.State() {
+			public void write(DataOutputStream out) throws IOException {
+				out.writeInt(numDone);
+				out.writeInt(rng.length);
+				out.write(rng);
+				for (int[][] order : orders) {
+					out.writeInt(order.length);
+					for (int[] bin : order) {
+						out.writeInt(bin.length);
+						for (int index : bin)
+							out.writeInt(index);
+					}
+				}
+				for (Curve[] list : curves)
+					writeCurves(out, list);
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Delete the checkpoint once all permutations are done */
+	public void done() {
+		
+		if (checkpoint_ != null)
+			checkpoint_.delete();
+	}
+
+	
+	/** Stop the background writer, the checkpoint is kept (call in a finally block, does nothing after done()) */
+	public void close() {
+		
+		if (checkpoint_ != null)
+			checkpoint_.close();
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Serialize the random number generator */
+	private byte[] serializeRng() {
+		
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(mag.set.jdkRng_);
+			oos.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write the values of the curves */
+	private void writeCurves(DataOutputStream out, Curve[] curves) throws IOException {
+		
+		for (Curve curve : curves) {
+			out.writeInt(curve.getNumPoints());
+			for (int k=0; k<curve.getNumPoints(); k++)
+				out.writeDouble(curve.getValue(k));
+		}
+	}
+	
+	
+	/** Read numCurves curves written by writeCurves() and add them to the given list */
+	private void readCurves(DataInputStream in, List<Curve> list, int numCurves) throws IOException {
+		
+		for (int c=0; c<numCurves; c++) {
+			int numPoints = in.readInt();
+			Curve curve = new Curve(numPoints);
+			for (int k=0; k<numPoints; k++)
+				curve.addPoint(in.readDouble());
+			list.add(curve);
+		}
+	}
+
+}
@@ -27,14 +27,21 @@ package edu.mit.magnum.enrich.test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
 import org.junit.*;
 
+import cern.colt.matrix.DoubleMatrix2D;
+
 import edu.mit.magnum.Magnum;
 import edu.mit.magnum.enrich.*;
 import edu.mit.magnum.gene.*;
+import edu.mit.magnum.net.Network;
+import edu.mit.magnum.net.Node;
+import edu.mit.magnum.netprop.DenseMatrix;
+import edu.mit.magnum.netprop.PersonalizedPageRank;
 
 /**
  * Unit tests for EnrichmentTest
@@ -251,6 +258,419 @@ public class EnrichMainTest {
 	}
 
 	
+	/** Centralities saved next to the kernel file are reused in subsequent runs */
+	@Test
+	public void testPairwiseEnrichment_cacheCentrality() {
+
+		// Settings
+		mag.set.functionalDataFile_ = new File("src/edu/mit/magnum/enrich/test/simpleNet_testKernel.txt");
+		mag.set.excludedGenesFile_ = null;
+		mag.set.excludedGenePairsFile_ = null;
+		mag.set.excludeXYChromosomes_ = true;
+		mag.set.excludedGenesDistance_ = 1;
+		mag.set.cacheCentrality_ = true;
+		
+		File cacheFile = new File(mag.set.functionalDataFile_.getPath() + ".centrality");
+		cacheFile.delete();
+
+		// First run computes and saves the centralities, second run loads them
+		EnrichMain enrichMain = new EnrichMain(mag);
+		enrichMain.run();
+		assertTrue(cacheFile.exists());
+		ArrayList<Gene> genes = enrichMain.getGeneScores().getGenes();
+		
+		EnrichMain enrichMain2 = new EnrichMain(mag);
+		enrichMain2.run();
+		ArrayList<Gene> genes2 = enrichMain2.getGeneScores().getGenes();
+
+		mag.set.cacheCentrality_ = false;
+		cacheFile.delete();
+
+		double[] c = { -1, 0.2650766, 0.3608349, 0.3998752, 0.3803405, 0.2583860, 0.3477147 };
+		double epsilon = 1e-6;
+		assertEquals(genes.size(), genes2.size());
+		for (int i=0; i<genes.size(); i++) {
+			assertEquals(genes.get(i).id_, genes2.get(i).id_);
+			assertEquals(genes.get(i).getCentrality(), genes2.get(i).getCentrality(), 0);
+			assertEquals(5*c[Integer.parseInt(genes2.get(i).id_)], genes2.get(i).getCentrality(), epsilon);
+		}
+	}
+
+	
+	/** Kernel computed on the first run is saved to the content-addressed cache and loaded on the second run */
+	@Test
+	public void testPairwiseEnrichment_kernelCache() {
+
+		// Settings
+		mag.set.functionalDataFile_ = null;
+		mag.set.networkDir_ = new File(".");
+		mag.set.networkFile_ = new File("src/edu/mit/magnum/netprop/test/simpleNet.txt");
+		mag.set.isDirected_ = false;
+		mag.set.isWeighted_ = false;
+		mag.set.excludedGenesFile_ = null;
+		mag.set.excludedGenePairsFile_ = null;
+		mag.set.excludeXYChromosomes_ = true;
+		mag.set.excludedGenesDistance_ = 1;
+		mag.set.computePstepKernel_ = true;
+		mag.set.pstepKernelP_ = new ArrayList<Integer>();
+		mag.set.pstepKernelP_.add(4);
+		mag.set.pstepKernelAlpha_ = 2;
+		mag.set.kernelCacheDir_ = new File("tmp_kernelCache");
+		
+		// First run computes and saves the kernel, second run loads it
+		EnrichMain enrichMain = new EnrichMain(mag);
+		enrichMain.run();
+		File[] cached = mag.set.kernelCacheDir_.listFiles();
+		ArrayList<Gene> genes = enrichMain.getGeneScores().getGenes();
+		
+		EnrichMain enrichMain2 = new EnrichMain(mag);
+		enrichMain2.run();
+		ArrayList<Gene> genes2 = enrichMain2.getGeneScores().getGenes();
+		File[] cached2 = mag.set.kernelCacheDir_.listFiles();
+
+		for (File f : cached2)
+			f.delete();
+		mag.set.kernelCacheDir_.delete();
+		mag.set.kernelCacheDir_ = null;
+
+		assertEquals(1, cached.length);
+		assertTrue(cached[0].getName().endsWith(".txt.gz"));
+		assertEquals(1, cached2.length);
+		
+		double[] c = { -1, 0.2650766, 0.3608349, 0.3998752, 0.3803405, 0.2583860, 0.3477147 };
+		double epsilon = 1e-6;
+		assertEquals(6, genes2.size());
+		assertEquals(genes.size(), genes2.size());
+		for (int i=0; i<genes.size(); i++) {
+			assertEquals(genes.get(i).id_, genes2.get(i).id_);
+			assertEquals(5*c[Integer.parseInt(genes.get(i).id_)], genes.get(i).getCentrality(), epsilon);
+			assertEquals(5*c[Integer.parseInt(genes2.get(i).id_)], genes2.get(i).getCentrality(), epsilon);
+		}
+	}
+
+	
+	/** Sharing centrality bins and permutations across gene scores gives the same observed curves for each score */
+	@Test
+	public void testPairwiseEnrichment_sharePermutations() {
+
+		// Settings
+		mag.set.geneScoreFile_ = new File("src/edu/mit/magnum/enrich/test/simpleNet_genescores_multi.txt");
+		mag.set.functionalDataFile_ = new File("src/edu/mit/magnum/enrich/test/simpleNet_testKernel.txt");
+		mag.set.excludedGenesFile_ = null;
+		mag.set.excludedGenePairsFile_ = null;
+		mag.set.excludeXYChromosomes_ = true;
+		mag.set.excludedGenesDistance_ = 1;
+		mag.set.geneScoreIndexStart_ = 0;
+		mag.set.geneScoreIndexEnd_ = 1;
+		mag.set.sharePermutations_ = true;
+		
+		// Run enrichment analysis
+		EnrichMain enrichMain = new EnrichMain(mag);
+		enrichMain.run();
+
+		ArrayList<Enrichment> shared = enrichMain.getEnrichments();
+		
+		// Each score column separately (second column ranks the genes in reverse order)
+		mag.set.sharePermutations_ = false;
+		ArrayList<Curve> expected = new ArrayList<Curve>();
+		for (int k=0; k<2; k++) {
+			mag.set.geneScoreIndexStart_ = k;
+			mag.set.geneScoreIndexEnd_ = k;
+			EnrichMain single = new EnrichMain(mag);
+			single.run();
+			expected.add(single.getEnrichment().getCurveObs());
+		}
+
+		// Restore settings used by the other tests
+		mag.set.geneScoreFile_ = new File("src/edu/mit/magnum/enrich/test/simpleNet_genescores.txt");
+		mag.set.geneScoreIndexStart_ = 0;
+		mag.set.geneScoreIndexEnd_ = 0;
+
+		// TEST OBSERVED, for each score column
+		assertEquals(2, shared.size());
+		double epsilon = 1e-6;
+		for (int k=0; k<2; k++) {
+			Curve obs = shared.get(k).getCurveObs();
+			assertEquals(6, obs.getNumPoints());
+			assertEquals(expected.get(k).getNumPoints(), obs.getNumPoints());
+			for (int i=0; i<obs.getNumPoints(); i++)
+				assertEquals(expected.get(k).getValue(i), obs.getValue(i), 1e-12);
+		}
+		
+		// First column has the ranking of simpleNet_genescores.txt
+		double[] o = { 0.0000000, 0.7167235, 0.7108765, 0.3574122, 0.3762026, 0.3365148 };
+		for (int i=0; i<o.length; i++)
+			assertEquals(o[i], shared.get(0).getCurveObs().getValue(i), epsilon);
+		
+		// The second column has a different ranking, so its curve must differ
+		boolean differs = false;
+		for (int i=0; i<o.length; i++)
+			if (Math.abs(o[i] - shared.get(1).getCurveObs().getValue(i)) > epsilon)
+				differs = true;
+		assertTrue(differs);
+	}
+
+	
+	/** Vectorized enrichment for per gene data gives the same results as enrichment column by column */
+	@Test
+	public void testIndividualEnrichment_vectorized() {
+
+		// Settings
+		mag.set.functionalDataFile_ = new File("src/edu/mit/magnum/enrich/test/simpleNet_geneProperties.txt");
+		mag.set.excludedGenesFile_ = null;
+		mag.set.excludedGenePairsFile_ = null;
+		mag.set.excludeXYChromosomes_ = true;
+		mag.set.excludedGenesDistance_ = -1;
+		double epsilon = 1e-12;
+
+		// All columns, permutations of the vectorized mode are not the same, compare the observed curves (last column)
+		mag.set.setRandomSeed(1);
+		EnrichMain enrichMain = new EnrichMain(mag);
+		enrichMain.run();
+		Curve obs = enrichMain.getEnrichment().getCurveObs();
+
+		mag.set.vectorizedPerGeneEnrichment_ = true;
+		mag.set.setRandomSeed(1);
+		EnrichMain enrichMainVectorized = new EnrichMain(mag);
+		enrichMainVectorized.run();
+		Curve obsVectorized = enrichMainVectorized.getEnrichment().getCurveObs();
+
+		assertEquals(obs.getNumPoints(), 6);
+		assertEquals(obs.getNumPoints(), obsVectorized.getNumPoints());
+		for (int i=0; i<obs.getNumPoints(); i++)
+			assertEquals(obs.getValue(i), obsVectorized.getValue(i), epsilon);
+		// Mean clustering coefficient of the top 2 genes (6 and 5)
+		assertEquals(1.0, obsVectorized.getValue(1), epsilon);
+		assertEquals(mag.set.numPermutations_, enrichMainVectorized.getEnrichment().getCurvesPermut().size());
+		
+		// Single column, the permutations are the same in both modes
+		mag.set.functionalDataCols_ = new ArrayList<Integer>();
+		mag.set.functionalDataCols_.add(2);
+		mag.set.setRandomSeed(1);
+		enrichMainVectorized = new EnrichMain(mag);
+		enrichMainVectorized.run();
+		
+		mag.set.vectorizedPerGeneEnrichment_ = false;
+		mag.set.setRandomSeed(1);
+		enrichMain = new EnrichMain(mag);
+		enrichMain.run();
+		mag.set.functionalDataCols_ = null;
+
+		ArrayList<Curve> permut = enrichMain.getEnrichment().getCurvesPermut();
+		ArrayList<Curve> permutVectorized = enrichMainVectorized.getEnrichment().getCurvesPermut();
+		assertEquals(permut.size(), permutVectorized.size());
+		for (int p=0; p<permut.size(); p++)
+			for (int i=0; i<permut.get(p).getNumPoints(); i++)
+				assertEquals(permut.get(p).getValue(i), permutVectorized.get(p).getValue(i), epsilon);
+	}
+
+	
+	/** Per gene enrichment for personalized PageRank from seed genes (nodes x seeds matrix, one gene property per seed) */
+	@Test
+	public void testIndividualEnrichment_personalizedPageRank() {
+
+		Network network = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, true);
+		ArrayList<Node> seeds = new ArrayList<Node>();
+		seeds.add(network.getNode("1"));
+		seeds.add(network.getNode("4"));
+		network.setRefNodes(seeds);
+		PersonalizedPageRank ppr = new PersonalizedPageRank(mag, network, 0.15, 1e-9);
+		ppr.run();
+		DoubleMatrix2D K = ppr.getK();
+		
+		// The columns are the seeds
+		GeneScoreList geneScores = new GeneScoreList(mag, mag.set.geneScoreFile_, null);
+		FunctionalData data = new FunctionalData(mag, network, K, null, geneScores.getGenes());
+		assertFalse(data.getIsPairwiseData());
+		assertEquals(6, data.getNumGenes());
+		assertEquals(2, data.getColNames().size());
+		assertEquals("1", data.getColNames().get(0));
+		assertEquals("4", data.getColNames().get(1));
+		for (String gene : data.getGenes().keySet())
+			for (int s=0; s<2; s++)
+				assertEquals(K.get(network.getNodeIndex(gene), s), data.get(data.getGenes().get(gene), s), 0);
+		
+		// Proximity to seed 4 of the top genes (6, 5, 4, ...)
+		geneScores.intersect(data.getGenes().keySet());
+		mag.set.setRandomSeed(1);
+		LabelPermuter permuter = new LabelPermuter(mag, data, geneScores.getGenes(), mag.set.numBins_, 1);
+		EnrichmentIndividual enrichment = new EnrichmentIndividual(mag, data, geneScores, permuter, 1);
+		enrichment.run();
+		
+		Curve obs = enrichment.getCurveObs();
+		assertEquals(6, obs.getNumPoints());
+		double k6 = K.get(network.getNodeIndex("6"), 1);
+		double k5 = K.get(network.getNodeIndex("5"), 1);
+		double k4 = K.get(network.getNodeIndex("4"), 1);
+		assertEquals(k6, obs.getValue(0), 1e-12);
+		assertEquals((k6 + k5)/2, obs.getValue(1), 1e-12);
+		assertEquals((k6 + k5 + k4)/3, obs.getValue(2), 1e-12);
+		assertEquals(mag.set.numPermutations_, enrichment.getCurvesPermut().size());
+	}
+
+	
+	/** A run interrupted during the permutations is resumed from the checkpoint and gives the same results */
+	@Test
+	public void testPairwiseEnrichment_checkpoint() {
+
+		// Settings
+		mag.set.functionalDataFile_ = new File("src/edu/mit/magnum/enrich/test/simpleNet_testKernel.txt");
+		mag.set.excludedGenesFile_ = null;
+		mag.set.excludedGenePairsFile_ = null;
+		mag.set.excludeXYChromosomes_ = true;
+		mag.set.excludedGenesDistance_ = 1;
+		
+		// Uninterrupted run
+		mag.set.setRandomSeed(1);
+		EnrichMain enrichMain = new EnrichMain(mag);
+		enrichMain.run();
+		
+		// Interrupted during the 5th permutation (the 6 genes are shuffled with 5 random numbers)
+		mag.set.checkpointDir_ = new File("tmp_checkpoint");
+		mag.set.checkpointInterval_ = 0;
+		mag.set.setRandomSeed(1);
+		mag.set.jdkRng_ = new InterruptedRandom(1);
+		InterruptedRandom.limit_ = 4*5;
+		try {
+			new EnrichMain(mag).run();
+			fail("Expected the run to be interrupted");
+		} catch (IllegalStateException e) {
+			// Interrupted
+		}
+		File[] checkpoints = mag.set.checkpointDir_.listFiles();
+		
+		// Resumed run
+		InterruptedRandom.limit_ = Integer.MAX_VALUE;
+		EnrichMain enrichMainResumed = new EnrichMain(mag);
+		enrichMainResumed.run();
+		File[] checkpointsResumed = mag.set.checkpointDir_.listFiles();
+		
+		mag.set.checkpointDir_.delete();
+		mag.set.checkpointDir_ = null;
+		mag.set.checkpointInterval_ = 600;
+		mag.set.setRandomSeed(1);
+		
+		assertEquals(1, checkpoints.length);
+		assertEquals(0, checkpointsResumed.length);
+
+		ArrayList<Curve> permut = enrichMain.getEnrichment().getCurvesPermut();
+		ArrayList<Curve> permutResumed = enrichMainResumed.getEnrichment().getCurvesPermut();
+		assertEquals(mag.set.numPermutations_, permutResumed.size());
+		for (int p=0; p<permut.size(); p++)
+			for (int i=0; i<permut.get(p).getNumPoints(); i++)
+				assertEquals(permut.get(p).getValue(i), permutResumed.get(p).getValue(i), 0);
+		
+		ArrayList<double[]> aucs = enrichMain.getEnrichment().getAUCs();
+		ArrayList<double[]> aucsResumed = enrichMainResumed.getEnrichment().getAUCs();
+		assertEquals(aucs.size(), aucsResumed.size());
+		for (int p=0; p<aucs.size(); p++)
+			assertArrayEquals(aucs.get(p), aucsResumed.get(p), 0);
+	}
+
+	
+	/** Excluded gene pairs are kept in a separate mask, the kernel is not modified */
+	@Test
+	public void testExcludedGenePairs() {
+
+		File kernelFile = new File("src/edu/mit/magnum/enrich/test/simpleNet_testKernel.txt");
+		File excludedGenePairsFile = new File("src/edu/mit/magnum/enrich/test/simpleNet_excludedGenePairs.txt");
+		GeneScoreList geneScores = new GeneScoreList(mag, mag.set.geneScoreFile_, null);
+
+		FunctionalData data = new FunctionalData(mag, kernelFile, null, null, geneScores.getGenes());
+		FunctionalData excluded = new FunctionalData(mag, kernelFile, excludedGenePairsFile, null, geneScores.getGenes());
+		
+		int n = data.getNumGenes();
+		int numExcluded = 0;
+		for (int i=0; i<n; i++) {
+			for (int j=0; j<n; j++) {
+				assertEquals(data.get(i, j), excluded.get(i, j), 0);
+				assertFalse(data.getExcludedPairs().isExcluded(i, j));
+				assertEquals(excluded.getExcludedPairs().isExcluded(i, j), excluded.getExcludedPairs().isExcluded(j, i));
+				if (excluded.getExcludedPairs().isExcluded(i, j))
+					numExcluded++;
+			}
+		}
+		assertTrue(numExcluded > 0);
+	}
+
+	
+	/** Missing values (NaN) in the kernel are set to 0 and excluded, so they don't poison the running sums */
+	@Test
+	public void testMissingValues() {
+
+		Network network = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, true);
+		GeneScoreList geneScores = new GeneScoreList(mag, mag.set.geneScoreFile_, null);
+		int n = network.getNumNodes();
+		int i1 = network.getNodeIndex("1");
+		int i2 = network.getNodeIndex("2");
+		
+		DenseMatrix kernel = new DenseMatrix(n, n);
+		for (int i=0; i<n; i++)
+			for (int j=0; j<n; j++)
+				kernel.set(i, j, 1.0 / (1 + Math.abs(i-j)));
+		kernel.set(i1, i2, Double.NaN);
+		kernel.set(i2, i1, Double.NaN);
+		
+		FunctionalData data = new FunctionalData(mag, network, kernel, null, geneScores.getGenes());
+		int g1 = data.getGenes().get("1");
+		int g2 = data.getGenes().get("2");
+		assertTrue(data.getExcludedPairs().isExcluded(g1, g2));
+		assertTrue(data.getExcludedPairs().isExcluded(g2, g1));
+		assertEquals(0, data.get(g1, g2), 0);
+		
+		int numExcluded = 0;
+		for (int i=0; i<data.getNumGenes(); i++) {
+			for (int j=0; j<data.getNumGenes(); j++) {
+				assertFalse(Double.isNaN(data.get(i, j)));
+				if (data.getExcludedPairs().isExcluded(i, j))
+					numExcluded++;
+			}
+		}
+		assertEquals(2, numExcluded);
+		
+		// Asymmetric data, NaN only below the diagonal of the data (row of the gene with the larger index)
+		int g3 = data.getGenes().get("3");
+		int g5 = data.getGenes().get("5");
+		String row = (g3 > g5) ? "3" : "5";
+		String col = (g3 > g5) ? "5" : "3";
+		kernel.set(i1, i2, 0.5);
+		kernel.set(i2, i1, 0.5);
+		kernel.set(network.getNodeIndex(row), network.getNodeIndex(col), Double.NaN);
+		
+		data = new FunctionalData(mag, network, kernel, null, geneScores.getGenes());
+		assertTrue(data.getExcludedPairs().isExcluded(g3, g5));
+		assertTrue(data.getExcludedPairs().isExcluded(g5, g3));
+		assertFalse(data.getExcludedPairs().isExcluded(g1, g2));
+		assertEquals(0, data.get(data.getGenes().get(row), data.getGenes().get(col)), 0);
+		assertTrue(data.get(data.getGenes().get(col), data.getGenes().get(row)) > 0);
+	}
+
+	
+	/** Scaling the kernel by row sums */
+	@Test
+	public void testScaleKernel() {
+
+		File kernelFile = new File("src/edu/mit/magnum/enrich/test/simpleNet_testKernel.txt");
+		GeneScoreList geneScores = new GeneScoreList(mag, mag.set.geneScoreFile_, null);
+
+		mag.set.scaleKernel_ = false;
+		FunctionalData data = new FunctionalData(mag, kernelFile, null, null, geneScores.getGenes());
+		mag.set.scaleKernel_ = true;
+		FunctionalData scaled = new FunctionalData(mag, kernelFile, null, null, geneScores.getGenes());
+		mag.set.scaleKernel_ = false;
+		
+		int n = data.getNumGenes();
+		double[] rowsums = new double[n];
+		for (int i=0; i<n; i++)
+			for (int j=0; j<n; j++)
+				rowsums[i] += data.get(i, j);
+		
+		for (int i=0; i<n; i++)
+			for (int j=0; j<n; j++)
+				assertEquals(data.get(i, j) / Math.sqrt(rowsums[i] * rowsums[j]), scaled.get(i, j), 1e-15);
+	}
+
+	
 	// ----------------------------------------------------------------------------
 
 //	/** Test enrichment for per gene average kernel similarity */
@@ -294,4 +714,26 @@ public class EnrichMainTest {
 	// ============================================================================
 	// PRIVATE METHODS
 
+	/** Random number generator that throws an exception after limit_ numbers, simulates an interrupted run */
+	private static class InterruptedRandom extends Random {
+		
+		private static final long serialVersionUID = 1L;
+		/** Number of random numbers that can be generated */
+		static int limit_ = Integer.MAX_VALUE;
+		/** Number of random numbers generated */
+		static int count_ = 0;
+		
+		InterruptedRandom(long seed) {
+			super(seed);
+			count_ = 0;
+		}
+		
+		@Override
+		public int nextInt(int bound) {
+			if (++count_ > limit_)
+				throw new IllegalStateException("Interrupted");
+			return super.nextInt(bound);
+		}
+	}
+
 }
@@ -27,17 +27,33 @@ package edu.mit.magnum.gene;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Collections;
+import java.util.Comparator;
 
 
 /**
- * A position on the genome (e.g., SNP)
+ * The genomic elements of a chromosome, indexed for overlap queries. Elements are sorted by start
+ * position and organized as an implicit interval tree: the sorted array is viewed as a binary
+ * search tree (leaves at even indexes) where each node keeps the max end position of its subtree.
+ * The index is built by Genome once all elements have been added (bulk loading), so that queries
+ * don't modify the chromosome and can be done concurrently. Queries after elements have been added
+ * without rebuilding the index build it first (synchronized).
  */
 public class Chromosome {
 
-	/** The genomic elements of this chromosome, sorted by starting position */
-	private TreeMap<Integer, GenomicElement> elements_ = null;
+	/** The genomic elements of this chromosome, sorted by start position once the index is built */
+	private ArrayList<GenomicElement> elements_ = null;
+	
+	/** Start positions of the sorted elements */
+	private int[] starts_ = null;
+	/** End positions of the sorted elements */
+	private int[] ends_ = null;
+	/** Max end position of the subtree of each node */
+	private int[] maxEnds_ = null;
+	/** Level of the root node (-1 if there are no elements) */
+	private int maxLevel_ = -1;
+	/** True if the index is up to date (volatile, the index is published to other threads when it is set) */
+	private volatile boolean indexed_ = false;
 	
 	
 	// ============================================================================
@@ -46,34 +62,99 @@ public class Chromosome {
 	/** Constructor */
 	public Chromosome() {
 
-		elements_ = new TreeMap<Integer, GenomicElement>();
+		elements_ = new ArrayList<GenomicElement>();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Add the given element to this chromosome (call buildIndex() once all elements have been added) */
+	public synchronized void addElement(GenomicElement element) {
+		
+		elements_.add(element);
+		indexed_ = false;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 
-	/** Add the given element to this chromosome */
-	public void addElement(GenomicElement element) {
+	/** Add the given elements to this chromosome (call buildIndex() once all elements have been added) */
+	public synchronized void addElements(Collection<? extends GenomicElement> elements) {
 		
-		elements_.put(element.start_, element);
+		elements_.addAll(elements);
+		indexed_ = false;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 
-	/** Get the elements in the given window */
+	/** Get the elements that overlap the given window (start and end included), sorted by start position */
 	public ArrayList<GenomicElement> getElementsIn(int start, int end) {
+		
+		if (!indexed_)
+			buildIndex();
+		ArrayList<GenomicElement> overlapping = new ArrayList<GenomicElement>();
+		if (maxLevel_ < 0)
+			return overlapping;
+		
+		int n = starts_.length;
+		// Stack of nodes to visit: level, node, and whether the left child has been processed
+		int[] stackLevel = new int[64];
+		int[] stackNode = new int[64];
+		boolean[] stackLeftDone = new boolean[64];
+		int t = 0;
+		stackLevel[t] = maxLevel_;
+		stackNode[t] = (1 << maxLevel_) - 1;
+		stackLeftDone[t++] = false;
+		
+		while (t > 0) {
+			t--;
+			int k = stackLevel[t];
+			int x = stackNode[t];
+			boolean leftDone = stackLeftDone[t];
+			
+			if (k <= 3) {
+				// Small subtree, check all nodes in order
+				int i0 = x >> k << k;
+				int i1 = Math.min(i0 + (1 << (k+1)) - 1, n);
+				for (int i=i0; i<i1 && starts_[i] <= end; i++)
+					if (ends_[i] >= start)
+						overlapping.add(elements_.get(i));
 				
-		return new ArrayList<GenomicElement>(elements_.subMap(start, true, end, true).values());
+			} else if (!leftDone) {
+				// Come back to this node after the left child
+				int y = x - (1 << (k-1));
+				stackLevel[t] = k;
+				stackNode[t] = x;
+				stackLeftDone[t++] = true;
+				// Visit left child if it may overlap (or doesn't exist, in which case it may have right descendants)
+				if (y >= n || maxEnds_[y] >= start) {
+					stackLevel[t] = k - 1;
+					stackNode[t] = y;
+					stackLeftDone[t++] = false;
+				}
+				
+			} else if (x < n && starts_[x] <= end) {
+				// This node and the right child
+				if (ends_[x] >= start)
+					overlapping.add(elements_.get(x));
+				stackLevel[t] = k - 1;
+				stackNode[t] = x + (1 << (k-1));
+				stackLeftDone[t++] = false;
+			}
+		}
+		return overlapping;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 
-	/** Get all elements */
+	/** Get all elements, sorted by start position */
 	public Collection<GenomicElement> getElements() {
-				
-		return elements_.values();
+		
+		if (!indexed_)
+			buildIndex();
+		return Collections.unmodifiableList(elements_);
 	}
 
 	
@@ -82,38 +163,100 @@ public class Chromosome {
 	/** Get the nearest neighboring element (based on the start_ positions) */
 	public GenomicElement getNearestElement(int pos) {
 
-		Entry<Integer, GenomicElement> prev = elements_.floorEntry(pos);
-		Entry<Integer, GenomicElement> next = elements_.ceilingEntry(pos);
-		
-		// The case where either one or both are null
-		if (prev == null && next == null)
+		if (!indexed_)
+			buildIndex();
+		int n = starts_.length;
+		if (n == 0)
 			return null;
-		if (prev == null)
-			return next.getValue();
-		if (next == null)
-			return prev.getValue();
+		
+		// The first element with start > pos
+		int lo = 0;
+		int hi = n;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (starts_[mid] <= pos)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		
+		// The case where there is no element on one side
+		if (lo == 0)
+			return elements_.get(0);
+		if (lo == n)
+			return elements_.get(n-1);
 
 		// Distance to the two neighbors
-		int deltaPrev = pos - prev.getKey();
-		int deltaNext = next.getKey() - pos;
+		int deltaPrev = pos - starts_[lo-1];
+		int deltaNext = starts_[lo] - pos;
 		assert deltaPrev >= 0 && deltaNext >= 0;
 		
 		// Return the closer
 		if (deltaPrev <= deltaNext)
-			return prev.getValue();
+			return elements_.get(lo-1);
 		else
-			return next.getValue();
+			return elements_.get(lo);
 	}
 
 
-	// ============================================================================
-	// PRIVATE METHODS
+	// ----------------------------------------------------------------------------
+
+	/** Sort the elements by start position and compute the max end of each subtree (does nothing if the index is up to date) */
+	public synchronized void buildIndex() {
 		
+		if (indexed_)
+			return;
+		
+		// Comparator to sort elements by start position (stable, elements with the same start keep their order)
+		final class StartComparator implements Comparator<GenomicElement> {
+			public int compare(GenomicElement e1, GenomicElement e2) {
+				return (e1.start_ < e2.start_) ? -1 : ((e1.start_ == e2.start_) ? 0 : 1);
+			}
+		}
+		Collections.sort(elements_, new StartComparator());
+		
+		int n = elements_.size();
+		starts_ = new int[n];
+		ends_ = new int[n];
+		maxEnds_ = new int[n];
+		for (int i=0; i<n; i++) {
+			starts_[i] = elements_.get(i).start_;
+			ends_[i] = elements_.get(i).end_;
+		}
+		
+		maxLevel_ = -1;
+		if (n > 0) {
+			// Leaves (level 0)
+			int last = 0;
+			int lastMax = 0;
+			for (int i=0; i<n; i+=2) {
+				last = i;
+				lastMax = maxEnds_[i] = ends_[i];
+			}
+			// Internal nodes, bottom-up
+			int k;
+			for (k=1; (1 << k) <= n; k++) {
+				int x = 1 << (k-1);
+				int i0 = (x << 1) - 1;
+				int step = x << 2;
+				for (int i=i0; i<n; i+=step) {
+					int maxLeft = maxEnds_[i - x];
+					int maxRight = (i + x < n) ? maxEnds_[i + x] : lastMax;
+					maxEnds_[i] = Math.max(ends_[i], Math.max(maxLeft, maxRight));
+				}
+				// Parent of the last node
+				last = ((last >> k & 1) != 0) ? last - x : last + x;
+				if (last < n && maxEnds_[last] > lastMax)
+					lastMax = maxEnds_[last];
+			}
+			maxLevel_ = k - 1;
+		}
+		indexed_ = true;
+	}
+	
 
 	// ============================================================================
 	// GETTERS AND SETTERS
 
-	public TreeMap<Integer, GenomicElement> getElementTreeMap() { return elements_; }
-	
 	public int getNumElements() { return elements_.size(); }
 }
@@ -25,8 +25,21 @@ THE SOFTWARE.
  */
 package edu.mit.magnum.gene;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
 
 import ch.unil.gpsutils.FileParser;
 import edu.mit.magnum.*;
@@ -49,9 +62,20 @@ import edu.mit.magnum.*;
  *    processed_transcript
  *    pseudogene
  *    sense_overlapping
+ * 
+ * If cacheAnnotation is set, all genes of the GTF file are saved to a binary file next to it
+ * (<file>.cache), which is memory-mapped in subsequent runs instead of parsing the GTF file.
  */
 public class GeneAnnotationGencode extends GeneAnnotation {
 
+	/** Identifies the binary cache format (and its version) */
+	private static final int CACHE_MAGIC = 0x4d474131;
+	/** The attributes that are extracted from the GTF file */
+	private static final String[] ATTRIBUTE_KEYS = {"gene_id", "gene_name", "gene_type"};
+	
+	/** All genes of the GTF file (before filtering), only collected when the cache is written */
+	private ArrayList<String[]> allGenes_ = null;
+	
 	
 	// ============================================================================
 	// PUBLIC METHODS
@@ -68,17 +92,60 @@ public class GeneAnnotationGencode extends GeneAnnotation {
 	/** Load gene coordinates for the given gene set (load all genes if the set is empty) */
 	public HashMap<String, Gene> loadAnnotation() {
 				
+		// The complete annotation (no gene set specified) is shared between the Magnum instances of a service
+		SharedResources resources = mag.getSharedResources();
+		if (resources != null && genesToBeLoaded_ == null) {
+			String key = "gencode:" + SharedResources.fileKey(annotationFile_) + ":" + chromosomeToBeLoaded_ + ":" + loadOnlyProteinCoding_;
+			genes_ = resources.get(key, new Callable<LinkedHashMap<String, Gene>>() {
+				public LinkedHashMap<String, Gene> call() {
+					return loadGenes();
+				}
+			});
+		} else {
+			genes_ = loadGenes();
+		}
+		return genes_;
+	}
+	
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Load the genes from the binary cache or the GTF file */
+	private LinkedHashMap<String, Gene> loadGenes() {
+		
 		genes_ = new LinkedHashMap<String, Gene>();
-		// To print gene types
-		//HashSet<String> geneType = new HashSet<String>();
+		
+		File cacheFile = getCacheFile();
+		if (cacheFile != null && loadCache(cacheFile))
+			return genes_;
+		
+		if (cacheFile != null)
+			allGenes_ = new ArrayList<String[]>();
+		loadGtf();
+		
+		if (cacheFile != null) {
+			saveCache(cacheFile);
+			allGenes_ = null;
+		}
+		return genes_;
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Parse the GTF file */
+	private void loadGtf() {
 		
 		// Open the file
 		FileParser parser = new FileParser(mag.log, annotationFile_);
-		GeneIdMapping mapping = GeneIdMapping.getInstance(mag.log);
+		String[] attributes = new String[ATTRIBUTE_KEYS.length];
+		// All gene ids, checked before filtering so that the cache and all filters see the same validation
+		HashSet<String> geneIds = new HashSet<String>();
 		
 		// Skip the first 5 lines (start with #)
 		String[] nextLine = parser.readLine();
-		while (nextLine[0].startsWith("#"))
+		while (nextLine != null && nextLine[0].startsWith("#"))
 			nextLine = parser.readLine();
 				
 		while (nextLine != null) {
@@ -90,89 +157,307 @@ public class GeneAnnotationGencode extends GeneAnnotation {
 			if (!nextLine[2].equals("gene"))
 				parser.error("Third column expected to be 'gene'");
 
-			// Chromosome
-			String chr = nextLine[0];
-			// Continue if not the specified chromosome
-			if (chromosomeToBeLoaded_ != null && chromosomeToBeLoaded_.length() > 0 && !chr.equals(chromosomeToBeLoaded_)) {
-				nextLine = parser.readLine();
-				continue;
-			}
-
-			if (loadOnlyProteinCoding_) {
-				// Check that it's a protein coding gene
-				String gene_type = getGencodeKeyValue(nextLine[8], "gene_type");
-				//geneType.add(gene_type);
-				
-				if (!gene_type.equalsIgnoreCase("protein_coding")) {
-					nextLine = parser.readLine();
-					continue;
-				}
-				
-			}
-			// Gene id
-			String gene_id = mapping.removeEnsemblVersion(getGencodeKeyValue(nextLine[8], "gene_id").toUpperCase());
-			String gene_name = getGencodeKeyValue(nextLine[8], "gene_name").toUpperCase();
+			// Gene id, name and type
+			parseAttributes(nextLine[8], attributes);
+			if (attributes[0] == null)
+				parser.error("Key not found: 'gene_id'");
+			if (attributes[1] == null)
+				parser.error("Key not found: 'gene_name'");
+			String geneId = GeneIdMapping.removeEnsemblVersion(attributes[0].toUpperCase());
+			String geneName = attributes[1].toUpperCase();
+			String geneType = (attributes[2] == null) ? "" : attributes[2];
 			
-			// If a gene set to be loaded was specified and this gene is NOT in this set, continue
-			if (genesToBeLoaded_ != null) {
-				// Check if this gene is part of the specified gene set
-				String specifiedGene = null;
-				if (genesToBeLoaded_.containsKey(gene_id))
-					specifiedGene = gene_id;
-				else if (genesToBeLoaded_.containsKey(gene_name))
-					specifiedGene = gene_name;
-
-				// Flag this gene as found
-				if (specifiedGene != null) {
-					genesToBeLoaded_.put(specifiedGene, true);
-				} else {
-					nextLine = parser.readLine();
-					continue;
-				}
-			}
-					
-			// Check that the id is unique
-			if (genes_.containsKey(gene_id))
-				parser.error("Duplicate gene id: " + gene_id);
-			
-			// Create the gene
-			Gene nextGene = new Gene(gene_id, gene_name);
-			genes_.put(gene_id, nextGene);
-				
 			// Position
+			String chr = nextLine[0];
 			int start = Integer.parseInt(nextLine[3]);
 			int end = Integer.parseInt(nextLine[4]);
 			boolean posStrand = isPosStrand(nextLine[6]);	
-			nextGene.setPosition(chr, start, end, posStrand);
 
+			if (!geneIds.add(geneId))
+				parser.error("Duplicate gene id: " + geneId);
+			if (allGenes_ != null)
+				allGenes_.add(new String[] {geneId, geneName, chr, geneType, nextLine[3], nextLine[4], nextLine[6]});
+			
+			addGene(geneId, geneName, chr, start, end, posStrand, geneType);
+			
 			// Read next line
 			nextLine = parser.readLine();
 		}		
 		parser.close();		
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Add the gene to genes_ unless it is filtered out (chromosome, gene type, genes to be loaded), ids must be unique */
+	private void addGene(String geneId, String geneName, String chr, int start, int end, boolean posStrand, String geneType) {
+		
+		// Continue if not the specified chromosome
+		if (chromosomeToBeLoaded_ != null && chromosomeToBeLoaded_.length() > 0 && !chr.equals(chromosomeToBeLoaded_))
+			return;
 
-		// Print gene types
-		//for (String type : geneType)
-		//Ngsea.println(type);
+		// Check that it's a protein coding gene
+		if (loadOnlyProteinCoding_) {
+			if (geneType.length() == 0)
+				throw new RuntimeException("Key not found: 'gene_type'");
+			if (!geneType.equalsIgnoreCase("protein_coding"))
+				return;
+		}
+		
+		// If a gene set to be loaded was specified and this gene is NOT in this set, continue
+		if (genesToBeLoaded_ != null) {
+			// Check if this gene is part of the specified gene set
+			String specifiedGene = null;
+			if (genesToBeLoaded_.containsKey(geneId))
+				specifiedGene = geneId;
+			else if (genesToBeLoaded_.containsKey(geneName))
+				specifiedGene = geneName;
+
+			// Flag this gene as found
+			if (specifiedGene != null)
+				genesToBeLoaded_.put(specifiedGene, true);
+			else
+				return;
+		}
+		
+		// Create the gene
+		Gene nextGene = new Gene(geneId, geneName);
+		nextGene.setPosition(chr, start, end, posStrand);
+		genes_.put(geneId, nextGene);
+	}
 	
-		return genes_;
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Extract the values of ATTRIBUTE_KEYS from the attribute column in a single scan 
+	 * (format: key "value"; key "value"; ...), values that are not found are set to null
+	 */
+	private static void parseAttributes(String attributeList, String[] values) {
+		
+		for (int k=0; k<values.length; k++)
+			values[k] = null;
+
+		int n = attributeList.length();
+		int i = 0;
+		while (i < n) {
+			// Skip separators
+			char c = attributeList.charAt(i);
+			if (c == ' ' || c == ';' || c == '\t') {
+				i++;
+				continue;
+			}
+			
+			// Key
+			int keyStart = i;
+			while (i < n && attributeList.charAt(i) != ' ')
+				i++;
+			int keyEnd = i;
+			i++;
+
+			// Value (quoted or not)
+			int valueStart;
+			int valueEnd;
+			if (i < n && attributeList.charAt(i) == '"') {
+				valueStart = ++i;
+				while (i < n && attributeList.charAt(i) != '"')
+					i++;
+				valueEnd = i++;
+			} else {
+				valueStart = Math.min(i, n);
+				while (i < n && attributeList.charAt(i) != ';')
+					i++;
+				valueEnd = Math.min(i, n);
+			}
+			
+			// Keep the first occurrence of the keys we are interested in
+			for (int k=0; k<ATTRIBUTE_KEYS.length; k++) {
+				String key = ATTRIBUTE_KEYS[k];
+				if (values[k] == null && keyEnd - keyStart == key.length() && attributeList.regionMatches(keyStart, key, 0, key.length())) {
+					values[k] = attributeList.substring(valueStart, valueEnd);
+					break;
+				}
+			}
+		}
 	}
+
 	
+	// ----------------------------------------------------------------------------
+
+	/** The binary cache file, null if the annotation is not cached */
+	private File getCacheFile() {
+		
+		if (!mag.set.cacheAnnotation_ || annotationFile_ == null)
+			return null;
+		else
+			return new File(annotationFile_.getPath() + ".cache");
+	}
+
 	
-	// ============================================================================
-	// PRIVATE METHODS
+	// ----------------------------------------------------------------------------
 
-	/** Get the value of the given key, throw exception if not found */
-	private String getGencodeKeyValue(String keyValueList, String key) {
+	/** 
+	 * Load the genes from the memory-mapped cache, returns false if there is no valid cache for the current 
+	 * annotation file (the cache is matched to the file by its length and modification time)
+	 */
+	private boolean loadCache(File cacheFile) {
+		
+		if (!cacheFile.exists())
+			return false;
 		
-		int start = keyValueList.indexOf(key + " \"");
-		if (start == -1)
-			throw new RuntimeException("Key not found: '" + key + "\"");
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(cacheFile, "r");
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			// Header
+			if (buf.getInt() != CACHE_MAGIC || 
+					buf.getLong() != annotationFile_.length() ||
+					buf.getLong() != annotationFile_.lastModified())
+				return false;
+			
+			// Chromosome and gene type names are stored once
+			String[] chrs = new String[buf.getInt()];
+			for (int i=0; i<chrs.length; i++)
+				chrs[i] = getString(buf);
+			String[] types = new String[buf.getInt()];
+			for (int i=0; i<types.length; i++)
+				types[i] = getString(buf);
+
+			// Genes
+			int numGenes = buf.getInt();
+			HashSet<String> geneIds = new HashSet<String>();
+			for (int i=0; i<numGenes; i++) {
+				String geneId = getString(buf);
+				String geneName = getString(buf);
+				String chr = chrs[buf.getShort() & 0xffff];
+				String geneType = types[buf.getShort() & 0xffff];
+				int start = buf.getInt();
+				int end = buf.getInt();
+				boolean posStrand = buf.get() != 0;
+				// Not possible for a cache written by saveCache() (the GTF is checked first)
+				if (!geneIds.add(geneId))
+					throw new IOException("Duplicate gene id: " + geneId);
+				addGene(geneId, geneName, chr, start, end, posStrand, geneType);
+			}
+			
+		} catch (IOException e) {
+			mag.log.warning("Failed to read annotation cache (parsing the annotation file instead): " + e.getMessage());
+			genes_.clear();
+			return false;
+		} catch (BufferUnderflowException e) {
+			mag.log.warning("Corrupt annotation cache (parsing the annotation file instead): " + cacheFile.getPath());
+			genes_.clear();
+			return false;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			mag.log.warning("Corrupt annotation cache (parsing the annotation file instead): " + cacheFile.getPath());
+			genes_.clear();
+			return false;
+		} finally {
+			try {
+				if (raf != null)
+					raf.close();
+			} catch (IOException e) {
+				// Nothing to do, the cache was read
+			}
+		}
 		
-		start = start + key.length() + 2;
-		int end = keyValueList.indexOf("\"", start);
+		mag.log.println("- Loaded annotation from cache: " + cacheFile.getPath());
+		return true;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save all genes of the GTF file to the binary cache (a warning is printed if it can't be written) */
+	private void saveCache(File cacheFile) {
+		
+		// Index chromosome and gene type names
+		LinkedHashMap<String, Integer> chrs = new LinkedHashMap<String, Integer>();
+		LinkedHashMap<String, Integer> types = new LinkedHashMap<String, Integer>();
+		for (String[] g : allGenes_) {
+			if (!chrs.containsKey(g[2]))
+				chrs.put(g[2], chrs.size());
+			if (!types.containsKey(g[3]))
+				types.put(g[3], types.size());
+		}
+
+		// Write to a temporary file first so that a partially written cache is never read
+		File tmpFile = null;
+		DataOutputStream out = null;
+		try {
+			tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeInt(CACHE_MAGIC);
+			out.writeLong(annotationFile_.length());
+			out.writeLong(annotationFile_.lastModified());
+			
+			out.writeInt(chrs.size());
+			for (String chr : chrs.keySet())
+				putString(out, chr);
+			out.writeInt(types.size());
+			for (String type : types.keySet())
+				putString(out, type);
+			
+			out.writeInt(allGenes_.size());
+			for (String[] g : allGenes_) {
+				putString(out, g[0]);
+				putString(out, g[1]);
+				out.writeShort(chrs.get(g[2]));
+				out.writeShort(types.get(g[3]));
+				out.writeInt(Integer.parseInt(g[4]));
+				out.writeInt(Integer.parseInt(g[5]));
+				out.writeByte(isPosStrand(g[6]) ? 1 : 0);
+			}
+			out.close();
+			out = null;
+			
+			if (cacheFile.exists() && !cacheFile.delete())
+				throw new IOException("Could not replace " + cacheFile.getPath());
+			if (!tmpFile.renameTo(cacheFile))
+				throw new IOException("Could not rename " + tmpFile.getPath());
+			
+		} catch (IOException e) {
+			mag.log.warning("Failed to save annotation cache: " + e.getMessage());
+			if (tmpFile != null)
+				tmpFile.delete();
+		} finally {
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Read a string (length followed by UTF-8 bytes) */
+	private static String getString(ByteBuffer buf) {
+		
+		byte[] bytes = new byte[buf.getShort() & 0xffff];
+		buf.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write a string (length followed by UTF-8 bytes) */
+	private static void putString(DataOutputStream out, String str) throws IOException {
 		
-		String value = keyValueList.substring(start, end);
-		return value;
+		byte[] bytes = str.getBytes("UTF-8");
+		if (bytes.length > 0xffff)
+			throw new IOException("String too long for annotation cache: " + str.substring(0, 100));
+		out.writeShort(bytes.length);
+		out.write(bytes);
 	}
 	
 }
@@ -25,70 +25,172 @@ THE SOFTWARE.
  */
 package edu.mit.magnum.gene;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import ch.unil.gpsutils.FileParser;
 import ch.unil.gpsutils.Logger;
 
 
 /**
+ * Mapping from ENSEMBL to Entrez gene IDs. Each Magnum instance has its own mapping (see 
+ * Magnum.getGeneIdMapping()), which is immutable once loaded and can thus be shared between threads.
  * 
+ * ENSEMBL IDs (ENSG<number>) are stored as sorted long keys (the number) and Entrez IDs as ints. 
+ * Keys that map to several Entrez IDs, as well as ENSEMBL IDs that are not of the form ENSG<number>,
+ * are kept in small overflow tables. Optionally, the mapping is saved to a binary file next to the
+ * mapping file (<file>.cache), which is memory-mapped in subsequent runs.
  */
 public class GeneIdMapping {
 
-	/** The magnum instance */
+	/** Identifies the binary cache format (and its version) */
+	private static final int CACHE_MAGIC = 0x4d474d31;
+	/** Entrez ID value for mappings with an empty Entrez ID */
+	private static final int NO_ENTREZ = -1;
+	/** Entrez ID value indicating that the key maps to several Entrez IDs (see multiEntrez_) */
+	private static final int MULTIPLE_ENTREZ = -2;
+	
+	/** The logger */
 	private Logger log;
 
-	/** 
-	 * The unique instance of the mapping (Singleton design pattern)
-	 * TODO Not very nice, I had to replace the Magnum with a MagnumLogger reference,
-	 * otherwise there would have been a memory leak. We should avoid static instances.
-	 * Instead, a Magnum instance could have its own GeneIdMapping.
-	 */
-	static private GeneIdMapping instance_ = null;
-	
-	/** Mapping ensembl to entrez */
-	private HashMap<String, HashSet<String>> ensembl2entrez_ = null;
+	/** Numbers of the ENSEMBL IDs (sorted) */
+	private final long[] ensembl_;
+	/** The corresponding Entrez IDs (NO_ENTREZ or MULTIPLE_ENTREZ) */
+	private final int[] entrez_;
+	/** ENSEMBL IDs (numbers) that map to several Entrez IDs */
+	private final HashMap<Long, int[]> multiEntrez_;
+	/** ENSEMBL IDs that are not of the form ENSG<number> */
+	private final HashMap<String, int[]> otherEnsembl_;
 	
 	
 	// ============================================================================
 	// PUBLIC METHODS
 	
-	private GeneIdMapping(Logger log) {
+	/** 
+	 * Constructor, load the mapping from the given file (three columns: ensembl id, entrez id, gene symbol). 
+	 * If useCache is set, the binary cache is used if it is up to date and written otherwise.
+	 */
+	public GeneIdMapping(Logger log, String filename, boolean useCache) {
+		
 		this.log = log;
-	}
-	
-	/** Get the unique instance */
-	public static GeneIdMapping getInstance(Logger log) {
-	
-		if (instance_ == null)
-			instance_ = new GeneIdMapping(log);
+
+		File file = new File(filename);
+		File cacheFile = useCache ? new File(filename + ".cache") : null;
+		
+		// The cache is read directly into the compact tables, the mapping file is parsed into a sorted map first
+		Tables tables = null;
+		if (cacheFile != null)
+			tables = loadCache(file, cacheFile);
+		if (tables == null) {
+			tables = parse(filename);
+			if (cacheFile != null)
+				saveCache(file, cacheFile, tables);
+		}
 		
-		return instance_;
+		ensembl_ = tables.ensembl_;
+		entrez_ = tables.entrez_;
+		multiEntrez_ = tables.multiEntrez_;
+		otherEnsembl_ = tables.otherEnsembl_;
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
-	/** Map ensembl to entrez ids */
+	/** Map ensembl to entrez ids (empty set if the ensembl id is not in the mapping) */
 	public HashSet<String> ensembl2entrez(String ensemblId) {
 		
-		return ensembl2entrez_.get(ensemblId);
+		HashSet<String> entrezSet = new HashSet<String>(2);
+		
+		int[] ids = null;
+		long number = ensemblNumber(ensemblId);
+		if (number == -1) {
+			ids = otherEnsembl_.get(ensemblId);
+		} else {
+			int i = Arrays.binarySearch(ensembl_, number);
+			if (i >= 0) {
+				if (entrez_[i] == MULTIPLE_ENTREZ)
+					ids = multiEntrez_.get(number);
+				else
+					entrezSet.add(entrezString(entrez_[i]));
+			}
+		}
+		if (ids != null)
+			for (int id : ids)
+				entrezSet.add(entrezString(id));
+
+		return entrezSet;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 
-	/** Load the mapping */
-	public void load(String filename) {
+	/** If this is an ensembl id, remove the version number */
+	public static String removeEnsemblVersion(String id) {
 		
-		if (ensembl2entrez_ != null) {
-			log.warning("Gene mapping already loaded");
-			return;
+		if (id.length() > 4 && id.startsWith("ENSG")) {
+			int dot = id.lastIndexOf(".");
+			if (dot != -1)
+				id = id.substring(0, dot);
+		}
+		return id;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** The compact storage of the mapping (see the corresponding fields of GeneIdMapping) */
+	private static class Tables {
+		
+		long[] ensembl_ = null;
+		int[] entrez_ = null;
+		HashMap<Long, int[]> multiEntrez_ = new HashMap<Long, int[]>();
+		HashMap<String, int[]> otherEnsembl_ = new HashMap<String, int[]>();
+		
+		/** Allocate the tables for the given number of ENSG<number> keys */
+		Tables(int numKeys) {
+			ensembl_ = new long[numKeys];
+			entrez_ = new int[numKeys];
+		}
+		
+		/** Set the key i and its entrez ids */
+		void set(int i, long number, int[] ids) {
+			ensembl_[i] = number;
+			if (ids.length == 1) {
+				entrez_[i] = ids[0];
+			} else {
+				entrez_[i] = MULTIPLE_ENTREZ;
+				multiEntrez_.put(number, ids);
+			}
 		}
 		
-		ensembl2entrez_ = new HashMap<String, HashSet<String>>();
+		/** The entrez ids of key i */
+		int[] getIds(int i) {
+			return (entrez_[i] == MULTIPLE_ENTREZ) ? multiEntrez_.get(ensembl_[i]) : new int[] {entrez_[i]};
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Parse the mapping file */
+	private Tables parse(String filename) {
+		
+		// Sorted keys and their entrez ids, ids that are not of the form ENSG<number> are added to other
+		TreeMap<Long, int[]> mapping = new TreeMap<Long, int[]>();
+		HashMap<String, int[]> other = new HashMap<String, int[]>();
 		FileParser parser = new FileParser(log, filename);
 		
 		while(true) {
@@ -103,56 +205,233 @@ public class GeneIdMapping {
 			
 			// Parse ensembl id
 			String ensg = nextLine[0];
-			if (!(ensg.length() > 4 && ensg.substring(0, 4).equals("ENSG")))
+			if (!(ensg.length() > 4 && ensg.startsWith("ENSG")))
 				throw new RuntimeException("Invalid ENSEMBL gene ID (expected 'ENSG...'): " + ensg);
 			ensg = removeEnsemblVersion(ensg);
 
 			// Parse entrez id
 			String entrez = nextLine[1];
+			int entrezId = NO_ENTREZ;
 			if (entrez.length() > 0) {
 				try {
-					Integer.valueOf(entrez);
+					entrezId = Integer.parseInt(entrez);
 				} catch (NumberFormatException e) {
 					throw new RuntimeException("Invalid Entrez gene ID (expected an integer number): " + entrez);
 				}
+				if (entrezId < 0)
+					throw new RuntimeException("Invalid Entrez gene ID (expected a positive number): " + entrez);
 			}
 			
 			// Parse gene symbol
 			//String symbol = nextLine[2];
 			
-			HashSet<String> entrezSet = ensembl2entrez_.get(ensg);
-			if (entrezSet == null) {
-				entrezSet = new HashSet<String>(1);
-				ensembl2entrez_.put(ensg, entrezSet);
+			long number = ensemblNumber(ensg);
+			if (number == -1)
+				other.put(ensg, addId(other.get(ensg), entrezId));
+			else
+				mapping.put(number, addId(mapping.get(number), entrezId));
+		}
+		parser.close();
+		
+		// Compact storage
+		Tables tables = new Tables(mapping.size());
+		int i = 0;
+		for (Entry<Long, int[]> entry : mapping.entrySet())
+			tables.set(i++, entry.getKey(), entry.getValue());
+		tables.otherEnsembl_ = other;
+		return tables;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Load the mapping from the binary cache, returns null if there is no valid cache for the mapping file */
+	private Tables loadCache(File file, File cacheFile) {
+		
+		if (!cacheFile.exists())
+			return null;
+		
+		Tables tables = null;
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(cacheFile, "r");
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			// Header
+			if (buf.getInt() != CACHE_MAGIC || 
+					buf.getLong() != file.length() ||
+					buf.getLong() != file.lastModified())
+				return null;
+			
+			// ENSG<number> keys, written in sorted order (at least 16 bytes each)
+			int numKeys = buf.getInt();
+			if (numKeys < 0 || numKeys > buf.remaining()/16)
+				throw new IOException("Corrupt cache " + cacheFile.getPath());
+			tables = new Tables(numKeys);
+			for (int i=0; i<numKeys; i++) {
+				long number = buf.getLong();
+				if (i > 0 && number <= tables.ensembl_[i-1])
+					throw new IOException("Corrupt cache " + cacheFile.getPath());
+				
+				int numIds = buf.getInt();
+				if (numIds == 1) {
+					tables.ensembl_[i] = number;
+					tables.entrez_[i] = buf.getInt();
+				} else {
+					int[] ids = new int[numIds];
+					for (int k=0; k<numIds; k++)
+						ids[k] = buf.getInt();
+					tables.set(i, number, ids);
+				}
+			}
+			// Other keys
+			int numOther = buf.getInt();
+			for (int i=0; i<numOther; i++) {
+				byte[] bytes = new byte[buf.getShort() & 0xffff];
+				buf.get(bytes);
+				int[] ids = new int[buf.getInt()];
+				for (int k=0; k<ids.length; k++)
+					ids[k] = buf.getInt();
+				tables.otherEnsembl_.put(new String(bytes, "UTF-8"), ids);
+			}
+
+		} catch (IOException e) {
+			log.warning("Failed to read gene mapping cache (parsing the mapping file instead): " + e.getMessage());
+			return null;
+		} catch (BufferUnderflowException e) {
+			log.warning("Corrupt gene mapping cache (parsing the mapping file instead): " + cacheFile.getPath());
+			return null;
+		} catch (NegativeArraySizeException e) {
+			log.warning("Corrupt gene mapping cache (parsing the mapping file instead): " + cacheFile.getPath());
+			return null;
+		} finally {
+			try {
+				if (raf != null)
+					raf.close();
+			} catch (IOException e) {
+				// Nothing to do, the cache was read
 			}
-			entrezSet.add(entrez);
 		}
+		
+		log.println("- Loaded gene mapping from cache: " + cacheFile.getPath());
+		return tables;
 	}
 
 	
 	// ----------------------------------------------------------------------------
 
-	/** If this is an ensembl id, remove the version number */
-	public String removeEnsemblVersion(String id) {
+	/** Save the mapping to the binary cache (a warning is printed if it can't be written) */
+	private void saveCache(File file, File cacheFile, Tables tables) {
 		
-		if (id.length() > 4 && id.substring(0, 4).equals("ENSG")) {
-			int dot = id.lastIndexOf(".");
-			if (dot != -1)
-				id = id.substring(0, dot);
+		// Write to a temporary file first so that a partially written cache is never read
+		File tmpFile = null;
+		DataOutputStream out = null;
+		try {
+			tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			out.writeInt(CACHE_MAGIC);
+			out.writeLong(file.length());
+			out.writeLong(file.lastModified());
+			
+			out.writeInt(tables.ensembl_.length);
+			for (int i=0; i<tables.ensembl_.length; i++) {
+				out.writeLong(tables.ensembl_[i]);
+				writeIds(out, tables.getIds(i));
+			}
+			out.writeInt(tables.otherEnsembl_.size());
+			for (Entry<String, int[]> entry : tables.otherEnsembl_.entrySet()) {
+				byte[] bytes = entry.getKey().getBytes("UTF-8");
+				out.writeShort(bytes.length);
+				out.write(bytes);
+				writeIds(out, entry.getValue());
+			}
+			out.close();
+			out = null;
+			
+			if (cacheFile.exists() && !cacheFile.delete())
+				throw new IOException("Could not replace " + cacheFile.getPath());
+			if (!tmpFile.renameTo(cacheFile))
+				throw new IOException("Could not rename " + tmpFile.getPath());
+			
+		} catch (IOException e) {
+			log.warning("Failed to save gene mapping cache: " + e.getMessage());
+			if (tmpFile != null)
+				tmpFile.delete();
+		} finally {
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
 		}
-		return id;
 	}
 
 	
+	// ----------------------------------------------------------------------------
+
+	/** Write the number of ids followed by the ids */
+	private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+		
+		out.writeInt(ids.length);
+		for (int id : ids)
+			out.writeInt(id);
+	}
+
 	
-	// ============================================================================
-	// PRIVATE METHODS
+	// ----------------------------------------------------------------------------
+
+	/** Return a copy of ids with the given id added (if it's not yet included) */
+	private static int[] addId(int[] ids, int id) {
+		
+		if (ids == null)
+			return new int[] {id};
+		for (int k=0; k<ids.length; k++)
+			if (ids[k] == id)
+				return ids;
+		
+		int[] newIds = new int[ids.length + 1];
+		System.arraycopy(ids, 0, newIds, 0, ids.length);
+		newIds[ids.length] = id;
+		return newIds;
+	}
+
 	
+	// ----------------------------------------------------------------------------
 
+	/** The number of an id of the form ENSG<number> (without version), -1 for other ids */
+	private static long ensemblNumber(String id) {
+		
+		// Only ids with the standard 11 digits are stored as numbers (leading zeros are part of the id)
+		int n = id.length();
+		if (n != 15 || !id.startsWith("ENSG"))
+			return -1;
+		
+		long number = 0;
+		for (int i=4; i<n; i++) {
+			char c = id.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			number = 10*number + (c - '0');
+		}
+		return number;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The string of the given entrez id */
+	private static String entrezString(int id) {
+		
+		return (id == NO_ENTREZ) ? "" : Integer.toString(id);
+	}
 
 	
 	// ============================================================================
 	// GETTERS AND SETTERS
-		
+
+	/** The number of ENSEMBL IDs in the mapping */
+	public int getNumEnsemblIds() { return ensembl_.length + otherEnsembl_.size(); }
 	
 }
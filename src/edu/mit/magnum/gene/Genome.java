@@ -26,7 +26,9 @@ THE SOFTWARE.
 package edu.mit.magnum.gene;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -49,6 +51,11 @@ public class Genome {
 	/** The total number of elements */
 	private int numElements_ = 0;
 
+	/** Called for each pair of overlapping elements found by findOverlaps() */
+	public interface OverlapHandler {
+		public void overlap(int index1, int index2);
+	}
+
 	
 	// ============================================================================
 	// PUBLIC METHODS
@@ -106,24 +113,29 @@ public class Genome {
 					(!addAll && !nextElement.chr_.equals(chromosome)))
 				continue;
 			
-			// Add element to the corresponding chromosome
-			chromosomes_.get(nextElement.chr_).addElement(nextElement);
+			// Add element to the corresponding chromosome (skip chromosomes that are not part of the genome, e.g. chrX if excluded)
+			Chromosome chr = chromosomes_.get(nextElement.chr_);
+			if (chr == null)
+				continue;
+			chr.addElement(nextElement);
+			numElements_++;
 		}
 		
-		// Count number of elements
-		if (addAll)
-			numElements_ = elements.size();
-		else
-			numElements_ = chromosomes_.get(chromosome).getNumElements();
+		// Build the indexes now, so that queries (possibly concurrent) don't modify the chromosomes
+		for (Chromosome chr : chromosomes_.values())
+			chr.buildIndex();
 	}
 	
 	
 	// ----------------------------------------------------------------------------
 
-	/** Get the elements in the given window */
+	/** Get the elements that overlap the given window (start and end included) */
 	public ArrayList<GenomicElement> getElementsIn(String chr, int start, int end) {
 		
-		return chromosomes_.get(chr).getElementsIn(start, end);
+		Chromosome chromosome = chromosomes_.get(chr);
+		if (chromosome == null)
+			return new ArrayList<GenomicElement>();
+		return chromosome.getElementsIn(start, end);
 	}
 
 	
@@ -162,6 +174,70 @@ public class Genome {
 	}
 
 	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Find all pairs of overlapping elements (see GenomicElement.overlaps()) in O(N log N + overlaps).
+	 * The handler is called with the indexes of the two elements in the given list, index1 < index2.
+	 * Elements are sorted by (chr, start) and each one is compared only to the preceding elements
+	 * that have not ended yet (sweep line).
+	 */
+	static public void findOverlaps(final ArrayList<? extends GenomicElement> elements, OverlapHandler handler) {
+		
+		// Group elements by chromosome
+		LinkedHashMap<String, ArrayList<Integer>> chromosomes = new LinkedHashMap<String, ArrayList<Integer>>();
+		for (int i=0; i<elements.size(); i++) {
+			String chr = elements.get(i).chr_;
+			if (chr == null)
+				continue;
+			ArrayList<Integer> indexes = chromosomes.get(chr);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				chromosomes.put(chr, indexes);
+			}
+			indexes.add(i);
+		}
+		
+		// Comparator to sort by start position
+		final class StartComparator implements Comparator<Integer> {
+			public int compare(Integer i1, Integer i2) {
+				int start1 = elements.get(i1).start_;
+				int start2 = elements.get(i2).start_;
+				return (start1 < start2) ? -1 : ((start1 == start2) ? 0 : 1);
+			}
+		}
+		StartComparator comparator = new StartComparator();
+		
+		for (ArrayList<Integer> chrIndexes : chromosomes.values()) {
+			Integer[] sorted = chrIndexes.toArray(new Integer[chrIndexes.size()]);
+			Arrays.sort(sorted, comparator);
+			
+			// Elements that may still overlap the next ones
+			ArrayList<Integer> active = new ArrayList<Integer>();
+			for (int k=0; k<sorted.length; k++) {
+				int i = sorted[k];
+				int start = elements.get(i).start_;
+				
+				// Remove elements that end before this one starts, the remaining ones overlap it
+				int numActive = 0;
+				for (int a=0; a<active.size(); a++) {
+					int j = active.get(a);
+					if (elements.get(j).end_ >= start) {
+						active.set(numActive++, j);
+						// Start of j <= start of i, check the end of i anyway in case end < start
+						if (elements.get(i).end_ >= elements.get(j).start_)
+							handler.overlap(Math.min(i, j), Math.max(i, j));
+					}
+				}
+				while (active.size() > numActive)
+					active.remove(active.size()-1);
+				
+				active.add(i);
+			}
+		}
+	}
+
+	
 	// ============================================================================
 	// PRIVATE METHODS
 		
@@ -0,0 +1,292 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.gene.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.*;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.gene.Gene;
+import edu.mit.magnum.gene.GeneAnnotationGencode;
+import edu.mit.magnum.gene.GeneIdMapping;
+
+
+/**
+ * Unit tests for GeneAnnotationGencode and GeneIdMapping
+ */
+public class GeneAnnotationTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+	/** The test annotation */
+	private static File gtfFile = new File("src/edu/mit/magnum/gene/test/gencode_genes.gtf");
+	/** The binary cache of the test annotation */
+	private static File cacheFile = new File(gtfFile.getPath() + ".cache");
+	/** The test gene id mapping */
+	private static String mappingFile = "src/edu/mit/magnum/gene/test/gene_id_mapping.txt";
+	/** The binary cache of the test gene id mapping */
+	private static File mappingCacheFile = new File(mappingFile + ".cache");
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.gencodeAnnotationFile_ = gtfFile;
+		cacheFile.delete();
+		mappingCacheFile.delete();
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+		cacheFile.delete();
+		mappingCacheFile.delete();
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Load genes from the GTF file */
+	@Test
+	public void testLoadGencode() {
+
+		mag.set.cacheAnnotation_ = false;
+		cacheFile.delete();
+		
+		// All genes
+		HashMap<String, Gene> genes = new GeneAnnotationGencode(mag, null, false).loadAnnotation();
+		assertEquals(6, genes.size());
+		checkGenes(genes);
+		assertFalse(cacheFile.exists());
+		
+		// Protein coding genes
+		genes = new GeneAnnotationGencode(mag, null, true).loadAnnotation();
+		assertEquals(4, genes.size());
+		assertNull(genes.get("ENSG00000223972"));
+		
+		// Chromosome
+		genes = new GeneAnnotationGencode(mag, "chrX", true).loadAnnotation();
+		assertEquals(1, genes.size());
+		assertNotNull(genes.get("ENSG00000182378"));
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Genes loaded from the binary cache are the same as from the GTF file */
+	@Test
+	public void testLoadGencodeCached() throws IOException {
+
+		// Work on a copy, the modification time of the test annotation is changed below
+		File gtfCopy = copyGtf(false);
+		File cacheCopy = new File(gtfCopy.getPath() + ".cache");
+		mag.set.gencodeAnnotationFile_ = gtfCopy;
+		mag.set.cacheAnnotation_ = true;
+		
+		// First run writes the cache
+		HashMap<String, Gene> genes = new GeneAnnotationGencode(mag, null, true).loadAnnotation();
+		assertTrue(cacheCopy.exists());
+		assertEquals(4, genes.size());
+		
+		// Subsequent runs read it, the cache has all genes so that it can be filtered differently
+		genes = new GeneAnnotationGencode(mag, null, false).loadAnnotation();
+		assertEquals(6, genes.size());
+		checkGenes(genes);
+		
+		genes = new GeneAnnotationGencode(mag, "chrX", true).loadAnnotation();
+		assertEquals(1, genes.size());
+		assertNotNull(genes.get("ENSG00000182378"));
+		
+		// A stale cache is rebuilt
+		assertTrue(gtfCopy.setLastModified(gtfCopy.lastModified() + 1000));
+		genes = new GeneAnnotationGencode(mag, null, false).loadAnnotation();
+		checkGenes(genes);
+		genes = new GeneAnnotationGencode(mag, null, false).loadAnnotation();
+		checkGenes(genes);
+
+		mag.set.cacheAnnotation_ = false;
+		mag.set.gencodeAnnotationFile_ = gtfFile;
+		cacheCopy.delete();
+		gtfCopy.delete();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * A duplicate gene id is reported with the file and line, also if it is on a chromosome that is not 
+	 * loaded (the duplicate is on chrX), and the cache is not written
+	 */
+	@Test
+	public void testDuplicateGeneId() throws IOException {
+
+		File gtfCopy = copyGtf(true);
+		File cacheFile = new File(gtfCopy.getPath() + ".cache");
+		mag.set.gencodeAnnotationFile_ = gtfCopy;
+		
+		try {
+			for (boolean cache : new boolean[] {false, true}) {
+				mag.set.cacheAnnotation_ = cache;
+				for (String chr : new String[] {null, "chr1"}) {
+					try {
+						new GeneAnnotationGencode(mag, chr, false).loadAnnotation();
+						fail("Duplicate gene id not detected");
+					} catch (RuntimeException e) {
+						assertTrue(e.getMessage().contains("Duplicate gene id: ENSG00000182378"));
+					}
+					assertFalse(cacheFile.exists());
+				}
+			}
+		} finally {
+			mag.set.gencodeAnnotationFile_ = gtfFile;
+			mag.set.cacheAnnotation_ = false;
+			gtfCopy.delete();
+			cacheFile.delete();
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Map ensembl to entrez ids, from the mapping file and from the binary cache */
+	@Test
+	public void testGeneIdMapping() {
+		
+		mappingCacheFile.delete();
+		checkMapping(new GeneIdMapping(mag.log, mappingFile, false));
+		assertFalse(mappingCacheFile.exists());
+		
+		// Write and read the cache
+		checkMapping(new GeneIdMapping(mag.log, mappingFile, true));
+		assertTrue(mappingCacheFile.exists());
+		checkMapping(new GeneIdMapping(mag.log, mappingFile, true));
+		
+		// Each magnum instance has its own mapping
+		Magnum mag2 = new Magnum();
+		mag2.set.resetToDefaults();
+		mag2.set.geneIdMappingFile_ = mappingFile;
+		checkMapping(mag2.getGeneIdMapping());
+		assertTrue(mag2.getGeneIdMapping() == mag2.getGeneIdMapping());
+		
+		assertEquals("ENSG00000223972", GeneIdMapping.removeEnsemblVersion("ENSG00000223972.4"));
+		assertEquals("OR4F5.1", GeneIdMapping.removeEnsemblVersion("OR4F5.1"));
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Copy the test annotation to a temporary file (optionally repeating its last line) */
+	private File copyGtf(boolean duplicateLastLine) throws IOException {
+		
+		File copy = File.createTempFile("gencode_genes", ".gtf");
+		BufferedReader reader = new BufferedReader(new FileReader(gtfFile));
+		PrintWriter writer = new PrintWriter(new FileWriter(copy));
+		String lastLine = null;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			writer.println(line);
+			lastLine = line;
+		}
+		if (duplicateLastLine)
+			writer.println(lastLine);
+		writer.close();
+		reader.close();
+		return copy;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Check the mapping of the test mapping file */
+	private void checkMapping(GeneIdMapping mapping) {
+		
+		assertEquals(5, mapping.getNumEnsemblIds());
+		
+		HashSet<String> expected = new HashSet<String>();
+		expected.add("84771");
+		assertEquals(expected, mapping.ensembl2entrez("ENSG00000223972"));
+
+		// Empty entrez id
+		expected.clear();
+		expected.add("");
+		assertEquals(expected, mapping.ensembl2entrez("ENSG00000235249"));
+		
+		// Several entrez ids, duplicate lines
+		expected.clear();
+		expected.add("642273");
+		expected.add("101929648");
+		assertEquals(expected, mapping.ensembl2entrez("ENSG00000184731"));
+		
+		// Non-standard id
+		expected.clear();
+		expected.add("5334");
+		assertEquals(expected, mapping.ensembl2entrez("ENSGR0000182378"));
+		
+		// Not in mapping
+		assertEquals(0, mapping.ensembl2entrez("ENSG00000000001").size());
+		assertEquals(0, mapping.ensembl2entrez("ENSG0000022397").size());
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+
+	/** Check ids, symbols and positions of the test annotation (all genes) */
+	private void checkGenes(HashMap<String, Gene> genes) {
+		
+		assertEquals(6, genes.size());
+
+		Gene gene = genes.get("ENSG00000223972");
+		assertEquals("DDX11L1", gene.symbol_);
+		assertEquals("chr1", gene.chr_);
+		assertEquals(11869, gene.start_);
+		assertEquals(14412, gene.end_);
+		assertTrue(gene.posStrand_);
+		
+		gene = genes.get("ENSG00000184731");
+		assertEquals("FAM110C", gene.symbol_);
+		assertEquals("chr2", gene.chr_);
+		assertEquals(38814, gene.start_);
+		assertEquals(46588, gene.end_);
+		assertFalse(gene.posStrand_);
+		
+		// Symbols are upper case
+		assertEquals("AL954722.1", genes.get("ENSG00000228572").symbol_);
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.gene.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.*;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.gene.Genome;
+import edu.mit.magnum.gene.GenomicElement;
+
+
+/**
+ * Unit tests for Genome
+ */
+public class GenomeTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Overlapping pairs found by sweep line are the same as comparing all pairs */
+	@Test
+	public void testFindOverlaps() {
+
+		// Random elements on three chromosomes, some with the same start
+		Random rng = new Random(42);
+		ArrayList<GenomicElement> elements = new ArrayList<GenomicElement>();
+		for (int i=0; i<500; i++) {
+			GenomicElement el = new GenomicElement("g" + i);
+			int start = (i % 10 == 0) ? 5000 : rng.nextInt(100000);
+			el.setPosition("chr" + (1 + rng.nextInt(3)), start, start + rng.nextInt(3000), true);
+			elements.add(el);
+		}
+		
+		// Brute force
+		HashSet<String> expected = new HashSet<String>();
+		for (int i=0; i<elements.size(); i++)
+			for (int j=i+1; j<elements.size(); j++)
+				if (elements.get(i).overlaps(elements.get(j)))
+					expected.add(i + "_" + j);
+		
+		final HashSet<String> found = new HashSet<String>();
+		Genome.findOverlaps(elements, new Genome.OverlapHandler() {
+			public void overlap(int i, int j) {
+				assertTrue(i < j);
+				// Each pair is reported once
+				assertTrue(found.add(i + "_" + j));
+			}
+		});
+		
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, found);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Overlap queries of the interval index agree with brute force, also for elements with the same start */
+	@Test
+	public void testGetElementsIn() {
+
+		Random rng = new Random(7);
+		ArrayList<GenomicElement> elements = new ArrayList<GenomicElement>();
+		for (int i=0; i<1000; i++) {
+			GenomicElement el = new GenomicElement("g" + i);
+			int start = (i % 7 == 0) ? 20000 : rng.nextInt(200000);
+			// A few long elements that span many others
+			int length = (i % 50 == 0) ? rng.nextInt(50000) : rng.nextInt(2000);
+			el.setPosition("chr1", start, start + length, true);
+			elements.add(el);
+		}
+		Genome genome = new Genome(mag, elements);
+		
+		// All elements are kept, including the ones with duplicate starts
+		assertEquals(elements.size(), genome.getNumElements());
+		assertEquals(elements.size(), genome.getElements("chr1").size());
+		
+		for (int q=0; q<200; q++) {
+			int start = rng.nextInt(210000);
+			int end = start + rng.nextInt(5000);
+			
+			HashSet<String> expected = new HashSet<String>();
+			for (GenomicElement el : elements)
+				if (el.start_ <= end && el.end_ >= start)
+					expected.add(el.id_);
+			
+			ArrayList<GenomicElement> found = genome.getElementsIn("chr1", start, end);
+			HashSet<String> foundIds = new HashSet<String>();
+			for (int i=0; i<found.size(); i++) {
+				foundIds.add(found.get(i).id_);
+				// Sorted by start
+				if (i > 0)
+					assertTrue(found.get(i-1).start_ <= found.get(i).start_);
+			}
+			assertEquals(expected.size(), found.size());
+			assertEquals(expected, foundIds);
+		}
+		
+		// Unknown chromosome and empty chromosome
+		assertEquals(0, genome.getElementsIn("chr2", 0, 100000).size());
+		assertEquals(0, genome.getElementsIn("chrM", 0, 100000).size());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Nearest element based on start positions */
+	@Test
+	public void testGetNearestElement() {
+
+		ArrayList<GenomicElement> elements = new ArrayList<GenomicElement>();
+		int[] starts = {500, 100, 100, 1000};
+		for (int i=0; i<starts.length; i++) {
+			GenomicElement el = new GenomicElement("g" + i);
+			el.setPosition("chr1", starts[i], starts[i] + 10, true);
+			elements.add(el);
+		}
+		Genome genome = new Genome(mag, elements);
+		
+		assertEquals(100, genome.getNearestElement("chr1", 0).start_);
+		assertEquals(100, genome.getNearestElement("chr1", 299).start_);
+		assertEquals(500, genome.getNearestElement("chr1", 301).start_);
+		// Tie goes to the element before
+		assertEquals(500, genome.getNearestElement("chr1", 750).start_);
+		assertEquals(1000, genome.getNearestElement("chr1", 5000).start_);
+		assertNull(genome.getNearestElement("chr2", 100));
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	// ============================================================================
+	// PRIVATE METHODS
+
+}
@@ -41,6 +41,7 @@ import cern.colt.matrix.linalg.SeqBlas;
 import ch.unil.gpsutils.FileExport;
 import ch.unil.gpsutils.FileParser;
 import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
 import edu.uci.ics.jung.algorithms.util.Indexer;
 import edu.uci.ics.jung.graph.AbstractTypedGraph;
 import edu.uci.ics.jung.graph.DirectedSparseGraph;
@@ -152,11 +153,21 @@ public class Network {
 		this.file_ = file;
 		this.name = mag.utils.extractBasicFilename(file.getName(), false);
 		// Create graph_		
-		loadGraph();
+		PhaseRecorder.Phase phase = mag.phases.start("network load");
+		try {
+			loadGraph();
+		} finally {
+			phase.end();
+		}
 		// Remove super-hubs
-		removeSuperHubs();
-		// Remove nodes that became isolated after removing super-hubs
-		removeIsolatedNodes();
+		phase = mag.phases.start("super-hub removal");
+		try {
+			removeSuperHubs();
+			// Remove nodes that became isolated after removing super-hubs
+			removeIsolatedNodes();
+		} finally {
+			phase.end();
+		}
 		
 		// Initialize nodeLabelMap_, nodeIndexMap_, priorNodeIndexMap_
 		initializeNodeMaps();
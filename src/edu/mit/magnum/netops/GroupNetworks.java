@@ -31,6 +31,7 @@ import java.util.LinkedHashMap;
 
 import ch.unil.gpsutils.FileParser;
 import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
 import edu.mit.magnum.net.Network;
 
 
@@ -76,7 +77,12 @@ public class GroupNetworks {
 			Network net = union.run();
 			
 			String filename = new File(mag.set.outputDirectory_, networkFilesPrefix_ + name + ".txt").getPath();
-			net.write(filename);
+			PhaseRecorder.Phase phase = mag.phases.start("output");
+			try {
+				net.write(filename);
+			} finally {
+				phase.end();
+			}
 		}
 	}
 	
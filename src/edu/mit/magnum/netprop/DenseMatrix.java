@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+
+/**
+ * Dense matrix that gives access to its row-major array of elements, e.g. for bulk row copies and loops
+ * over primitive arrays. Views of a DenseMatrix are normal Colt matrices (elements() is not defined for them).
+ */
+public class DenseMatrix extends DenseDoubleMatrix2D {
+
+	/** Serialization version */
+	private static final long serialVersionUID = 1L;
+
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor, all elements are zero */
+	public DenseMatrix(int rows, int columns) {
+		
+		super(rows, columns);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Constructor, copies the given values */
+	public DenseMatrix(double[][] values) {
+		
+		super(values);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** New empty matrix of the same type, used by Colt for results of operations (e.g., mult) */
+	public DoubleMatrix2D like(int rows, int columns) {
+		
+		return new DenseMatrix(rows, columns);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Copy the given matrix into a new DenseMatrix */
+	static public DenseMatrix copyOf(DoubleMatrix2D A) {
+		
+		DenseMatrix copy = new DenseMatrix(A.rows(), A.columns());
+		double[] elements = copy.elements();
+		int columns = A.columns();
+		for (int i=0; i<A.rows(); i++)
+			for (int j=0; j<columns; j++)
+				elements[i*columns + j] = A.getQuick(i, j);
+		return copy;
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	/** The elements in row-major order, element (i,j) is at index i*columns()+j */
+	public double[] elements() { return elements; }
+	
+}
@@ -0,0 +1,307 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.util.Arrays;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+
+
+/**
+ * Compact row-major matrix for shortest path distances. Hop distances are stored as bytes (1 byte per
+ * element instead of 8) and the storage is widened to shorts when a distance doesn't fit, and to floats
+ * for distances that are not integers (weighted networks) or don't fit in a short. The sentinels
+ * UNREACHABLE (-1) and NOT_COMPUTED (-2) are stored as such in all three types.
+ *
+ * It is a Colt matrix, so it can be read like the DenseDoubleMatrix2D it replaces (e.g., by
+ * computeCentrality() and MatrixWriter). Views (e.g., viewDice, viewRow, viewColumn) share the storage,
+ * selections are not supported. New 1D matrices (e.g., results of zMult) are dense.
+ * Widening is not thread-safe: concurrent writers must not write values that need a wider type.
+ */
+public class DistanceMatrix extends DoubleMatrix2D {
+
+	/** Serialization version */
+	private static final long serialVersionUID = 1L;
+
+	/** No path between the two nodes */
+	public static final double UNREACHABLE = -1;
+	/** The distance has not been computed yet */
+	public static final double NOT_COMPUTED = -2;
+
+	/** Storage types */
+	public static final int BYTE = 0;
+	public static final int SHORT = 1;
+	public static final int FLOAT = 2;
+
+	/** The storage type (BYTE, SHORT or FLOAT) */
+	private int type_ = BYTE;
+	/** The elements if the type is BYTE */
+	private byte[] bytes_ = null;
+	/** The elements if the type is SHORT */
+	private short[] shorts_ = null;
+	/** The elements if the type is FLOAT */
+	private float[] floats_ = null;
+
+	/** Views share the storage of the matrix they were created from, so that widening is seen by all views */
+	private DistanceMatrix owner_ = null;
+
+
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor, all elements are set to the given value */
+	public DistanceMatrix(int rows, int columns, double value) {
+
+		this(rows, columns, BYTE, value);
+	}
+
+
+	/** Constructor with the given initial storage type (e.g., FLOAT for weighted networks), all elements are set to the given value */
+	public DistanceMatrix(int rows, int columns, int type, double value) {
+
+		setUp(rows, columns);
+		owner_ = this;
+		long size = (long) rows * columns;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Distance matrix too large: " + rows + " x " + columns);
+
+		type_ = type;
+		while (!fits(value, type_))
+			type_++;
+
+		if (type_ == BYTE) {
+			bytes_ = new byte[(int) size];
+			Arrays.fill(bytes_, (byte) value);
+		} else if (type_ == SHORT) {
+			shorts_ = new short[(int) size];
+			Arrays.fill(shorts_, (short) value);
+		} else {
+			floats_ = new float[(int) size];
+			Arrays.fill(floats_, (float) value);
+		}
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Get element (row, column) without range check */
+	public double getQuick(int row, int column) {
+
+		return owner_.getElement(rowZero + row*rowStride + columnZero + column*columnStride);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Set element (row, column) without range check, widens the storage if the value doesn't fit */
+	public void setQuick(int row, int column, double value) {
+
+		owner_.setElement(rowZero + row*rowStride + columnZero + column*columnStride, value);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** New empty matrix of the same type (elements are NOT_COMPUTED) */
+	public DoubleMatrix2D like(int rows, int columns) {
+
+		return new DistanceMatrix(rows, columns, owner_.type_, NOT_COMPUTED);
+	}
+
+
+	/** New empty dense 1D matrix, used by Colt for results of operations (e.g., zMult) */
+	public DoubleMatrix1D like1D(int size) {
+
+		return new DenseDoubleMatrix1D(size);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** The number of bytes used to store the elements (of the owner for views) */
+	public long getSizeBytes() {
+
+		long size = (long) owner_.rows * owner_.columns;
+		switch (owner_.type_) {
+		case BYTE: return size;
+		case SHORT: return 2*size;
+		default: return 4*size;
+		}
+	}
+
+
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** 1D view of the given elements of the storage (used by viewRow and viewColumn) */
+	protected DoubleMatrix1D like1D(int size, int zero, int stride) {
+
+		return new Vector(owner_, size, zero, stride);
+	}
+
+
+	/** Not supported */
+	protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets, int[] columnOffsets) {
+
+		throw new UnsupportedOperationException("Selection views of distance matrices are not supported");
+	}
+
+
+	/** Views of a distance matrix share the storage of its owner */
+	protected boolean haveSharedCellsRaw(DoubleMatrix2D other) {
+
+		return (other instanceof DistanceMatrix) && ((DistanceMatrix) other).owner_ == owner_;
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Get the element at the given index of the storage (only called on the owner) */
+	private double getElement(int index) {
+
+		switch (type_) {
+		case BYTE: return bytes_[index];
+		case SHORT: return shorts_[index];
+		default: return floats_[index];
+		}
+	}
+
+
+	/** Set the element at the given index of the storage, widens the storage if the value doesn't fit (only called on the owner) */
+	private void setElement(int index, double value) {
+
+		if (!fits(value, type_))
+			widen(value);
+
+		switch (type_) {
+		case BYTE: bytes_[index] = (byte) value; break;
+		case SHORT: shorts_[index] = (short) value; break;
+		default: floats_[index] = (float) value;
+		}
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** True if the value can be stored exactly in the given type (floats are used for everything else) */
+	private static boolean fits(double value, int type) {
+
+		if (type == FLOAT)
+			return true;
+		if (value != Math.rint(value))
+			return false;
+		if (type == BYTE)
+			return value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE;
+		return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Widen the storage to the smallest type that fits the given value */
+	private synchronized void widen(double value) {
+
+		int type = type_;
+		while (!fits(value, type))
+			type++;
+		if (type == type_)
+			return;
+
+		int size = rows * columns;
+		if (type == SHORT) {
+			shorts_ = new short[size];
+			for (int i=0; i<size; i++)
+				shorts_[i] = bytes_[i];
+		} else {
+			floats_ = new float[size];
+			for (int i=0; i<size; i++)
+				floats_[i] = (type_ == BYTE) ? bytes_[i] : shorts_[i];
+		}
+		bytes_ = null;
+		if (type == FLOAT)
+			shorts_ = null;
+		type_ = type;
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Row or column of a distance matrix, shares the storage of the owner */
+	private static class Vector extends DoubleMatrix1D {
+
+		/** Serialization version */
+		private static final long serialVersionUID = 1L;
+
+		/** The matrix that owns the storage */
+		private DistanceMatrix owner_ = null;
+
+		/** Constructor */
+		Vector(DistanceMatrix owner, int size, int zero, int stride) {
+			setUp(size, zero, stride);
+			owner_ = owner;
+		}
+
+		/** Get element i without range check */
+		public double getQuick(int i) {
+			return owner_.getElement(zero + i*stride);
+		}
+
+		/** Set element i without range check, widens the storage of the owner if the value doesn't fit */
+		public void setQuick(int i, double value) {
+			owner_.setElement(zero + i*stride, value);
+		}
+
+		/** New empty dense 1D matrix */
+		public DoubleMatrix1D like(int size) {
+			return new DenseDoubleMatrix1D(size);
+		}
+
+		/** New empty distance matrix (elements are NOT_COMPUTED) */
+		public DoubleMatrix2D like2D(int rows, int columns) {
+			return new DistanceMatrix(rows, columns, owner_.type_, NOT_COMPUTED);
+		}
+
+		/** Not supported */
+		protected DoubleMatrix1D viewSelectionLike(int[] offsets) {
+			throw new UnsupportedOperationException("Selection views of distance matrices are not supported");
+		}
+
+		/** Views of a distance matrix share the storage of its owner */
+		protected boolean haveSharedCellsRaw(DoubleMatrix1D other) {
+			return (other instanceof Vector) && ((Vector) other).owner_ == owner_;
+		}
+	}
+
+
+	// ============================================================================
+	// SETTERS AND GETTERS
+
+	/** The storage type (BYTE, SHORT or FLOAT) */
+	public int getType() { return owner_.type_; }
+
+}
@@ -0,0 +1,417 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.File;
+
+import cern.colt.matrix.impl.SparseDoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+import edu.mit.magnum.PhaseRecorder;
+import edu.mit.magnum.net.*;
+
+
+/**
+ * Diffusion / heat kernel (Kondor & Lafferty, 2002)
+ * K = exp(-beta*L)
+ * Where L is the normalized Laplacian: L = I - D^(-1/2)*A*D^(-1/2)
+ * 
+ * Column j of K is exp(-beta*L)*e_j, which is approximated in the Krylov subspace span{e_j, L*e_j, ..., L^(m-1)*e_j} 
+ * built with the Lanczos algorithm: exp(-beta*L)*e_j ~ V*exp(-beta*T)*e_1, where V are the m Lanczos vectors and T
+ * is the m x m tridiagonal matrix (L restricted to the subspace). Each column only needs m products with the sparse L,
+ * i.e., O(m*E) instead of the dense matrix products of the p-step kernel. Since the eigenvalues of L are in [0,2],
+ * the approximation converges quickly (m = 30 is typically accurate to machine precision for beta up to ~5).
+ * Columns are computed in parallel. K is symmetric, so column j is saved as row j (the result is symmetrized to remove
+ * the approximation error).
+ *     
+ * Note that the network has to be undirected and self-loops are ignored
+ */
+public class HeatKernel extends PairwiseProperties {
+
+	/** The diffusion time beta (must be > 0) */
+	private double beta_ = 1;
+	/** Dimension m of the Krylov subspace (number of Lanczos iterations per column) */
+	private int krylovDim_ = 30;
+	/** Normalize the kernel matrix (divide by the max) */
+	private boolean normalize_ = true;
+	
+	/** L in compressed sparse row format, row i has the columns colIndexes_[rowStarts_[i]..rowStarts_[i+1]-1] */
+	private int[] rowStarts_ = null;
+	/** Column indexes of the non-zero elements of L */
+	private int[] colIndexes_ = null;
+	/** Non-zero elements of L */
+	private double[] values_ = null;
+
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor (network must be undirected) */
+	public HeatKernel(Magnum mag, Network network, double beta, int krylovDim, boolean normalize, boolean computeCentrality) {
+		
+		super(mag, network, "heatKernel", "heatKernelCentrality", computeCentrality);
+		beta_ = beta;
+		krylovDim_ = krylovDim;
+		normalize_ = normalize;
+		
+		if (beta_ <= 0)
+			throw new IllegalArgumentException("Beta must be greater than 0");
+		if (krylovDim_ < 1)
+			throw new IllegalArgumentException("The dimension of the Krylov subspace must be at least 1");
+		
+		if (isDirected_)
+			throw new IllegalArgumentException("Heat kernels are not implemented for directed networks");
+		if (numRefNodes_ != numNodes_)
+			mag.log.warning("Specified reference nodes will be ignored by heat kernel");
+		
+		String suffix = getSuffix(beta_, krylovDim_, normalize_, network_.getIsWeighted());
+		name_ = "heatKernel" + suffix;
+		nameCentrality_ = "heatKernelCentrality" + suffix;
+	}
+	
+	
+	/** Constructor using default beta and Krylov dimension (network must be undirected) */
+	public HeatKernel(Magnum mag, Network network) {
+		
+		this(mag, network, mag.set.heatKernelBeta_, mag.set.heatKernelKrylovDim_, mag.set.heatKernelNormalize_, mag.set.exportNodeProperties_);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute the heat kernel matrix, column by column */
+	public void computeK() {
+
+		mag.log.println("Computing normalized Laplacian...");		
+		PhaseRecorder.Phase phase = mag.phases.start("laplacian");
+		try {
+			initializeL(network_.computeNormalizedLaplacian());
+		} finally {
+			phase.end();
+		}
+		
+		final int m = Math.min(krylovDim_, numNodes_);
+		mag.log.printlnVerbose("Computing heat kernel with beta=" + beta_ + " (Krylov subspace dimension " + m + ")...",
+				"Computing heat kernel...");
+		
+		// Row j of K is column j of exp(-beta*L)
+		phase = mag.phases.start("krylov columns");
+		try {
+			K_ = new DenseMatrix(numNodes_, numNodes_);
+			final double[] elements = ((DenseMatrix) K_).elements();
+		
+			Parallel.forBlocks(mag.set.getNumThreads(), numNodes_, new Parallel.Block() {
+				public void run(int start, int end) {
+					// Lanczos vectors, one per row (and the last residual)
+					double[] V = new double[(m+1) * numNodes_];
+					for (int j=start; j<end; j++)
+						expmv(j, m, V, elements, j*numNodes_);
+				}
+			});
+			symmetrize(elements);
+		} finally {
+			phase.end();
+		}
+		
+		// Not needed anymore
+		rowStarts_ = null;
+		colIndexes_ = null;
+		values_ = null;
+
+		phase = mag.phases.start(computeCentrality_ ? "centrality" : "normalization");
+		try {
+			if (normalize_ && computeCentrality_)
+				normalizeSymAndComputeCentrality();
+			else if (normalize_)
+				normalizeSym(K_);
+			else if (computeCentrality_)
+				computeCentrality();
+		} finally {
+			phase.end();
+		}
+
+		if (mag.set.exportPairwiseNodeProperties_)
+			saveK();
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** Centrality is computed with the kernel (see computeK()) */
+	@Override
+	public void computeCentrality() {
+		
+		if (centrality_ == null)
+			super.computeCentrality();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Return a file path for the default kernel file based on the input network */
+	static public File getKFile(Magnum mag) {
+		
+		String name = "heatKernel" + getSuffix(mag.set.heatKernelBeta_, mag.set.heatKernelKrylovDim_, mag.set.heatKernelNormalize_, mag.set.isWeighted_);
+		String network = mag.utils.extractBasicFilename(mag.set.networkFile_.getName(), false);
+		File file = new File(mag.set.outputDirectory_, network + "_" + name + ".txt.gz");
+		
+		return file;
+	}
+
+	
+	/** Suffix of the kernel name with all settings that affect the kernel (used for the file name) */
+	static private String getSuffix(double beta, int krylovDim, boolean normalize, boolean isWeighted) {
+		
+		return "_beta" + beta + "_krylov" + krylovDim + (normalize ? "_normalized" : "") + (isWeighted ? "_weighted" : "");
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Initialize L in compressed sparse row format (the non-zero elements are the diagonal and the edges) */
+	private void initializeL(SparseDoubleMatrix2D L) {
+		
+		rowStarts_ = new int[numNodes_ + 1];
+		for (int i=0; i<numNodes_; i++)
+			rowStarts_[i+1] = rowStarts_[i] + 1 + network_.getNeighborsNoSelf(network_.getNode(i)).size();
+		colIndexes_ = new int[rowStarts_[numNodes_]];
+		values_ = new double[rowStarts_[numNodes_]];
+		
+		for (int i=0; i<numNodes_; i++) {
+			int k = rowStarts_[i];
+			colIndexes_[k] = i;
+			values_[k++] = L.getQuick(i, i);
+			for (Node neighbor : network_.getNeighborsNoSelf(network_.getNode(i))) {
+				int j = network_.getNodeIndex(neighbor);
+				colIndexes_[k] = j;
+				values_[k++] = L.getQuick(i, j);
+			}
+		}
+	}
+	
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Approximate exp(-beta*L)*e_j with m Lanczos iterations and write it to result[offset..offset+n-1]. 
+	 * V is the workspace for the Lanczos vectors ((m+1)*n).
+	 */
+	private void expmv(int j, int m, double[] V, double[] result, int offset) {
+		
+		final int n = numNodes_;
+		double[] alpha = new double[m];
+		double[] beta = new double[m];
+		
+		// v_0 = e_j
+		for (int i=0; i<n; i++)
+			V[i] = 0;
+		V[j] = 1;
+		
+		// Lanczos: L*v_k = beta_(k-1)*v_(k-1) + alpha_k*v_k + beta_k*v_(k+1)
+		int dim = m;
+		for (int k=0; k<m; k++) {
+			int cur = k*n;
+			int next = (k+1)*n;
+			
+			// w = L*v_k - beta_(k-1)*v_(k-1), saved as v_(k+1)
+			for (int i=0; i<n; i++) {
+				double sum = 0;
+				for (int l=rowStarts_[i]; l<rowStarts_[i+1]; l++)
+					sum += values_[l] * V[cur + colIndexes_[l]];
+				V[next + i] = sum;
+			}
+			if (k > 0) {
+				int prev = (k-1)*n;
+				for (int i=0; i<n; i++)
+					V[next + i] -= beta[k-1] * V[prev + i];
+			}
+			double a = 0;
+			for (int i=0; i<n; i++)
+				a += V[next + i] * V[cur + i];
+			alpha[k] = a;
+			
+			if (k == m-1)
+				break;
+			
+			double norm = 0;
+			for (int i=0; i<n; i++) {
+				V[next + i] -= a * V[cur + i];
+				norm += V[next + i] * V[next + i];
+			}
+			norm = Math.sqrt(norm);
+			beta[k] = norm;
+			
+			// Invariant subspace, the approximation is exact
+			if (norm < 1e-12) {
+				dim = k+1;
+				break;
+			}
+			for (int i=0; i<n; i++)
+				V[next + i] /= norm;
+		}
+		
+		// exp(-beta*T)*e_1 = Q*exp(-beta*D)*Q'*e_1, where T = Q*D*Q'
+		double[][] Q = new double[dim][dim];
+		for (int k=0; k<dim; k++)
+			Q[k][k] = 1;
+		beta[dim-1] = 0;
+		eigenTridiagonal(alpha, beta, Q, dim);
+		
+		double[] c = new double[dim];
+		for (int l=0; l<dim; l++) {
+			double x = Math.exp(-beta_ * alpha[l]) * Q[0][l];
+			for (int k=0; k<dim; k++)
+				c[k] += Q[k][l] * x;
+		}
+		
+		// result = V*c
+		for (int i=0; i<n; i++)
+			result[offset + i] = 0;
+		for (int k=0; k<dim; k++) {
+			int cur = k*n;
+			for (int i=0; i<n; i++)
+				result[offset + i] += c[k] * V[cur + i];
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Eigenvalues and eigenvectors of the symmetric tridiagonal matrix with diagonal d and off-diagonal e 
+	 * (e[i] = T(i,i+1), e[n-1] = 0), using the QL algorithm with implicit shifts (tql2 of EISPACK / JAMA). 
+	 * On return d holds the eigenvalues and the columns of Q (initialized to the identity) the eigenvectors.
+	 */
+	static void eigenTridiagonal(double[] d, double[] e, double[][] Q, int n) {
+		
+		double f = 0;
+		double tst1 = 0;
+		double eps = Math.pow(2.0, -52.0);
+		
+		for (int l=0; l<n; l++) {
+			// Find small subdiagonal element
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n-1 && Math.abs(e[m]) > eps*tst1)
+				m++;
+
+			// If m == l, d[l] is an eigenvalue, otherwise iterate
+			int iter = 0;
+			while (m > l) {
+				if (++iter > 30*n)
+					throw new RuntimeException("Eigenvalues of the Krylov subspace did not converge");
+				
+				// Compute implicit shift
+				double g = d[l];
+				double p = (d[l+1] - g) / (2.0 * e[l]);
+				double r = Math.hypot(p, 1.0);
+				if (p < 0)
+					r = -r;
+				d[l] = e[l] / (p + r);
+				d[l+1] = e[l] * (p + r);
+				double dl1 = d[l+1];
+				double h = g - d[l];
+				for (int i=l+2; i<n; i++)
+					d[i] -= h;
+				f += h;
+
+				// Implicit QL transformation
+				p = d[m];
+				double c = 1, c2 = 1, c3 = 1;
+				double el1 = e[l+1];
+				double s = 0, s2 = 0;
+				for (int i=m-1; i>=l; i--) {
+					c3 = c2;
+					c2 = c;
+					s2 = s;
+					g = c * e[i];
+					h = c * p;
+					r = Math.hypot(p, e[i]);
+					e[i+1] = s * r;
+					s = e[i] / r;
+					c = p / r;
+					p = c * d[i] - s * g;
+					d[i+1] = h + s * (c * g + s * d[i]);
+
+					// Accumulate transformation
+					for (int k=0; k<n; k++) {
+						h = Q[k][i+1];
+						Q[k][i+1] = s * Q[k][i] + c * h;
+						Q[k][i] = c * Q[k][i] - s * h;
+					}
+				}
+				p = -s * s2 * c3 * el1 * e[l] / dl1;
+				e[l] = s * p;
+				d[l] = c * p;
+				
+				// Check for convergence
+				if (Math.abs(e[l]) <= eps*tst1)
+					break;
+			}
+			d[l] += f;
+			e[l] = 0;
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Set K = (K + K')/2 to remove the asymmetry of the approximation (rows in parallel) */
+	private void symmetrize(final double[] elements) {
+		
+		final int n = numNodes_;
+		// Row i and n-1-i are processed together so that blocks have the same number of elements
+		Parallel.forBlocks(mag.set.getNumThreads(), (n+1)/2, new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int k=start; k<end; k++) {
+					symmetrizeRow(elements, k, n);
+					if (n-1-k != k)
+						symmetrizeRow(elements, n-1-k, n);
+				}
+			}
+		});
+	}
+	
+	
+	/** Average the elements left of the diagonal of row i with the corresponding elements above the diagonal */
+	private static void symmetrizeRow(double[] elements, int i, int n) {
+		
+		for (int j=0; j<i; j++) {
+			double mean = (elements[i*n + j] + elements[j*n + i]) / 2;
+			elements[i*n + j] = mean;
+			elements[j*n + i] = mean;
+		}
+	}
+
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+
+	public double getBeta() { return beta_; }
+	public int getKrylovDim() { return krylovDim_; }
+	
+}
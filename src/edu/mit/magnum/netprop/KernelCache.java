@@ -0,0 +1,315 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.Network;
+
+
+/**
+ * Content-addressed cache of kernels (p-step or heat kernels) computed within enrichment analysis. A kernel is saved as
+ * <key>.txt.gz in the cache directory, where the key is the SHA-256 hash of the network file content and
+ * of all settings that affect loading the network and computing the kernel. Kernels are written to a 
+ * temporary file first and renamed, so that other processes sharing the directory never see partial
+ * files. When the cache exceeds its size, the least recently used kernels are deleted.
+ */
+public class KernelCache {
+
+	/** Changes when the kernel computation or file format changes, invalidates all cached kernels */
+	private static final String VERSION = "pstepKernel-1";
+	/** Suffix of the kernel files */
+	private static final String SUFFIX = ".txt.gz";
+	
+	/** The magnum instance */
+	private Magnum mag;
+	
+	/** The cache directory */
+	private File dir_ = null;
+	/** Max total size of the cached kernels in bytes (0: unlimited) */
+	private long maxSize_ = 0;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor, maxSizeGB is the max total size of the cached kernels (0: unlimited) */
+	public KernelCache(Magnum mag, File dir, double maxSizeGB) {
+		
+		if (maxSizeGB < 0)
+			throw new IllegalArgumentException("Kernel cache size must be >= 0");
+		
+		this.mag = mag;
+		dir_ = dir;
+		maxSize_ = (long) (maxSizeGB * 1024 * 1024 * 1024);
+		dir_.mkdirs();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * The key of the kernel (p-step or heat kernel) of the given network file for the current settings (the 
+	 * network is loaded as undirected without self-loops, as in EnrichMain)
+	 */
+	public String getKey(File networkFile) {
+		
+		MessageDigest digest = newDigest();
+		
+		// Network file content
+		updateDigest(digest, networkFile);
+		
+		// Settings
+		String settings = VERSION 
+				+ "\tdelim=" + mag.set.networkFileDelim_
+				+ "\tdirected=false\tremoveSelfLoops=true"
+				+ "\tweighted=" + mag.set.isWeighted_ 
+				+ "\tthreshold=" + mag.set.threshold_ 
+				+ "\tsuperHubThreshold=" + mag.set.superHubThreshold_
+				+ "\talpha=" + mag.set.pstepKernelAlpha_ 
+				+ "\tsteps=" + mag.set.pstepKernelP_.get(mag.set.pstepKernelP_.size()-1)
+				+ "\tnormalize=" + mag.set.pstepKernelNormalize_;
+		// Appended only for heat kernels, so that keys of cached p-step kernels don't change
+		if (mag.set.computeHeatKernel_)
+			settings += "\tkernel=heat\tbeta=" + mag.set.heatKernelBeta_ 
+					+ "\tkrylovDim=" + mag.set.heatKernelKrylovDim_
+					+ "\theatNormalize=" + mag.set.heatKernelNormalize_;
+		try {
+			digest.update(settings.getBytes("UTF-8"));
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		
+		return toHex(digest.digest());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Get the kernel file for the given key, null if it is not in the cache (marks the kernel as recently used) */
+	public File get(String key) {
+		
+		File file = getFile(key);
+		if (!file.exists())
+			return null;
+		
+		// May fail for files of other users on shared storage, in which case they are evicted earlier
+		file.setLastModified(System.currentTimeMillis());
+		mag.log.println("- Using cached kernel: " + file.getPath());
+		return file;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save the kernel K of the given network under the given key, then evict kernels if the cache is too large */
+	public File put(String key, Network network, DoubleMatrix2D K) {
+		
+		File file = getFile(key);
+		if (file.exists()) {
+			file.setLastModified(System.currentTimeMillis());
+			return file;
+		}
+		
+		File tmpFile = null;
+		try {
+			tmpFile = File.createTempFile(key + ".", ".tmp" + SUFFIX, dir_);
+			PairwiseProperties.saveK(mag, network, K, network.getNumRefNodes(), tmpFile);
+			
+			// Another process may have saved the same kernel in the meantime, in which case the rename 
+			// replaces it (POSIX) or fails (Windows)
+			if (!tmpFile.renameTo(file)) {
+				tmpFile.delete();
+				if (!file.exists())
+					throw new IOException("Could not rename " + tmpFile.getPath());
+			}
+		} catch (IOException e) {
+			mag.log.warning("Failed to save kernel to cache: " + e.getMessage());
+			if (tmpFile != null)
+				tmpFile.delete();
+			return null;
+		}
+		
+		evict(file);
+		return file;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+	
+	/** Delete least recently used kernels until the cache is within its size (the given file is kept) */
+	private void evict(File keep) {
+		
+		if (maxSize_ == 0)
+			return;
+		
+		// The cached kernels
+		File[] files = dir_.listFiles();
+		if (files == null)
+			return;
+		ArrayList<File> kernels = new ArrayList<File>();
+		long size = 0;
+		for (File f : files) {
+			if (isKernelFile(f)) {
+				kernels.add(f);
+				size += f.length();
+			}
+		}
+		if (size <= maxSize_)
+			return;
+
+		// Least recently used first
+		final class LastModifiedComparator implements Comparator<File> {
+			public int compare(File f1, File f2) {
+				long t1 = f1.lastModified();
+				long t2 = f2.lastModified();
+				return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+			}
+		}
+		Collections.sort(kernels, new LastModifiedComparator());
+		
+		for (File f : kernels) {
+			if (size <= maxSize_)
+				break;
+			if (f.equals(keep))
+				continue;
+			
+			long length = f.length();
+			if (f.delete()) {
+				size -= length;
+				// Centralities saved by FunctionalData
+				new File(f.getPath() + ".centrality").delete();
+				mag.log.println("- Evicted cached kernel: " + f.getName());
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The file for the given key */
+	private File getFile(String key) {
+		
+		return new File(dir_, key + SUFFIX);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** True if this is a cached kernel (<64 hex digits>.txt.gz) */
+	private boolean isKernelFile(File f) {
+		
+		String name = f.getName();
+		if (name.length() != 64 + SUFFIX.length() || !name.endsWith(SUFFIX))
+			return false;
+		for (int i=0; i<64; i++)
+			if (Character.digit(name.charAt(i), 16) == -1)
+				return false;
+		return true;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** SHA-256 hash of the content of the given file (hex string), e.g. to identify the network of a checkpoint */
+	public static String getContentHash(File file) {
+		
+		MessageDigest digest = newDigest();
+		updateDigest(digest, file);
+		return toHex(digest.digest());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Update the digest with the content of the given file */
+	private static void updateDigest(MessageDigest digest, File file) {
+		
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				digest.update(buffer, 0, n);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read network file: " + file.getPath(), e);
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				// Nothing to do, the file was read
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** A new SHA-256 digest */
+	private static MessageDigest newDigest() {
+		
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Hex string of the given bytes */
+	private static String toHex(byte[] bytes) {
+		
+		char[] digits = "0123456789abcdef".toCharArray();
+		char[] hex = new char[2*bytes.length];
+		for (int i=0; i<bytes.length; i++) {
+			hex[2*i] = digits[(bytes[i] >> 4) & 0xf];
+			hex[2*i+1] = digits[bytes[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public File getDir() { return dir_; }
+	
+}
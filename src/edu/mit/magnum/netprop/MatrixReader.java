@@ -0,0 +1,458 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.GZIPInputStream;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+
+
+/**
+ * Reads tab-separated matrices with a header and row ids in the first column (kernels, gene 
+ * properties). The file is decompressed once into line-aligned chunks, the selected rows and columns
+ * are then parsed in parallel directly into a primitive array. Numbers are parsed independently of
+ * the locale (same syntax as Double.parseDouble()).
+ * 
+ * Memory: the text of the rows is kept until it is parsed, which is the size of the decompressed
+ * file unless a row filter is given (the text of the other rows is dropped while decompressing,
+ * only their ids are kept). parse() releases each chunk as soon as its rows are parsed.
+ */
+public class MatrixReader {
+
+	/** The magnum instance */
+	private Magnum mag;
+	
+	/** Default size of the chunks holding the decompressed text */
+	private static final int CHUNK_SIZE = 1 << 26;
+	/** Exact powers of ten */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i=1; i<POW10.length; i++)
+			POW10[i] = 10 * POW10[i-1];
+	}
+
+	/** The file */
+	private File file_ = null;
+	/** Size of the chunks holding the decompressed text (a line is never split between chunks) */
+	private int chunkSize_ = CHUNK_SIZE;
+	/** The decompressed text */
+	private ArrayList<byte[]> chunks_ = null;
+	/** The chunk of each line (line 0 is the header, -1 for rows that were dropped by the row filter) */
+	private int[] lineChunk_ = null;
+	/** The start of each line in its chunk */
+	private int[] lineStart_ = null;
+	/** The end of each line in its chunk (exclusive, without line terminator) */
+	private int[] lineEnd_ = null;
+	/** Number of lines including the header */
+	private int numLines_ = 0;
+	/** The ids of the rows whose text is kept (null: all rows) */
+	private Set<String> rowFilter_ = null;
+	
+	/** The column names (first element is the header of the row ids) */
+	private String[] header_ = null;
+	/** The row ids (first column) */
+	private ArrayList<String> rowIds_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor, reads the file and the row ids */
+	public MatrixReader(Magnum mag, File file) {
+		
+		this(mag, file, CHUNK_SIZE, null);
+	}
+
+	
+	/** Constructor, only the text of the rows in rowFilter is kept (the ids of all rows are read) */
+	public MatrixReader(Magnum mag, File file, Set<String> rowFilter) {
+		
+		this(mag, file, CHUNK_SIZE, rowFilter);
+	}
+
+	
+	/** Constructor, reads the file in chunks of the given size (grown for longer lines) */
+	public MatrixReader(Magnum mag, File file, int chunkSize) {
+		
+		this(mag, file, chunkSize, null);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Constructor, reads the file in chunks of the given size and keeps the text of the rows in rowFilter (null: all rows) */
+	public MatrixReader(Magnum mag, File file, int chunkSize, Set<String> rowFilter) {
+		
+		this.mag = mag;
+		file_ = file;
+		chunkSize_ = chunkSize;
+		rowFilter_ = rowFilter;
+		
+		mag.log.println("Reading file: " + file.getPath());
+		try {
+			read();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read file: " + file.getPath(), e);
+		}
+		if (numLines_ == 0)
+			throw new RuntimeException("File is empty: " + file.getPath());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Parse the selected rows and columns in parallel. rowMap gives the row of dest for each row 
+	 * of the file (-1 to skip), colIndexes the columns of the file (0-based, without the row ids) for
+	 * each column of dest. dest is row-major with colIndexes.length columns. The text is released
+	 * while it is parsed (each chunk once its selected rows are parsed), parse() can only be called once.
+	 */
+	public void parse(final int[] rowMap, final int[] colIndexes, final double[] dest) {
+		
+		if (chunks_ == null)
+			throw new IllegalStateException("The text of " + file_.getPath() + " was already parsed or released");
+		if (rowMap.length != numLines_ - 1)
+			throw new IllegalArgumentException("rowMap has " + rowMap.length + " rows, file has " + (numLines_ - 1));
+		
+		final int numFields = header_.length;
+		final int numCols = colIndexes.length;
+		
+		// The number of selected rows of each chunk that remain to be parsed, chunks without selected rows are released right away
+		final AtomicIntegerArray remaining = new AtomicIntegerArray(chunks_.size());
+		for (int r=0; r<rowMap.length; r++) {
+			if (rowMap[r] == -1)
+				continue;
+			if (lineChunk_[r+1] == -1)
+				throw new IllegalArgumentException("Row " + rowIds_.get(r) + " was not kept by the row filter");
+			remaining.incrementAndGet(lineChunk_[r+1]);
+		}
+		for (int c=0; c<chunks_.size(); c++)
+			if (remaining.get(c) == 0)
+				chunks_.set(c, null);
+		
+		Parallel.forBlocks(mag.set.getNumThreads(), rowMap.length, new Parallel.Block() {
+			public void run(int start, int end) {
+				// Start of each field of the current line
+				int[] fieldStart = new int[numFields + 1];
+				
+				for (int r=start; r<end; r++) {
+					if (rowMap[r] == -1)
+						continue;
+
+					int line = r + 1;
+					byte[] chunk = chunks_.get(lineChunk_[line]);
+					int lineEnd = lineEnd_[line];
+					
+					// Find the fields
+					int f = 0;
+					fieldStart[0] = lineStart_[line];
+					for (int k=lineStart_[line]; k<lineEnd; k++) {
+						if (chunk[k] == '\t' && ++f < numFields)
+							fieldStart[f] = k + 1;
+					}
+					if (f + 1 != numFields)
+						throw new RuntimeException("Line " + (line + 1) + " has " + (f + 1) + " columns (not same as header)");
+					fieldStart[numFields] = lineEnd + 1;
+					
+					// Parse the selected columns
+					int offset = rowMap[r]*numCols;
+					for (int j=0; j<numCols; j++) {
+						int field = colIndexes[j] + 1;
+						dest[offset + j] = parseDouble(chunk, fieldStart[field], fieldStart[field+1] - 1);
+					}
+					
+					// Release the chunk once all its selected rows are parsed (distinct elements are set concurrently)
+					if (remaining.decrementAndGet(lineChunk_[line]) == 0)
+						chunks_.set(lineChunk_[line], null);
+				}
+			}
+		});
+		close();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Release the decompressed text (the header and row ids remain available) */
+	public void close() {
+		
+		chunks_ = null;
+		lineChunk_ = null;
+		lineStart_ = null;
+		lineEnd_ = null;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Parse a decimal number from bytes start..end-1, the result is the same as for Double.parseDouble().
+	 * Plain decimal / scientific notation is parsed directly when it can be converted exactly (at 
+	 * most 2^53 significant and decimal exponent within +/-22), anything else by Double.parseDouble().
+	 */
+	static public double parseDouble(byte[] bytes, int start, int end) {
+		
+		int i = start;
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = (bytes[i] == '-');
+			i++;
+		}
+		
+		// Significant digits
+		long significant = 0;
+		int numSignificant = 0;
+		int numDigits = 0;
+		int exponent = 0;
+		boolean fraction = false;
+		for (; i<end; i++) {
+			byte b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				numDigits++;
+				if (significant != 0 || b != '0')
+					numSignificant++;
+				significant = 10*significant + (b - '0');
+				if (fraction)
+					exponent--;
+			} else if (b == '.' && !fraction) {
+				fraction = true;
+			} else {
+				break;
+			}
+		}
+		
+		// Exponent
+		if (numDigits > 0 && i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+				negativeExponent = (bytes[i] == '-');
+				i++;
+			}
+			int value = 0;
+			int numExponentDigits = 0;
+			for (; i<end && bytes[i] >= '0' && bytes[i] <= '9' && value < 100000; i++, numExponentDigits++)
+				value = 10*value + (bytes[i] - '0');
+			if (numExponentDigits == 0)
+				return parseDoubleSlow(bytes, start, end);
+			exponent += negativeExponent ? -value : value;
+		}
+		
+		if (i != end || numDigits == 0 || numSignificant > 18)
+			return parseDoubleSlow(bytes, start, end);
+		
+		double value;
+		if (significant == 0)
+			value = 0;
+		else if (significant <= (1L << 53) && exponent >= -22 && exponent <= 22)
+			value = (exponent >= 0) ? significant * POW10[exponent] : significant / POW10[-exponent];
+		else
+			return parseDoubleSlow(bytes, start, end);
+		
+		return negative ? -value : value;
+	}
+	
+
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Decompress the file into line-aligned chunks and index the lines */
+	private void read() throws IOException {
+		
+		InputStream in = new FileInputStream(file_);
+		if (file_.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+		
+		chunks_ = new ArrayList<byte[]>();
+		rowIds_ = new ArrayList<String>();
+		lineChunk_ = new int[1024];
+		lineStart_ = new int[1024];
+		lineEnd_ = new int[1024];
+		numLines_ = 0;
+
+		try {
+			byte[] chunk = new byte[chunkSize_];
+			int size = 0;
+			while (true) {
+				int n = in.read(chunk, size, chunk.length - size);
+				if (n == -1) {
+					if (size > 0)
+						addChunk(chunk, size, true);
+					break;
+				}
+				size += n;
+				if (size < chunk.length)
+					continue;
+				
+				// The chunk is full, the incomplete last line goes to the next chunk
+				int last = size - 1;
+				while (last >= 0 && chunk[last] != '\n')
+					last--;
+				int remainder = size - last - 1;
+				byte[] next = new byte[(last < 0) ? 2*chunk.length : Math.max(chunkSize_, 2*remainder)];
+				System.arraycopy(chunk, last + 1, next, 0, remainder);
+				if (last >= 0)
+					addChunk(chunk, last + 1, false);
+				chunk = next;
+				size = remainder;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Add a chunk (bytes 0..size-1), index its lines and read the header and row ids. If there is a
+	 * row filter, the lines that are kept are copied to a new chunk of the exact size.
+	 */
+	private void addChunk(byte[] chunk, int size, boolean isLast) {
+		
+		int c = chunks_.size();
+		int firstLine = numLines_;
+		
+		int start = 0;
+		for (int k=0; k<=size; k++) {
+			if (k < size && chunk[k] != '\n')
+				continue;
+			// The last line may not be terminated (but skip the empty string after the final newline)
+			if (k == size && (start == size || !isLast))
+				break;
+			
+			int end = k;
+			if (end > start && chunk[end-1] == '\r')
+				end--;
+			if (numLines_ == lineChunk_.length) {
+				lineChunk_ = grow(lineChunk_);
+				lineStart_ = grow(lineStart_);
+				lineEnd_ = grow(lineEnd_);
+			}
+			lineChunk_[numLines_] = c;
+			lineStart_[numLines_] = start;
+			lineEnd_[numLines_] = end;
+			numLines_++;
+			start = k + 1;
+		}
+		
+		// Header and row ids, drop the lines of rows that are not in the filter
+		int keptSize = 0;
+		boolean dropped = false;
+		for (int line=firstLine; line<numLines_; line++) {
+			if (line == 0) {
+				header_ = toString(chunk, lineStart_[0], lineEnd_[0]).split("\t");
+				keptSize += lineEnd_[0] - lineStart_[0];
+				continue;
+			}
+			int end = lineStart_[line];
+			while (end < lineEnd_[line] && chunk[end] != '\t')
+				end++;
+			String id = toString(chunk, lineStart_[line], end);
+			rowIds_.add(id);
+			
+			if (rowFilter_ == null || rowFilter_.contains(id)) {
+				keptSize += lineEnd_[line] - lineStart_[line];
+			} else {
+				lineChunk_[line] = -1;
+				dropped = true;
+			}
+		}
+		
+		if (dropped) {
+			byte[] kept = new byte[keptSize];
+			int pos = 0;
+			for (int line=firstLine; line<numLines_; line++) {
+				if (lineChunk_[line] == -1)
+					continue;
+				int length = lineEnd_[line] - lineStart_[line];
+				System.arraycopy(chunk, lineStart_[line], kept, pos, length);
+				lineStart_[line] = pos;
+				lineEnd_[line] = pos + length;
+				pos += length;
+			}
+			chunk = kept;
+		}
+		chunks_.add(chunk);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Array of twice the size with the same elements */
+	private static int[] grow(int[] array) {
+		
+		int[] grown = new int[2*array.length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Decode bytes start..end-1 of the given chunk */
+	private static String toString(byte[] chunk, int start, int end) {
+		
+		try {
+			return new String(chunk, start, end - start, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Parse with Double.parseDouble() (NaN, Infinity, hexadecimal, more digits, large exponents...) */
+	private static double parseDoubleSlow(byte[] bytes, int start, int end) {
+		
+		try {
+			return Double.parseDouble(new String(bytes, start, end - start, "ISO-8859-1"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public File getFile() { return file_; }
+	public String[] getHeader() { return header_; }
+	public ArrayList<String> getRowIds() { return rowIds_; }
+	public int getNumRows() { return numLines_ - 1; }
+	
+}
@@ -0,0 +1,388 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.Network;
+
+
+/**
+ * Writes node x node matrices (kernels, distances) as tab-separated text. Blocks of rows are formatted 
+ * in parallel into byte buffers and, for .gz files, compressed as independent gzip members that are
+ * concatenated in order (like pigz). Concatenated gzip members are a valid gzip file (RFC 1952).
+ * Numbers are written in scientific notation with 11 significant digits.
+ */
+public class MatrixWriter {
+
+	/** Approximate size of the text of a block of rows in bytes */
+	private static final int BLOCK_SIZE = 1 << 22;
+	/** Exact powers of ten */
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i=1; i<POW10.length; i++)
+			POW10[i] = 10 * POW10[i-1];
+	}
+	
+	/** Formats a block of rows */
+	private interface BlockFormatter {
+		public ByteBuffer format(int start, int end);
+	}
+	
+	/** Growable byte buffer for the text of a block */
+	private static class ByteBuffer {
+		byte[] bytes_ = new byte[1024];
+		int size_ = 0;
+		
+		void ensure(int n) {
+			if (size_ + n > bytes_.length) {
+				byte[] newBytes = new byte[Math.max(2*bytes_.length, size_ + n)];
+				System.arraycopy(bytes_, 0, newBytes, 0, size_);
+				bytes_ = newBytes;
+			}
+		}
+		void append(byte b) {
+			ensure(1);
+			bytes_[size_++] = b;
+		}
+		void append(byte[] b) {
+			ensure(b.length);
+			System.arraycopy(b, 0, bytes_, size_, b.length);
+			size_ += b.length;
+		}
+	}
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Write the matrix K (network nodes x the first numRefNodes reference nodes) to the given file */
+	static public void write(Magnum mag, Network network, DoubleMatrix2D K, int numRefNodes, File file) {
+		
+		int rowsPerBlock = Math.max(1, BLOCK_SIZE / (16 * Math.max(1, numRefNodes)));
+		write(mag, network, K, numRefNodes, file, rowsPerBlock);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write the matrix K, formatting and compressing blocks of rowsPerBlock rows in parallel */
+	static public void write(Magnum mag, Network network, final DoubleMatrix2D K, final int numRefNodes, File file, final int rowsPerBlock) {
+		
+		final byte[][] rowIds = getRowIds(network);
+		writeBlocks(mag, network, numRefNodes, file, rowsPerBlock, new BlockFormatter() {
+			public ByteBuffer format(int start, int end) {
+				return formatRows(K, numRefNodes, rowIds, start, end);
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Write the matrix K stored as row tiles on disk, multiplied by scale (e.g., 1/max to normalize it).
+	 * Each block of rows is read from disk when it is formatted, so only a few blocks are in memory.
+	 */
+	static public void write(Magnum mag, Network network, final TiledMatrix K, final double scale, final int numRefNodes, File file) {
+		
+		if (K.getRows() != network.getNumNodes())
+			throw new IllegalArgumentException("The matrix has " + K.getRows() + " rows, expected " + network.getNumNodes());
+		
+		final byte[][] rowIds = getRowIds(network);
+		int rowsPerBlock = Math.max(1, BLOCK_SIZE / (16 * Math.max(1, numRefNodes)));
+		writeBlocks(mag, network, numRefNodes, file, rowsPerBlock, new BlockFormatter() {
+			public ByteBuffer format(int start, int end) {
+				double[] rows = K.readRows(start, end, null);
+				return formatRows(rows, 0, K.getColumns(), scale, numRefNodes, rowIds, start, end);
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Format x in scientific notation with 11 significant digits (e.g., 1.2345E-3), parsable by Double.parseDouble() */
+	static public String format(double x) {
+		
+		ByteBuffer buffer = new ByteBuffer();
+		appendScientific(buffer, x);
+		return new String(buffer.bytes_, 0, buffer.size_);
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Write the header and the blocks of rowsPerBlock rows formatted by the given formatter, in parallel and in order */
+	private static void writeBlocks(Magnum mag, Network network, int numRefNodes, File file, final int rowsPerBlock, final BlockFormatter formatter) {
+		
+		final boolean gzip = file.getName().endsWith(".gz");
+		final int numRows = network.getNumNodes();
+		final int numBlocks = (numRows + rowsPerBlock - 1) / rowsPerBlock;
+		int numThreads = mag.set.getNumThreads();
+		
+		// Header
+		ByteBuffer header = new ByteBuffer();
+		for (int j=0; j<numRefNodes; j++) {
+			header.append((byte) '\t');
+			header.append(toBytes(network.getRefNode(j).getId()));
+		}
+		header.append((byte) '\n');
+		
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		// Blocks being formatted, in order (at most 2*numThreads to bound memory)
+		LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+			out.write(toOutput(header, gzip));
+			
+			int submitted = 0;
+			while (submitted < numBlocks || !pending.isEmpty()) {
+				while (submitted < numBlocks && pending.size() < 2*numThreads) {
+					final int start = submitted * rowsPerBlock;
+					final int end = Math.min(numRows, start + rowsPerBlock);
+					pending.add(pool.submit(new Callable<byte[]>() {
+						public byte[] call() throws IOException {
+							return toOutput(formatter.format(start, end), gzip);
+						}
+					}));
+					submitted++;
+				}
+				out.write(pending.removeFirst().get());
+			}
+			out.close();
+			out = null;
+			
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to write file: " + file.getPath(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException("Failed to write file: " + file.getPath(), e.getCause());
+		} finally {
+			pool.shutdownNow();
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e) {
+				// Nothing to do, an exception has already been thrown
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Format rows start..end-1 (label, then tab-separated values) */
+	private static ByteBuffer formatRows(DoubleMatrix2D K, int numRefNodes, byte[][] rowIds, int start, int end) {
+		
+		int columns = K.columns();
+		if (K instanceof DenseMatrix)
+			return formatRows(((DenseMatrix) K).elements(), start*columns, columns, 1, numRefNodes, rowIds, start, end);
+		
+		ByteBuffer buffer = new ByteBuffer();
+		buffer.ensure((end - start) * (16 * numRefNodes + 16));
+		for (int i=start; i<end; i++) {
+			buffer.append(rowIds[i]);
+			for (int j=0; j<numRefNodes; j++) {
+				buffer.append((byte) '\t');
+				appendScientific(buffer, K.getQuick(i, j));
+			}
+			buffer.append((byte) '\n');
+		}
+		return buffer;
+	}
+
+	
+	/** Format rows start..end-1 multiplied by scale, element (i,j) is at offset + (i-start)*columns + j */
+	private static ByteBuffer formatRows(double[] elements, int offset, int columns, double scale, int numRefNodes, byte[][] rowIds, int start, int end) {
+		
+		ByteBuffer buffer = new ByteBuffer();
+		buffer.ensure((end - start) * (16 * numRefNodes + 16));
+		for (int i=start; i<end; i++) {
+			buffer.append(rowIds[i]);
+			int rowOffset = offset + (i-start)*columns;
+			for (int j=0; j<numRefNodes; j++) {
+				buffer.append((byte) '\t');
+				appendScientific(buffer, (scale == 1) ? elements[rowOffset + j] : elements[rowOffset + j] * scale);
+			}
+			buffer.append((byte) '\n');
+		}
+		return buffer;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The row labels (node ids) */
+	private static byte[][] getRowIds(Network network) {
+		
+		byte[][] rowIds = new byte[network.getNumNodes()][];
+		for (int i=0; i<rowIds.length; i++)
+			rowIds[i] = toBytes(network.getNode(i).getId());
+		return rowIds;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The bytes to be written for the given text (a gzip member if gzip is set) */
+	private static byte[] toOutput(ByteBuffer text, boolean gzip) throws IOException {
+		
+		if (!gzip) {
+			byte[] bytes = new byte[text.size_];
+			System.arraycopy(text.bytes_, 0, bytes, 0, text.size_);
+			return bytes;
+		}
+		
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(text.size_ / 3 + 64);
+		GZIPOutputStream gz = new GZIPOutputStream(compressed, 1 << 16);
+		gz.write(text.bytes_, 0, text.size_);
+		gz.close();
+		return compressed.toByteArray();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Append x in scientific notation with 11 significant digits, trailing zeros of the mantissa are omitted */
+	private static void appendScientific(ByteBuffer buffer, double x) {
+		
+		if (x == 0) {
+			buffer.append(toBytes("0E0"));
+			return;
+		}
+		if (Double.isNaN(x) || Double.isInfinite(x)) {
+			buffer.append(toBytes(Double.toString(x)));
+			return;
+		}
+		buffer.ensure(24);
+		if (x < 0) {
+			buffer.append((byte) '-');
+			x = -x;
+		}
+		
+		// Mantissa m in [1, 10) with x = m * 10^e
+		int e = (int) Math.floor(Math.log10(x));
+		if (e < -300 || e > 300) {
+			// Subnormal range, not worth optimizing
+			buffer.append(toBytes(Double.toString(x)));
+			return;
+		}
+		double m = scale(x, -e);
+		if (m >= 10) {
+			e++;
+			m = scale(x, -e);
+		} else if (m < 1) {
+			e--;
+			m = scale(x, -e);
+		}
+		
+		// 11 significant digits
+		long digits = Math.round(m * 1e10);
+		if (digits >= 100000000000L) {
+			// Rounded up to 10
+			digits = 10000000000L;
+			e++;
+		}
+		
+		// First digit
+		buffer.append((byte) ('0' + (int) (digits / 10000000000L)));
+		long fraction = digits % 10000000000L;
+		if (fraction != 0) {
+			// Fraction without trailing zeros
+			int numDigits = 10;
+			while (fraction % 10 == 0) {
+				fraction /= 10;
+				numDigits--;
+			}
+			buffer.append((byte) '.');
+			for (int k=numDigits-1; k>=0; k--) {
+				buffer.bytes_[buffer.size_ + k] = (byte) ('0' + (int) (fraction % 10));
+				fraction /= 10;
+			}
+			buffer.size_ += numDigits;
+		}
+		
+		// Exponent
+		buffer.append((byte) 'E');
+		if (e < 0) {
+			buffer.append((byte) '-');
+			e = -e;
+		}
+		if (e >= 100)
+			buffer.append((byte) ('0' + e / 100));
+		if (e >= 10)
+			buffer.append((byte) ('0' + (e / 10) % 10));
+		buffer.append((byte) ('0' + e % 10));
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** x * 10^k, using exact powers of ten where possible */
+	private static double scale(double x, int k) {
+		
+		if (k >= 0)
+			return (k < POW10.length) ? x * POW10[k] : x * Math.pow(10, k);
+		else
+			return (-k < POW10.length) ? x / POW10[-k] : x / Math.pow(10, -k);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** UTF-8 bytes of the given string */
+	private static byte[] toBytes(String str) {
+		
+		try {
+			return str.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
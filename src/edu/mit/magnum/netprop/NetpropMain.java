@@ -61,13 +61,34 @@ public class NetpropMain {
 		if (mag.set.computeDegree_ || mag.set.computeBetweenness_ || mag.set.computeClusteringCoefficient_)
 			analyzers_.add(new BasicProperties(mag, network));
 		
-		// Shortest paths
-		if (mag.set.computeShortestPathLengths_)
+		// Shortest paths (or only closeness estimated from sampled pivots)
+		if (mag.set.computeShortestPathLengths_ && mag.set.closenessNumPivots_ > 0)
+			analyzers_.add(new SampledCloseness(mag, network, mag.set.closenessNumPivots_));
+		else if (mag.set.computeShortestPathLengths_)
 			analyzers_.add(new ShortestPaths(mag, network, mag.set.exportNodeProperties_));
 		
 		// P-step kernel
-		if (mag.set.computePstepKernel_)
+		if (mag.set.computePstepKernel_ && mag.set.pstepKernelTileDir_ != null) {
+			TiledPstepKernel kernel = new TiledPstepKernel(mag, network, mag.set.pstepKernelAlpha_, mag.set.pstepKernelP_, mag.set.pstepKernelNormalize_, mag.set.exportNodeProperties_, 
+					mag.set.pstepKernelTileDir_, mag.set.pstepKernelTileRows_);
+			if (mag.set.pstepKernelShardEnd_ > 0)
+				kernel.setShard(mag.set.pstepKernelShardStart_, mag.set.pstepKernelShardEnd_);
+			kernel.setMerge(mag.set.pstepKernelMergeShards_);
+			analyzers_.add(kernel);
+			
+		} else if (mag.set.computePstepKernel_) {
+			if (mag.set.pstepKernelShardEnd_ > 0 || mag.set.pstepKernelMergeShards_)
+				throw new IllegalArgumentException("Kernel shards are only supported for out-of-core kernels, specify the tile directory (--tiledir)");
 			analyzers_.add(new PstepKernel(mag, network, mag.set.pstepKernelAlpha_, mag.set.pstepKernelP_, mag.set.pstepKernelNormalize_, mag.set.exportNodeProperties_));
+		}
+
+		// Heat kernel
+		if (mag.set.computeHeatKernel_)
+			analyzers_.add(new HeatKernel(mag, network, mag.set.heatKernelBeta_, mag.set.heatKernelKrylovDim_, mag.set.heatKernelNormalize_, mag.set.exportNodeProperties_));
+
+		// Personalized PageRank from the reference nodes
+		if (mag.set.computePersonalizedPageRank_)
+			analyzers_.add(new PersonalizedPageRank(mag, network, mag.set.pprRestartProb_, mag.set.pprTolerance_));
 
 		// Tanimoto coefficient between TFs
 		if (mag.set.computeTfTanimoto_)
@@ -100,12 +121,17 @@ public class NetpropMain {
 	/** Export all results to text files */
 	public void saveAll() {
 		
-		// Collect node properties from the analyzers and save together in one file
-		saveNodeProperties();
+		PhaseRecorder.Phase phase = mag.phases.start("output");
+		try {
+			// Collect node properties from the analyzers and save together in one file
+			saveNodeProperties();
 		
-		// Save other results
-		for (int i=0; i<analyzers_.size(); i++)
-			analyzers_.get(i).saveK();
+			// Save other results
+			for (int i=0; i<analyzers_.size(); i++)
+				analyzers_.get(i).saveK();
+		} finally {
+			phase.end();
+		}
 	}
 
 	
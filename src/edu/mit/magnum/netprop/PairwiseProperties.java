@@ -30,8 +30,9 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 
 import cern.colt.matrix.DoubleMatrix2D;
-import ch.unil.gpsutils.FileExport;
 import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+import edu.mit.magnum.PhaseRecorder;
 import edu.mit.magnum.net.*;
 
 
@@ -74,13 +75,22 @@ public abstract class PairwiseProperties extends NetworkProperties {
 	/** Compute all metrics specified in Settings */
 	public ArrayList<Double> run() {
 		
-		long t0 = System.currentTimeMillis();
-		computeK();
-		long t1 = System.currentTimeMillis();
-		mag.log.println("Run time: " + mag.utils.chronometer(t1-t0));
+		PhaseRecorder.Phase phase = mag.phases.start("pairwise properties");
+		try {
+			computeK();
+		} finally {
+			phase.end();
+		}
+		mag.log.println("Run time: " + mag.utils.chronometer((long) phase.getWallTimeMillis()));
 
-		if (computeCentrality_)
-			computeCentrality();
+		if (computeCentrality_) {
+			phase = mag.phases.start("centrality");
+			try {
+				computeCentrality();
+			} finally {
+				phase.end();
+			}
+		}
 		return null;
 	}
 
@@ -113,39 +123,22 @@ public abstract class PairwiseProperties extends NetworkProperties {
 		if (network_.getUseRefNodes())
 			throw new RuntimeException("Ref nodes implementation incomplete");
 		
-		// The directory
-		File kernelDir;
-		if (mag.set.networkKernelDir != null)
-			kernelDir = mag.set.networkKernelDir;
-		else
-			kernelDir = mag.set.outputDirectory_;
-		
-		// The file
-		String networkName = mag.utils.extractBasicFilename(network_.getFile().getName(), false);
-		File file = new File(kernelDir, networkName + "_" + name_ + ".txt.gz");
-
-		// The file writer
-		FileExport writer = new FileExport(mag.log, file, true);
-
-		// Write the header
-		//writer.print("node");
-		for (int j=0; j<numRefNodes_; j++)
-			writer.print("\t" + network_.getRefNode(j).getId());
-		writer.print("\n");
+		saveK(mag, network_, K_, numRefNodes_, getKFile());
+		saved_ = true;
+	}
 
-		// For each node
-		for (int i=0; i<numNodes_; i++) {
-			// Node label
-			writer.print(network_.getNode(i).getId());
+	
+	// ----------------------------------------------------------------------------
 
-			// Shortest paths
-			for (int j=0; j<numRefNodes_; j++)
-				writer.print("\t" + mag.utils.toStringScientific10(K_.get(i, j)));
-			writer.print("\n");
+	/** Export the matrix K (nodes x reference nodes of the network) to the given file (gzipped if it ends with .gz) */
+	static public void saveK(Magnum mag, Network network, DoubleMatrix2D K, int numRefNodes, File file) {
+		
+		PhaseRecorder.Phase phase = mag.phases.start("save");
+		try {
+			MatrixWriter.write(mag, network, K, numRefNodes, file);
+		} finally {
+			phase.end();
 		}
-		// Close writer
-		writer.close();
-		saved_ = true;
 	}
 
 	
@@ -156,6 +149,11 @@ public abstract class PairwiseProperties extends NetworkProperties {
 		
 		centrality_ = new Double[numNodes_];
 		
+		if (K_ instanceof DenseMatrix && K_.rows() == numNodes_ && K_.columns() == numNodes_) {
+			scaleRows((DenseMatrix) K_, 1, true);
+			return;
+		}
+		
 		for (int i=0; i<numNodes_; i++) {
 			double sum = 0;
 			for (int j=0; j<numNodes_; j++)
@@ -169,12 +167,36 @@ public abstract class PairwiseProperties extends NetworkProperties {
 	// ============================================================================
 	// PRIVATE METHODS
 
+	/** The file for K_ (named after the network and name_, in networkKernelDir if specified or else the output directory) */
+	protected File getKFile() {
+		
+		// The directory
+		File kernelDir;
+		if (mag.set.networkKernelDir != null)
+			kernelDir = mag.set.networkKernelDir;
+		else
+			kernelDir = mag.set.outputDirectory_;
+		
+		// The file
+		String networkName = mag.utils.extractBasicFilename(network_.getFile().getName(), false);
+		return new File(kernelDir, networkName + "_" + name_ + ".txt.gz");
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
 	/** Normalize the given symmetric matrix (divide by the max, the max is computed on the lower triangular part) */
 	protected void normalizeSym(DoubleMatrix2D X) {
 		
 		if (X.rows() != X.columns())
 			throw new IllegalArgumentException("X must be a square, symmetric matrix");
 
+		if (X instanceof DenseMatrix) {
+			DenseMatrix A = (DenseMatrix) X;
+			scaleRows(A, maxLowerTriangle(A), false);
+			return;
+		}
+		
 		// Find the max value
 		double max = X.get(0, 0);
 		for (int i=0; i<X.rows(); i++)
@@ -189,6 +211,94 @@ public abstract class PairwiseProperties extends NetworkProperties {
 
 	}
 
+	
+	// ----------------------------------------------------------------------------
+
+	/** Normalize K_ like normalizeSym() and compute the centrality in the same pass */
+	protected void normalizeSymAndComputeCentrality() {
+		
+		if (!(K_ instanceof DenseMatrix) || K_.rows() != numNodes_ || K_.columns() != numNodes_) {
+			normalizeSym(K_);
+			computeCentrality();
+			return;
+		}
+		
+		DenseMatrix A = (DenseMatrix) K_;
+		centrality_ = new Double[numNodes_];
+		scaleRows(A, maxLowerTriangle(A), true);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Max of the lower triangular part of the square matrix A (rows in parallel) */
+	private double maxLowerTriangle(DenseMatrix A) {
+		
+		final double[] elements = A.elements();
+		final int n = A.rows();
+		final double[] max = new double[] { elements[0] };
+		
+		// Row i and n-1-i are processed together so that blocks have the same number of elements
+		Parallel.forBlocks(mag.set.getNumThreads(), (n+1)/2, new Parallel.Block() {
+			public void run(int start, int end) {
+				double blockMax = elements[0];
+				for (int k=start; k<end; k++) {
+					blockMax = maxRow(elements, k*n, k+1, blockMax);
+					if (n-1-k != k)
+						blockMax = maxRow(elements, (n-1-k)*n, n-k, blockMax);
+				}
+				synchronized (max) {
+					if (blockMax > max[0])
+						max[0] = blockMax;
+				}
+			}
+		});
+		return max[0];
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Max of the given value and elements offset..offset+length-1 */
+	private static double maxRow(double[] elements, int offset, int length, double max) {
+		
+		for (int j=offset; j<offset+length; j++)
+			if (elements[j] > max)
+				max = elements[j];
+		return max;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** 
+	 * Divide A by the given value (rows in parallel, skipped if it is 1). If computeCentrality is set,
+	 * centrality_[i] is set to the mean of the off-diagonal elements of row i of the result.
+	 */
+	private void scaleRows(DenseMatrix A, final double value, final boolean computeCentrality) {
+		
+		final double[] elements = A.elements();
+		final int n = A.columns();
+		final boolean scale = (value != 1);
+		
+		Parallel.forBlocks(mag.set.getNumThreads(), A.rows(), new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int i=start; i<end; i++) {
+					int offset = i*n;
+					double sum = 0;
+					for (int j=0; j<n; j++) {
+						if (scale)
+							elements[offset + j] /= value;
+						if (j != i)
+							sum += elements[offset + j];
+					}
+					if (computeCentrality)
+						centrality_[i] = sum / (n-1);
+				}
+			}
+		});
+	}
+	
 	// ============================================================================
 	// SETTERS AND GETTERS
 
@@ -0,0 +1,333 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import cern.colt.matrix.impl.SparseDoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+import edu.mit.magnum.PhaseRecorder;
+import edu.mit.magnum.net.*;
+
+
+/**
+ * Approximate personalized PageRank (random walk with restart) from a set of seed genes, computed
+ * with the local push algorithm (Andersen, Chung & Lang, 2006). The seeds are the reference nodes
+ * of the network (refNodesFile), K_ is the sparse N x numRefNodes matrix where column s is the
+ * proximity of all nodes to seed s.
+ *
+ * For each seed, mass is pushed from the nodes whose residual r(u) is at least tolerance*deg(u):
+ * p(u) += restart*r(u), and (1-restart)*r(u) is distributed to the neighbors of u proportionally to
+ * the edge weights. When the push stops, every entry of p is within tolerance*deg(u) of the exact
+ * value. The number of pushes is at most 1/(restart*tolerance), independent of the network size,
+ * so only the part of the network close to the seed is touched.
+ *
+ * Directed networks are supported (the walk follows the out-edges, nodes without out-edges restart).
+ */
+public class PersonalizedPageRank extends PairwiseProperties {
+
+	/** Restart probability of the random walk (0 < restart < 1) */
+	private double restart_ = 0.15;
+	/** Residual tolerance (push while r(u) >= tolerance*deg(u)) */
+	private double tolerance_ = 1e-4;
+
+	/** The out-neighbors of node i are neighbors_[neighborStarts_[i]..neighborStarts_[i+1]-1] */
+	private int[] neighborStarts_ = null;
+	/** The out-neighbors of all nodes */
+	private int[] neighbors_ = null;
+	/** The transition probabilities to the out-neighbors (edge weight / weighted out-degree) */
+	private double[] transitionProbs_ = null;
+	/** The weighted out-degree of each node */
+	private double[] degrees_ = null;
+
+	/** The residual mass that was left for each seed (the sum of the residuals) */
+	private double[] residuals_ = null;
+	/** The number of pushes for each seed */
+	private int[] numPushes_ = null;
+
+
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor */
+	public PersonalizedPageRank(Magnum mag, Network network, double restart, double tolerance) {
+
+		super(mag, network, "personalizedPageRank", "personalizedPageRankCentrality", false);
+		restart_ = restart;
+		tolerance_ = tolerance;
+
+		if (restart_ <= 0 || restart_ >= 1)
+			throw new IllegalArgumentException("The restart probability must be between 0 and 1");
+		if (tolerance_ <= 0)
+			throw new IllegalArgumentException("The residual tolerance must be greater than 0");
+
+		name_ = "personalizedPageRank_restart" + restart_ + (network_.getIsWeighted() ? "_weighted" : "");
+	}
+
+
+	/** Constructor using the default restart probability and tolerance */
+	public PersonalizedPageRank(Magnum mag, Network network) {
+
+		this(mag, network, mag.set.pprRestartProb_, mag.set.pprTolerance_);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Push the mass of each seed (seeds in parallel) */
+	public void computeK() {
+
+		mag.log.printlnVerbose("Computing personalized PageRank for " + numRefNodes_ + " seed nodes with restart=" + restart_
+				+ " and tolerance=" + tolerance_ + "...", "Computing personalized PageRank...");
+
+		PhaseRecorder.Phase phase = mag.phases.start("adjacency");
+		try {
+			initializeNeighbors();
+		} finally {
+			phase.end();
+		}
+
+		// The non-zero elements of each column
+		final int[][] indexes = new int[numRefNodes_][];
+		final double[][] values = new double[numRefNodes_][];
+		residuals_ = new double[numRefNodes_];
+		numPushes_ = new int[numRefNodes_];
+
+		phase = mag.phases.start("push");
+		try {
+			Parallel.forBlocks(mag.set.getNumThreads(), numRefNodes_, new Parallel.Block() {
+				public void run(int start, int end) {
+					Push push = new Push();
+					for (int s=start; s<end; s++) {
+						push.run(network_.getNodeIndex(network_.getRefNode(s)));
+						indexes[s] = push.getIndexes();
+						values[s] = push.getValues();
+						residuals_[s] = push.residualMass_;
+						numPushes_[s] = push.pushCount_;
+					}
+				}
+			});
+		} finally {
+			phase.end();
+		}
+
+		K_ = new SparseDoubleMatrix2D(numNodes_, numRefNodes_);
+		long numPushes = 0;
+		double maxResidual = 0;
+		for (int s=0; s<numRefNodes_; s++) {
+			for (int k=0; k<indexes[s].length; k++)
+				K_.setQuick(indexes[s][k], s, values[s][k]);
+			numPushes += numPushes_[s];
+			maxResidual = Math.max(maxResidual, residuals_[s]);
+		}
+		mag.log.printlnVerbose("- " + numPushes + " pushes, " + K_.cardinality() + " non-zero elements, max residual mass " + maxResidual);
+
+		// Not needed anymore
+		neighborStarts_ = null;
+		neighbors_ = null;
+		transitionProbs_ = null;
+		degrees_ = null;
+
+		if (mag.set.exportPairwiseNodeProperties_)
+			saveK();
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Export K_ (nodes x seeds) */
+	@Override
+	public void saveK() {
+
+		if (saved_)
+			return;
+
+		saveK(mag, network_, K_, numRefNodes_, getKFile());
+		saved_ = true;
+	}
+
+
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Residual push from one seed, the arrays are allocated once and reset by visiting only the touched nodes */
+	private class Push {
+
+		/** The approximate PageRank */
+		private double[] p_ = new double[numNodes_];
+		/** The residual */
+		private double[] r_ = new double[numNodes_];
+		/** Nodes with p_ or r_ non-zero */
+		private int[] touched_ = new int[numNodes_];
+		/** The number of touched nodes */
+		private int numTouched_ = 0;
+		/** Flags nodes that are touched */
+		private boolean[] isTouched_ = new boolean[numNodes_];
+		/** Circular queue of the nodes that need to be pushed */
+		private int[] queue_ = new int[numNodes_];
+		/** Flags nodes that are in the queue */
+		private boolean[] inQueue_ = new boolean[numNodes_];
+
+		/** The sum of the residuals after the push */
+		private double residualMass_ = 0;
+		/** The number of pushes */
+		private int pushCount_ = 0;
+
+		/** Push from the given seed */
+		void run(int seed) {
+
+			// Reset the nodes touched by the previous seed
+			for (int k=0; k<numTouched_; k++) {
+				int u = touched_[k];
+				p_[u] = 0;
+				r_[u] = 0;
+				isTouched_[u] = false;
+			}
+			numTouched_ = 0;
+			pushCount_ = 0;
+
+			touch(seed);
+			r_[seed] = 1;
+			int head = 0;
+			int size = 0;
+			if (isActive(seed)) {
+				queue_[0] = seed;
+				inQueue_[seed] = true;
+				size = 1;
+			}
+
+			while (size > 0) {
+				int u = queue_[head];
+				head = (head + 1) % numNodes_;
+				size--;
+				inQueue_[u] = false;
+
+				double ru = r_[u];
+				r_[u] = 0;
+				p_[u] += restart_ * ru;
+				double spread = (1 - restart_) * ru;
+				pushCount_++;
+
+				// Nodes without out-edges restart at the seed
+				if (neighborStarts_[u] == neighborStarts_[u+1]) {
+					r_[seed] += spread;
+					if (!inQueue_[seed] && isActive(seed)) {
+						queue_[(head + size++) % numNodes_] = seed;
+						inQueue_[seed] = true;
+					}
+					continue;
+				}
+
+				for (int l=neighborStarts_[u]; l<neighborStarts_[u+1]; l++) {
+					int v = neighbors_[l];
+					touch(v);
+					r_[v] += spread * transitionProbs_[l];
+					if (!inQueue_[v] && isActive(v)) {
+						queue_[(head + size++) % numNodes_] = v;
+						inQueue_[v] = true;
+					}
+				}
+			}
+
+			residualMass_ = 0;
+			for (int k=0; k<numTouched_; k++)
+				residualMass_ += r_[touched_[k]];
+		}
+
+		/** True if the residual of u needs to be pushed */
+		private boolean isActive(int u) {
+			return r_[u] >= tolerance_ * Math.max(1, degrees_[u]);
+		}
+
+		/** Add u to the touched nodes */
+		private void touch(int u) {
+			if (!isTouched_[u]) {
+				isTouched_[u] = true;
+				touched_[numTouched_++] = u;
+			}
+		}
+
+		/** The touched nodes with p > 0 */
+		int[] getIndexes() {
+			int count = 0;
+			for (int k=0; k<numTouched_; k++)
+				if (p_[touched_[k]] > 0)
+					count++;
+			int[] indexes = new int[count];
+			count = 0;
+			for (int k=0; k<numTouched_; k++)
+				if (p_[touched_[k]] > 0)
+					indexes[count++] = touched_[k];
+			return indexes;
+		}
+
+		/** The values of p for the touched nodes with p > 0 */
+		double[] getValues() {
+			int[] indexes = getIndexes();
+			double[] values = new double[indexes.length];
+			for (int k=0; k<indexes.length; k++)
+				values[k] = p_[indexes[k]];
+			return values;
+		}
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Initialize the out-neighbors and transition probabilities in compressed sparse row format */
+	private void initializeNeighbors() {
+
+		boolean isWeighted = network_.getIsWeighted();
+		neighborStarts_ = new int[numNodes_ + 1];
+		degrees_ = new double[numNodes_];
+		for (int i=0; i<numNodes_; i++)
+			neighborStarts_[i+1] = neighborStarts_[i] + graph_.getOutEdges(network_.getNode(i)).size();
+		neighbors_ = new int[neighborStarts_[numNodes_]];
+		transitionProbs_ = new double[neighborStarts_[numNodes_]];
+
+		for (int i=0; i<numNodes_; i++) {
+			Node node = network_.getNode(i);
+			int k = neighborStarts_[i];
+			for (Edge e : graph_.getOutEdges(node)) {
+				neighbors_[k] = network_.getNodeIndex(graph_.getOpposite(node, e));
+				transitionProbs_[k] = isWeighted ? e.w_ : 1;
+				degrees_[i] += transitionProbs_[k++];
+			}
+			for (k=neighborStarts_[i]; k<neighborStarts_[i+1]; k++)
+				transitionProbs_[k] /= degrees_[i];
+		}
+	}
+
+
+	// ============================================================================
+	// SETTERS AND GETTERS
+
+	public double getRestart() { return restart_; }
+	public double getTolerance() { return tolerance_; }
+	/** The residual mass that was not pushed for each seed (an upper bound of the L1 error of the column) */
+	public double[] getResiduals() { return residuals_; }
+	public int[] getNumPushes() { return numPushes_; }
+
+}
@@ -25,17 +25,21 @@ THE SOFTWARE.
  */
 package edu.mit.magnum.netprop;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 
 import cern.colt.matrix.DoubleMatrix2D;
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import cern.colt.matrix.impl.SparseDoubleMatrix2D;
 import cern.colt.matrix.linalg.Algebra;
 import cern.colt.matrix.linalg.Blas;
 import cern.colt.matrix.linalg.SeqBlas;
+import edu.mit.magnum.Checkpoint;
 import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
 import edu.mit.magnum.net.*;
 
 
@@ -109,21 +113,26 @@ public class PstepKernel extends PairwiseProperties {
 	public void computeK() {
 
 		mag.log.println("Computing normalized Laplacian...");		
-		normalizedLaplacian_ = network_.computeNormalizedLaplacian();
+		SparseDoubleMatrix2D B;
+		PhaseRecorder.Phase phase = mag.phases.start("laplacian");
+		try {
+			normalizedLaplacian_ = network_.computeNormalizedLaplacian();
 		
-		mag.log.printlnVerbose("Computing " + numSteps_ + "-step kernel with alpha=" + alpha_ + ":",
-				"Computing random-walk kernel (" + numSteps_ + " steps):");
-		mag.log.println("Step 1...");
-
-		// K = (a*I - L)^p ,  with a >= 2
-		// B := a*I - L
-		SparseDoubleMatrix2D B = new SparseDoubleMatrix2D(numNodes_, numNodes_); // initializes at 0
-		for (int i=0; i<numNodes_; i++)
-			B.set(i, i, alpha_);
+			mag.log.printlnVerbose("Computing " + numSteps_ + "-step kernel with alpha=" + alpha_ + ":",
+					"Computing random-walk kernel (" + numSteps_ + " steps):");
+
+			// K = (a*I - L)^p ,  with a >= 2
+			// B := a*I - L
+			B = new SparseDoubleMatrix2D(numNodes_, numNodes_); // initializes at 0
+			for (int i=0; i<numNodes_; i++)
+				B.set(i, i, alpha_);
 				
-		// daxpy(double alpha, DoubleMatrix2D A, DoubleMatrix2D B)
-        // Combined matrix scaling; B = B + alpha*A.
-		blas_.daxpy(-1, normalizedLaplacian_, B);	
+			// daxpy(double alpha, DoubleMatrix2D A, DoubleMatrix2D B)
+	        // Combined matrix scaling; B = B + alpha*A.
+			blas_.daxpy(-1, normalizedLaplacian_, B);	
+		} finally {
+			phase.end();
+		}
 		
 		// Using pow() or blas_.dggm() is much slower than the implementation below, actually
 		// pow() uses blas. This is surprising, because pow() shows my implementation as the
@@ -131,34 +140,59 @@ public class PstepKernel extends PairwiseProperties {
 		// Maybe the problem is that blas doesn't leverage SparseDoubleMatrix? Weird.
 		//K_ = alg_.pow(B, p_);
 
-		// K = B^1
-		// Wow, the multiplication below is much faster if this is a dense matrix, probably access is faster
-		K_ = new DenseDoubleMatrix2D(numNodes_, numNodes_);
-		blas_.dcopy(B, K_);
-
-		saved_ = false;
-		saveStep(1);
-
-		// K = B^p
-		for (int i=2; i<=p_.get(p_.size()-1); i++) {
-			mag.log.println("Step " + i + "...");
-			saved_ = false;
-
-			//long t0 = System.currentTimeMillis();
-
-			// mult() just calls DoubleMatrix2D.zMult(), which is implemented differently by Sparse and Dense matrices
-			// The sparse and dense matrix implementations are optimized and too difficult to understand/modify
-			// for symmetric matrixes.
-			// Note, it seems runtime is fastest if one matrix is sparse and the other dense
-			K_ = alg_.mult(B, K_);
-			//K_ = B.zMult(K_, null);
+		// Resume from the last checkpoint (K_ after step 'first'-1), if any
+		Checkpoint checkpoint = Checkpoint.create(mag, network_.getName() + "_pstepKernel", getCheckpointKey());
+		try {
+			int first = (checkpoint == null) ? 1 : loadCheckpoint(checkpoint);
 			
-			//long t1 = System.currentTimeMillis();
-			//Ngsea.println("Run time: " + NgseaUtils.chronometer(t1-t0));
-
-			// Save step, also computes centrality
-			saveStep(i);
-		}		
+			// K = B^1
+			// Wow, the multiplication below is much faster if this is a dense matrix, probably access is faster
+			if (first == 1) {
+				mag.log.println("Step 1...");
+				phase = mag.phases.start("kernel step");
+				try {
+					K_ = new DenseMatrix(numNodes_, numNodes_);
+					blas_.dcopy(B, K_);
+				} finally {
+					phase.end();
+				}
+
+				saved_ = false;
+				saveStep(1);
+				first = 2;
+			}
+
+			// K = B^p
+			for (int i=first; i<=numSteps_; i++) {
+				if (checkpoint != null && checkpoint.isDue())
+					saveCheckpoint(checkpoint, i-1);
+			
+				mag.log.println("Step " + i + "...");
+				saved_ = false;
+
+				phase = mag.phases.start("kernel step");
+				try {
+					// mult() just calls DoubleMatrix2D.zMult(), which is implemented differently by Sparse and Dense matrices
+					// The sparse and dense matrix implementations are optimized and too difficult to understand/modify
+					// for symmetric matrixes.
+					// Note, it seems runtime is fastest if one matrix is sparse and the other dense
+					// (the result is a DenseMatrix, normalization and centrality work on its primitive array)
+					K_ = B.zMult(K_, new DenseMatrix(numNodes_, numNodes_));
+					//K_ = B.zMult(K_, null);
+				} finally {
+					phase.end();
+				}
+
+				// Save step, also computes centrality
+				saveStep(i);
+			}		
+		
+			if (checkpoint != null)
+				checkpoint.delete();
+		} finally {
+			if (checkpoint != null)
+				checkpoint.close();
+		}
 		
 		// Delete Laplacian
 		normalizedLaplacian_ = null;
@@ -203,8 +237,17 @@ public class PstepKernel extends PairwiseProperties {
 		if (!p_.contains(i))
 			return;
 		
-		if (normalize_)
-			normalizeSym(K_);
+		PhaseRecorder.Phase phase = mag.phases.start(computeCentrality_ ? "centrality" : "normalization");
+		try {
+			if (normalize_ && computeCentrality_)
+				normalizeSymAndComputeCentrality();
+			else if (normalize_)
+				normalizeSym(K_);
+			else if (computeCentrality_)
+				computeCentrality();
+		} finally {
+			phase.end();
+		}
 
 		String suffix = "_alpha" + alpha_ + (network_.getIsWeighted() ? "_weighted" : "");
 		name_ = i + "stepKernel" + suffix;
@@ -213,13 +256,85 @@ public class PstepKernel extends PairwiseProperties {
 		if (mag.set.exportPairwiseNodeProperties_)
 			saveK();
 		
-		if (computeCentrality_) {
-			computeCentrality();
+		if (computeCentrality_)
 			pstepCentrality_.put(nameCentrality_, centrality_);
-		}
 	}
 
 
+	// ----------------------------------------------------------------------------
+
+	/** Settings that determine the kernel, a checkpoint is only resumed if they are the same */
+	private String getCheckpointKey() {
+		
+		// The content of the network file, so that a checkpoint of a different network with the same name is ignored
+		String content = (network_.getFile() == null) ? "none" : KernelCache.getContentHash(network_.getFile());
+		return "PstepKernel network=" + network_.getName() + " content=" + content 
+				+ " nodes=" + numNodes_ + " edges=" + network_.getNumEdges()
+				+ " weighted=" + network_.getIsWeighted() + " alpha=" + alpha_ + " p=" + p_ 
+				+ " normalize=" + normalize_ + " centrality=" + computeCentrality_;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save K_ = B^step (after saveStep) and the centralities of the saved steps */
+	private void saveCheckpoint(Checkpoint checkpoint, final int step) {
+		
+		mag.log.println("Saving checkpoint (step " + step + ")...");
+		
+		// K_ is replaced (not modified) by the next step, so it can be written in the background
+		final DenseMatrix K = (DenseMatrix) K_;
+		final LinkedHashMap<String,Double[]> centrality = new LinkedHashMap<String,Double[]>(pstepCentrality_);
+		
+		checkpoint.save(new Checkpoint.State() {
+			public void write(DataOutputStream out) throws IOException {
+				out.writeInt(step);
+				Checkpoint.writeDoubles(out, K.elements(), 0, numNodes_*numNodes_);
+				out.writeInt(centrality.size());
+				for (String name : centrality.keySet()) {
+					out.writeUTF(name);
+					for (Double c : centrality.get(name))
+						out.writeDouble(c);
+				}
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Restore the state saved by saveCheckpoint() and return the next step (1 if there is no checkpoint) */
+	private int loadCheckpoint(Checkpoint checkpoint) {
+		
+		DataInputStream in = checkpoint.load();
+		if (in == null)
+			return 1;
+		
+		try {
+			int step = in.readInt();
+			DenseMatrix K = new DenseMatrix(numNodes_, numNodes_);
+			Checkpoint.readDoubles(in, K.elements(), 0, numNodes_*numNodes_);
+			
+			int numCentrality = in.readInt();
+			for (int c=0; c<numCentrality; c++) {
+				String name = in.readUTF();
+				centrality_ = new Double[numNodes_];
+				for (int i=0; i<numNodes_; i++)
+					centrality_[i] = in.readDouble();
+				pstepCentrality_.put(name, centrality_);
+			}
+			in.close();
+			
+			K_ = K;
+			mag.log.println("Resuming " + numSteps_ + "-step kernel at step " + (step+1));
+			return step + 1;
+			
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read checkpoint: " + checkpoint.getFile().getPath(), e);
+		}
+	}
+
+	
 	// ============================================================================
 	// SETTERS AND GETTERS
 
@@ -0,0 +1,278 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+import edu.mit.magnum.PhaseRecorder;
+import edu.mit.magnum.net.*;
+
+
+/**
+ * Approximate closeness centrality from a random sample of pivot nodes (Eppstein & Wang, 2004).
+ * A BFS is done from each pivot (k BFS instead of one per node) and the mean distance of each node
+ * to the reference nodes is estimated by its mean distance to the pivots that it reaches. Like
+ * ShortestPaths, distances are hop counts and edge directionality is observed (the BFS follows the
+ * in-edges, giving the distance from each node to the pivot). Pivots are processed in parallel and
+ * each thread only keeps one distance vector, the N x M distance matrix is never allocated.
+ *
+ * With k = log(n)/eps^2 pivots, the estimated mean distances are within eps times the diameter of
+ * the exact values with high probability. For each node, the standard error of the estimate
+ * (sampling without replacement from the reference nodes that the node reaches) is reported as an
+ * additional node property, it is 0 when all reference nodes are pivots.
+ *
+ * The self-distance is handled as in ShortestPaths: it is ignored if no reference nodes are given, and
+ * counted (distance 0) for reference nodes otherwise. When all reference nodes are pivots, the result is
+ * thus the exact closeness of ShortestPaths, except for nodes that reach no other node (closeness 0).
+ */
+public class SampledCloseness extends NetworkProperties {
+
+	/** The number of pivots */
+	private int numPivots_ = -1;
+
+	/** Closeness centrality estimate */
+	private Double[] closeness_ = null;
+	/** Standard error of the closeness estimate */
+	private Double[] closenessStdErr_ = null;
+
+	/** The in-neighbors of node i are neighbors_[neighborStarts_[i]..neighborStarts_[i+1]-1] */
+	private int[] neighborStarts_ = null;
+	/** The in-neighbors of all nodes */
+	private int[] neighbors_ = null;
+
+
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Constructor */
+	public SampledCloseness(Magnum mag, Network network, int numPivots) {
+
+		super(mag, network);
+		numPivots_ = Math.min(numPivots, numRefNodes_);
+
+		if (numPivots < 1)
+			throw new IllegalArgumentException("The number of pivots must be at least 1");
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Estimate the closeness of all nodes */
+	public ArrayList<Double> run() {
+
+		mag.log.println("Estimating closeness centrality from " + numPivots_ + " pivots...");
+		PhaseRecorder.Phase phase = mag.phases.start("sampled closeness");
+		try {
+			initializeNeighbors();
+			final int[] pivots = samplePivots();
+			// Count the 0 self-distance of pivots (as ShortestPaths does for reference nodes)
+			final boolean includeSelf = network_.getUseRefNodes();
+
+			// Sum of distances, sum of squared distances and number of reached pivots
+			final double[] sum = new double[numNodes_];
+			final double[] sumSquares = new double[numNodes_];
+			final int[] count = new int[numNodes_];
+
+			// BFS from the pivots in parallel, each block accumulates its distances in its own arrays
+			final int numThreads = mag.set.getNumThreads();
+			Parallel.forBlocks(numThreads, numPivots_, new Parallel.Block() {
+				public void run(int start, int end) {
+					int[] distances = new int[numNodes_];
+					int[] queue = new int[numNodes_];
+					double[] blockSum = new double[numNodes_];
+					double[] blockSumSquares = new double[numNodes_];
+					int[] blockCount = new int[numNodes_];
+
+					for (int k=start; k<end; k++) {
+						bfs(pivots[k], distances, queue);
+						for (int i=0; i<numNodes_; i++) {
+							if (distances[i] > 0 || (distances[i] == 0 && includeSelf)) {
+								blockSum[i] += distances[i];
+								blockSumSquares[i] += (double) distances[i] * distances[i];
+								blockCount[i]++;
+							}
+						}
+					}
+					synchronized (sum) {
+						for (int i=0; i<numNodes_; i++) {
+							sum[i] += blockSum[i];
+							sumSquares[i] += blockSumSquares[i];
+							count[i] += blockCount[i];
+						}
+					}
+				}
+			});
+			computeCloseness(pivots, includeSelf, sum, sumSquares, count);
+
+			neighborStarts_ = null;
+			neighbors_ = null;
+		} finally {
+			phase.end();
+		}
+
+		return null;
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Add the closeness and its standard error to the given map */
+	public void addNodeProperties(LinkedHashMap<String,Number[]> map) {
+
+		if (closeness_ != null) {
+			map.put("closenessCentrality", closeness_);
+			map.put("closenessCentralityStdErr", closenessStdErr_);
+		}
+	}
+
+
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Sample numPivots_ distinct reference nodes (partial Fisher-Yates shuffle with the jdk RNG of the settings) */
+	private int[] samplePivots() {
+
+		int[] refNodes = new int[numRefNodes_];
+		for (int j=0; j<numRefNodes_; j++)
+			refNodes[j] = network_.getNodeIndex(network_.getRefNode(j));
+
+		int[] pivots = new int[numPivots_];
+		for (int k=0; k<numPivots_; k++) {
+			int r = k + mag.set.jdkRng_.nextInt(numRefNodes_ - k);
+			int tmp = refNodes[k];
+			refNodes[k] = refNodes[r];
+			refNodes[r] = tmp;
+			pivots[k] = refNodes[k];
+		}
+		return pivots;
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** BFS from the source along the in-edges, distances[i] is the distance from node i to the source (-1: unreachable) */
+	private void bfs(int source, int[] distances, int[] queue) {
+
+		for (int i=0; i<numNodes_; i++)
+			distances[i] = -1;
+		distances[source] = 0;
+		queue[0] = source;
+		int head = 0;
+		int tail = 1;
+
+		while (head < tail) {
+			int u = queue[head++];
+			for (int l=neighborStarts_[u]; l<neighborStarts_[u+1]; l++) {
+				int v = neighbors_[l];
+				if (distances[v] == -1) {
+					distances[v] = distances[u] + 1;
+					queue[tail++] = v;
+				}
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/**
+	 * Closeness is the inverse of the mean distance to the reached pivots, nodes that reach no other
+	 * pivot get 0. The standard error is propagated from the standard error of the mean, with the finite
+	 * population correction for the reference nodes that the node reaches (estimated from the sampling
+	 * fraction, it is exact when all reference nodes are pivots).
+	 */
+	private void computeCloseness(int[] pivots, boolean includeSelf, double[] sum, double[] sumSquares, int[] count) {
+
+		closeness_ = new Double[numNodes_];
+		closenessStdErr_ = new Double[numNodes_];
+		boolean[] isPivot = new boolean[numNodes_];
+		for (int k=0; k<pivots.length; k++)
+			isPivot[pivots[k]] = true;
+
+		double maxRelErr = 0;
+		for (int i=0; i<numNodes_; i++) {
+			if (sum[i] == 0) {
+				closeness_[i] = 0.0;
+				closenessStdErr_[i] = 0.0;
+				continue;
+			}
+			double mean = sum[i] / count[i];
+			closeness_[i] = 1 / mean;
+
+			// The candidate reference nodes and pivots (the node itself is not a sample if the self-distance is ignored)
+			int numCandidates = numRefNodes_;
+			int numPivots = numPivots_;
+			if (!includeSelf && network_.isRefNode(network_.getNode(i)))
+				numCandidates--;
+			if (!includeSelf && isPivot[i])
+				numPivots--;
+
+			// The population is the reference nodes reached by this node, count is exact for a full census
+			double population = (numPivots == numCandidates) ? count[i] : count[i] * (double) numCandidates / numPivots;
+			double stdErr = 0;
+			if (count[i] > 1 && count[i] < population) {
+				double var = (sumSquares[i] - count[i]*mean*mean) / (count[i] - 1);
+				// Finite population correction
+				double fpc = (population - count[i]) / (population - 1);
+				stdErr = Math.sqrt(Math.max(0, var) / count[i] * fpc) / (mean*mean);
+			}
+			closenessStdErr_[i] = stdErr;
+			maxRelErr = Math.max(maxRelErr, stdErr / closeness_[i]);
+		}
+		mag.log.println("- Max relative standard error: " + maxRelErr);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Initialize the in-neighbors in compressed sparse row format */
+	private void initializeNeighbors() {
+
+		neighborStarts_ = new int[numNodes_ + 1];
+		for (int i=0; i<numNodes_; i++)
+			neighborStarts_[i+1] = neighborStarts_[i] + graph_.getInEdges(network_.getNode(i)).size();
+		neighbors_ = new int[neighborStarts_[numNodes_]];
+
+		for (int i=0; i<numNodes_; i++) {
+			Node node = network_.getNode(i);
+			int k = neighborStarts_[i];
+			for (Edge e : graph_.getInEdges(node))
+				neighbors_[k++] = network_.getNodeIndex(graph_.getOpposite(node, e));
+		}
+	}
+
+
+	// ============================================================================
+	// SETTERS AND GETTERS
+
+	public int getNumPivots() { return numPivots_; }
+	public Double[] getCloseness() { return closeness_; }
+	public Double[] getClosenessStdErr() { return closenessStdErr_; }
+
+}
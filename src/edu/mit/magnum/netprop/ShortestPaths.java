@@ -29,7 +29,6 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 
-import cern.colt.matrix.impl.DenseDoubleMatrix2D;
 import ch.unil.gpsutils.ProgressMonitor;
 import edu.uci.ics.jung.algorithms.shortestpath.DijkstraDistance;
 import edu.mit.magnum.Magnum;
@@ -58,13 +57,9 @@ public class ShortestPaths extends PairwiseProperties {
 		
 		mag.log.println("Computing shortest paths...");
 		
-		// Dijkstra distance
-		K_ = new DenseDoubleMatrix2D(numNodes_, numRefNodes_);
-		
-		// Initialize at -1
-		for (int i=0; i<numNodes_; i++)
-			for (int j=0; j<numRefNodes_; j++)
-				K_.set(i, j, -2);
+		// Dijkstra distance (hop counts, stored in 1 or 2 bytes per element), initialized at -2
+		DistanceMatrix distances = new DistanceMatrix(numNodes_, numRefNodes_, DistanceMatrix.NOT_COMPUTED);
+		K_ = distances;
 		
 		//boolean averaging = true;
 		//boolean ignoreMissing = true;
@@ -128,6 +123,7 @@ public class ShortestPaths extends PairwiseProperties {
 			}		    
 		}
 		progress.done();
+		mag.log.printlnVerbose("- Distance matrix: " + (distances.getSizeBytes() >> 20) + " MB");
 	}
 
 	
@@ -0,0 +1,180 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * Dense matrix stored row-major on disk as raw doubles (little-endian), for matrices that don't
+ * fit in memory. Rows are accessed in tiles of consecutive rows through memory-mapped regions of
+ * the file, so only the tiles that are being read or written are resident.
+ */
+public class TiledMatrix {
+
+	/** The file */
+	private File file_;
+	/** Number of rows */
+	private int rows_;
+	/** Number of columns */
+	private int columns_;
+	/** Number of rows per tile (the last tile may be smaller) */
+	private int tileRows_;
+	/** Opened read-only */
+	private boolean readOnly_;
+	
+	/** The file */
+	private RandomAccessFile raf_;
+	/** Channel used to map the tiles */
+	private FileChannel channel_;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+
+	/** Create a new matrix file (all elements zero) or open an existing one (readOnly) */
+	public TiledMatrix(File file, int rows, int columns, int tileRows, boolean readOnly) {
+		
+		if (rows <= 0 || columns <= 0 || tileRows <= 0)
+			throw new IllegalArgumentException("Rows, columns and rows per tile must be positive");
+		if ((long) tileRows * columns * 8 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Tiles must be smaller than 2GB (" + tileRows + " rows of " + columns + " columns)");
+		
+		file_ = file;
+		rows_ = rows;
+		columns_ = columns;
+		tileRows_ = Math.min(tileRows, rows);
+		readOnly_ = readOnly;
+		
+		long length = (long) rows * columns * 8;
+		try {
+			raf_ = new RandomAccessFile(file, readOnly ? "r" : "rw");
+			if (readOnly && raf_.length() != length)
+				throw new RuntimeException("File " + file.getName() + " has " + raf_.length() + " bytes, expected " + length + " for a " + rows + " x " + columns + " matrix");
+			if (!readOnly)
+				raf_.setLength(length);
+			channel_ = raf_.getChannel();
+			
+		} catch (IOException e) {
+			close();
+			throw new RuntimeException("Failed to open file: " + file.getPath(), e);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write rows start..end-1 from values (row-major, starting at index 0) */
+	public void writeRows(int start, int end, double[] values) {
+		
+		if (readOnly_)
+			throw new IllegalStateException("Matrix " + file_.getName() + " is read-only");
+		map(start, end, FileChannel.MapMode.READ_WRITE).put(values, 0, (end - start) * columns_);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Read rows start..end-1 into values (row-major, starting at index 0), allocated if null or too small */
+	public double[] readRows(int start, int end, double[] values) {
+		
+		int length = (end - start) * columns_;
+		if (values == null || values.length < length)
+			values = new double[length];
+		map(start, end, FileChannel.MapMode.READ_ONLY).get(values, 0, length);
+		return values;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Close the file */
+	public void close() {
+		
+		try {
+			if (raf_ != null)
+				raf_.close();
+		} catch (IOException e) {
+			// Nothing to do, the file is not used anymore
+		}
+		raf_ = null;
+		channel_ = null;
+	}
+	
+	
+	/** Close and delete the file */
+	public void delete() {
+		
+		close();
+		file_.delete();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** First row of tile t */
+	public int getTileStart(int t) { return t * tileRows_; }
+	/** Last row (exclusive) of tile t */
+	public int getTileEnd(int t) { return Math.min(rows_, (t+1) * tileRows_); }
+	/** Number of tiles */
+	public int getNumTiles() { return (rows_ + tileRows_ - 1) / tileRows_; }
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Map rows start..end-1 */
+	private DoubleBuffer map(int start, int end, FileChannel.MapMode mode) {
+		
+		if (start < 0 || end > rows_ || start > end)
+			throw new IndexOutOfBoundsException("Rows " + start + ".." + end + " of " + rows_);
+		if ((long) (end - start) * columns_ * 8 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Cannot map more than 2GB at once (" + (end - start) + " rows)");
+		if (channel_ == null)
+			throw new IllegalStateException("Matrix " + file_.getName() + " is closed");
+		
+		try {
+			return channel_.map(mode, (long) start * columns_ * 8, (long) (end - start) * columns_ * 8).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to map rows " + start + ".." + end + " of file: " + file_.getPath(), e);
+		}
+	}
+
+	
+	// ============================================================================
+	// GETTERS AND SETTERS
+
+	public File getFile() { return file_; }
+	public int getRows() { return rows_; }
+	public int getColumns() { return columns_; }
+	public int getTileRows() { return tileRows_; }
+	
+}
@@ -0,0 +1,545 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+
+import cern.colt.matrix.impl.SparseDoubleMatrix2D;
+import ch.unil.gpsutils.FileExport;
+import ch.unil.gpsutils.FileParser;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.Parallel;
+import edu.mit.magnum.PhaseRecorder;
+import edu.mit.magnum.net.*;
+
+
+/**
+ * Out-of-core p-step random walk kernel K = (a*I - L)^p for networks where K does not fit in memory
+ * (see PstepKernel). Since B = a*I - L is symmetric, row i of B^p is B applied p times to row i of B,
+ * so each tile of rows is computed through all steps independently, using only the sparse B. The
+ * kernel of each saved step is written to disk as row tiles (TiledMatrix). The max and row sums
+ * are accumulated tile by tile, so normalization and centrality don't need another pass, and the
+ * kernel is normalized while it is streamed from the tiles to the output file.
+ * 
+ * Since K is symmetric, rows start..end-1 are also columns start..end-1 of K. A shard computes only
+ * these rows and saves them with their max and row sums (not normalized) in the tile directory,
+ * so that disjoint shards can be computed in separate processes. Merging concatenates the shards
+ * and normalizes the kernel with the global max.
+ */
+public class TiledPstepKernel extends PairwiseProperties {
+	
+	/** Size of a tile in bytes if the number of rows per tile is not specified (two tiles are in memory) */
+	private static final long TILE_SIZE = 1L << 27;
+	
+	/** The alpha parameter (must be >= 2) */
+	private double alpha_ = 2;
+	/** Steps p of random walk kernel (ordered list of positive integers given in increasing order, the kernel for each listed p will be saved) */
+	private ArrayList<Integer> p_ = null;
+	/** The total number of steps (equal to the last element of p_) */
+	private int numSteps_ = -1;
+	/** Normalize the kernel matrix (divide by the max) */
+	private boolean normalize_ = true;
+	/** Directory for the tiles */
+	private File tileDir_ = null;
+	/** Number of rows per tile (0: tiles of TILE_SIZE bytes) */
+	private int tileRows_ = 0;
+	/** First row of the shard (0 if not sharded) */
+	private int shardStart_ = 0;
+	/** Last row (exclusive) of the shard (numNodes_ if not sharded) */
+	private int shardEnd_ = -1;
+	/** Merge the shards saved in tileDir_ instead of computing the kernel */
+	private boolean merge_ = false;
+	
+	/** B = a*I - L in compressed sparse row format, row i has the columns colIndexes_[rowStarts_[i]..rowStarts_[i+1]-1] */
+	private int[] rowStarts_ = null;
+	/** Column indexes of the non-zero elements of B */
+	private int[] colIndexes_ = null;
+	/** Non-zero elements of B */
+	private double[] values_ = null;
+	
+	/** The kernel for each saved step, as row tiles on disk (not normalized) */
+	private TiledMatrix[] tiles_ = null;
+	/** Max of the lower triangular part of the kernel for each saved step */
+	private double[] max_ = null;
+	/** Sum of the off-diagonal elements of each row of the kernel for each saved step (not normalized) */
+	private double[][] rowSums_ = null;
+	/** Node centrality for each alpha / step */
+	private LinkedHashMap<String,Double[]> pstepCentrality_ = null;
+	
+	
+	// ============================================================================
+	// PUBLIC METHODS
+	
+	/** Constructor (network must be undirected), tiles of tileRows rows are saved in tileDir (tileRows=0: automatic) */
+	public TiledPstepKernel(Magnum mag, Network network, double alpha, ArrayList<Integer> p, boolean normalize, boolean computeCentrality, File tileDir, int tileRows) {
+		
+		super(mag, network, "pstepKernel", "pstepKernel", computeCentrality);
+		alpha_ = alpha;
+		p_ = p;
+		numSteps_ = p_.get(p_.size()-1);
+		normalize_ = normalize;
+		tileDir_ = tileDir;
+		tileRows_ = tileRows;
+		shardEnd_ = numNodes_;
+		pstepCentrality_ = new LinkedHashMap<String,Double[]>();
+		
+		if (alpha_ < 2)
+			throw new IllegalArgumentException("Alpha must be greater or equal 2");
+		if (!mag.utils.posIntIncreasing(p_))
+			throw new RuntimeException("p must be and ordered list of positive integers, given in increasing order");
+		if (tileRows_ < 0)
+			throw new IllegalArgumentException("The number of rows per tile must be positive (or 0 for automatic)");
+		
+		if (isDirected_)
+			throw new IllegalArgumentException("P-step kernels are not implemented for directed networks");
+		if (numRefNodes_ != numNodes_)
+			mag.log.warning("Specified reference nodes will be ignored by p-step kernel");
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute the kernel tile by tile (or merge the shards), the kernel of each saved step is written to tileDir */
+	public void computeK() {
+		
+		int tileRows = (tileRows_ > 0) ? tileRows_ : (int) Math.max(1, Math.min(numNodes_, TILE_SIZE / (8L * numNodes_)));
+		tileDir_.mkdirs();
+		max_ = new double[p_.size()];
+		for (int s=0; s<p_.size(); s++)
+			max_[s] = Double.NEGATIVE_INFINITY;
+		rowSums_ = new double[p_.size()][numNodes_];
+		tiles_ = new TiledMatrix[p_.size()];
+		
+		if (merge_) {
+			for (int s=0; s<p_.size(); s++)
+				mergeShards(s, tileRows);
+			finish();
+			return;
+		}
+		
+		mag.log.println("Computing normalized Laplacian...");		
+		PhaseRecorder.Phase phase = mag.phases.start("laplacian");
+		try {
+			initializeB(network_.computeNormalizedLaplacian());
+		} finally {
+			phase.end();
+		}
+		
+		// The tiles for each saved step (rows of the shard)
+		for (int s=0; s<p_.size(); s++) {
+			File file = isShard() ? getShardFile(s, ".tiles") : new File(tileDir_, getFilePrefix(s) + ".tiles");
+			if (!isShard())
+				file.deleteOnExit();
+			tiles_[s] = new TiledMatrix(file, shardEnd_ - shardStart_, numNodes_, tileRows, false);
+		}
+		
+		int numTiles = tiles_[0].getNumTiles();
+		String shard = isShard() ? ", rows " + shardStart_ + ".." + (shardEnd_-1) + " of " + numNodes_ : "";
+		mag.log.printlnVerbose("Computing " + numSteps_ + "-step kernel with alpha=" + alpha_ + " in " + numTiles + " tiles of " + tileRows + " rows" + shard + ":",
+				"Computing random-walk kernel (" + numSteps_ + " steps, " + numTiles + " tiles" + shard + "):");
+		
+		// Two tiles are in memory: the current step and the next one
+		double[] cur = new double[tileRows * numNodes_];
+		double[] next = new double[tileRows * numNodes_];
+		for (int t=0; t<numTiles; t++) {
+			mag.log.println("Tile " + (t+1) + "...");
+			phase = mag.phases.start("kernel tile");
+			try {
+				int start = shardStart_ + tiles_[0].getTileStart(t);
+				int end = shardStart_ + tiles_[0].getTileEnd(t);
+			
+				// K = B^1
+				copyRowsOfB(start, end, cur);
+				saveStep(1, start, end, cur);
+			
+				// K = B^p
+				for (int i=2; i<=numSteps_; i++) {
+					multiplyRows(end - start, cur, next);
+					double[] tmp = cur;
+					cur = next;
+					next = tmp;
+					saveStep(i, start, end, cur);
+				}
+			} finally {
+				phase.end();
+			}
+		}
+		
+		// Not needed anymore
+		rowStarts_ = null;
+		colIndexes_ = null;
+		values_ = null;
+		
+		if (isShard()) {
+			// The shard is merged later
+			for (int s=0; s<p_.size(); s++) {
+				saveShardInfo(s);
+				tiles_[s].close();
+			}
+			saved_ = true;
+			mag.log.println("Saved shard to: " + tileDir_.getPath());
+		} else {
+			finish();
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The centrality has already been computed from the row sums by computeK() */
+	@Override
+	public void computeCentrality() {
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Export the (normalized) kernel of each saved step, streaming it from the tiles, which are then deleted */
+	@Override
+	public void saveK() {
+		
+		if (saved_)
+			return;
+		if (network_.getUseRefNodes())
+			throw new RuntimeException("Ref nodes implementation incomplete");
+		
+		for (int s=0; s<p_.size(); s++) {
+			name_ = p_.get(s) + "stepKernel" + getSuffix();
+			PhaseRecorder.Phase phase = mag.phases.start("save");
+			try {
+				MatrixWriter.write(mag, network_, tiles_[s], getScale(s), numRefNodes_, getKFile());
+			} finally {
+				phase.end();
+			}
+			tiles_[s].delete();
+		}
+		saved_ = true;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	public void addNodeProperties(LinkedHashMap<String,Number[]> map) {
+		
+		// The centrality is computed when the shards are merged
+		if (isShard())
+			return;
+		if (pstepCentrality_.size() != p_.size())
+			throw new RuntimeException("Centrality has not been saved for every specified step");
+		
+		for (String centrality : pstepCentrality_.keySet())
+			map.put(centrality, pstepCentrality_.get(centrality));
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute only rows (and columns) start..end-1 and save them as a shard in the tile directory */
+	public void setShard(int start, int end) {
+		
+		if (start < 0 || end > numNodes_ || start >= end)
+			throw new IllegalArgumentException("Invalid shard " + start + ".." + end + " (the network has " + numNodes_ + " nodes)");
+		shardStart_ = start;
+		shardEnd_ = end;
+	}
+
+	
+	/** Merge the shards saved in the tile directory instead of computing the kernel */
+	public void setMerge(boolean merge) {
+		merge_ = merge;
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Compute the centrality of each saved step from the row sums and export the kernels */
+	private void finish() {
+		
+		if (computeCentrality_) {
+			for (int s=0; s<p_.size(); s++) {
+				double scale = getScale(s);
+				centrality_ = new Double[numNodes_];
+				for (int i=0; i<numNodes_; i++)
+					centrality_[i] = rowSums_[s][i] * scale / (numNodes_-1);
+				pstepCentrality_.put(p_.get(s) + "stepKernelCentrality" + getSuffix(), centrality_);
+			}
+		}
+		
+		if (mag.set.exportPairwiseNodeProperties_)
+			saveK();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Save the max, the row sums and the node ids hash of the shard for the s'th saved step */
+	private void saveShardInfo(int s) {
+		
+		FileExport writer = new FileExport(mag.log, getShardFile(s, ".txt"));
+		writer.println("numNodes\t" + numNodes_);
+		writer.println("nodeIdsHash\t" + getNodeIdsHash());
+		writer.println("start\t" + shardStart_);
+		writer.println("end\t" + shardEnd_);
+		writer.println("max\t" + max_[s]);
+		for (int i=shardStart_; i<shardEnd_; i++)
+			writer.println(Double.toString(rowSums_[s][i]));
+		writer.close();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Concatenate the shards of the s'th saved step, which must cover all rows, and combine their max and row sums */
+	private void mergeShards(int s, int tileRows) {
+		
+		// The shards of this step, sorted by start row
+		final String prefix = getFilePrefix(s) + ".shard_";
+		File[] files = tileDir_.listFiles();
+		ArrayList<int[]> shards = new ArrayList<int[]>(); // start, end
+		ArrayList<File> infoFiles = new ArrayList<File>();
+		for (File file : (files == null) ? new File[0] : files)
+			if (file.getName().startsWith(prefix) && file.getName().endsWith(".txt"))
+				infoFiles.add(file);
+		if (infoFiles.size() == 0)
+			throw new RuntimeException("No shards found in " + tileDir_.getPath() + " for " + getFilePrefix(s));
+		
+		String nodeIdsHash = Long.toString(getNodeIdsHash());
+		for (File file : infoFiles) {
+			FileParser parser = new FileParser(mag.log, file);
+			String[] numNodes = parser.readLine();
+			String[] hash = parser.readLine();
+			int start = Integer.parseInt(parser.readLine()[1]);
+			int end = Integer.parseInt(parser.readLine()[1]);
+			double max = Double.parseDouble(parser.readLine()[1]);
+			if (Integer.parseInt(numNodes[1]) != numNodes_ || !hash[1].equals(nodeIdsHash))
+				throw new RuntimeException("Shard " + file.getName() + " was computed for a different network (" + numNodes[1] + " nodes)");
+			for (int i=start; i<end; i++)
+				rowSums_[s][i] = Double.parseDouble(parser.readLine()[0]);
+			parser.close();
+			
+			if (max > max_[s])
+				max_[s] = max;
+			shards.add(new int[] {start, end});
+		}
+		Collections.sort(shards, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				return a[0] - b[0];
+			}
+		});
+		
+		// Shards must be disjoint and cover all rows
+		int expected = 0;
+		for (int[] shard : shards) {
+			if (shard[0] != expected)
+				throw new RuntimeException("Shards of " + getFilePrefix(s) + ": " + (shard[0] > expected ? "missing" : "overlapping") + " rows at row " + expected);
+			expected = shard[1];
+		}
+		if (expected != numNodes_)
+			throw new RuntimeException("Shards of " + getFilePrefix(s) + ": missing rows " + expected + ".." + (numNodes_-1));
+		
+		// Concatenate the shards tile by tile
+		mag.log.println("Merging " + shards.size() + " shards of " + getFilePrefix(s) + "...");
+		PhaseRecorder.Phase phase = mag.phases.start("merge");
+		try {
+			File mergedFile = new File(tileDir_, getFilePrefix(s) + ".tiles");
+			mergedFile.deleteOnExit();
+			tiles_[s] = new TiledMatrix(mergedFile, numNodes_, numNodes_, tileRows, false);
+			double[] tile = null;
+			for (int[] shard : shards) {
+				int start = shard[0];
+				int end = shard[1];
+				TiledMatrix shardTiles = new TiledMatrix(getShardFile(s, start, end, ".tiles"), end - start, numNodes_, tileRows, true);
+				for (int t=0; t<shardTiles.getNumTiles(); t++) {
+					tile = shardTiles.readRows(shardTiles.getTileStart(t), shardTiles.getTileEnd(t), tile);
+					tiles_[s].writeRows(start + shardTiles.getTileStart(t), start + shardTiles.getTileEnd(t), tile);
+				}
+				shardTiles.close();
+			}
+		} finally {
+			phase.end();
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Initialize B = a*I - L in compressed sparse row format (the non-zero elements are the diagonal and the edges) */
+	private void initializeB(SparseDoubleMatrix2D L) {
+		
+		rowStarts_ = new int[numNodes_ + 1];
+		for (int i=0; i<numNodes_; i++)
+			rowStarts_[i+1] = rowStarts_[i] + 1 + network_.getNeighborsNoSelf(network_.getNode(i)).size();
+		colIndexes_ = new int[rowStarts_[numNodes_]];
+		values_ = new double[rowStarts_[numNodes_]];
+		
+		for (int i=0; i<numNodes_; i++) {
+			int k = rowStarts_[i];
+			colIndexes_[k] = i;
+			values_[k++] = alpha_ - L.getQuick(i, i);
+			for (Node neighbor : network_.getNeighborsNoSelf(network_.getNode(i))) {
+				int j = network_.getNodeIndex(neighbor);
+				colIndexes_[k] = j;
+				values_[k++] = -L.getQuick(i, j);
+			}
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Copy rows start..end-1 of B to the given tile */
+	private void copyRowsOfB(int start, int end, double[] tile) {
+		
+		for (int r=0; r<end-start; r++) {
+			int offset = r * numNodes_;
+			for (int j=0; j<numNodes_; j++)
+				tile[offset + j] = 0;
+			for (int k=rowStarts_[start+r]; k<rowStarts_[start+r+1]; k++)
+				tile[offset + colIndexes_[k]] = values_[k];
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Compute the next step of the first numRows rows of tile cur (row r of next is B times row r of cur) */
+	private void multiplyRows(int numRows, final double[] cur, final double[] next) {
+		
+		final int n = numNodes_;
+		Parallel.forBlocks(mag.set.getNumThreads(), numRows, new Parallel.Block() {
+			public void run(int start, int end) {
+				for (int r=start; r<end; r++) {
+					int offset = r * n;
+					for (int i=0; i<n; i++) {
+						double sum = 0;
+						for (int k=rowStarts_[i]; k<rowStarts_[i+1]; k++)
+							sum += values_[k] * cur[offset + colIndexes_[k]];
+						next[offset + i] = sum;
+					}
+				}
+			}
+		});
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** If step i is saved, update its max and row sums and write rows start..end-1 of the tile to disk */
+	private void saveStep(int i, final int start, int end, final double[] tile) {
+		
+		final int s = p_.indexOf(i);
+		if (s < 0)
+			return;
+		
+		final int n = numNodes_;
+		Parallel.forBlocks(mag.set.getNumThreads(), end - start, new Parallel.Block() {
+			public void run(int blockStart, int blockEnd) {
+				double blockMax = Double.NEGATIVE_INFINITY;
+				for (int r=blockStart; r<blockEnd; r++) {
+					int row = start + r;
+					int offset = r * n;
+					double sum = 0;
+					for (int j=0; j<n; j++) {
+						double value = tile[offset + j];
+						// Only look at lower triangular part for the max
+						if (j <= row && value > blockMax)
+							blockMax = value;
+						if (j != row)
+							sum += value;
+					}
+					rowSums_[s][row] = sum;
+				}
+				synchronized (max_) {
+					if (blockMax > max_[s])
+						max_[s] = blockMax;
+				}
+			}
+		});
+		tiles_[s].writeRows(start - shardStart_, end - shardStart_, tile);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Factor to normalize the kernel of the s'th saved step (1 if normalize_ is not set) */
+	private double getScale(int s) {
+		return normalize_ ? 1 / max_[s] : 1;
+	}
+	
+	
+	/** True if only a shard of the rows is computed */
+	private boolean isShard() {
+		return shardStart_ != 0 || shardEnd_ != numNodes_;
+	}
+	
+	
+	/** Prefix of the tile and shard files of the s'th saved step */
+	private String getFilePrefix(int s) {
+		
+		String networkName = mag.utils.extractBasicFilename(network_.getFile().getName(), false);
+		return networkName + "_" + p_.get(s) + "stepKernel" + getSuffix();
+	}
+	
+	
+	/** File of this shard for the s'th saved step with the given extension */
+	private File getShardFile(int s, String extension) {
+		return getShardFile(s, shardStart_, shardEnd_, extension);
+	}
+	
+	
+	/** File of the shard start..end-1 for the s'th saved step with the given extension */
+	private File getShardFile(int s, int start, int end, String extension) {
+		return new File(tileDir_, getFilePrefix(s) + ".shard_" + start + "-" + end + extension);
+	}
+	
+	
+	/** Hash of the node ids in the order of the node indexes (shards must have the same node order) */
+	private long getNodeIdsHash() {
+		
+		long hash = numNodes_;
+		for (int i=0; i<numNodes_; i++)
+			hash = 31*hash + network_.getNode(i).getId().hashCode();
+		return hash;
+	}
+	
+	
+	/** Suffix of the kernel and centrality names */
+	private String getSuffix() {
+		return "_alpha" + alpha_ + (network_.getIsWeighted() ? "_weighted" : "");
+	}
+
+	
+	// ============================================================================
+	// SETTERS AND GETTERS
+
+	public Double[] getPstepKernelCentrality() { return centrality_; }
+	
+}
@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for DistanceMatrix
+ */
+public class DistanceMatrixTest {
+	
+	// ============================================================================
+	// TESTS
+
+	/** Sentinels and hop distances are stored in bytes */
+	@Test
+	public void testBytes() {
+
+		DistanceMatrix D = new DistanceMatrix(3, 4, DistanceMatrix.NOT_COMPUTED);
+		assertEquals(DistanceMatrix.BYTE, D.getType());
+		assertEquals(12, D.getSizeBytes());
+		
+		for (int i=0; i<3; i++)
+			for (int j=0; j<4; j++)
+				assertEquals(-2, D.get(i, j), 0);
+		
+		D.set(0, 0, 0);
+		D.set(1, 2, DistanceMatrix.UNREACHABLE);
+		D.set(2, 3, 127);
+		assertEquals(DistanceMatrix.BYTE, D.getType());
+		assertEquals(0, D.get(0, 0), 0);
+		assertEquals(-1, D.get(1, 2), 0);
+		assertEquals(127, D.get(2, 3), 0);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The storage is widened to shorts for long paths and to floats for weighted distances */
+	@Test
+	public void testWiden() {
+
+		DistanceMatrix D = new DistanceMatrix(2, 2, DistanceMatrix.NOT_COMPUTED);
+		D.set(0, 1, 3);
+		D.set(1, 0, DistanceMatrix.UNREACHABLE);
+		
+		D.set(1, 1, 300);
+		assertEquals(DistanceMatrix.SHORT, D.getType());
+		assertEquals(8, D.getSizeBytes());
+		assertEquals(300, D.get(1, 1), 0);
+		assertEquals(3, D.get(0, 1), 0);
+		assertEquals(-1, D.get(1, 0), 0);
+		assertEquals(-2, D.get(0, 0), 0);
+		
+		D.set(0, 0, 0.5);
+		assertEquals(DistanceMatrix.FLOAT, D.getType());
+		assertEquals(0.5, D.get(0, 0), 0);
+		assertEquals(300, D.get(1, 1), 0);
+		assertEquals(-1, D.get(1, 0), 0);
+		
+		// Explicit float storage (weighted networks)
+		DistanceMatrix F = new DistanceMatrix(2, 2, DistanceMatrix.FLOAT, DistanceMatrix.UNREACHABLE);
+		F.set(0, 1, 1.25);
+		assertEquals(1.25, F.get(0, 1), 0);
+		assertEquals(-1, F.get(1, 1), 0);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Views share the storage, also after widening */
+	@Test
+	public void testViews() {
+
+		DistanceMatrix D = new DistanceMatrix(2, 3, 0);
+		D.set(0, 2, 5);
+		DoubleMatrix2D T = D.viewDice();
+		assertEquals(3, T.rows());
+		assertEquals(5, T.get(2, 0), 0);
+		
+		T.set(1, 1, 1000);
+		assertEquals(DistanceMatrix.SHORT, D.getType());
+		assertEquals(1000, D.get(1, 1), 0);
+		assertEquals(5, D.get(0, 2), 0);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Row and column views share the storage, 1D results are dense */
+	@Test
+	public void test1D() {
+
+		DistanceMatrix D = new DistanceMatrix(2, 3, 1);
+		D.set(0, 2, 5);
+		DoubleMatrix1D row = D.viewRow(0);
+		assertEquals(3, row.size());
+		assertEquals(5, row.get(2), 0);
+
+		DoubleMatrix1D column = D.viewColumn(1);
+		column.set(1, 0.5);
+		assertEquals(DistanceMatrix.FLOAT, D.getType());
+		assertEquals(0.5, D.get(1, 1), 0);
+		assertEquals(5, row.get(2), 0);
+
+		// D * (1, 1, 1)
+		DoubleMatrix1D y = D.zMult(new DenseDoubleMatrix1D(new double[] { 1, 1, 1 }), null);
+		assertTrue(y instanceof DenseDoubleMatrix1D);
+		assertEquals(7, y.get(0), 0);
+		assertEquals(2.5, y.get(1), 0);
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import org.junit.*;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.*;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for HeatKernel
+ */
+public class HeatKernelTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.superHubThreshold_ = 0;
+		mag.set.computeHeatKernel_ = true;
+		mag.set.exportNodeProperties_ = true;
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Heat kernel computation, compared to exp(-beta*L) computed with a dense Taylor series */
+	@Test
+	public void testComputeK() {
+
+		// Load undirected network without self-loops
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, true);
+		
+		HeatKernel test = new HeatKernel(mag, testNet, 2.0, 30, true, false);
+		test.run();
+		DoubleMatrix2D K = test.getK();
+		
+		// exp(-2*L) divided by the max
+		double[][] K_expected = {
+				{ 0.7721838, 0.7607541, 0.3221808, 0.0840853, 0.0193748, 0.0193748 },
+				{ 0.7607541, 1.0000000, 0.5864810, 0.2083833, 0.0622467, 0.0622467 },
+				{ 0.3221808, 0.5864810, 0.7145118, 0.4615937, 0.2049908, 0.2049908 },
+				{ 0.0840853, 0.2083833, 0.4615937, 0.8692771, 0.6364188, 0.6364188 },
+				{ 0.0193748, 0.0622467, 0.2049908, 0.6364188, 0.7842050, 0.6595319 },
+				{ 0.0193748, 0.0622467, 0.2049908, 0.6364188, 0.6595319, 0.7842050 }};
+		
+		double epsilon = 1e-6;
+		for (int i=0; i<6; i++)
+			for (int j=0; j<6; j++)
+				assertEquals(K_expected[i][j], K.get(i, j), epsilon);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** A small Krylov subspace only approximates the kernel, in parallel the result is the same */
+	@Test
+	public void testKrylovDim() {
+
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, true);
+		
+		HeatKernel exact = new HeatKernel(mag, testNet, 2.0, 30, false, true);
+		exact.run();
+		HeatKernel approx = new HeatKernel(mag, testNet, 2.0, 3, false, true);
+		approx.run();
+		mag.set.numThreads_ = 4;
+		HeatKernel parallel = new HeatKernel(mag, testNet, 2.0, 30, false, true);
+		parallel.run();
+		mag.set.numThreads_ = 0;
+
+		double maxError = 0;
+		for (int i=0; i<6; i++) {
+			assertEquals(exact.getCentrality()[i], parallel.getCentrality()[i], 1e-12);
+			for (int j=0; j<6; j++) {
+				maxError = Math.max(maxError, Math.abs(exact.getK().get(i, j) - approx.getK().get(i, j)));
+				assertEquals(exact.getK().get(i, j), exact.getK().get(j, i), 1e-12);
+				assertEquals(exact.getK().get(i, j), parallel.getK().get(i, j), 1e-12);
+			}
+		}
+		assertTrue(maxError > 1e-3);
+		assertEquals(0.308364682, exact.getK().get(0, 0), 1e-8);
+	}
+
+
+	/** The kernel file name includes all settings that affect the kernel */
+	@Test
+	public void testGetKFile() {
+
+		mag.set.networkFile_ = new File("src/edu/mit/magnum/netprop/test/simpleNet.txt");
+		mag.set.heatKernelBeta_ = 2.0;
+		mag.set.heatKernelKrylovDim_ = 30;
+		mag.set.heatKernelNormalize_ = true;
+		mag.set.isWeighted_ = false;
+		assertTrue(HeatKernel.getKFile(mag).getName().endsWith("_heatKernel_beta2.0_krylov30_normalized.txt.gz"));
+		
+		mag.set.heatKernelKrylovDim_ = 10;
+		mag.set.heatKernelNormalize_ = false;
+		assertTrue(HeatKernel.getKFile(mag).getName().endsWith("_heatKernel_beta2.0_krylov10.txt.gz"));
+		
+		mag.set.isWeighted_ = true;
+		assertTrue(HeatKernel.getKFile(mag).getName().endsWith("_heatKernel_beta2.0_krylov10_weighted.txt.gz"));
+		mag.set.resetToDefaults();
+		mag.set.superHubThreshold_ = 0;
+		mag.set.computeHeatKernel_ = true;
+		mag.set.exportNodeProperties_ = true;
+	}
+
+}
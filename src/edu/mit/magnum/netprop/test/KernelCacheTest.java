@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.*;
+
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.*;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for KernelCache
+ */
+public class KernelCacheTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+	/** The cache directory */
+	private static File cacheDir = new File("tmp_kernelCacheTest");
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.pstepKernelP_ = new ArrayList<Integer>();
+		mag.set.pstepKernelP_.add(4);
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+		File[] files = cacheDir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		cacheDir.delete();
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** The key depends on the network file content and the kernel settings */
+	@Test
+	public void testGetKey() throws IOException {
+
+		KernelCache cache = new KernelCache(mag, cacheDir, 0);
+		File networkFile = new File(cacheDir, "net.txt");
+		writeFile(networkFile, "1\t2\n2\t3\n");
+		
+		String key = cache.getKey(networkFile);
+		assertEquals(64, key.length());
+		assertEquals(key, cache.getKey(networkFile));
+		
+		// Parameters that are not part of the default kernel filename
+		mag.set.threshold_ = 0.5;
+		String keyThreshold = cache.getKey(networkFile);
+		mag.set.threshold_ = 0;
+		assertFalse(key.equals(keyThreshold));
+		
+		mag.set.superHubThreshold_ = 0.5;
+		String keySuperHub = cache.getKey(networkFile);
+		mag.set.superHubThreshold_ = 0;
+		assertFalse(key.equals(keySuperHub));
+		assertFalse(keyThreshold.equals(keySuperHub));
+		
+		mag.set.pstepKernelAlpha_ = 3;
+		String keyAlpha = cache.getKey(networkFile);
+		mag.set.pstepKernelAlpha_ = 2;
+		assertFalse(key.equals(keyAlpha));
+		
+		// Same name, different content
+		writeFile(networkFile, "1\t2\n2\t4\n");
+		assertFalse(key.equals(cache.getKey(networkFile)));
+		networkFile.delete();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Least recently used kernels are evicted when the cache exceeds its size */
+	@Test
+	public void testEviction() throws IOException {
+
+		Network network = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, false);
+		DenseDoubleMatrix2D K = new DenseDoubleMatrix2D(network.getNumNodes(), network.getNumNodes());
+		
+		// Size of one kernel file
+		KernelCache unlimited = new KernelCache(mag, cacheDir, 0);
+		String key0 = hexKey('0');
+		File file0 = unlimited.put(key0, network, K);
+		long size = file0.length();
+		assertTrue(size > 0);
+		
+		// Room for two kernels
+		KernelCache cache = new KernelCache(mag, cacheDir, 2.5*size / (1024.0*1024*1024));
+		File file1 = cache.put(hexKey('1'), network, K);
+		assertTrue(file0.exists());
+		file0.setLastModified(System.currentTimeMillis() - 20000);
+		file1.setLastModified(System.currentTimeMillis() - 10000);
+		
+		// Using kernel 0 makes kernel 1 the least recently used
+		assertEquals(file0, cache.get(key0));
+		File file2 = cache.put(hexKey('2'), network, K);
+		assertTrue(file0.exists());
+		assertFalse(file1.exists());
+		assertTrue(file2.exists());
+		assertNull(cache.get(hexKey('1')));
+		
+		// No temporary files are left
+		assertEquals(2, cacheDir.listFiles().length);
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** A key of 64 times the given hex digit */
+	private String hexKey(char digit) {
+		
+		StringBuilder key = new StringBuilder();
+		for (int i=0; i<64; i++)
+			key.append(digit);
+		return key.toString();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Write the given content to the file */
+	private void writeFile(File file, String content) throws IOException {
+		
+		FileWriter writer = new FileWriter(file);
+		writer.write(content);
+		writer.close();
+	}
+
+}
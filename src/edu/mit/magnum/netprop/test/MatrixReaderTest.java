@@ -0,0 +1,213 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.*;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.*;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for MatrixReader
+ */
+public class MatrixReaderTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.numThreads_ = 3;
+	}
+
+	// ============================================================================
+	// TESTS
+
+	/** Numbers are parsed exactly like Double.parseDouble() */
+	@Test
+	public void testParseDouble() {
+
+		String[] strings = { "0", "-0", "1", "+2.5", "-0.0025", "1.2345678901E-5", "3e10", ".5", "7.",
+				"1.2345678901E-300", "123456789012345678901234", "0.1000000000000000055511151231257827",
+				"NaN", "-Infinity", " 4.5 ", "4.9E-324" };
+		for (String str : strings)
+			assertEquals(str, Double.parseDouble(str), parse(str), 0);
+		
+		Random rand = new Random(42);
+		for (int i=0; i<10000; i++) {
+			double x = (rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(40) - 20);
+			String str = (i % 2 == 0) ? Double.toString(x) : MatrixWriter.format(x);
+			assertEquals(str, Double.parseDouble(str), parse(str), 0);
+		}
+		
+		try {
+			parse("1,5");
+			fail("Expected NumberFormatException");
+		} catch (NumberFormatException e) { }
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Selected rows and columns of a gzipped kernel are parsed, also when lines don't fit in a chunk */
+	@Test
+	public void testParse() throws IOException {
+
+		Network network = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, false);
+		int n = network.getNumNodes();
+		DenseMatrix K = new DenseMatrix(n, n);
+		Random rand = new Random(7);
+		for (int i=0; i<n; i++)
+			for (int j=0; j<n; j++)
+				K.set(i, j, rand.nextDouble());
+		File file = new File("tmp_matrixReaderTest.txt.gz");
+		MatrixWriter.write(mag, network, K, n, file, 2);
+		
+		// Rows in reverse order, skip the first row; columns 2 and 0
+		int[] rowMap = new int[n];
+		rowMap[0] = -1;
+		for (int r=1; r<n; r++)
+			rowMap[r] = n - 1 - r;
+		int[] colIndexes = { 2, 0 };
+
+		for (int chunkSize : new int[] { 7, 100, 1 << 20 }) {
+			MatrixReader reader = new MatrixReader(mag, file, chunkSize);
+			assertEquals(n, reader.getNumRows());
+			assertEquals(n + 1, reader.getHeader().length);
+			for (int i=0; i<n; i++) {
+				assertEquals(network.getNode(i).getId(), reader.getRowIds().get(i));
+				assertEquals(network.getRefNode(i).getId(), reader.getHeader()[i+1]);
+			}
+			
+			double[] dest = new double[(n-1)*2];
+			reader.parse(rowMap, colIndexes, dest);
+			for (int r=1; r<n; r++)
+				for (int j=0; j<2; j++)
+					assertEquals(K.get(r, colIndexes[j]), dest[rowMap[r]*2 + j], 1e-10);
+		}
+		file.delete();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Only the rows in the filter are kept, the text is released once it is parsed */
+	@Test
+	public void testRowFilter() throws IOException {
+
+		File file = new File("tmp_matrixReaderTest.txt");
+		FileWriter writer = new FileWriter(file);
+		writer.write("id\ta\tb\nx\t1\t2\ny\t3\t4\nz\t5\t6\n");
+		writer.close();
+		
+		HashSet<String> filter = new HashSet<String>();
+		filter.add("x");
+		filter.add("z");
+		for (int chunkSize : new int[] { 8, 100 }) {
+			// The ids of all rows are read
+			MatrixReader reader = new MatrixReader(mag, file, chunkSize, filter);
+			assertEquals(3, reader.getNumRows());
+			assertEquals("y", reader.getRowIds().get(1));
+			assertEquals("b", reader.getHeader()[2]);
+			
+			double[] dest = new double[4];
+			reader.parse(new int[] { 1, -1, 0 }, new int[] { 0, 1 }, dest);
+			assertEquals(5, dest[0], 0);
+			assertEquals(2, dest[3], 0);
+			
+			// Parsed only once
+			try {
+				reader.parse(new int[] { 1, -1, 0 }, new int[] { 0, 1 }, dest);
+				fail("Expected IllegalStateException");
+			} catch (IllegalStateException e) { }
+			
+			// Rows that were dropped can't be parsed
+			reader = new MatrixReader(mag, file, chunkSize, filter);
+			try {
+				reader.parse(new int[] { 0, 1, -1 }, new int[] { 0 }, dest);
+				fail("Expected IllegalArgumentException");
+			} catch (IllegalArgumentException e) { }
+		}
+		file.delete();
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Windows line endings, missing final newline and invalid number of columns */
+	@Test
+	public void testParseText() throws IOException {
+
+		File file = new File("tmp_matrixReaderTest.txt");
+		FileWriter writer = new FileWriter(file);
+		writer.write("id\ta\tb\r\nx\t1\t2\r\ny\t3\t4");
+		writer.close();
+		
+		MatrixReader reader = new MatrixReader(mag, file);
+		assertEquals(2, reader.getNumRows());
+		assertEquals("b", reader.getHeader()[2]);
+		assertEquals("y", reader.getRowIds().get(1));
+		double[] dest = new double[4];
+		reader.parse(new int[] { 0, 1 }, new int[] { 0, 1 }, dest);
+		assertEquals(4, dest[3], 0);
+		
+		writer = new FileWriter(file);
+		writer.write("id\ta\tb\nx\t1\t2\t3\n");
+		writer.close();
+		reader = new MatrixReader(mag, file);
+		try {
+			reader.parse(new int[] { 0 }, new int[] { 0 }, dest);
+			fail("Expected RuntimeException");
+		} catch (RuntimeException e) { }
+		file.delete();
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Parse the given string with MatrixReader.parseDouble() */
+	private double parse(String str) {
+		
+		byte[] bytes = ("\t" + str + "\t").getBytes();
+		return MatrixReader.parseDouble(bytes, 1, bytes.length - 1);
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.*;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for MatrixWriter
+ */
+public class MatrixWriterTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.numThreads_ = 3;
+	}
+
+	// ============================================================================
+	// TESTS
+
+	/** Formatted numbers are parsed back with 11 significant digits */
+	@Test
+	public void testFormat() {
+
+		assertEquals("0E0", MatrixWriter.format(0));
+		assertEquals("1E0", MatrixWriter.format(1));
+		assertEquals("-2.5E-3", MatrixWriter.format(-0.0025));
+		assertEquals("1.2345678901E10", MatrixWriter.format(12345678901.0));
+		assertEquals("1E1", MatrixWriter.format(9.999999999999));
+		assertEquals("1E-100", MatrixWriter.format(1e-100));
+		assertEquals("NaN", MatrixWriter.format(Double.NaN));
+		assertEquals(Double.NEGATIVE_INFINITY, Double.parseDouble(MatrixWriter.format(Double.NEGATIVE_INFINITY)), 0);
+		assertEquals(Double.MIN_VALUE, Double.parseDouble(MatrixWriter.format(Double.MIN_VALUE)), 0);
+		
+		Random rand = new Random(42);
+		for (int i=0; i<10000; i++) {
+			double x = (rand.nextDouble() - 0.5) * Math.pow(10, rand.nextInt(40) - 20);
+			assertEquals(x, Double.parseDouble(MatrixWriter.format(x)), 1e-10*Math.abs(x));
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Blocks written as separate gzip members are read back as one file */
+	@Test
+	public void testWrite() throws IOException {
+
+		Network network = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, false);
+		int n = network.getNumNodes();
+		DenseMatrix K = new DenseMatrix(n, n);
+		Random rand = new Random(7);
+		for (int i=0; i<n; i++)
+			for (int j=0; j<n; j++)
+				K.set(i, j, rand.nextDouble());
+
+		File gzFile = new File("tmp_matrixWriterTest.txt.gz");
+		File txtFile = new File("tmp_matrixWriterTest.txt");
+		MatrixWriter.write(mag, network, K, n, gzFile, 2);
+		MatrixWriter.write(mag, network, K, n, txtFile);
+		
+		checkFile(new GZIPInputStream(new FileInputStream(gzFile)), network, K);
+		checkFile(new FileInputStream(txtFile), network, K);
+		gzFile.delete();
+		txtFile.delete();
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Check that the file content corresponds to K */
+	private void checkFile(InputStream in, Network network, DenseMatrix K) throws IOException {
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		int n = network.getNumNodes();
+
+		String[] header = reader.readLine().split("\t");
+		assertEquals(n+1, header.length);
+		for (int j=0; j<n; j++)
+			assertEquals(network.getRefNode(j).getId(), header[j+1]);
+		
+		for (int i=0; i<n; i++) {
+			String[] row = reader.readLine().split("\t");
+			assertEquals(n+1, row.length);
+			assertEquals(network.getNode(i).getId(), row[0]);
+			for (int j=0; j<n; j++)
+				assertEquals(K.get(i, j), Double.parseDouble(row[j+1]), 1e-10);
+		}
+		assertNull(reader.readLine());
+		reader.close();
+	}
+
+}
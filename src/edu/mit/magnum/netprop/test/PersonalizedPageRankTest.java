@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import org.junit.*;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.*;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for PersonalizedPageRank
+ */
+public class PersonalizedPageRankTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.superHubThreshold_ = 0;
+		mag.set.computePersonalizedPageRank_ = true;
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Push from two seeds, compared to the random walk with restart computed by power iteration */
+	@Test
+	public void testComputeK() {
+
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, true);
+		ArrayList<Node> seeds = new ArrayList<Node>();
+		seeds.add(testNet.getNode("1"));
+		seeds.add(testNet.getNode("4"));
+		testNet.setRefNodes(seeds);
+		
+		mag.set.numThreads_ = 2;
+		PersonalizedPageRank test = new PersonalizedPageRank(mag, testNet, 0.15, 1e-9);
+		test.run();
+		mag.set.numThreads_ = 0;
+		DoubleMatrix2D K = test.getK();
+		
+		// Nodes x seeds
+		assertEquals(6, K.rows());
+		assertEquals(2, K.columns());
+		
+		double[][] K_expected = {
+				{ 0.2818693596, 0.0405464708 },
+				{ 0.3102808460, 0.0954034607 },
+				{ 0.1663338597, 0.1433857894 },
+				{ 0.1216394124, 0.3629623011 },
+				{ 0.0599382612, 0.1788509890 },
+				{ 0.0599382612, 0.1788509890 }};
+		
+		for (int s=0; s<2; s++) {
+			double sum = 0;
+			for (int i=0; i<6; i++) {
+				assertEquals(K_expected[i][s], K.get(i, s), 1e-8);
+				sum += K.get(i, s);
+			}
+			// The mass is conserved
+			assertEquals(1, sum + test.getResiduals()[s], 1e-12);
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** A large tolerance only touches the neighborhood of the seed */
+	@Test
+	public void testTolerance() {
+
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, true);
+		ArrayList<Node> seeds = new ArrayList<Node>();
+		seeds.add(testNet.getNode("1"));
+		testNet.setRefNodes(seeds);
+		
+		PersonalizedPageRank test = new PersonalizedPageRank(mag, testNet, 0.5, 0.2);
+		test.run();
+		DoubleMatrix2D K = test.getK();
+		
+		// Pushes from node 1 (r=1) and node 2 (r=0.5), the residuals of nodes 1 and 3 (0.125) are below 0.2*degree
+		assertEquals(2, test.getNumPushes()[0]);
+		assertEquals(2, K.cardinality());
+		assertEquals(0.5, K.get(testNet.getNodeIndex("1"), 0), 1e-12);
+		assertEquals(0.25, K.get(testNet.getNodeIndex("2"), 0), 1e-12);
+		assertEquals(0.25, test.getResiduals()[0], 1e-12);
+	}
+
+}
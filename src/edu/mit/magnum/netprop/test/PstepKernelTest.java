@@ -100,8 +100,76 @@ public class PstepKernelTest {
 	}
 
 	
+	// ----------------------------------------------------------------------------
 
+	/** Normalization and centrality are computed on the primitive array in parallel */
+	@Test
+	public void testCentrality() {
 
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, false);
+		ArrayList<Integer> numSteps = new ArrayList<Integer>();
+		numSteps.add(3);
+		numSteps.add(4);
+		mag.set.numThreads_ = 4;
+		PstepKernel test = new PstepKernel(mag, testNet, 2.0, numSteps, true, true);
+		test.run();
+		mag.set.numThreads_ = 0;
+		
+		DoubleMatrix2D K = test.getK();
+		Double[] centrality = test.getCentrality();
+		assertTrue(K instanceof DenseMatrix);
+		
+		// The max is 1 and the centrality is the mean of the off-diagonal elements
+		double max = 0;
+		for (int i=0; i<6; i++) {
+			double sum = 0;
+			for (int j=0; j<6; j++) {
+				max = Math.max(max, K.get(i, j));
+				if (i != j)
+					sum += K.get(i, j);
+			}
+			assertEquals(sum / 5, centrality[i], 1e-12);
+		}
+		assertEquals(1, max, 1e-12);
+		assertEquals(0.62798635, K.get(1, 2), 1e-6);
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Checkpoints written in the background after each step don't change the kernel and are deleted at the end */
+	@Test
+	public void testCheckpoint() {
+
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), false, false);
+		ArrayList<Integer> numSteps = new ArrayList<Integer>();
+		numSteps.add(2);
+		numSteps.add(5);
+		
+		PstepKernel expected = new PstepKernel(mag, testNet, 2.0, numSteps, true, true);
+		expected.run();
+
+		mag.set.checkpointDir_ = new File("tmp_checkpoint");
+		mag.set.checkpointInterval_ = 0;
+		mag.set.checkpointInBackground_ = true;
+		PstepKernel test = new PstepKernel(mag, testNet, 2.0, numSteps, true, true);
+		test.run();
+		
+		File[] files = mag.set.checkpointDir_.listFiles();
+		mag.set.checkpointDir_.delete();
+		mag.set.checkpointDir_ = null;
+		mag.set.checkpointInterval_ = 600;
+		mag.set.checkpointInBackground_ = false;
+		
+		assertEquals(0, files.length);
+		for (int i=0; i<6; i++) {
+			assertEquals(expected.getCentrality()[i], test.getCentrality()[i], 0);
+			for (int j=0; j<6; j++)
+				assertEquals(expected.getK().get(i, j), test.getK().get(i, j), 0);
+		}
+	}
+
+	
 	// ============================================================================
 	// PRIVATE METHODS
 
@@ -311,7 +311,76 @@ public class ShortestPathsTest {
 
 
 
+	// ----------------------------------------------------------------------------
+	
+	/** With all reference nodes as pivots, the sampled closeness is the exact closeness (standard error 0) */
+	@Test
+	public void testSampledClosenessAllPivots() {
+
+		for (boolean directed : new boolean[] { false, true }) {
+			for (boolean withPriors : new boolean[] { false, true }) {
+				Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/degreeTestNet.txt"), directed, false);
+
+				// With priors, the self-distance of reference nodes is counted
+				if (withPriors) {
+					ArrayList<Node> priors = new ArrayList<Node>();
+					priors.add(testNet.getNode("4"));
+					priors.add(testNet.getNode("2"));
+					priors.add(testNet.getNode("7"));
+					testNet.setRefNodes(priors);
+				}
+				checkSampledClosenessAllPivots(testNet);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------------------------
+
+	/** Sampled pivots are reproducible with the random seed */
+	@Test
+	public void testSampledCloseness() {
+
+		Network testNet = new Network(mag, new File("src/edu/mit/magnum/netprop/test/degreeTestNet.txt"), false, false);
+
+		mag.set.setRandomSeed(7);
+		SampledCloseness test1 = new SampledCloseness(mag, testNet, 4);
+		test1.run();
+		mag.set.setRandomSeed(7);
+		SampledCloseness test2 = new SampledCloseness(mag, testNet, 4);
+		test2.run();
+		mag.set.setRandomSeed(42);
+
+		for (int i=0; i<7; i++) {
+			assertEquals(test1.getCloseness()[i], test2.getCloseness()[i], 0);
+			assertEquals(test1.getClosenessStdErr()[i], test2.getClosenessStdErr()[i], 0);
+			assertTrue(test1.getClosenessStdErr()[i] >= 0);
+		}
+	}
+
+
 	// ============================================================================
 	// PRIVATE METHODS
 
+	/** Compare the sampled closeness with all reference nodes as pivots to the exact closeness */
+	private void checkSampledClosenessAllPivots(Network testNet) {
+
+		ShortestPaths exact = new ShortestPaths(mag, testNet, true);
+		exact.run();
+		mag.set.numThreads_ = 3;
+		SampledCloseness test = new SampledCloseness(mag, testNet, 100);
+		test.run();
+		mag.set.numThreads_ = 0;
+
+		assertEquals(testNet.getNumRefNodes(), test.getNumPivots());
+		for (int i=0; i<7; i++) {
+			// Nodes that reach no other node have closeness 1e12 (exact) and 0 (sampled)
+			if (exact.getCentrality()[i] < 1e12)
+				assertEquals(exact.getCentrality()[i], test.getCloseness()[i], 1e-12);
+			else
+				assertEquals(0, test.getCloseness()[i], 0);
+			assertEquals(0, test.getClosenessStdErr()[i], 0);
+		}
+	}
+
 }
@@ -0,0 +1,241 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.netprop.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import org.junit.*;
+
+import cern.colt.matrix.DoubleMatrix2D;
+import ch.unil.gpsutils.FileExport;
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.net.*;
+import edu.mit.magnum.netprop.*;
+
+
+/**
+ * Unit tests for TiledPstepKernel and TiledMatrix
+ */
+public class TiledPstepKernelTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+	/** Temporary directory for the tiles and kernels */
+	private static File dir = new File("tmp_tiledPstepKernelTest");
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+		mag.set.superHubThreshold_ = 0;
+		mag.set.computePstepKernel_ = true;
+		mag.set.exportNodeProperties_ = true;
+		mag.set.exportPairwiseNodeProperties_ = true;
+		mag.set.pstepKernelNormalize_ = true;
+		mag.set.outputDirectory_ = dir;
+		mag.set.numThreads_ = 3;
+		dir.mkdirs();
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+		for (File file : dir.listFiles())
+			file.delete();
+		dir.delete();
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Rows are written and read back in tiles, also across tile boundaries */
+	@Test
+	public void testTiledMatrix() {
+		
+		File file = new File(dir, "test.tiles");
+		TiledMatrix M = new TiledMatrix(file, 5, 3, 2, false);
+		assertEquals(3, M.getNumTiles());
+		assertEquals(4, M.getTileStart(2));
+		assertEquals(5, M.getTileEnd(2));
+		
+		for (int t=0; t<M.getNumTiles(); t++) {
+			int start = M.getTileStart(t);
+			int end = M.getTileEnd(t);
+			double[] tile = new double[(end - start) * 3];
+			for (int k=0; k<tile.length; k++)
+				tile[k] = start*3 + k + 0.5;
+			M.writeRows(start, end, tile);
+		}
+		M.close();
+		
+		M = new TiledMatrix(file, 5, 3, 2, true);
+		double[] rows = M.readRows(1, 4, null);
+		assertEquals(9, rows.length);
+		for (int k=0; k<rows.length; k++)
+			assertEquals(3 + k + 0.5, rows[k], 0);
+		M.delete();
+		assertFalse(file.exists());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The out-of-core kernel and centrality are the same as for the in-memory kernel */
+	@Test
+	public void testComputeK() {
+
+		for (File networkFile : new File[] { new File("src/edu/mit/magnum/netprop/test/simpleNet.txt"), writeRingNetwork(20) }) {
+			Network testNet = new Network(mag, networkFile, false, false);
+			int n = testNet.getNumNodes();
+			ArrayList<Integer> numSteps = new ArrayList<Integer>();
+			numSteps.add(1);
+			numSteps.add(3);
+			
+			PstepKernel expected = new PstepKernel(mag, testNet, 2.0, numSteps, true, true);
+			expected.run();
+			DoubleMatrix2D K = expected.getK();
+			Double[] centrality = expected.getPstepKernelCentrality();
+			
+			// Tiles of 4 rows, the last tile is smaller
+			TiledPstepKernel test = new TiledPstepKernel(mag, testNet, 2.0, numSteps, true, true, dir, 4);
+			test.run();
+			test.saveK();
+			Double[] tiledCentrality = test.getPstepKernelCentrality();
+			for (int i=0; i<n; i++)
+				assertEquals(centrality[i], tiledCentrality[i], 1e-12);
+			
+			// Saved kernel of the last step
+			String name = mag.utils.extractBasicFilename(networkFile.getName(), false);
+			File file = new File(dir, name + "_3stepKernel_alpha2.0.txt.gz");
+			MatrixReader reader = new MatrixReader(mag, file);
+			int[] rowMap = new int[n];
+			int[] colIndexes = new int[n];
+			for (int i=0; i<n; i++)
+				rowMap[i] = colIndexes[i] = i;
+			double[] values = new double[n*n];
+			reader.parse(rowMap, colIndexes, values);
+			reader.close();
+			
+			for (int i=0; i<n; i++)
+				for (int j=0; j<n; j++)
+					assertEquals(K.get(i, j), values[i*n + j], 1e-9);
+			
+			// The tiles have been deleted
+			for (File tiles : dir.listFiles())
+				assertFalse(tiles.getName().endsWith(".tiles"));
+		}
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Shards computed separately and merged give the same kernel and centrality as the in-memory kernel */
+	@Test
+	public void testShards() {
+
+		File networkFile = writeRingNetwork(20);
+		Network testNet = new Network(mag, networkFile, false, false);
+		int n = testNet.getNumNodes();
+		ArrayList<Integer> numSteps = new ArrayList<Integer>();
+		numSteps.add(2);
+		numSteps.add(4);
+		
+		PstepKernel expected = new PstepKernel(mag, testNet, 2.0, numSteps, true, true);
+		expected.run();
+		DoubleMatrix2D K = expected.getK();
+		Double[] centrality = expected.getPstepKernelCentrality();
+		
+		// Shards in any order, the max is not in the first shard
+		File shardDir = new File(dir, "shards");
+		int[] bounds = { 0, 3, 10, n };
+		for (int k=bounds.length-2; k>=0; k--) {
+			TiledPstepKernel shard = new TiledPstepKernel(mag, testNet, 2.0, numSteps, true, true, shardDir, 2);
+			shard.setShard(bounds[k], bounds[k+1]);
+			shard.run();
+			shard.saveK();
+		}
+		
+		// Merge
+		TiledPstepKernel merged = new TiledPstepKernel(mag, testNet, 2.0, numSteps, true, true, shardDir, 4);
+		merged.setMerge(true);
+		merged.run();
+		Double[] mergedCentrality = merged.getPstepKernelCentrality();
+		for (int i=0; i<n; i++)
+			assertEquals(centrality[i], mergedCentrality[i], 1e-12);
+		
+		MatrixReader reader = new MatrixReader(mag, new File(dir, "ringNet20_4stepKernel_alpha2.0.txt.gz"));
+		int[] rowMap = new int[n];
+		int[] colIndexes = new int[n];
+		for (int i=0; i<n; i++)
+			rowMap[i] = colIndexes[i] = i;
+		double[] values = new double[n*n];
+		reader.parse(rowMap, colIndexes, values);
+		reader.close();
+		for (int i=0; i<n; i++)
+			for (int j=0; j<n; j++)
+				assertEquals(K.get(i, j), values[i*n + j], 1e-9);
+		
+		// Missing shard
+		for (File file : shardDir.listFiles())
+			if (file.getName().contains(".shard_3-10."))
+				file.delete();
+		merged = new TiledPstepKernel(mag, testNet, 2.0, numSteps, true, true, shardDir, 4);
+		merged.setMerge(true);
+		try {
+			merged.run();
+			fail("Merging with a missing shard should throw an exception");
+		} catch (RuntimeException e) {
+			assertTrue(e.getMessage().contains("missing rows at row 3"));
+		}
+		
+		for (File file : shardDir.listFiles())
+			file.delete();
+		shardDir.delete();
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Write a ring of n nodes with chords (i, 7i+3 mod n) */
+	private File writeRingNetwork(int n) {
+		
+		File file = new File(dir, "ringNet" + n + ".txt");
+		FileExport writer = new FileExport(mag.log, file);
+		for (int i=0; i<n; i++) {
+			writer.println("g" + i + "\tg" + ((i+1) % n));
+			int j = (7*i + 3) % n;
+			if (j != i && j != (i+1) % n && i != (j+1) % n)
+				writer.println("g" + i + "\tg" + j);
+		}
+		writer.close();
+		return file;
+	}
+
+}
@@ -31,6 +31,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 import edu.mit.magnum.enrich.test.EnrichMainTest;
+import edu.mit.magnum.gene.test.GeneAnnotationTest;
+import edu.mit.magnum.gene.test.GenomeTest;
 import edu.mit.magnum.net.test.*;
 import edu.mit.magnum.netops.test.PairwiseSumTest;
 import edu.mit.magnum.netops.test.UnionTest;
@@ -41,13 +43,25 @@ import edu.mit.magnum.netprop.test.*;
 //	AnalyzerPstepKernelTest.class, HandlerTest.class, LinkCommunityTest.class })
 @SuiteClasses({ 
 	MagnumOptionParserTest.class,
+	MagnumServiceTest.class,
+	CheckpointTest.class,
+	PhaseRecorderTest.class,
 	NetworkTest.class, 
 	BasicPropertiesTest.class, 
 	ShortestPathsTest.class, 
+	DistanceMatrixTest.class,
 	PstepKernelTest.class,
+	TiledPstepKernelTest.class,
+	HeatKernelTest.class,
+	PersonalizedPageRankTest.class,
+	KernelCacheTest.class,
+	MatrixWriterTest.class,
+	MatrixReaderTest.class,
 	TanimotoCoefficientTest.class,
 	UnionTest.class,
 	PairwiseSumTest.class,
+	GenomeTest.class,
+	GeneAnnotationTest.class,
 	EnrichMainTest.class
 	})
 public class AllTests {
@@ -0,0 +1,149 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.test;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.*;
+
+import edu.mit.magnum.Checkpoint;
+import edu.mit.magnum.Magnum;
+
+
+/**
+ * Unit tests for Checkpoint
+ */
+public class CheckpointTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+		mag.set.resetToDefaults();
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Save and load a checkpoint, checkpoints with a different key are ignored */
+	@Test
+	public void testSaveLoad() throws IOException {
+		
+		assertNull(Checkpoint.create(mag, "test", "key"));
+		
+		mag.set.checkpointDir_ = new File("tmp_checkpoint");
+		mag.set.checkpointInBackground_ = true;
+		
+		// More values than fit in the buffer of writeDoubles()
+		final double[] values = new double[20000];
+		for (int i=0; i<values.length; i++)
+			values[i] = Math.sqrt(i) - 7;
+		
+		Checkpoint checkpoint = Checkpoint.create(mag, "test", "key");
+		assertNull(checkpoint.load());
+		for (int n=1; n<=2; n++) {
+			final int step = n;
+			checkpoint.save(new Checkpoint.State() {
+				public void write(DataOutputStream out) throws IOException {
+					out.writeInt(step);
+					Checkpoint.writeDoubles(out, values, 0, values.length);
+				}
+			});
+		}
+		checkpoint.close();
+		
+		// Only the last checkpoint is kept
+		Checkpoint resumed = Checkpoint.create(mag, "test", "key");
+		DataInputStream in = resumed.load();
+		assertNotNull(in);
+		assertEquals(2, in.readInt());
+		double[] loaded = new double[values.length];
+		Checkpoint.readDoubles(in, loaded, 0, loaded.length);
+		assertEquals(-1, in.read());
+		in.close();
+		assertArrayEquals(values, loaded, 0);
+		
+		// Different key, different file
+		assertNull(Checkpoint.create(mag, "test", "other key").load());
+		// Same file, different key
+		assertNull(new Checkpoint(mag, resumed.getFile(), "other key").load());
+		
+		resumed.delete();
+		File[] files = mag.set.checkpointDir_.listFiles();
+		mag.set.checkpointDir_.delete();
+		mag.set.checkpointDir_ = null;
+		mag.set.checkpointInBackground_ = false;
+		
+		assertFalse(resumed.getFile().exists());
+		assertEquals(0, files.length);
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Exceptions thrown while writing in the background are rethrown by the next call */
+	@Test
+	public void testBackgroundException() {
+		
+		mag.set.checkpointDir_ = new File("tmp_checkpoint");
+		mag.set.checkpointInBackground_ = true;
+		
+		Checkpoint checkpoint = Checkpoint.create(mag, "test", "key");
+		checkpoint.save(new Checkpoint.State() {
+			public void write(DataOutputStream out) throws IOException {
+				throw new IOException("Disk full");
+			}
+		});
+		
+		try {
+			checkpoint.close();
+			fail("Expected the write error to be rethrown");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		} finally {
+			checkpoint.delete();
+			mag.set.checkpointDir_.delete();
+			mag.set.checkpointDir_ = null;
+			mag.set.checkpointInBackground_ = false;
+		}
+		assertFalse(checkpoint.getFile().exists());
+	}
+
+}
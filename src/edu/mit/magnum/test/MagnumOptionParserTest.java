@@ -64,6 +64,8 @@ public class MagnumOptionParserTest {
 		String[] args = {"--mode", "22", 
 				"--seed", "23", 
 				"--outdir", "myOutdir",
+				"--runreport",
+				"--checkpoint", "myCheckpoints",
 				"--netdir", "myNetdir",
 				"--net", "myNet",
 				"--directed",
@@ -91,6 +93,8 @@ public class MagnumOptionParserTest {
 		assertEquals(22, mag.set.mode_);
 		assertEquals(23, mag.set.getRandomSeed());
 		assertEquals(new File("myOutdir"), mag.set.outputDirectory_);
+		assertEquals(true, mag.set.writeRunReport_);
+		assertEquals(new File("myCheckpoints"), mag.set.checkpointDir_);
 
 		assertEquals(new File("myNetdir"), mag.set.networkDir_);
 		assertEquals(new File("myNet"), mag.set.networkFile_);
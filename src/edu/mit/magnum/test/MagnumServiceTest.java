@@ -0,0 +1,242 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.MagnumService;
+import edu.mit.magnum.SharedResources;
+import edu.mit.magnum.gene.Gene;
+
+
+/**
+ * Unit tests for MagnumService and SharedResources
+ */
+public class MagnumServiceTest {
+	
+	/** Output directory of the test requests */
+	private static File outDir = new File("tmp_magnumServiceTest");
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		outDir.mkdirs();
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+		delete(outDir);
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Concurrent enrichment analyses computing the same kernel, which is shared */
+	@Test
+	public void testConcurrentEnrichment() throws Exception {
+
+		MagnumService service = new MagnumService(4);
+		
+		ArrayList<Future<Magnum>> results = new ArrayList<Future<Magnum>>();
+		for (int r=0; r<4; r++) {
+			Properties settings = getEnrichmentSettings();
+			settings.setProperty("outputDirectory", new File(outDir, "request" + r).getPath());
+			results.add(service.submit(settings, null));
+			// Changing the settings after submission doesn't affect the request
+			settings.setProperty("pstepKernelAlpha", "3");
+		}
+		service.shutdown();
+
+		double[] c = { -1, 0.2650766, 0.3608349, 0.3998752, 0.3803405, 0.2583860, 0.3477147 };
+		String[] ids = { "6", "5", "4", "2", "3", "1" };
+		for (Future<Magnum> result : results) {
+			ArrayList<Gene> genes = result.get().getEnrichMain().getGeneScores().getGenes();
+			assertEquals(6, genes.size());
+			for (int i=0; i<ids.length; i++) {
+				assertEquals(ids[i], genes.get(i).id_);
+				assertEquals(5*c[Integer.parseInt(ids[i])], genes.get(i).getCentrality(), 1e-6);
+			}
+		}
+		
+		// The kernel was computed once
+		assertEquals(1, service.getSharedResources().getNumResources());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Resources are loaded once, also when requested concurrently, and failed loads are retried */
+	@Test
+	public void testSharedResources() throws Exception {
+
+		final SharedResources resources = new SharedResources();
+		final AtomicInteger numLoads = new AtomicInteger(0);
+		final Callable<String> loader = new Callable<String>() {
+			public String call() throws Exception {
+				numLoads.incrementAndGet();
+				Thread.sleep(20);
+				return "resource";
+			}
+		};
+		
+		Thread[] threads = new Thread[8];
+		final String[] values = new String[threads.length];
+		for (int t=0; t<threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					values[thread] = resources.get("key", loader);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(1, numLoads.get());
+		for (String value : values)
+			assertEquals("resource", value);
+		
+		// Failed load
+		try {
+			resources.get("failing", new Callable<String>() {
+				public String call() {
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(1, resources.getNumResources());
+		assertEquals("retried", resources.get("failing", new Callable<String>() {
+			public String call() {
+				return "retried";
+			}
+		}));
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** The least recently used resource is evicted when the maximum number of resources is exceeded */
+	@Test
+	public void testEviction() throws Exception {
+
+		final SharedResources resources = new SharedResources(2);
+		final AtomicInteger numLoads = new AtomicInteger(0);
+		final Callable<String> loader = new Callable<String>() {
+			public String call() {
+				return "resource" + numLoads.incrementAndGet();
+			}
+		};
+		
+		assertEquals("resource1", resources.get("a", loader));
+		assertEquals("resource2", resources.get("b", loader));
+		// a is now more recently used than b
+		assertEquals("resource1", resources.get("a", loader));
+		assertEquals("resource3", resources.get("c", loader));
+		assertEquals(2, resources.getNumResources());
+		
+		// a was kept, b was evicted and is loaded again
+		assertEquals("resource1", resources.get("a", loader));
+		assertEquals("resource4", resources.get("b", loader));
+		assertEquals(2, resources.getNumResources());
+		assertEquals(4, numLoads.get());
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** --help doesn't exit the service, the request only displays the help */
+	@Test
+	public void testHelp() throws Exception {
+
+		MagnumService service = new MagnumService(1);
+		Magnum mag = service.submit(new String[] { "--help" }, null).get();
+		service.shutdown();
+		
+		assertTrue(mag.set.getHelpRequested());
+		assertNull(mag.getEnrichMain());
+		assertEquals(0, service.getSharedResources().getNumResources());
+	}
+
+	
+	// ============================================================================
+	// PRIVATE METHODS
+
+	/** Settings for enrichment analysis of the test network (kernel is computed) */
+	private Properties getEnrichmentSettings() {
+		
+		Properties settings = new Properties();
+		settings.setProperty("mode", "3");
+		settings.setProperty("randomSeed", "1");
+		settings.setProperty("geneScoreFile", "src/edu/mit/magnum/enrich/test/simpleNet_genescores.txt");
+		settings.setProperty("geneCoordFile", "src/edu/mit/magnum/enrich/test/simpleNet_geneCoords.bed");
+		settings.setProperty("idTypeFunctionalData", "custom");
+		settings.setProperty("idTypeGeneScores", "custom");
+		settings.setProperty("excludeGenomeWideSignificantGenes", "0");
+		settings.setProperty("constCurveResolution", "1");
+		settings.setProperty("varCurveResolution", "-1");
+		settings.setProperty("curveCutoff", "1");
+		settings.setProperty("numPermutations", "10");
+		settings.setProperty("numBins", "1");
+		settings.setProperty("pval", "0.2");
+		settings.setProperty("networkDir", ".");
+		settings.setProperty("networkFile", "src/edu/mit/magnum/netprop/test/simpleNet.txt");
+		settings.setProperty("isWeighted", "0");
+		settings.setProperty("excludeXYChromosomes", "1");
+		settings.setProperty("excludedGenesDistance", "1");
+		settings.setProperty("computePstepKernel", "1");
+		settings.setProperty("pstepKernelP", "4");
+		settings.setProperty("pstepKernelAlpha", "2");
+		return settings;
+	}
+
+	
+	// ----------------------------------------------------------------------------
+
+	/** Delete the given file or directory */
+	private static void delete(File file) {
+		
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+}
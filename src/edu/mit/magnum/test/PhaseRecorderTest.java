@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2013-2015 Daniel Marbach
+
+We release this software open source under an MIT license (see below). If this
+software was useful for your scientific work, please cite our paper available at:
+http://regulatorycircuits.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+ */
+package edu.mit.magnum.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.*;
+
+import edu.mit.magnum.Magnum;
+import edu.mit.magnum.PhaseRecorder;
+
+
+/**
+ * Unit tests for PhaseRecorder
+ */
+public class PhaseRecorderTest {
+	
+	/** The magnum instance */
+	private static Magnum mag = new Magnum();
+
+	// ============================================================================
+	// SETUP
+	
+	@BeforeClass
+	public static void testSetup() {
+		mag.set.resetToDefaults();
+	}
+
+	@AfterClass
+	public static void testCleanup() {
+	}
+	  
+	// ============================================================================
+	// TESTS
+
+	/** Test nesting, counters and totals */
+	@Test
+	public void testPhases() {
+		
+		PhaseRecorder phases = new PhaseRecorder(mag);
+		PhaseRecorder.Phase outer = phases.start("outer");
+		for (int i=0; i<3; i++) {
+			PhaseRecorder.Phase inner = phases.start("inner");
+			double[] x = new double[100000];
+			x[i] = i;
+			inner.end();
+		}
+		outer.end();
+		
+		List<PhaseRecorder.Phase> list = phases.getPhases();
+		assertEquals(4, list.size());
+		assertEquals("outer", list.get(0).getName());
+		assertEquals(0, list.get(0).getDepth());
+		assertEquals("inner", list.get(1).getName());
+		assertEquals(1, list.get(1).getDepth());
+		
+		for (PhaseRecorder.Phase phase : list) {
+			assertTrue(phase.hasEnded());
+			assertTrue(phase.getWallTime() >= 0);
+			// The enclosing phase includes the nested phases
+			assertTrue(list.get(0).getWallTime() >= phase.getWallTime());
+			assertTrue(list.get(0).getPeakHeap() >= phase.getPeakHeap());
+		}
+		// Allocation is not supported by all JVMs
+		if (list.get(1).getAllocatedBytes() >= 0)
+			assertTrue(list.get(1).getAllocatedBytes() >= 800000);
+		
+		double total = 0;
+		for (int i=1; i<4; i++)
+			total += list.get(i).getWallTimeMillis();
+		assertEquals(total, phases.getTotalWallTimeMillis("inner"), 1e-9);
+		
+		LinkedHashMap<String, long[]> totals = phases.getTotals();
+		assertEquals(2, totals.size());
+		assertEquals(3, totals.get("inner")[0]);
+		assertEquals(total, totals.get("inner")[1] / 1e6, 1e-6);
+		assertEquals(list.get(0).getPeakHeap(), totals.get("outer")[5]);
+		
+		// Ending twice is an error
+		try {
+			outer.end();
+			fail("Ending a phase twice should throw an exception");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	
+	/** Test the JSON run report */
+	@Test
+	public void testWriteReport() throws IOException {
+		
+		PhaseRecorder phases = new PhaseRecorder(mag);
+		phases.start("kernel step").end();
+		phases.start("kernel step").end();
+		phases.start("quote \"test\"").end();
+		// Phases that have not ended are not reported
+		phases.start("open");
+		
+		File file = File.createTempFile("runReport", ".json");
+		file.deleteOnExit();
+		phases.writeReport(file);
+		
+		StringBuilder json = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null)
+			json.append(line).append("\n");
+		reader.close();
+		
+		String str = json.toString();
+		assertTrue(str.startsWith("{"));
+		assertTrue(str.trim().endsWith("}"));
+		assertTrue(str.contains("\"phases\": ["));
+		assertTrue(str.contains("{\"name\": \"kernel step\", \"count\": 2,"));
+		assertTrue(str.contains("\"quote \\\"test\\\"\""));
+		assertFalse(str.contains("\"open\""));
+	}
+
+}